@@ -0,0 +1,22 @@
+package ru.fizteh.java2.vlmazlov.storage.api;
+
+/**
+ * Условие отбора записей для {@link Table#select(RowPredicate, int[])}.
+ *
+ * Строка передаётся в закодированном виде: колонка декодируется при первом обращении к ней,
+ * поэтому условию стоит обращаться только к тем колонкам, которые ему нужны.
+ * Изменять строку нельзя.
+ *
+ * Условие вызывается одновременно из нескольких потоков и должно быть потокобезопасным.
+ */
+public interface RowPredicate {
+
+    /**
+     * Проверяет, удовлетворяет ли запись условию.
+     *
+     * @param key Ключ записи.
+     * @param row Значение записи.
+     * @return true, если запись должна быть отобрана.
+     */
+    boolean matches(String key, Storeable row);
+}
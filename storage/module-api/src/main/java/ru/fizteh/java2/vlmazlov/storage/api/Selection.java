@@ -0,0 +1,40 @@
+package ru.fizteh.java2.vlmazlov.storage.api;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Результат {@link Table#select(RowPredicate, int[])}: отобранные записи, которые становятся доступны
+ * по мере того, как они найдены, и счётчики проделанной работы.
+ *
+ * Если обход прерван до конца, результат нужно закрыть, чтобы остановить чтение таблицы.
+ * Удаление через итератор не поддерживается.
+ */
+public interface Selection extends Iterator<Map.Entry<String, Storeable>>, AutoCloseable {
+
+    /**
+     * Возвращает количество просмотренных записей.
+     *
+     * @return Количество записей, проверенных условием к данному моменту.
+     */
+    long getRowsScanned();
+
+    /**
+     * Возвращает количество отобранных записей.
+     *
+     * @return Количество записей, удовлетворивших условию к данному моменту.
+     */
+    long getRowsMatched();
+
+    /**
+     * Возвращает объём прочитанных данных.
+     *
+     * @return Суммарный размер закодированных значений, прочитанных к данному моменту, в байтах.
+     */
+    long getBytesRead();
+
+    /**
+     * Прекращает отбор. Записи, ещё не полученные через итератор, теряются.
+     */
+    void close();
+}
@@ -1,6 +1,9 @@
 package ru.fizteh.java2.vlmazlov.storage.api;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Представляет интерфейс для работы с таблицей, содержащей ключи-значения. Ключи должны быть уникальными.
@@ -52,6 +55,92 @@ public interface Table {
      */
     Storeable remove(String key);
 
+    /**
+     * Получает значения по нескольким ключам сразу. Ключи, значения которых хранятся в одной части таблицы,
+     * ищутся вместе.
+     *
+     * @param keys Ключи для поиска значений. Не могут быть null.
+     * @return Найденные значения по ключам. Ключей, значения которых не найдены, в результате нет.
+     *
+     * @throws IllegalArgumentException Если keys или один из ключей является null.
+     */
+    Map<String, Storeable> getAll(Collection<String> keys);
+
+    /**
+     * Устанавливает значения по нескольким ключам сразу. Все ключи и значения проверяются до того,
+     * как будет изменена хотя бы одна запись.
+     *
+     * @param values Новые значения по ключам. Ни ключи, ни значения не могут быть null.
+     * @return Значения, которые были записаны по этим ключам ранее. Ключей, по которым значений не было,
+     * в результате нет.
+     *
+     * @throws IllegalArgumentException Если values, один из ключей или одно из значений является null.
+     * @throws ColumnFormatException - при попытке передать Storeable с колонками другого типа.
+     */
+    Map<String, Storeable> putAll(Map<String, Storeable> values) throws ColumnFormatException;
+
+    /**
+     * Удаляет значения по нескольким ключам сразу.
+     *
+     * @param keys Ключи удаляемых значений. Не могут быть null.
+     * @return Предыдущие значения по ключам. Ключей, значения которых не найдены, в результате нет.
+     *
+     * @throws IllegalArgumentException Если keys или один из ключей является null.
+     */
+    Map<String, Storeable> removeAll(Collection<String> keys);
+
+    /**
+     * Возвращает записи с ключами из диапазона [fromKey, toKey) в порядке возрастания ключей
+     * (в смысле {@link String#compareTo(String)}), с учётом незафиксированных изменений.
+     * Зафиксированные записи читаются по мере обхода, так что его можно прервать в любой момент;
+     * изменения, зафиксированные другими транзакциями во время обхода, могут быть как видны, так и не видны.
+     *
+     * @param fromKey Нижняя граница диапазона, включительно. Если null, диапазон не ограничен снизу.
+     * @param toKey Верхняя граница диапазона, не включительно. Если null, диапазон не ограничен сверху.
+     * @return Итератор по записям. Удаление через итератор не поддерживается.
+     */
+    Iterator<Map.Entry<String, Storeable>> scan(String fromKey, String toKey);
+
+    /**
+     * Возвращает записи, ключи которых начинаются с указанного префикса, в порядке возрастания ключей.
+     * Аналогичен {@link #scan(String, String)}.
+     *
+     * @param prefix Префикс ключей. Не может быть null.
+     * @return Итератор по записям. Удаление через итератор не поддерживается.
+     *
+     * @throws IllegalArgumentException Если значение параметра prefix является null.
+     */
+    Iterator<Map.Entry<String, Storeable>> scanPrefix(String prefix);
+
+    /**
+     * Отбирает записи, удовлетворяющие условию, и возвращает из них только указанные колонки,
+     * с учётом незафиксированных изменений. Части таблицы просматриваются параллельно, поэтому
+     * порядок записей в результате не определён. Из каждой записи декодируются только колонки,
+     * к которым обратилось условие, и возвращаемые колонки.
+     *
+     * @param predicate Условие отбора. Если null, отбираются все записи.
+     * @param projectedColumns Индексы возвращаемых колонок; в возвращаемых строках колонки нумеруются
+     *                         в порядке этого массива. Если null, возвращаются все колонки.
+     * @return Отобранные записи, доступные по мере их нахождения.
+     *
+     * @throws IndexOutOfBoundsException - неверный индекс колонки
+     */
+    Selection select(RowPredicate predicate, int[] projectedColumns);
+
+    /**
+     * Возвращает записи, у которых значение в указанной колонке равно value, с учётом незафиксированных изменений.
+     * Если по колонке построен индекс (см. {@link TableProvider#createIndex(String, int)}), читаются только
+     * подходящие записи, иначе просматривается вся таблица.
+     *
+     * @param columnIndex Индекс колонки. Начинается с нуля.
+     * @param value Искомое значение. Может быть null.
+     * @return Найденные записи, упорядоченные по ключу.
+     *
+     * @throws IndexOutOfBoundsException - неверный индекс колонки
+     * @throws ColumnFormatException - если тип value не соответствует типу колонки.
+     */
+    Map<String, Storeable> findByColumn(int columnIndex, Object value) throws ColumnFormatException;
+
     /**
      * Возвращает количество ключей в таблице. Возвращает размер текущей версии, с учётом незафиксированных изменений.
      *
@@ -65,6 +154,8 @@ public interface Table {
      * @return Число записанных изменений.
      *
      * @throws java.io.IOException если произошла ошибка ввода/вывода. Целостность таблицы не гарантируется.
+     * @throws TransactionConflictException если прочитанный или изменённый ключ был изменён другой транзакцией.
+     * Изменения при этом откатываются.
      */
     int commit() throws IOException;
 
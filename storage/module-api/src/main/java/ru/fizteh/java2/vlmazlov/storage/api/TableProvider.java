@@ -56,6 +56,33 @@ public interface TableProvider {
      */
     void removeTable(String name);
 
+    /**
+     * Создаёт индекс по колонке таблицы, используемый {@link Table#findByColumn(int, Object)}.
+     * Индекс хранится вместе с таблицей и обновляется при каждой фиксации изменений.
+     * Если индекс по этой колонке уже существует, ничего не делает.
+     *
+     * @param tableName Название таблицы.
+     * @param columnIndex Индекс колонки. Начинается с нуля.
+     *
+     * @throws IllegalArgumentException Если название таблицы null или имеет недопустимое значение.
+     * @throws IllegalStateException Если таблицы с указанным названием не существует.
+     * @throws IndexOutOfBoundsException - неверный индекс колонки
+     * @throws java.io.IOException При ошибках ввода/вывода.
+     */
+    void createIndex(String tableName, int columnIndex) throws IOException;
+
+    /**
+     * Удаляет индекс по колонке таблицы. Если индекса по этой колонке нет, ничего не делает.
+     *
+     * @param tableName Название таблицы.
+     * @param columnIndex Индекс колонки. Начинается с нуля.
+     *
+     * @throws IllegalArgumentException Если название таблицы null или имеет недопустимое значение.
+     * @throws IllegalStateException Если таблицы с указанным названием не существует.
+     * @throws IndexOutOfBoundsException - неверный индекс колонки
+     */
+    void removeIndex(String tableName, int columnIndex);
+
     /**
      * Преобразовывает строку в объект {@link Storeable}, соответствующий структуре таблицы.
      *
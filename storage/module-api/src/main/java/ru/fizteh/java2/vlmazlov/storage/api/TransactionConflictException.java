@@ -0,0 +1,32 @@
+package ru.fizteh.java2.vlmazlov.storage.api;
+
+/**
+ * Бросается методом {@link Table#commit()}, если ключ, прочитанный или изменённый в транзакции,
+ * был изменён другой транзакцией, зафиксированной после того, как к ключу обратились в этой.
+ *
+ * Изменения транзакции при этом откатываются; её можно повторить с начала.
+ */
+public class TransactionConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String key;
+
+    public TransactionConflictException(String key) {
+        this(key, "key " + key + " was changed by a concurrent transaction");
+    }
+
+    public TransactionConflictException(String key, String message) {
+        super(message);
+        this.key = key;
+    }
+
+    /**
+     * Возвращает ключ, на котором обнаружен конфликт.
+     *
+     * @return Ключ.
+     */
+    public String getKey() {
+        return key;
+    }
+}
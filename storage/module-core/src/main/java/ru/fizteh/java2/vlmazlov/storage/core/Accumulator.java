@@ -0,0 +1,176 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import ru.fizteh.java2.vlmazlov.storage.utils.TypeName;
+
+import java.nio.ByteBuffer;
+
+/*
+Partial aggregate of a column: count, sum, min and max at once, kept in primitives.
+Integral and boolean values go to the long fields, floating point ones to the double fields;
+only strings are kept as objects. Used by a single thread until merged.
+*/
+class Accumulator {
+    private final TypeName type;
+
+    private long count;
+
+    private long longSum;
+    private long longMin = Long.MAX_VALUE;
+    private long longMax = Long.MIN_VALUE;
+
+    private double doubleSum;
+    private double doubleMin = Double.POSITIVE_INFINITY;
+    private double doubleMax = Double.NEGATIVE_INFINITY;
+
+    private String stringMin;
+    private String stringMax;
+
+    Accumulator(TypeName type) {
+        this.type = type;
+    }
+
+    private boolean isIntegral() {
+        return (type == TypeName.INTEGER) || (type == TypeName.LONG) || (type == TypeName.BYTE)
+            || (type == TypeName.BOOLEAN);
+    }
+
+    void addLong(long value) {
+        ++count;
+        longSum += value;
+        longMin = Math.min(longMin, value);
+        longMax = Math.max(longMax, value);
+    }
+
+    void addDouble(double value) {
+        ++count;
+        doubleSum += value;
+        doubleMin = Math.min(doubleMin, value);
+        doubleMax = Math.max(doubleMax, value);
+    }
+
+    void addString(String value) {
+        ++count;
+        mergeStrings(value, value);
+    }
+
+    private void mergeStrings(String min, String max) {
+        if ((stringMin == null) || (min.compareTo(stringMin) < 0)) {
+            stringMin = min;
+        }
+
+        if ((stringMax == null) || (max.compareTo(stringMax) > 0)) {
+            stringMax = max;
+        }
+    }
+
+    //a fixed-width value of a binary row, read in place
+    void addEncoded(ByteBuffer row, int offset) {
+        switch (type) {
+            case INTEGER:
+                addLong(row.getInt(offset));
+                break;
+            case LONG:
+                addLong(row.getLong(offset));
+                break;
+            case BYTE:
+                addLong(row.get(offset));
+                break;
+            case BOOLEAN:
+                addLong(row.get(offset) != 0 ? 1 : 0);
+                break;
+            case FLOAT:
+                addDouble(row.getFloat(offset));
+                break;
+            case DOUBLE:
+                addDouble(row.getDouble(offset));
+                break;
+            default:
+                throw new IllegalStateException(type + " values aren't of fixed width");
+        }
+    }
+
+    //rows that aren't binary encoded, or are already decoded
+    void addValue(Object value) {
+        if (value == null) {
+            return;
+        }
+
+        switch (type) {
+            case BOOLEAN:
+                addLong((Boolean) value ? 1 : 0);
+                break;
+            case FLOAT:
+            case DOUBLE:
+                addDouble(((Number) value).doubleValue());
+                break;
+            case STRING:
+                addString((String) value);
+                break;
+            default:
+                addLong(((Number) value).longValue());
+                break;
+        }
+    }
+
+    void merge(Accumulator other) {
+        count += other.count;
+
+        longSum += other.longSum;
+        longMin = Math.min(longMin, other.longMin);
+        longMax = Math.max(longMax, other.longMax);
+
+        doubleSum += other.doubleSum;
+        doubleMin = Math.min(doubleMin, other.doubleMin);
+        doubleMax = Math.max(doubleMax, other.doubleMax);
+
+        if (other.stringMin != null) {
+            mergeStrings(other.stringMin, other.stringMax);
+        }
+    }
+
+    Object getResult(AggregateFunction function) {
+        if (function == AggregateFunction.COUNT) {
+            return count;
+        }
+
+        if (function == AggregateFunction.SUM) {
+            return isIntegral() ? (Object) longSum : (Object) doubleSum;
+        }
+
+        if (count == 0) {
+            return null;
+        }
+
+        switch (function) {
+            case AVG:
+                return (isIntegral() ? (double) longSum : doubleSum) / count;
+            case MIN:
+                return box(longMin, doubleMin, stringMin);
+            case MAX:
+                return box(longMax, doubleMax, stringMax);
+            default:
+                //never reached
+                return null;
+        }
+    }
+
+    //a value of the column type
+    private Object box(long longValue, double doubleValue, String stringValue) {
+        switch (type) {
+            case INTEGER:
+                return (int) longValue;
+            case LONG:
+                return longValue;
+            case BYTE:
+                return (byte) longValue;
+            case BOOLEAN:
+                return longValue != 0;
+            case FLOAT:
+                return (float) doubleValue;
+            case DOUBLE:
+                return doubleValue;
+            default:
+                return stringValue;
+        }
+    }
+}
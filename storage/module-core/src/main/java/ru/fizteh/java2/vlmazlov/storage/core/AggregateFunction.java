@@ -0,0 +1,46 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import ru.fizteh.java2.vlmazlov.storage.utils.TypeName;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public enum AggregateFunction {
+    //of the non-null values
+    COUNT("count"),
+    //Long for integral and boolean columns (true counting as 1), Double for floating point ones
+    SUM("sum"),
+    //of the column type, null if there are no values
+    MIN("min"),
+    MAX("max"),
+    //Double, null if there are no values
+    AVG("avg");
+
+    private final String name;
+    private static final Map<String, AggregateFunction> byName;
+
+    private AggregateFunction(String name) {
+        this.name = name;
+    }
+
+    static {
+        byName = new HashMap<String, AggregateFunction>();
+
+        for (AggregateFunction function : AggregateFunction.values()) {
+            byName.put(function.name, function);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static AggregateFunction getByName(String name) {
+        return byName.get(name);
+    }
+
+    //strings have an order, but no sum
+    public boolean isDefinedOn(TypeName type) {
+        return (type != TypeName.STRING) || (this == COUNT) || (this == MIN) || (this == MAX);
+    }
+}
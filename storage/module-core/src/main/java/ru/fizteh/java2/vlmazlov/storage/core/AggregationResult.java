@@ -0,0 +1,49 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import java.util.Collections;
+import java.util.Map;
+
+//values of an aggregate function by the value of the group column, rows having null there making the null group
+public class AggregationResult {
+    //the only group of an ungrouped aggregation, not to be taken for the null one
+    public static final Object WHOLE_TABLE = new Object() {
+        @Override
+        public String toString() {
+            return "whole table";
+        }
+    };
+
+    private final AggregateFunction function;
+    private final Map<Object, Object> groups;
+    private final long rowsScanned;
+    private final long bytesRead;
+
+    AggregationResult(AggregateFunction function, Map<Object, Object> groups, long rowsScanned, long bytesRead) {
+        this.function = function;
+        this.groups = Collections.unmodifiableMap(groups);
+        this.rowsScanned = rowsScanned;
+        this.bytesRead = bytesRead;
+    }
+
+    public AggregateFunction getFunction() {
+        return function;
+    }
+
+    //of an ungrouped aggregation
+    public Object getValue() {
+        return groups.get(WHOLE_TABLE);
+    }
+
+    public Map<Object, Object> getGroups() {
+        return groups;
+    }
+
+    public long getRowsScanned() {
+        return rowsScanned;
+    }
+
+    //encoded bytes of the persisted rows, the ones held in memory aren't counted
+    public long getBytesRead() {
+        return bytesRead;
+    }
+}
@@ -0,0 +1,110 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.generics.GenericTable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+Operations of a StoreableTable that may wait on the disk, run by the pool of an AsyncTableProvider.
+The transaction stays with the calling thread: the local changes are looked at by it before an operation is submitted,
+and commitAsync() hands them over to the thread of the pool, the calling thread starting a new transaction.
+A commit given up before it started loses its changes; one timed out while under way may still be applied.
+*/
+public class AsyncTable {
+    private final AsyncTableProvider provider;
+    private final StoreableTable table;
+
+    AsyncTable(AsyncTableProvider provider, StoreableTable table) {
+        this.provider = provider;
+        this.table = table;
+    }
+
+    public StoreableTable getTable() {
+        return table;
+    }
+
+    public CompletableFuture<Storeable> getAsync(String key) {
+        return getAsync(key, 0, TimeUnit.MILLISECONDS);
+    }
+
+    //keys changed locally are answered at once, without the pool
+    public CompletableFuture<Storeable> getAsync(final String key, long timeout, TimeUnit unit) {
+        table.checkClosed();
+
+        if (table.beginGet(key)) {
+            return CompletableFuture.completedFuture(table.getLocal(key));
+        }
+
+        return provider.submit(new Callable<Storeable>() {
+            public Storeable call() {
+                return table.getCommitedValue(key);
+            }
+        }, timeout, unit);
+    }
+
+    public CompletableFuture<Integer> commitAsync() {
+        return commitAsync(0, TimeUnit.MILLISECONDS);
+    }
+
+    public CompletableFuture<Integer> commitAsync(long timeout, TimeUnit unit) {
+        table.checkClosed();
+
+        final GenericTable.Transaction<Storeable> transaction = table.detachTransaction();
+
+        return provider.submit(new Callable<Integer>() {
+            public Integer call() throws IOException {
+                table.attachTransaction(transaction);
+
+                try {
+                    return table.commit();
+                } finally {
+                    //the changes of a failed commit mustn't stay with the thread for the next operation
+                    table.discardTransaction();
+                }
+            }
+        }, timeout, unit);
+    }
+
+    public CompletableFuture<List<Map.Entry<String, Storeable>>> scanAsync(String fromKey, String toKey, int limit) {
+        return scanAsync(fromKey, toKey, limit, 0, TimeUnit.MILLISECONDS);
+    }
+
+    //the first limit entries of table.scan(fromKey, toKey), the local changes being the ones made before the call
+    public CompletableFuture<List<Map.Entry<String, Storeable>>> scanAsync(final String fromKey, final String toKey,
+        final int limit, long timeout, TimeUnit unit) {
+        table.checkClosed();
+
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+
+        final GenericTable.Transaction<Storeable> transaction = table.copyTransaction();
+
+        return provider.submit(new Callable<List<Map.Entry<String, Storeable>>>() {
+            public List<Map.Entry<String, Storeable>> call() {
+                table.attachTransaction(transaction);
+
+                try {
+                    List<Map.Entry<String, Storeable>> entries = new ArrayList<Map.Entry<String, Storeable>>();
+                    Iterator<Map.Entry<String, Storeable>> scanned = table.scan(fromKey, toKey);
+
+                    while ((entries.size() < limit) && (scanned.hasNext())) {
+                        entries.add(scanned.next());
+                    }
+
+                    return entries;
+                } finally {
+                    table.discardTransaction();
+                }
+            }
+        }, timeout, unit);
+    }
+}
@@ -0,0 +1,181 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/*
+Runs the operations of a StoreableTableProvider and its tables that may wait on the disk
+on a bounded pool of its own, so that the calling threads get a CompletableFuture instead of blocking.
+Once the queue of the pool is full, operations fail with RejectedExecutionException.
+
+A future that is cancelled or times out drops its operation if it hasn't started yet.
+An operation under way runs to its end: interrupting it would close the file channels
+the other readers of the table share.
+*/
+public class AsyncTableProvider implements AutoCloseable {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1 << 10;
+
+    private final StoreableTableProvider provider;
+    private final ThreadPoolExecutor executor;
+    //completes the futures that time out
+    private final ScheduledExecutorService timer;
+
+    public AsyncTableProvider(StoreableTableProvider provider) {
+        this(provider, StoreableTableProvider.DEFAULT_IO_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public AsyncTableProvider(StoreableTableProvider provider, int threads, int queueCapacity) {
+        if (provider == null) {
+            throw new IllegalArgumentException("provider not specified");
+        }
+
+        this.provider = provider;
+
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                public Thread newThread(Runnable task) {
+                    Thread thread = new Thread(task, "storage-async-" + AsyncTableProvider.this.provider.getRoot());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "storage-async-timer-" + AsyncTableProvider.this.provider.getRoot());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public StoreableTableProvider getProvider() {
+        return provider;
+    }
+
+    //operations waiting for a thread of the pool
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    //operations being run
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public AsyncTable getAsyncTable(StoreableTable table) {
+        return new AsyncTable(this, table);
+    }
+
+    public CompletableFuture<AsyncTable> getTableAsync(String name) {
+        return getTableAsync(name, 0, TimeUnit.MILLISECONDS);
+    }
+
+    //tables of a lazily loading provider are read from the disk the first time they are asked for
+    public CompletableFuture<AsyncTable> getTableAsync(final String name, long timeout, TimeUnit unit) {
+        return submit(new Callable<AsyncTable>() {
+            public AsyncTable call() {
+                StoreableTable table = provider.getTable(name);
+                return table == null ? null : getAsyncTable(table);
+            }
+        }, timeout, unit);
+    }
+
+    public CompletableFuture<AsyncTable> createTableAsync(String name, List<Class<?>> columnTypes) {
+        return createTableAsync(name, columnTypes, 0, TimeUnit.MILLISECONDS);
+    }
+
+    public CompletableFuture<AsyncTable> createTableAsync(final String name, final List<Class<?>> columnTypes,
+        long timeout, TimeUnit unit) {
+        return submit(new Callable<AsyncTable>() {
+            public AsyncTable call() throws IOException {
+                StoreableTable table = provider.createTable(name, columnTypes);
+                return table == null ? null : getAsyncTable(table);
+            }
+        }, timeout, unit);
+    }
+
+    public CompletableFuture<Void> removeTableAsync(String name) {
+        return removeTableAsync(name, 0, TimeUnit.MILLISECONDS);
+    }
+
+    public CompletableFuture<Void> removeTableAsync(final String name, long timeout, TimeUnit unit) {
+        return submit(new Callable<Void>() {
+            public Void call() {
+                provider.removeTable(name);
+                return null;
+            }
+        }, timeout, unit);
+    }
+
+    //a timeout of 0 means none
+    <T> CompletableFuture<T> submit(final Callable<T> operation, long timeout, TimeUnit unit) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        final Future<?> task;
+
+        try {
+            task = executor.submit(new Runnable() {
+                public void run() {
+                    //cancelled or timed out while queued
+                    if (result.isDone()) {
+                        return;
+                    }
+
+                    try {
+                        result.complete(operation.call());
+                    } catch (Exception ex) {
+                        result.completeExceptionally(ex);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            result.completeExceptionally(ex);
+            return result;
+        }
+
+        if (timeout > 0) {
+            final ScheduledFuture<?> expiry = timer.schedule(new Runnable() {
+                public void run() {
+                    result.completeExceptionally(new TimeoutException("operation took longer than "
+                        + timeout + " " + unit));
+                }
+            }, timeout, unit);
+
+            result.whenComplete(new BiConsumer<T, Throwable>() {
+                public void accept(T value, Throwable failure) {
+                    expiry.cancel(false);
+                }
+            });
+        }
+
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            public void accept(T value, Throwable failure) {
+                //frees the place in the queue of an operation given up before it started
+                if ((failure != null) && (task.cancel(false))) {
+                    executor.remove((Runnable) task);
+                }
+            }
+        });
+
+        return result;
+    }
+
+    public void close() {
+        executor.shutdown();
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,83 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import ru.fizteh.java2.vlmazlov.storage.api.ColumnFormatException;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableCodec;
+
+import java.text.ParseException;
+
+/*
+A read-only row of a selection: every column is decoded on its own the first time it is asked for,
+so a predicate looking at a single column doesn't pay for the rest. Used by a single thread.
+*/
+class ColumnarRow implements Storeable {
+    private final StoreableCodec codec;
+    private final byte[] encoded;
+    private final TableRow columns;
+    private final boolean[] decoded;
+
+    ColumnarRow(StoreableCodec codec, byte[] encoded) {
+        this.codec = codec;
+        this.encoded = encoded;
+        columns = new TableRow(codec.getSchema());
+        decoded = new boolean[codec.getSchema().getColumnsCount()];
+    }
+
+    private TableRow decode(int columnIndex) {
+        if (!decoded[columnIndex]) {
+            try {
+                columns.setColumnAt(columnIndex, codec.decodeColumn(encoded, columnIndex));
+            } catch (ParseException ex) {
+                throw new RuntimeException("Unable to decode value: " + ex.getMessage());
+            }
+
+            decoded[columnIndex] = true;
+        }
+
+        return columns;
+    }
+
+    public void setColumnAt(int columnIndex, Object value) throws ColumnFormatException, IndexOutOfBoundsException {
+        throw new UnsupportedOperationException("selected rows are read-only");
+    }
+
+    public Object getColumnAt(int columnIndex) throws IndexOutOfBoundsException {
+        return decode(columnIndex).getColumnAt(columnIndex);
+    }
+
+    public Integer getIntAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return decode(columnIndex).getIntAt(columnIndex);
+    }
+
+    public Long getLongAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return decode(columnIndex).getLongAt(columnIndex);
+    }
+
+    public Byte getByteAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return decode(columnIndex).getByteAt(columnIndex);
+    }
+
+    public Float getFloatAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return decode(columnIndex).getFloatAt(columnIndex);
+    }
+
+    public Double getDoubleAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return decode(columnIndex).getDoubleAt(columnIndex);
+    }
+
+    public Boolean getBooleanAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return decode(columnIndex).getBooleanAt(columnIndex);
+    }
+
+    public String getStringAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return decode(columnIndex).getStringAt(columnIndex);
+    }
+
+    public String toString() {
+        for (int i = 0; i < decoded.length; ++i) {
+            decode(i);
+        }
+
+        return columns.toString();
+    }
+}
@@ -0,0 +1,99 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import ru.fizteh.java2.vlmazlov.storage.api.ColumnFormatException;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableCodec;
+
+import java.text.ParseException;
+
+/*
+A commited row as it was read from a shard: only the encoded bytes are held until a column is asked for.
+With keepDecoded the decoded row replaces the bytes afterwards, otherwise every access decodes anew.
+*/
+public class LazyTableRow implements Storeable {
+    private final StoreableCodec codec;
+    private final boolean keepDecoded;
+    private byte[] encoded;
+    private Storeable decoded;
+
+    public LazyTableRow(StoreableCodec codec, byte[] encoded, boolean keepDecoded) {
+        if ((codec == null) || (encoded == null)) {
+            throw new IllegalArgumentException("Codec and value must be specified");
+        }
+
+        this.codec = codec;
+        this.encoded = encoded;
+        this.keepDecoded = keepDecoded;
+    }
+
+    public synchronized boolean isDecoded() {
+        return decoded != null;
+    }
+
+    //null once the decoded row has been kept instead
+    public synchronized byte[] getEncoded() {
+        return encoded;
+    }
+
+    private synchronized Storeable materialize(boolean keep) {
+        if (decoded != null) {
+            return decoded;
+        }
+
+        Storeable row;
+
+        try {
+            row = codec.decode(encoded);
+        } catch (ParseException ex) {
+            throw new RuntimeException("Unable to decode value: " + ex.getMessage());
+        }
+
+        if (keep) {
+            decoded = row;
+            encoded = null;
+        }
+
+        return row;
+    }
+
+    public void setColumnAt(int columnIndex, Object value) throws ColumnFormatException, IndexOutOfBoundsException {
+        //a change made to a throwaway copy would be lost
+        materialize(true).setColumnAt(columnIndex, value);
+    }
+
+    public Object getColumnAt(int columnIndex) throws IndexOutOfBoundsException {
+        return materialize(keepDecoded).getColumnAt(columnIndex);
+    }
+
+    public Integer getIntAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return materialize(keepDecoded).getIntAt(columnIndex);
+    }
+
+    public Long getLongAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return materialize(keepDecoded).getLongAt(columnIndex);
+    }
+
+    public Byte getByteAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return materialize(keepDecoded).getByteAt(columnIndex);
+    }
+
+    public Float getFloatAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return materialize(keepDecoded).getFloatAt(columnIndex);
+    }
+
+    public Double getDoubleAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return materialize(keepDecoded).getDoubleAt(columnIndex);
+    }
+
+    public Boolean getBooleanAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return materialize(keepDecoded).getBooleanAt(columnIndex);
+    }
+
+    public String getStringAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return materialize(keepDecoded).getStringAt(columnIndex);
+    }
+
+    public String toString() {
+        return materialize(keepDecoded).toString();
+    }
+}
@@ -0,0 +1,224 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.BinaryStoreableCodec;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableCodec;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.TypeName;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/*
+An aggregate of a column of a StoreableTable, every shard aggregated by a task of its own on a ForkJoinPool
+into accumulators of its own, which are merged once all the tasks are done.
+Values of binary rows are read in place, without decoding the row; only group values and strings are decoded.
+The rows changed since they were persisted are given as the overlay, like to ParallelSelection.
+If the table is resharded meanwhile, the aggregation starts anew.
+*/
+class ParallelAggregation {
+
+    private static class Partial {
+        private final Map<Object, Accumulator> groups = new HashMap<Object, Accumulator>();
+        private long rowsScanned;
+        private long bytesRead;
+    }
+
+    private final StoreableTable table;
+    private final StoreableCodec codec;
+    //null if the rows can't be read in place
+    private final BinaryStoreableCodec binary;
+    private final int columnIndex;
+    private final TypeName columnType;
+    //-1 if ungrouped
+    private final int groupColumnIndex;
+    private final Map<String, Storeable> overlay;
+    private final int batchSize;
+
+    ParallelAggregation(StoreableTable table, int columnIndex, int groupColumnIndex,
+        Map<String, Storeable> overlay, int batchSize) {
+        this.table = table;
+        this.columnIndex = columnIndex;
+        this.groupColumnIndex = groupColumnIndex;
+        this.overlay = overlay;
+        this.batchSize = batchSize;
+
+        codec = table.getCodec();
+        binary = codec instanceof BinaryStoreableCodec ? (BinaryStoreableCodec) codec : null;
+        columnType = TypeName.getByClass(table.getColumnType(columnIndex));
+    }
+
+    AggregationResult run(AggregateFunction function, ForkJoinPool pool) {
+        while (true) {
+            final ShardLayout layout = table.getShardLayout();
+            List<Callable<Partial>> tasks = new ArrayList<Callable<Partial>>();
+
+            for (int i = 0; i < table.getStorageEngine().getShardsCount(); ++i) {
+                final int shardNum = i;
+
+                tasks.add(new Callable<Partial>() {
+                    public Partial call() {
+                        return aggregateShard(layout, shardNum);
+                    }
+                });
+            }
+
+            tasks.add(new Callable<Partial>() {
+                public Partial call() {
+                    return aggregateOverlay();
+                }
+            });
+
+            Partial total = new Partial();
+
+            //an ungrouped aggregate has a value even if there are no rows
+            if (groupColumnIndex < 0) {
+                total.groups.put(AggregationResult.WHOLE_TABLE, new Accumulator(columnType));
+            }
+
+            boolean resharded = false;
+
+            for (Future<Partial> done : pool.invokeAll(tasks)) {
+                Partial partial = getPartial(done);
+
+                if (partial == null) {
+                    resharded = true;
+                } else if (!resharded) {
+                    merge(total, partial);
+                }
+            }
+
+            if (resharded) {
+                continue;
+            }
+
+            Map<Object, Object> results = new HashMap<Object, Object>();
+
+            for (Map.Entry<Object, Accumulator> group : total.groups.entrySet()) {
+                results.put(group.getKey(), group.getValue().getResult(function));
+            }
+
+            return new AggregationResult(function, results, total.rowsScanned, total.bytesRead);
+        }
+    }
+
+    private static Partial getPartial(Future<Partial> done) {
+        try {
+            return done.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+
+            throw new RuntimeException(ex.getCause().getMessage(), ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while aggregating");
+        }
+    }
+
+    private static void merge(Partial total, Partial partial) {
+        total.rowsScanned += partial.rowsScanned;
+        total.bytesRead += partial.bytesRead;
+
+        for (Map.Entry<Object, Accumulator> group : partial.groups.entrySet()) {
+            Accumulator accumulator = total.groups.get(group.getKey());
+
+            if (accumulator == null) {
+                total.groups.put(group.getKey(), group.getValue());
+            } else {
+                accumulator.merge(group.getValue());
+            }
+        }
+    }
+
+    private static Accumulator getAccumulator(Partial partial, Object group, TypeName type) {
+        Accumulator accumulator = partial.groups.get(group);
+
+        if (accumulator == null) {
+            accumulator = new Accumulator(type);
+            partial.groups.put(group, accumulator);
+        }
+
+        return accumulator;
+    }
+
+    //null if the table has been resharded since the aggregation started
+    private Partial aggregateShard(ShardLayout layout, int shardNum) {
+        Partial partial = new Partial();
+        String fromKey = null;
+
+        while (true) {
+            SortedMap<String, byte[]> batch = table.readShardRange(layout, shardNum, fromKey, null, batchSize);
+
+            if (batch == null) {
+                return null;
+            }
+
+            for (Map.Entry<String, byte[]> entry : batch.entrySet()) {
+                if (overlay.containsKey(entry.getKey())) {
+                    continue;
+                }
+
+                ++partial.rowsScanned;
+                partial.bytesRead += entry.getValue().length;
+
+                try {
+                    accumulate(partial, entry.getValue());
+                } catch (ParseException ex) {
+                    throw new RuntimeException("Unable to decode value of " + entry.getKey() + ": " + ex.getMessage());
+                }
+            }
+
+            if (batch.size() < batchSize) {
+                return partial;
+            }
+
+            fromKey = batch.lastKey() + '\0';
+        }
+    }
+
+    private void accumulate(Partial partial, byte[] encoded) throws ParseException {
+        Object group = groupColumnIndex < 0 ? AggregationResult.WHOLE_TABLE
+            : codec.decodeColumn(encoded, groupColumnIndex);
+        Accumulator accumulator = getAccumulator(partial, group, columnType);
+
+        if ((binary == null) || (columnType == TypeName.STRING)) {
+            accumulator.addValue(codec.decodeColumn(encoded, columnIndex));
+            return;
+        }
+
+        int offset = binary.getColumnOffset(encoded, columnIndex);
+
+        if (offset >= 0) {
+            accumulator.addEncoded(ByteBuffer.wrap(encoded), offset);
+        }
+    }
+
+    private Partial aggregateOverlay() {
+        Partial partial = new Partial();
+
+        for (Storeable row : overlay.values()) {
+            if (row == null) {
+                continue;
+            }
+
+            ++partial.rowsScanned;
+
+            Object group = groupColumnIndex < 0 ? AggregationResult.WHOLE_TABLE
+                : row.getColumnAt(groupColumnIndex);
+            getAccumulator(partial, group, columnType).addValue(row.getColumnAt(columnIndex));
+        }
+
+        return partial;
+    }
+}
@@ -0,0 +1,239 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import ru.fizteh.java2.vlmazlov.storage.api.RowPredicate;
+import ru.fizteh.java2.vlmazlov.storage.api.Selection;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+Rows of a StoreableTable matching a predicate, every shard scanned by a task of its own on a ForkJoinPool.
+The tasks hand the projected rows over through a bounded queue, so they wait for a slow reader
+instead of piling the whole result up. The rows changed since they were persisted (commited but pinned,
+or changed locally) are given as the overlay; they are skipped in the shards and checked by a task of their own.
+*/
+class ParallelSelection implements Selection {
+
+    private static final int QUEUE_CAPACITY = 1 << 10;
+    //how often a task waiting on the full queue checks whether the selection is closed
+    private static final long OFFER_TIMEOUT = 100;
+    //put by every task once it is done
+    private static final Object DONE = new Object();
+
+    private final StoreableTable table;
+    private final ShardLayout layout;
+    private final RowPredicate predicate;
+    private final int[] projectedColumns;
+    private final RowSchema projectedSchema;
+    private final Map<String, Storeable> overlay;
+    private final int batchSize;
+
+    private final BlockingQueue<Object> results;
+    private final AtomicLong rowsScanned = new AtomicLong();
+    private final AtomicLong rowsMatched = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private volatile boolean closed;
+
+    //tasks not done yet, as seen by the reader
+    private int running;
+    private Map.Entry<String, Storeable> next;
+
+    ParallelSelection(StoreableTable table, RowPredicate predicate, int[] projectedColumns,
+        Map<String, Storeable> overlay, int batchSize, ForkJoinPool pool) {
+        this.table = table;
+        this.predicate = predicate;
+        this.projectedColumns = projectedColumns;
+        this.overlay = overlay;
+        this.batchSize = batchSize;
+
+        List<Class<?>> projectedTypes = new ArrayList<Class<?>>(projectedColumns.length);
+
+        for (int column : projectedColumns) {
+            projectedTypes.add(table.getColumnType(column));
+        }
+
+        projectedSchema = new RowSchema(projectedTypes);
+
+        layout = table.getShardLayout();
+        results = new ArrayBlockingQueue<Object>(QUEUE_CAPACITY);
+
+        int shardsCount = table.getStorageEngine().getShardsCount();
+        running = shardsCount + 1;
+
+        for (int i = 0; i < shardsCount; ++i) {
+            final int shardNum = i;
+
+            pool.execute(new Runnable() {
+                public void run() {
+                    try {
+                        scanShard(shardNum);
+                    } catch (RuntimeException ex) {
+                        hand(ex);
+                    } finally {
+                        hand(DONE);
+                    }
+                }
+            });
+        }
+
+        pool.execute(new Runnable() {
+            public void run() {
+                try {
+                    scanOverlay();
+                } catch (RuntimeException ex) {
+                    hand(ex);
+                } finally {
+                    hand(DONE);
+                }
+            }
+        });
+    }
+
+    private void scanShard(int shardNum) {
+        String fromKey = null;
+
+        while (!closed) {
+            SortedMap<String, byte[]> batch = table.readShardRange(layout, shardNum, fromKey, null, batchSize);
+
+            //the rows handed over can't be taken back, so the selection can't start anew
+            if (batch == null) {
+                throw new ConcurrentModificationException("table " + table.getName() + " was resharded");
+            }
+
+            for (Map.Entry<String, byte[]> entry : batch.entrySet()) {
+                if (overlay.containsKey(entry.getKey())) {
+                    continue;
+                }
+
+                bytesRead.addAndGet(entry.getValue().length);
+                check(entry.getKey(), new ColumnarRow(table.getCodec(), entry.getValue()));
+            }
+
+            if (batch.size() < batchSize) {
+                return;
+            }
+
+            fromKey = batch.lastKey() + '\0';
+        }
+    }
+
+    private void scanOverlay() {
+        for (Map.Entry<String, Storeable> entry : overlay.entrySet()) {
+            if (closed) {
+                return;
+            }
+
+            if (entry.getValue() != null) {
+                check(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void check(String key, Storeable row) {
+        rowsScanned.incrementAndGet();
+
+        if ((predicate != null) && (!predicate.matches(key, row))) {
+            return;
+        }
+
+        rowsMatched.incrementAndGet();
+
+        TableRow projected = new TableRow(projectedSchema);
+
+        for (int i = 0; i < projectedColumns.length; ++i) {
+            projected.setColumnAt(i, row.getColumnAt(projectedColumns[i]));
+        }
+
+        hand(new AbstractMap.SimpleImmutableEntry<String, Storeable>(key, projected));
+    }
+
+    //dropped once the selection is closed, nobody is going to take it
+    private void hand(Object result) {
+        try {
+            while (!closed) {
+                if (results.offer(result, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //besides DONE and the exceptions, only the rows built by check() are handed over
+    @SuppressWarnings("unchecked")
+    private static Map.Entry<String, Storeable> asRow(Object result) {
+        return (Map.Entry<String, Storeable>) result;
+    }
+
+    public boolean hasNext() {
+        while ((next == null) && (running > 0)) {
+            Object result;
+
+            try {
+                result = results.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for selected rows");
+            }
+
+            if (result == DONE) {
+                --running;
+            } else if (result instanceof RuntimeException) {
+                close();
+                throw (RuntimeException) result;
+            } else {
+                next = asRow(result);
+            }
+        }
+
+        return next != null;
+    }
+
+    public Map.Entry<String, Storeable> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        Map.Entry<String, Storeable> entry = next;
+        next = null;
+
+        return entry;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("selected entries are changed through the table");
+    }
+
+    public long getRowsScanned() {
+        return rowsScanned.get();
+    }
+
+    public long getRowsMatched() {
+        return rowsMatched.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public void close() {
+        closed = true;
+        running = 0;
+        next = null;
+        //the tasks waiting on the full queue give up within OFFER_TIMEOUT
+        results.clear();
+    }
+}
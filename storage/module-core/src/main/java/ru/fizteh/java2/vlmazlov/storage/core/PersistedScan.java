@@ -0,0 +1,132 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+
+/*
+Persisted entries of a StoreableTable in ascending key order: the shards are merged,
+each of them read a batch of keys at a time, so no more than a batch per shard is held in memory.
+Once the table is resharded, the shards are read anew from the key the iteration stopped at.
+*/
+class PersistedScan implements Iterator<Map.Entry<String, Storeable>> {
+
+    private static class Cursor {
+        private final int shardNum;
+        private SortedMap<String, byte[]> batch;
+        //the last batch read was not a full one
+        private boolean exhausted;
+
+        private Cursor(int shardNum) {
+            this.shardNum = shardNum;
+        }
+    }
+
+    private final StoreableTable table;
+    private final String toKey;
+    private final int batchSize;
+    private final PriorityQueue<Cursor> heads;
+    private ShardLayout layout;
+    private Map.Entry<String, Storeable> next;
+
+    PersistedScan(StoreableTable table, String fromKey, String toKey, int batchSize) {
+        this.table = table;
+        this.toKey = toKey;
+        this.batchSize = batchSize;
+
+        heads = new PriorityQueue<Cursor>(16, new Comparator<Cursor>() {
+            public int compare(Cursor first, Cursor second) {
+                return first.batch.firstKey().compareTo(second.batch.firstKey());
+            }
+        });
+
+        start(fromKey);
+        next = advance();
+    }
+
+    //the least string greater than the key
+    private static String successor(String key) {
+        return key + '\0';
+    }
+
+    private void start(String fromKey) {
+        while (true) {
+            layout = table.getShardLayout();
+            heads.clear();
+
+            boolean started = true;
+
+            for (int i = 0; (started) && (i < table.getStorageEngine().getShardsCount()); ++i) {
+                started = fill(new Cursor(i), fromKey);
+            }
+
+            if (started) {
+                return;
+            }
+        }
+    }
+
+    //false if the table has been resharded since the scan started
+    private boolean fill(Cursor cursor, String fromKey) {
+        SortedMap<String, byte[]> batch = table.readShardRange(layout, cursor.shardNum, fromKey, toKey, batchSize);
+
+        if (batch == null) {
+            return false;
+        }
+
+        cursor.batch = batch;
+        cursor.exhausted = batch.size() < batchSize;
+
+        if (!batch.isEmpty()) {
+            heads.add(cursor);
+        }
+
+        return true;
+    }
+
+    private Map.Entry<String, Storeable> advance() {
+        while (!heads.isEmpty()) {
+            Cursor cursor = heads.poll();
+            String key = cursor.batch.firstKey();
+            byte[] value = cursor.batch.remove(key);
+
+            if (!cursor.batch.isEmpty()) {
+                heads.add(cursor);
+            } else if ((!cursor.exhausted) && (!fill(cursor, successor(key)))) {
+                //the key may have moved to a shard that is past it by now
+                start(key);
+                continue;
+            }
+
+            return new AbstractMap.SimpleImmutableEntry<String, Storeable>(key, table.decode(value));
+        }
+
+        return null;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    public Map.Entry<String, Storeable> next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+
+        Map.Entry<String, Storeable> entry = next;
+        next = advance();
+
+        return entry;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("scanned entries are changed through the table");
+    }
+}
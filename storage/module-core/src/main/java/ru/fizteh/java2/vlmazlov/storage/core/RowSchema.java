@@ -0,0 +1,77 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import ru.fizteh.java2.vlmazlov.storage.utils.TypeName;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+Column types of a table compiled into the layout of its TableRows: every column of a primitive type
+gets a slot in the long array of the row, every other one a slot in the array of references.
+Immutable, so the rows of a table share a single instance.
+*/
+public final class RowSchema {
+    private final List<Class<?>> valueTypes;
+    //null for a column held by reference
+    private final TypeName[] primitives;
+    private final int[] slots;
+    private final int primitivesCount;
+    private final int referencesCount;
+
+    public RowSchema(List<Class<?>> valueTypes) {
+        if (valueTypes == null) {
+            throw new IllegalArgumentException("value types not specified");
+        }
+
+        this.valueTypes = Collections.unmodifiableList(new ArrayList<Class<?>>(valueTypes));
+
+        primitives = new TypeName[valueTypes.size()];
+        slots = new int[valueTypes.size()];
+
+        int primitivesCount = 0;
+        int referencesCount = 0;
+
+        for (int i = 0; i < slots.length; ++i) {
+            TypeName type = TypeName.getByClass(valueTypes.get(i));
+
+            if ((type == null) || (type == TypeName.STRING)) {
+                slots[i] = referencesCount++;
+            } else {
+                primitives[i] = type;
+                slots[i] = primitivesCount++;
+            }
+        }
+
+        this.primitivesCount = primitivesCount;
+        this.referencesCount = referencesCount;
+    }
+
+    public List<Class<?>> getValueTypes() {
+        return valueTypes;
+    }
+
+    public int getColumnsCount() {
+        return slots.length;
+    }
+
+    public Class<?> getColumnType(int columnIndex) {
+        return valueTypes.get(columnIndex);
+    }
+
+    TypeName getPrimitive(int columnIndex) {
+        return primitives[columnIndex];
+    }
+
+    int getSlot(int columnIndex) {
+        return slots[columnIndex];
+    }
+
+    int getPrimitivesCount() {
+        return primitivesCount;
+    }
+
+    int getReferencesCount() {
+        return referencesCount;
+    }
+}
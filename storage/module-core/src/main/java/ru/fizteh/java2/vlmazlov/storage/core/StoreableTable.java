@@ -1,123 +1,326 @@
 package ru.fizteh.java2.vlmazlov.storage.core;
 
 import ru.fizteh.java2.vlmazlov.storage.api.ColumnFormatException;
+import ru.fizteh.java2.vlmazlov.storage.api.RowPredicate;
+import ru.fizteh.java2.vlmazlov.storage.api.Selection;
 import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
 import ru.fizteh.java2.vlmazlov.storage.api.Table;
+import ru.fizteh.java2.vlmazlov.storage.core.generics.CommitedCache;
 import ru.fizteh.java2.vlmazlov.storage.core.generics.GenericTable;
+import ru.fizteh.java2.vlmazlov.storage.core.generics.NegativeCache;
+import ru.fizteh.java2.vlmazlov.storage.core.generics.TableSnapshot;
+import ru.fizteh.java2.vlmazlov.storage.core.io.ColumnIndex;
+import ru.fizteh.java2.vlmazlov.storage.core.io.ShardFormat;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableCodec;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableFormat;
 import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableTableFileManager;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StorageEngine;
+import ru.fizteh.java2.vlmazlov.storage.core.io.Durability;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StorageEngineType;
+import ru.fizteh.java2.vlmazlov.storage.core.io.WriteAheadLog;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.TypeName;
 import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
 import ru.fizteh.java2.vlmazlov.storage.utils.ValidityChecker;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class StoreableTable extends GenericTable<Storeable> implements Table, Cloneable, AutoCloseable {
 
+    //commited rows kept in memory per table; the rest are loaded from the shards on demand
+    public static final int DEFAULT_CACHE_CAPACITY = 1 << 16;
+    //keys remembered absent, for the shards the engine doesn't keep indexed
+    public static final int DEFAULT_NEGATIVE_CACHE_CAPACITY = 1 << 14;
+    //keys a scan reads from a shard at once
+    public static final int SCAN_BATCH_SIZE = 64;
+
     private StoreableTableProvider specificProvider;
     private boolean isClosed;
     private final List<Class<?>> valueTypes;
+    private final StoreableCodec codec;
+    //replaced only by reshard(), with all the stripes locked
+    private volatile ShardLayout shardLayout;
+    //of the shards written from now on, the ones already written are read whatever their format
+    private final ShardFormat shardFormat;
+    private final StorageEngine engine;
+    private final NegativeCache absent;
+    //by column; created and removed with all the stripes locked, updated by the commits
+    private final ConcurrentMap<Integer, ColumnIndex> indexes;
+    //whether rows loaded from the shards keep their decoded form after the first access
+    private volatile boolean keepDecoded;
+
+    //logged by the provider but not yet written to the engine;
+    //filled by commits of different stripes at once, stored with all the stripes locked.
+    //The rows are kept pinned in the cache until then
+    private final Map<String, Storeable> pendingChanged;
+    private final Set<String> pendingDeleted;
+    //size and signature files are shared by the stripes
+    private final Object metadataLock = new Object();
+    private final ThreadLocal<Long> commitSequenceNumber = new ThreadLocal<Long>();
 
     public StoreableTable(StoreableTableProvider provider, 
         String name, List<Class<?>> valueTypes) 
     throws ValidityCheckFailedException, IOException {
         
-        super(provider, name, false);
-
-        if (valueTypes == null) {
-            throw new IllegalArgumentException("Value types not specified");
-        }
-
-        specificProvider = provider;
-        ///questionable
-        this.valueTypes = Collections.unmodifiableList(new ArrayList<Class<?>>(valueTypes));
-        isClosed = false;
-
-        setInitialSize(provider, name);
+        this(provider, name, false, valueTypes);
     }
 
     public StoreableTable(StoreableTableProvider provider, 
         String name, boolean autoCommit, List<Class<?>> valueTypes) 
     throws ValidityCheckFailedException, IOException {
         
-        super(provider, name, autoCommit);
+        this(provider, name, autoCommit, valueTypes, StoreableFormat.XML);
+    }
+
+    public StoreableTable(StoreableTableProvider provider,
+        String name, boolean autoCommit, List<Class<?>> valueTypes, StoreableFormat format)
+    throws ValidityCheckFailedException, IOException {
+
+        this(provider, name, autoCommit, valueTypes, format, ShardLayout.LEGACY);
+    }
+
+    public StoreableTable(StoreableTableProvider provider, String name, boolean autoCommit,
+        List<Class<?>> valueTypes, StoreableFormat format, ShardLayout shardLayout)
+    throws ValidityCheckFailedException, IOException {
+
+        this(provider, name, autoCommit, valueTypes, format, shardLayout, StorageEngineType.SHARDED);
+    }
+
+    public StoreableTable(StoreableTableProvider provider, String name, boolean autoCommit,
+        List<Class<?>> valueTypes, StoreableFormat format, ShardLayout shardLayout, StorageEngineType engineType)
+    throws ValidityCheckFailedException, IOException {
+
+        this(provider, name, autoCommit, valueTypes, format, shardLayout, engineType, ShardFormat.HEADER);
+    }
+
+    public StoreableTable(StoreableTableProvider provider, String name, boolean autoCommit,
+        List<Class<?>> valueTypes, StoreableFormat format, ShardLayout shardLayout, StorageEngineType engineType,
+        ShardFormat shardFormat)
+    throws ValidityCheckFailedException, IOException {
+
+        super(provider, name, autoCommit, DEFAULT_CACHE_CAPACITY);
 
         if (valueTypes == null) {
             throw new IllegalArgumentException("Value types not specified");
         }
 
+        if (format == null) {
+            throw new IllegalArgumentException("Storage format not specified");
+        }
+
+        if (shardLayout == null) {
+            throw new IllegalArgumentException("Shard layout not specified");
+        }
+
+        if (engineType == null) {
+            throw new IllegalArgumentException("Storage engine not specified");
+        }
+
+        if (shardFormat == null) {
+            throw new IllegalArgumentException("Shard format not specified");
+        }
+
         specificProvider = provider;
+        ///questionable
         this.valueTypes = Collections.unmodifiableList(new ArrayList<Class<?>>(valueTypes));
+        codec = format.createCodec(this.valueTypes);
+        this.shardLayout = shardLayout;
+        this.shardFormat = shardFormat;
+        keepDecoded = true;
+        pendingChanged = new ConcurrentHashMap<String, Storeable>();
+        pendingDeleted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
         isClosed = false;
+        absent = new NegativeCache(DEFAULT_NEGATIVE_CACHE_CAPACITY);
+        engine = engineType.open(this, provider);
+        indexes = new ConcurrentHashMap<Integer, ColumnIndex>();
 
         setInitialSize(provider, name);
+        loadIndexes();
+    }
+
+    private File getTableDir() {
+        return new File(specificProvider.getRoot(), getName());
+    }
+
+    private void loadIndexes() throws ValidityCheckFailedException, IOException {
+        for (int column : ColumnIndex.listColumns(getTableDir(), valueTypes.size())) {
+            ColumnIndex index;
+
+            try {
+                index = ColumnIndex.open(getTableDir(), column, valueTypes.get(column));
+            } catch (ValidityCheckFailedException ex) {
+                //damaged, e.g. by a crash amid a commit; the rows are what the index is built of anyway
+                index = ColumnIndex.build(getTableDir(), column, valueTypes.get(column),
+                    scanCommited(null, null), specificProvider.getDurability());
+            }
+
+            indexes.put(column, index);
+        }
     }
 
     private void setInitialSize(StoreableTableProvider provider, String name)
     throws ValidityCheckFailedException, IOException {
-        getCommitLock.writeLock().lock();
+        commitedSize.set(engine.loadSize());
+    }
+
+    //a stripe per shard, so that commits of different shards don't wait for each other
+    @Override
+    protected int getStripe(String key) {
+        return shardLayout.getShardNum(key) % stripes.getStripesCount();
+    }
+
+    //MUST be under the stripe lock of the key
+    private Storeable loadKey(String key) 
+    throws IOException, ValidityCheckFailedException {
+        checkClosed();
+
+        //the value stays encoded until one of its columns is asked for
+        byte[] serialized = engine.read(key);
+
+        if (serialized == null) {
+            return null;
+        }
+
+        Storeable value = new LazyTableRow(codec, serialized, keepDecoded);
+
+        //the cache is synchronized itself; the stripe lock held keeps commits from replacing the shard meanwhile
+        commited.put(key, value);
+
+        return value;
+    }
+
+    //MUST be under the stripe lock of the key
+    @Override
+    protected Storeable getCommited(String key) {
+        checkClosed();
+
+        //absent keys are never cached, so null means the key may have been evicted
+        Storeable value = commited.peek(key);
+
+        if ((value != null) || (commited.isRemoved(key))) {
+            return value;
+        }
+
+        boolean resident = engine.isResident(key);
+
+        if ((!resident) && (absent.peek(key))) {
+            return null;
+        }
 
         try {
-            commitedSize = StoreableTableFileManager.getTableSize(name, provider, this);
-        } finally {
-            getCommitLock.writeLock().unlock();
+            value = loadKey(key);
+        } catch (Exception ex) {
+            throw new RuntimeException("Unable to load key from file: " + ex.getMessage());
         }
+
+        //the stripe lock held keeps a commit of the key from invalidating it meanwhile
+        if ((value == null) && (!resident)) {
+            absent.add(key);
+        }
+
+        return value;
     }
 
-    //MUST be under lock
-    private void loadKey(String key) 
-    throws IOException, ValidityCheckFailedException {
+    @Override
+    protected boolean isKnownAbsent(String key) {
         checkClosed();
+        return absent.contains(key);
+    }
+
+    @Override
+    public void pushChanges() {
+        absent.invalidate(changed.get().keySet());
+        super.pushChanges();
+    }
 
-        Map<String, Storeable> fileData = StoreableTableFileManager.readFileForKey(key, this, specificProvider);
-        Storeable value = fileData.get(key);
+    public CommitedCache.Stats getNegativeCacheStats() {
+        return absent.getStats();
+    }
 
-        if (!Thread.holdsLock(getCommitLock.writeLock())) {
+    public int getNegativeCacheCapacity() {
+        return absent.getCapacity();
+    }
 
-            getCommitLock.readLock().unlock();
-            getCommitLock.writeLock().lock();
+    public void setNegativeCacheCapacity(int capacity) {
+        absent.setCapacity(capacity);
+    }
 
-            try {
-                
-                commited.putAll(fileData);
-
-                //presence of the key in question, if it is the case, must be ensured
-                if (value != null) {
-                  commited.put(key, value);
-                } 
-            } finally    {
-                getCommitLock.writeLock().unlock();
-                getCommitLock.readLock().lock();
-            }
+    Storeable decode(byte[] serialized) {
+        return new LazyTableRow(codec, serialized, keepDecoded);
+    }
 
-        } else {
-            commited.putAll(fileData);
+    //null if the table is no longer laid out as given
+    SortedMap<String, byte[]> readShardRange(ShardLayout layout, int shardNum, String fromKey, String toKey,
+        int limit) {
+        checkClosed();
 
-            //presence of the key in question, if it is the case, must be ensured
-            if (value != null) {
-                commited.put(key, value);
+        //the stripe lock keeps the shard from being rewritten while it is read
+        int stripe = shardNum % stripes.getStripesCount();
+        stripes.lockRead(stripe);
+
+        try {
+            if (!shardLayout.equals(layout)) {
+                return null;
             }
+
+            return engine.readRange(shardNum, fromKey, toKey, limit);
+        } catch (IOException | ValidityCheckFailedException ex) {
+            throw new RuntimeException("Unable to read keys from file: " + ex.getMessage());
+        } finally {
+            stripes.unlockRead(stripe);
         }
     }
 
-    //MUST be under lock
     @Override
-    protected Storeable getCommited(String key) {
+    protected Iterator<Map.Entry<String, Storeable>> scanPersisted(String fromKey, String toKey) {
+        return new PersistedScan(this, fromKey, toKey, SCAN_BATCH_SIZE);
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, Storeable>> scan(String fromKey, String toKey) {
         checkClosed();
+        return super.scan(fromKey, toKey);
+    }
 
-        if (!commited.containsKey(key)) {
-            try {
-                loadKey(key);
-            } catch (Exception ex) {
-                throw new RuntimeException("Unable to load key from file: " + ex.getMessage());
-            }
+    @Override
+    public Iterator<Map.Entry<String, Storeable>> scanPrefix(String prefix) {
+        checkClosed();
+        return super.scanPrefix(prefix);
+    }
+
+    //neither locked nor cached: a key loaded while its shard is being rewritten may be outdated
+    @Override
+    protected Storeable readCommited(String key) {
+        checkClosed();
+
+        Storeable value = commited.peek(key);
+
+        if ((value != null) || (commited.isRemoved(key))) {
+            return value;
         }
 
-        //readlock reaquired in loadKey()
-        return commited.get(key);
+        try {
+            byte[] serialized = engine.read(key);
+            return serialized == null ? null : new LazyTableRow(codec, serialized, keepDecoded);
+        } catch (IOException | ValidityCheckFailedException ex) {
+            throw new RuntimeException("Unable to load key from file: " + ex.getMessage());
+        }
     }
 
     @Override
@@ -132,6 +335,18 @@ public class StoreableTable extends GenericTable<Storeable> implements Table, Cl
         return super.get(key);
     }
 
+    @Override
+    public Storeable getCommitedValue(String key) {
+        checkClosed();
+        return super.getCommitedValue(key);
+    }
+
+    @Override
+    public TableSnapshot<Storeable> snapshot() {
+        checkClosed();
+        return super.snapshot();
+    }
+
     @Override
     public Storeable put(String key, Storeable value) throws ColumnFormatException {
         checkClosed();
@@ -151,9 +366,39 @@ public class StoreableTable extends GenericTable<Storeable> implements Table, Cl
         return super.remove(key);
     }
 
+    @Override
+    public Map<String, Storeable> getAll(Collection<String> keys) {
+        checkClosed();
+        return super.getAll(keys);
+    }
+
+    @Override
+    public Map<String, Storeable> putAll(Map<String, Storeable> values) throws ColumnFormatException {
+        checkClosed();
+
+        if (values != null) {
+            try {
+                for (Storeable value : values.values()) {
+                    ValidityChecker.checkValueFormat(this, value);
+                }
+            } catch (ValidityCheckFailedException ex) {
+                throw new ColumnFormatException(ex.getMessage());
+            }
+        }
+
+        return super.putAll(values);
+    }
+
+    @Override
+    public Map<String, Storeable> removeAll(Collection<String> keys) {
+        checkClosed();
+        return super.removeAll(keys);
+    }
+
     @Override
     public int commit() throws IOException {
         checkClosed();
+        specificProvider.checkCheckpoint();
         return super.commit();
     }
 
@@ -178,50 +423,372 @@ public class StoreableTable extends GenericTable<Storeable> implements Table, Cl
     @Override
     protected boolean isValueEqual(Storeable first, Storeable second) {
         checkClosed();
-        return specificProvider.serialize(this, first).equals(specificProvider.serialize(this, second));
+        return Arrays.equals(encode(first), encode(second));
     }
 
-    @Override
-    public void checkRoot(File root) throws ValidityCheckFailedException {
+    //rows that were never decoded are passed on as they were read
+    public byte[] encode(Storeable value) {
+        if (value instanceof LazyTableRow) {
+            byte[] encoded = ((LazyTableRow) value).getEncoded();
+
+            if (encoded != null) {
+                return encoded;
+            }
+        }
+
+        return codec.encode(value);
+    }
+
+    public StoreableCodec getCodec() {
+        return codec;
+    }
+
+    //shared by the rows of the table
+    public RowSchema getRowSchema() {
+        return codec.getSchema();
+    }
+
+    public boolean isKeepingDecoded() {
+        return keepDecoded;
+    }
+
+    //affects rows loaded from now on
+    public void setKeepingDecoded(boolean keepDecoded) {
+        this.keepDecoded = keepDecoded;
+    }
+
+    public StorageEngine getStorageEngine() {
+        return engine;
+    }
+
+    public ShardLayout getShardLayout() {
+        return shardLayout;
+    }
+
+    public ShardFormat getShardFormat() {
+        return shardFormat;
+    }
+
+    //builds the index out of the commited rows; nothing is commited meanwhile
+    public void createIndex(int columnIndex) throws IOException {
         checkClosed();
-        ValidityChecker.checkMultiStoreableTableRoot(root);
+
+        Class<?> type = valueTypes.get(columnIndex);
+        stripes.lockAll();
+
+        try {
+            if (!indexes.containsKey(columnIndex)) {
+                indexes.put(columnIndex, ColumnIndex.build(getTableDir(), columnIndex, type,
+                    scanCommited(null, null), specificProvider.getDurability()));
+            }
+        } finally {
+            stripes.unlockAll();
+        }
     }
 
-    @Override
-    public int size() {
+    public void removeIndex(int columnIndex) {
         checkClosed();
-        
-        getCommitLock.readLock().lock();
-        
-        int size = commitedSize;
+
+        if ((columnIndex < 0) || (columnIndex >= valueTypes.size())) {
+            throw new IndexOutOfBoundsException("No column " + columnIndex);
+        }
+
+        stripes.lockAll();
 
         try {
+            ColumnIndex index = indexes.remove(columnIndex);
 
-            for (Map.Entry<String, Storeable> entry : changed.get().entrySet()) {
-                if (getCommited(entry.getKey()) == null) {
-                    ++size;
-                }
+            if (index != null) {
+                index.delete();
             }
+        } finally {
+            stripes.unlockAll();
+        }
+    }
 
-            for (String entry : deleted.get()) {
-                if (getCommited(entry) != null) {
-                    --size;
+    public Set<Integer> getIndexedColumns() {
+        checkClosed();
+        return new TreeSet<Integer>(indexes.keySet());
+    }
+
+    //the index is updated by a commit under its stripe locks, so it may be ahead of the rows it names meanwhile
+    public Map<String, Storeable> findByColumn(int columnIndex, Object value) throws ColumnFormatException {
+        checkClosed();
+
+        Class<?> type = valueTypes.get(columnIndex);
+
+        if ((value != null) && (!type.isInstance(value))) {
+            throw new ColumnFormatException(value.getClass() + " cannot be assigned to " + type);
+        }
+
+        Map<String, Storeable> found = new TreeMap<String, Storeable>();
+        ColumnIndex index = indexes.get(columnIndex);
+
+        if (index == null) {
+            for (Iterator<Map.Entry<String, Storeable>> rows = scan(null, null); rows.hasNext();) {
+                Map.Entry<String, Storeable> row = rows.next();
+
+                if (Objects.equals(row.getValue().getColumnAt(columnIndex), value)) {
+                    found.put(row.getKey(), row.getValue());
                 }
             }
+
+            return found;
+        }
+
+        Set<String> candidates = index.find(value);
+        //local changes may make a row match or stop matching
+        candidates.addAll(changed.get().keySet());
+
+        for (String key : candidates) {
+            Storeable row = get(key);
+
+            if ((row != null) && (Objects.equals(row.getColumnAt(columnIndex), value))) {
+                found.put(key, row);
+            }
+        }
+
+        return found;
+    }
+
+    //the rows that differ from the persisted ones are selected from memory, the rest from the shards
+    public Selection select(RowPredicate predicate, int[] projectedColumns) {
+        checkClosed();
+
+        int[] columns;
+
+        if (projectedColumns == null) {
+            columns = new int[valueTypes.size()];
+
+            for (int i = 0; i < columns.length; ++i) {
+                columns[i] = i;
+            }
+        } else {
+            columns = projectedColumns.clone();
+        }
+
+        return new ParallelSelection(this, predicate, columns, getOverlay(), SCAN_BATCH_SIZE,
+            specificProvider.getSelectPool());
+    }
+
+    public AggregationResult aggregate(AggregateFunction function, int columnIndex) throws ColumnFormatException {
+        return aggregate(function, columnIndex, -1);
+    }
+
+    //groupColumnIndex is -1 for the whole table to make a single group; rows with a null group column are grouped too
+    public AggregationResult aggregate(AggregateFunction function, int columnIndex, int groupColumnIndex)
+    throws ColumnFormatException {
+        checkClosed();
+
+        TypeName type = TypeName.getByClass(valueTypes.get(columnIndex));
+
+        if (!function.isDefinedOn(type)) {
+            throw new ColumnFormatException(function.getName() + " is not defined on " + type + " columns");
+        }
+
+        if ((groupColumnIndex < -1) || (groupColumnIndex >= valueTypes.size())) {
+            throw new IndexOutOfBoundsException("no column " + groupColumnIndex);
+        }
+
+        return new ParallelAggregation(this, columnIndex, groupColumnIndex, getOverlay(), SCAN_BATCH_SIZE)
+            .run(function, specificProvider.getSelectPool());
+    }
+
+    //the rows differing from the persisted ones, null standing for a removed one: pinned commits, then local changes
+    private Map<String, Storeable> getOverlay() {
+        Map<String, Storeable> overlay = new HashMap<String, Storeable>();
+
+        for (Map.Entry<String, Storeable> entry : commited.getPinned()) {
+            overlay.put(entry.getKey(), entry.getValue());
+        }
+
+        overlay.putAll(changed.get());
+
+        for (String key : deleted.get()) {
+            overlay.put(key, null);
+        }
+
+        return overlay;
+    }
+
+    //once the rows are stored or logged, so that a failed commit leaves the indexes as they were
+    private void updateIndexes(Map<String, Storeable> changedRows, Set<String> deletedKeys) {
+        for (ColumnIndex index : indexes.values()) {
+            index.update(changedRows, deletedKeys, specificProvider.getDurability());
+        }
+    }
+
+    //the files an update failed to write are rewritten before anything else is stored
+    private void repairIndexes() throws IOException {
+        for (ColumnIndex index : indexes.values()) {
+            index.repair(specificProvider.getDurability());
+        }
+    }
+
+    public void closeIndexes() {
+        for (ColumnIndex index : indexes.values()) {
+            index.close();
+        }
+    }
+
+    //UnsupportedOperationException for a table whose engine keeps no shards, thrown before anything is stored
+    public void reshard(ShardLayout newLayout) throws IOException {
+        checkClosed();
+
+        if (newLayout == null) {
+            throw new IllegalArgumentException("Shard layout not specified");
+        }
+
+        if (engine.getType() != StorageEngineType.SHARDED) {
+            throw new UnsupportedOperationException("Table " + getName() + " isn't sharded");
+        }
+
+        //keys move between stripes
+        stripes.lockAll();
+
+        try {
+            if (newLayout.equals(shardLayout)) {
+                return;
+            }
+
+            storePending();
+
+            try {
+                engine.reshard(newLayout);
+            } finally {
+                //the shards are in the layout recorded, be it the new one or, if recording failed, the old one
+                shardLayout = StoreableTableFileManager.getTableShardLayout(getName(), specificProvider);
+            }
+        } catch (ValidityCheckFailedException ex) {
+            throw new RuntimeException("Validity check failed: " + ex.getMessage());
         } finally {
-            getCommitLock.readLock().unlock();
+            stripes.unlockAll();
         }
+    }
 
-        return size;
+    @Override
+    public void checkRoot(File root) throws ValidityCheckFailedException {
+        checkClosed();
+        ValidityChecker.checkMultiStoreableTableRoot(root);
+    }
+
+    @Override
+    public int size() {
+        checkClosed();
+        return commitedSize.get() + getSizeDelta();
+    }
+
+    private void store(Map<String, Storeable> changedRows, Set<String> deletedKeys)
+    throws IOException, ValidityCheckFailedException {
+        engine.write(changedRows, deletedKeys);
+
+        synchronized (metadataLock) {
+            StoreableTableFileManager.writeSize(this, specificProvider);
+            StoreableTableFileManager.writeSignature(this, specificProvider);
+        }
     }
 
     @Override
     protected void storeOnCommit() throws IOException, ValidityCheckFailedException {
         checkClosed();
+        repairIndexes();
+
+        WriteAheadLog log = specificProvider.getWriteAheadLog();
+
+        if (log == null) {
+            store(changed.get(), deleted.get());
+            updateIndexes(changed.get(), deleted.get());
+            return;
+        }
+
+        Map<String, byte[]> encoded = new HashMap<String, byte[]>();
+
+        for (Map.Entry<String, Storeable> entry : changed.get().entrySet()) {
+            encoded.put(entry.getKey(), encode(entry.getValue()));
+        }
+
+        commitSequenceNumber.set(log.append(getName(), encoded, deleted.get()));
+
+        for (Map.Entry<String, byte[]> entry : encoded.entrySet()) {
+            //the rows themselves may still be changed by their owner; what is checkpointed is what was logged
+            pendingChanged.put(entry.getKey(), new LazyTableRow(codec, entry.getValue(), false));
+            pendingDeleted.remove(entry.getKey());
+        }
+
+        for (String key : deleted.get()) {
+            pendingChanged.remove(key);
+            pendingDeleted.add(key);
+        }
+
+        updateIndexes(changed.get(), deleted.get());
+    }
+
+    @Override
+    protected void onCommitStored(Set<String> changedKeys, Set<String> deletedKeys) {
+        //logged commits stay pinned until checkpointed
+        if (commitSequenceNumber.get() == null) {
+            super.onCommitStored(changedKeys, deletedKeys);
+        }
+    }
+
+    @Override
+    protected void awaitCommitDurable() throws IOException {
+        Long sequenceNumber = commitSequenceNumber.get();
+
+        if (sequenceNumber != null) {
+            commitSequenceNumber.remove();
+
+            //otherwise the log is synced on checkpoints only
+            if (specificProvider.getDurability() == Durability.FSYNC) {
+                specificProvider.getWriteAheadLog().awaitDurable(sequenceNumber);
+            }
+        }
+    }
+
+    //MUST be with all the stripes locked
+    private void storePending() throws IOException, ValidityCheckFailedException {
+        if ((pendingChanged.isEmpty()) && (pendingDeleted.isEmpty())) {
+            return;
+        }
+
+        store(pendingChanged, pendingDeleted);
+
+        commited.unpin(pendingChanged.keySet());
+        commited.unpin(pendingDeleted);
+        pendingChanged.clear();
+        pendingDeleted.clear();
+    }
+
+    //writes the commits so far kept only in the provider's log to the engine
+    public void checkpoint() throws IOException {
+        stripes.lockAll();
+
+        try {
+            if (!isClosed) {
+                //the log is dropped once checkpointed, so the commits in it must be indexed on disk by then
+                repairIndexes();
+                storePending();
+            }
+        } catch (ValidityCheckFailedException ex) {
+            throw new RuntimeException("Validity check failed: " + ex.getMessage());
+        } finally {
+            stripes.unlockAll();
+        }
+    }
+
+    //reapplies a commit found in the provider's log on startup
+    public void replay(Map<String, byte[]> changedValues, Set<String> deletedKeys) throws IOException {
+        checkClosed();
 
-        StoreableTableFileManager.writeSize(this, specificProvider);
-        StoreableTableFileManager.writeSignature(this, specificProvider);
-        StoreableTableFileManager.modifyMultipleFiles(changed.get(), deleted.get(), this, specificProvider);
+        for (Map.Entry<String, byte[]> entry : changedValues.entrySet()) {
+            put(entry.getKey(), new LazyTableRow(codec, entry.getValue(), keepDecoded));
+        }
+
+        for (String key : deletedKeys) {
+            remove(key);
+        }
+
+        commit();
     }
 
     @Override
@@ -238,7 +805,20 @@ public class StoreableTable extends GenericTable<Storeable> implements Table, Cl
 
         specificProvider.closeTable(getName());
         rollback();
-        isClosed = true;
+
+        stripes.lockAll();
+
+        try {
+            repairIndexes();
+            storePending();
+        } catch (IOException | ValidityCheckFailedException ex) {
+            throw new RuntimeException("Unable to store commited changes: " + ex.getMessage());
+        } finally {
+            engine.close();
+            closeIndexes();
+            isClosed = true;
+            stripes.unlockAll();
+        }
     }
 
     public void checkClosed() {
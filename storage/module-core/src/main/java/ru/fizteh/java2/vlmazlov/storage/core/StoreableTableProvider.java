@@ -14,24 +14,248 @@ import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public class StoreableTableProvider extends GenericTableProvider<Storeable, StoreableTable>
         implements TableProvider, AutoCloseable {
 
+    public static final long CHECKPOINT_PERIOD = 1000;
+    public static final int DEFAULT_IO_THREADS = Runtime.getRuntime().availableProcessors();
+
     private boolean isClosed;
+    private volatile Durability durability;
+    //of the filters written from now on
+    private volatile double bloomFalsePositiveRate;
+    //null if commits go straight to the tables' files
+    private WriteAheadLog log;
+    private ScheduledExecutorService checkpointer;
+    //the failure of the last background checkpoint, null once a checkpoint succeeds
+    private volatile Exception checkpointFailure;
+    //System.nanoTime() of the last checkpoint that succeeded, or of the opening of the log
+    private volatile long lastCheckpointTime;
+    //shard files of a commit are rewritten in parallel here
+    private final ExecutorService ioExecutor;
+    //shards of a table are scanned in parallel here by select() and aggregate()
+    private final ForkJoinPool selectPool;
+    //if set, read() only checks the root and tables are loaded on first getTable()
+    private volatile boolean lazyLoading;
+    //nanoseconds taken to load each table
+    private final Map<String, Long> loadTimes;
+    private final Object checkpointLock = new Object();
 
     public StoreableTableProvider(String name, boolean autoCommit) throws ValidityCheckFailedException {
+        this(name, autoCommit, true);
+    }
+
+    public StoreableTableProvider(String name, boolean autoCommit, boolean writeAheadLog)
+    throws ValidityCheckFailedException {
         super(name, autoCommit);
         isClosed = false;
+        durability = Durability.FSYNC;
+        bloomFalsePositiveRate = BloomFilter.DEFAULT_FALSE_POSITIVE_RATE;
+        lazyLoading = false;
+        loadTimes = new ConcurrentHashMap<String, Long>();
+
+        ioExecutor = Executors.newFixedThreadPool(DEFAULT_IO_THREADS, new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "storage-io-" + getRoot());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        selectPool = new ForkJoinPool(DEFAULT_IO_THREADS);
+
+        if (writeAheadLog) {
+            openLog();
+        }
+    }
+
+    private void openLog() throws ValidityCheckFailedException {
+        WriteAheadLog recovered = new WriteAheadLog(new File(getRoot(), WriteAheadLog.LOG_DIR));
+
+        try {
+            recover(recovered);
+        } catch (IOException ex) {
+            throw new ValidityCheckFailedException("Unable to recover from " + WriteAheadLog.LOG_DIR
+                + ": " + ex.getMessage());
+        }
+
+        log = recovered;
+        lastCheckpointTime = System.nanoTime();
+
+        checkpointer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "checkpointer-" + getRoot());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        checkpointer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    checkpoint();
+                } catch (IOException | RuntimeException ex) {
+                    //the log keeps the commits, the next checkpoint retries; the next commit learns of it meanwhile
+                    checkpointFailure = ex;
+                }
+            }
+        }, CHECKPOINT_PERIOD, CHECKPOINT_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    //the log isn't open yet, so the replayed commits go straight to the tables' files
+    private void recover(WriteAheadLog recovered) throws IOException, ValidityCheckFailedException {
+        List<WriteAheadLog.Record> records = recovered.readAll();
+        Set<String> touched = new LinkedHashSet<String>();
+
+        for (WriteAheadLog.Record record : records) {
+            touched.add(record.getTableName());
+        }
+
+        //the sizes stored may be ahead of the data, they are counted anew
+        for (String name : touched) {
+            new File(new File(getRoot(), name), "size.tsv").delete();
+        }
+
+        for (WriteAheadLog.Record record : records) {
+            StoreableTable table = getTable(record.getTableName());
+
+            //removed since
+            if (table == null) {
+                continue;
+            }
+
+            table.replay(record.getChanged(), record.getDeleted());
+        }
+
+        recovered.deleteBefore(recovered.rotate());
+    }
+
+    public WriteAheadLog getWriteAheadLog() {
+        return log;
+    }
+
+    //null unless the last background checkpoint failed
+    public Exception getCheckpointFailure() {
+        return checkpointFailure;
+    }
+
+    //milliseconds since the commits logged were last written to the tables, 0 without the log
+    public long getCheckpointLag() {
+        if (log == null) {
+            return 0;
+        }
+
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastCheckpointTime);
+    }
+
+    //called before a commit: while the checkpoints fail, the log and the pinned rows would only grow,
+    //so the commit checkpoints itself and fails if that fails too
+    void checkCheckpoint() throws IOException {
+        if (checkpointFailure == null) {
+            return;
+        }
+
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException ex) {
+            checkpointFailure = ex;
+            throw new IOException("Unable to checkpoint: " + ex.getMessage(), ex);
+        }
+    }
+
+    public boolean isLazyLoading() {
+        return lazyLoading;
+    }
+
+    public void setLazyLoading(boolean lazyLoading) {
+        this.lazyLoading = lazyLoading;
+    }
+
+    public Map<String, Long> getLoadTimes() {
+        return Collections.unmodifiableMap(new HashMap<String, Long>(loadTimes));
+    }
+
+    public ExecutorService getIoExecutor() {
+        return ioExecutor;
+    }
+
+    public ForkJoinPool getSelectPool() {
+        return selectPool;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    //applies to the commits to come
+    public void setDurability(Durability durability) {
+        if (durability == null) {
+            throw new IllegalArgumentException("durability not specified");
+        }
+
+        this.durability = durability;
+    }
+
+    public double getBloomFalsePositiveRate() {
+        return bloomFalsePositiveRate;
+    }
+
+    //applies to the shards written from now on, the others keep their filters till rewritten
+    public void setBloomFalsePositiveRate(double bloomFalsePositiveRate) {
+        BloomFilter.checkFalsePositiveRate(bloomFalsePositiveRate);
+        this.bloomFalsePositiveRate = bloomFalsePositiveRate;
+    }
+
+    /*
+    Writes the logged commits of all the tables to their files and drops the log written so far.
+    Runs periodically in the background; commits that come meanwhile go to the next log file.
+    */
+    public void checkpoint() throws IOException {
+        if (log == null) {
+            return;
+        }
+
+        synchronized (checkpointLock) {
+            int boundary = log.rotate();
+            List<StoreableTable> toCheckpoint;
+
+            synchronized (this) {
+                toCheckpoint = new ArrayList<StoreableTable>(tables.values());
+            }
+
+            for (StoreableTable table : toCheckpoint) {
+                table.checkpoint();
+            }
+
+            log.deleteBefore(boundary);
+            lastCheckpointTime = System.nanoTime();
+            checkpointFailure = null;
+        }
     }
 
     @Override
     protected StoreableTable instantiateTable(String name, Object[] args) {
         checkClosed();
         try {
-            return new StoreableTable(this, name, autoCommit, (List) args[0]);
+            return new StoreableTable(this, name, autoCommit, (List) args[0],
+                (StoreableFormat) args[1], (ShardLayout) args[2], (StorageEngineType) args[3], (ShardFormat) args[4]);
         } catch (ValidityCheckFailedException | IOException ex) {
             throw new RuntimeException("Validity check failed: " + ex.getMessage());
         }
@@ -54,8 +278,37 @@ public class StoreableTableProvider extends GenericTableProvider<Storeable, Stor
     }
 
     @Override
-    public synchronized void removeTable(String name) {
+    public void removeTable(String name) {
         checkClosed();
+
+        try {
+            ValidityChecker.checkMultiTableName(name);
+        } catch (ValidityCheckFailedException ex) {
+            throw new IllegalArgumentException(ex.getMessage());
+        }
+
+        //the table's records must not be replayed into a new table of the same name;
+        //checkpoint() locks the provider itself, so it is done before
+        try {
+            checkpoint();
+        } catch (IOException ex) {
+            throw new RuntimeException("Unable to checkpoint: " + ex.getMessage());
+        }
+
+        synchronized (this) {
+            removeCheckpointedTable(name);
+        }
+    }
+
+    private void removeCheckpointedTable(String name) {
+        StoreableTable table = tables.get(name);
+
+        //the files are about to be deleted
+        if (table != null) {
+            table.getStorageEngine().close();
+            table.closeIndexes();
+        }
+
         super.removeTable(name);
     }
 
@@ -70,21 +323,83 @@ public class StoreableTableProvider extends GenericTableProvider<Storeable, Stor
             return null;
         }
 
+        long start = System.nanoTime();
         File tableDir = new File(getRoot(), name);  
+        StoreableTableFileManager.recoverReshard(name, this);
+        //left by a commit interrupted before its files were renamed into place
+        AtomicFiles.deleteLeftovers(tableDir);
         ValidityChecker.checkMultiStoreableTableRoot(tableDir);
 
         StoreableTable table = new StoreableTable(this, name, autoCommit, 
-            StoreableTableFileManager.getTableSignature(name, this));
-        
-        tables.put(name, table);
+            StoreableTableFileManager.getTableSignature(name, this),
+            StoreableTableFileManager.getTableFormat(name, this),
+            StoreableTableFileManager.getTableShardLayout(name, this),
+            StoreableTableFileManager.getTableStorageEngine(name, this),
+            StoreableTableFileManager.getTableShardFormat(name, this));
+
+        synchronized (this) {
+            StoreableTable loaded = tables.get(name);
+
+            //loaded meanwhile by another thread
+            if (loaded != null) {
+                table.getStorageEngine().close();
+                return loaded;
+            }
+
+            tables.put(name, table);
+        }
+
+        loadTimes.put(name, System.nanoTime() - start);
 
         return table;
     }
 
     @Override
     public synchronized StoreableTable createTable(String name, List<Class<?>> columnTypes) throws IOException {
+        return createTable(name, columnTypes, StoreableFormat.BINARY);
+    }
+
+    public synchronized StoreableTable createTable(String name, List<Class<?>> columnTypes, StoreableFormat format)
+    throws IOException {
+        return createTable(name, columnTypes, format, ShardLayout.DEFAULT);
+    }
+
+    public synchronized StoreableTable createTable(String name, List<Class<?>> columnTypes,
+        StoreableFormat format, ShardLayout shardLayout) throws IOException {
+        return createTable(name, columnTypes, format, shardLayout, StorageEngineType.SHARDED);
+    }
+
+    public synchronized StoreableTable createTable(String name, List<Class<?>> columnTypes,
+        StorageEngineType engineType) throws IOException {
+        return createTable(name, columnTypes, StoreableFormat.BINARY, ShardLayout.DEFAULT, engineType);
+    }
+
+    public synchronized StoreableTable createTable(String name, List<Class<?>> columnTypes,
+        StoreableFormat format, ShardLayout shardLayout, StorageEngineType engineType) throws IOException {
+        return createTable(name, columnTypes, format, shardLayout, engineType, ShardFormat.SORTED);
+    }
+
+    public synchronized StoreableTable createTable(String name, List<Class<?>> columnTypes,
+        StoreableFormat format, ShardLayout shardLayout, StorageEngineType engineType, ShardFormat shardFormat)
+    throws IOException {
         checkClosed();
 
+        if (engineType == null) {
+            throw new IllegalArgumentException("storage engine not specified");
+        }
+
+        if (format == null) {
+            throw new IllegalArgumentException("storage format not specified");
+        }
+
+        if (shardLayout == null) {
+            throw new IllegalArgumentException("shard layout not specified");
+        }
+
+        if (shardFormat == null) {
+            throw new IllegalArgumentException("shard format not specified");
+        }
+
         if ((columnTypes == null) || (columnTypes.isEmpty())) {
             throw new IllegalArgumentException("wrong type (column types not specified)");
         }
@@ -101,13 +416,58 @@ public class StoreableTableProvider extends GenericTableProvider<Storeable, Stor
             return null;
         }
 
-        StoreableTable table = super.createTable(name, new Object[]{columnTypes});
+        StoreableTable table = super.createTable(name, new Object[]{columnTypes, format, shardLayout, engineType,
+            shardFormat});
         StoreableTableFileManager.writeSignature(table, this);
+        StoreableTableFileManager.writeFormat(table, this);
+        StoreableTableFileManager.writeShardLayout(table, this);
+        StoreableTableFileManager.writeStorageEngine(table, this);
+        StoreableTableFileManager.writeShardFormat(table, this);
         //StoreableTableFileManager.writeSize(table, this);
 
         return table;
     }
 
+    //migrates the table to another layout, e.g. legacy first-byte tables to hashed ones;
+    //UnsupportedOperationException if the table isn't sharded
+    public void reshardTable(String name, ShardLayout newLayout) throws IOException {
+        checkClosed();
+
+        StoreableTable table = getTable(name);
+
+        if (table == null) {
+            throw new IllegalStateException("Table " + name + " doesn't exist");
+        }
+
+        table.reshard(newLayout);
+    }
+
+    @Override
+    public void createIndex(String tableName, int columnIndex) throws IOException {
+        checkClosed();
+
+        StoreableTable table = getTable(tableName);
+
+        if (table == null) {
+            throw new IllegalStateException("Table " + tableName + " doesn't exist");
+        }
+
+        table.createIndex(columnIndex);
+    }
+
+    @Override
+    public void removeIndex(String tableName, int columnIndex) {
+        checkClosed();
+
+        StoreableTable table = getTable(tableName);
+
+        if (table == null) {
+            throw new IllegalStateException("Table " + tableName + " doesn't exist");
+        }
+
+        table.removeIndex(columnIndex);
+    }
+
     @Override
     public Storeable deserialize(StoreableTable table, String value) throws ParseException {
         checkClosed();
@@ -165,6 +525,10 @@ public class StoreableTableProvider extends GenericTableProvider<Storeable, Stor
             throw new IllegalArgumentException("table not specified");
         }
 
+        if (table instanceof StoreableTable) {
+            return new TableRow(((StoreableTable) table).getRowSchema());
+        }
+
         List<Class<?>> valueTypes = new ArrayList<Class<?>>(table.getColumnsCount());
 
         for (int i = 0; i < table.getColumnsCount(); ++i) {
@@ -207,8 +571,50 @@ public class StoreableTableProvider extends GenericTableProvider<Storeable, Stor
     public void read() throws IOException, ValidityCheckFailedException {
         checkClosed();
 
-        for (File file : ProviderReader.getTableDirList(this)) {
-            @SuppressWarnings("UnusedAssignment") StoreableTable table = loadTable(file.getName());
+        List<File> tableDirs = ProviderReader.getTableDirList(this);
+
+        if (lazyLoading) {
+            return;
+        }
+
+        List<Callable<StoreableTable>> loaders = new ArrayList<Callable<StoreableTable>>();
+
+        for (final File file : tableDirs) {
+            if ((file.getName().equals(WriteAheadLog.LOG_DIR)) || (tables.containsKey(file.getName()))) {
+                continue;
+            }
+
+            loaders.add(new Callable<StoreableTable>() {
+                public StoreableTable call() throws IOException, ValidityCheckFailedException {
+                    return loadTable(file.getName());
+                }
+            });
+        }
+
+        //validation and size recovery of a table take a pass over its files, the tables are independent
+        ForkJoinPool pool = new ForkJoinPool();
+
+        try {
+            for (Future<StoreableTable> loaded : pool.invokeAll(loaders)) {
+                try {
+                    loaded.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IOException) {
+                        throw (IOException) ex.getCause();
+                    }
+
+                    if (ex.getCause() instanceof ValidityCheckFailedException) {
+                        throw (ValidityCheckFailedException) ex.getCause();
+                    }
+
+                    throw new RuntimeException(ex.getCause().getMessage(), ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while loading tables");
+                }
+            }
+        } finally {
+            pool.shutdown();
         }
     }
 
@@ -219,6 +625,14 @@ public class StoreableTableProvider extends GenericTableProvider<Storeable, Stor
         File rootDir = new File(getRoot());
 
         for (File entry : rootDir.listFiles()) {
+            if (entry.getName().equals(WriteAheadLog.LOG_DIR)) {
+                continue;
+            }
+
+            //never loaded, so nothing to commit
+            if ((lazyLoading) && (!tables.containsKey(entry.getName()))) {
+                continue;
+            }
 
             StoreableTable curTable = getTable(entry.getName());
 
@@ -243,8 +657,56 @@ public class StoreableTableProvider extends GenericTableProvider<Storeable, Stor
             return;
         }
 
-        for (Map.Entry<String, StoreableTable> entry : tables.entrySet()) {
-            entry.getValue().close();
+        if (checkpointer != null) {
+            checkpointer.shutdown();
+        }
+
+        RuntimeException failure = null;
+
+        //closing a table removes it from the map; the tables checkpoint themselves
+        for (StoreableTable table : new ArrayList<StoreableTable>(tables.values())) {
+            try {
+                table.close();
+            } catch (RuntimeException ex) {
+                if (failure == null) {
+                    failure = ex;
+                }
+            }
+        }
+
+        ioExecutor.shutdown();
+        selectPool.shutdown();
+
+        if (failure != null) {
+            if (checkpointFailure != null) {
+                failure.addSuppressed(checkpointFailure);
+            }
+
+            //the log is kept for the commits to be recovered on the next start
+            if (log != null) {
+                synchronized (checkpointLock) {
+                    try {
+                        log.close();
+                    } catch (IOException ex) {
+                        failure.addSuppressed(ex);
+                    }
+                }
+            }
+
+            isClosed = true;
+            throw failure;
+        }
+
+        if (log != null) {
+            synchronized (checkpointLock) {
+                try {
+                    //everything is in the tables' files by now
+                    log.deleteBefore(log.rotate());
+                    log.close();
+                } catch (IOException ex) {
+                    throw new RuntimeException("Unable to close the log: " + ex.getMessage());
+                }
+            }
         }
 
         isClosed = true;
@@ -2,70 +2,243 @@ package ru.fizteh.java2.vlmazlov.storage.core;
 
 import ru.fizteh.java2.vlmazlov.storage.api.ColumnFormatException;
 import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.utils.TypeName;
 
-import java.util.ArrayList;
 import java.util.List;
 
+/*
+Columns of primitive types are packed into a long array (floats and doubles by their bits),
+strings are held by reference; which slot a column takes is up to the schema, shared by the rows of a table.
+The ...ValueAt accessors read and write the primitive columns without boxing.
+*/
 public class TableRow implements Storeable {
-    private final List<Object> values;
-    private final List<Class<?>> valueTypes;
+    private final RowSchema schema;
+    private final long[] primitives;
+    private final Object[] references;
+    //a bit per primitive slot, set once a value is there
+    private final long[] present;
 
     public TableRow(List<Class<?>> valueTypes) {
-        this.valueTypes = new ArrayList(valueTypes);
-        values = new ArrayList(valueTypes.size());
+        this(new RowSchema(valueTypes));
+    }
 
-        for (int i = 0; i < valueTypes.size(); ++i) {
-            values.add(i, null);
+    public TableRow(RowSchema schema) {
+        if (schema == null) {
+            throw new IllegalArgumentException("schema not specified");
         }
+
+        this.schema = schema;
+        primitives = new long[schema.getPrimitivesCount()];
+        references = new Object[schema.getReferencesCount()];
+        present = new long[(primitives.length + 63) >> 6];
+    }
+
+    public RowSchema getSchema() {
+        return schema;
     }
 
     public void setColumnAt(int columnIndex, Object value) throws ColumnFormatException, IndexOutOfBoundsException {
+        TypeName primitive = schema.getPrimitive(columnIndex);
+
         if (value != null) {
-            typeCheck(valueTypes.get(columnIndex), value.getClass());
+            typeCheck(schema.getColumnType(columnIndex), value.getClass());
+        }
+
+        if (primitive == null) {
+            references[schema.getSlot(columnIndex)] = value;
+            return;
+        }
+
+        if (value == null) {
+            int slot = schema.getSlot(columnIndex);
+
+            present[slot >> 6] &= ~(1L << slot);
+            primitives[slot] = 0;
+            return;
         }
 
-        values.set(columnIndex, value);
+        switch (primitive) {
+            case INTEGER:
+                store(columnIndex, (Integer) value);
+                break;
+            case LONG:
+                store(columnIndex, (Long) value);
+                break;
+            case BYTE:
+                store(columnIndex, (Byte) value);
+                break;
+            case FLOAT:
+                store(columnIndex, Float.floatToRawIntBits((Float) value));
+                break;
+            case DOUBLE:
+                store(columnIndex, Double.doubleToRawLongBits((Double) value));
+                break;
+            case BOOLEAN:
+                store(columnIndex, (Boolean) value ? 1 : 0);
+                break;
+            default:
+                //never reached
+                break;
+        }
     }
 
     public Object getColumnAt(int columnIndex) throws IndexOutOfBoundsException {
-        return values.get(columnIndex);
+        TypeName primitive = schema.getPrimitive(columnIndex);
+
+        if (primitive == null) {
+            return references[schema.getSlot(columnIndex)];
+        }
+
+        if (isNullAt(columnIndex)) {
+            return null;
+        }
+
+        long bits = primitives[schema.getSlot(columnIndex)];
+
+        switch (primitive) {
+            case INTEGER:
+                return (int) bits;
+            case LONG:
+                return bits;
+            case BYTE:
+                return (byte) bits;
+            case FLOAT:
+                return Float.intBitsToFloat((int) bits);
+            case DOUBLE:
+                return Double.longBitsToDouble(bits);
+            case BOOLEAN:
+                return bits != 0;
+            default:
+                //never reached
+                return null;
+        }
     }
 
     public Integer getIntAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
-        typeCheck(Integer.class, valueTypes.get(columnIndex));
+        typeCheck(TypeName.INTEGER, columnIndex);
         return (Integer) getColumnAt(columnIndex);
     }
 
     public Long getLongAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
-        typeCheck(Long.class, valueTypes.get(columnIndex));
+        typeCheck(TypeName.LONG, columnIndex);
         return (Long) getColumnAt(columnIndex);
     }
 
     public Byte getByteAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
-        typeCheck(Byte.class, valueTypes.get(columnIndex));
+        typeCheck(TypeName.BYTE, columnIndex);
         return (Byte) getColumnAt(columnIndex);
     }
 
     public Float getFloatAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
-        typeCheck(Float.class, valueTypes.get(columnIndex));
+        typeCheck(TypeName.FLOAT, columnIndex);
         return (Float) getColumnAt(columnIndex);
     }
 
     public Double getDoubleAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
-        typeCheck(Double.class, valueTypes.get(columnIndex));
+        typeCheck(TypeName.DOUBLE, columnIndex);
         return (Double) getColumnAt(columnIndex);
     }
 
     public Boolean getBooleanAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
-        typeCheck(Boolean.class, valueTypes.get(columnIndex));
+        typeCheck(TypeName.BOOLEAN, columnIndex);
         return (Boolean) getColumnAt(columnIndex);
     }
 
     public String getStringAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
-        typeCheck(String.class, valueTypes.get(columnIndex));
+        typeCheck(String.class, schema.getColumnType(columnIndex));
         return (String) getColumnAt(columnIndex);
     }
 
+    public boolean isNullAt(int columnIndex) throws IndexOutOfBoundsException {
+        int slot = schema.getSlot(columnIndex);
+
+        if (schema.getPrimitive(columnIndex) == null) {
+            return references[slot] == null;
+        }
+
+        return (present[slot >> 6] & (1L << slot)) == 0;
+    }
+
+    //the primitive getters throw IllegalStateException for a null column
+    public int getIntValueAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return (int) load(TypeName.INTEGER, columnIndex);
+    }
+
+    public long getLongValueAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return load(TypeName.LONG, columnIndex);
+    }
+
+    public byte getByteValueAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return (byte) load(TypeName.BYTE, columnIndex);
+    }
+
+    public float getFloatValueAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return Float.intBitsToFloat((int) load(TypeName.FLOAT, columnIndex));
+    }
+
+    public double getDoubleValueAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return Double.longBitsToDouble(load(TypeName.DOUBLE, columnIndex));
+    }
+
+    public boolean getBooleanValueAt(int columnIndex) throws ColumnFormatException, IndexOutOfBoundsException {
+        return load(TypeName.BOOLEAN, columnIndex) != 0;
+    }
+
+    public void setIntValueAt(int columnIndex, int value) throws ColumnFormatException, IndexOutOfBoundsException {
+        typeCheck(TypeName.INTEGER, columnIndex);
+        store(columnIndex, value);
+    }
+
+    public void setLongValueAt(int columnIndex, long value) throws ColumnFormatException, IndexOutOfBoundsException {
+        typeCheck(TypeName.LONG, columnIndex);
+        store(columnIndex, value);
+    }
+
+    public void setByteValueAt(int columnIndex, byte value) throws ColumnFormatException, IndexOutOfBoundsException {
+        typeCheck(TypeName.BYTE, columnIndex);
+        store(columnIndex, value);
+    }
+
+    public void setFloatValueAt(int columnIndex, float value) throws ColumnFormatException, IndexOutOfBoundsException {
+        typeCheck(TypeName.FLOAT, columnIndex);
+        store(columnIndex, Float.floatToRawIntBits(value));
+    }
+
+    public void setDoubleValueAt(int columnIndex, double value)
+    throws ColumnFormatException, IndexOutOfBoundsException {
+        typeCheck(TypeName.DOUBLE, columnIndex);
+        store(columnIndex, Double.doubleToRawLongBits(value));
+    }
+
+    public void setBooleanValueAt(int columnIndex, boolean value)
+    throws ColumnFormatException, IndexOutOfBoundsException {
+        typeCheck(TypeName.BOOLEAN, columnIndex);
+        store(columnIndex, value ? 1 : 0);
+    }
+
+    private void store(int columnIndex, long bits) {
+        int slot = schema.getSlot(columnIndex);
+
+        primitives[slot] = bits;
+        present[slot >> 6] |= 1L << slot;
+    }
+
+    private long load(TypeName type, int columnIndex) {
+        typeCheck(type, columnIndex);
+
+        if (isNullAt(columnIndex)) {
+            throw new IllegalStateException("column " + columnIndex + " is null");
+        }
+
+        return primitives[schema.getSlot(columnIndex)];
+    }
+
+    private void typeCheck(TypeName type, int columnIndex) throws ColumnFormatException {
+        if (schema.getPrimitive(columnIndex) != type) {
+            throw new ColumnFormatException();
+        }
+    }
+
     private void typeCheck(Class<?> type, Class<?> assignedValue) throws ColumnFormatException {
         if (!type.isAssignableFrom(assignedValue)) {
             throw new ColumnFormatException();
@@ -78,7 +251,9 @@ public class TableRow implements Storeable {
         builder.append(getClass().getSimpleName());
         builder.append("[");
 
-        for (Object value : values) {
+        for (int i = 0; i < schema.getColumnsCount(); ++i) {
+            Object value = getColumnAt(i);
+
             if (value != null) {
                 builder.append(value);
             }
@@ -92,4 +267,3 @@ public class TableRow implements Storeable {
         return builder.toString();
     }
 }
-
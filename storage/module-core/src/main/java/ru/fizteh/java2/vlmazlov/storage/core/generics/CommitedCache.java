@@ -0,0 +1,524 @@
+package ru.fizteh.java2.vlmazlov.storage.core.generics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+Commited values of a table, bounded by the number of entries (segmented LRU).
+A key enters the probationary segment and is promoted to the protected one when hit again;
+entries are evicted from the probationary segment only, so a burst of one-off reads
+cannot push out the keys that are really in use.
+Pinned entries are not yet persisted and are never evicted; a key pinned with null is removed,
+but still present in the persisted data, so it must not be loaded from there.
+The pinned entries form an immutable map replaced as a whole, all the keys of a commit at once:
+they are read without locking. So are the entries of the segments, kept in a concurrent map as well;
+the order of the segments is changed under the lock only, the entries hit being recorded in a read buffer
+meanwhile and replayed by whoever takes the lock next, or by a reader that finds it free once the buffer fills up.
+*/
+public class CommitedCache<V> {
+
+    public static final int UNBOUNDED = 0;
+    //share of the capacity given to the protected segment, in percent
+    private static final int PROTECTED_SHARE = 80;
+
+    public static class Stats {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final int size;
+
+        Stats(long hitCount, long missCount, long evictionCount, int size) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.size = size;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public double getHitRate() {
+            long requests = hitCount + missCount;
+            return requests == 0 ? 1.0 : (double) hitCount / requests;
+        }
+
+        public String toString() {
+            return "hits " + hitCount + ", misses " + missCount + ", evictions " + evictionCount
+                + ", size " + size;
+        }
+    }
+
+    //an entry of a segment; the buffered hits refer to it directly, so a drain needs no lookup
+    private static class Node<V> {
+        private final String key;
+        //read without the lock
+        private volatile V value;
+        //the rest under the lock; no segment once the entry has left the cache
+        private Segment<V> segment;
+        private Node<V> previous;
+        private Node<V> next;
+
+        Node(String key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    //entries in the order of use, the eldest being the least recently used one; under the lock
+    private static class Segment<V> {
+        //the list is circular around it
+        private final Node<V> head;
+        private int size;
+
+        Segment() {
+            head = new Node<V>(null, null);
+            clear();
+        }
+
+        Node<V> getEldest() {
+            return head.next == head ? null : head.next;
+        }
+
+        void addNewest(Node<V> node) {
+            node.segment = this;
+            node.previous = head.previous;
+            node.next = head;
+            head.previous.next = node;
+            head.previous = node;
+            ++size;
+        }
+
+        void remove(Node<V> node) {
+            node.previous.next = node.next;
+            node.next.previous = node.previous;
+            node.previous = null;
+            node.next = null;
+            node.segment = null;
+            --size;
+        }
+
+        void clear() {
+            head.previous = head;
+            head.next = head;
+            size = 0;
+        }
+    }
+
+    private int capacity;
+    private final Segment<V> probation;
+    private final Segment<V> protectedSegment;
+    //the entries of both segments, changed under the lock along with them
+    private final ConcurrentHashMap<String, Node<V>> nodes;
+    private final AtomicReference<PersistentMap<V>> pinned;
+    private final ReentrantLock lock;
+    private final ReadBuffer<Node<V>> readBuffer;
+    //reused by the drains, under the lock
+    private final List<Node<V>> drained;
+
+    //lookups are counted without the lock
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private long evictionCount;
+
+    public CommitedCache() {
+        this(UNBOUNDED);
+    }
+
+    public CommitedCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(capacity + " is not a valid cache capacity");
+        }
+
+        this.capacity = capacity;
+        probation = new Segment<V>();
+        protectedSegment = new Segment<V>();
+        nodes = new ConcurrentHashMap<String, Node<V>>();
+        pinned = new AtomicReference<PersistentMap<V>>(PersistentMap.<V>empty());
+        lock = new ReentrantLock();
+        readBuffer = new ReadBuffer<Node<V>>();
+        drained = new ArrayList<Node<V>>();
+        hitCount = new AtomicLong(0);
+        missCount = new AtomicLong(0);
+    }
+
+    private boolean isBounded() {
+        return capacity != UNBOUNDED;
+    }
+
+    private int getProtectedCapacity() {
+        return (int) ((long) capacity * PROTECTED_SHARE / 100);
+    }
+
+    public V get(String key) {
+        PersistentMap<V> pinnedNow = pinned.get();
+
+        if (pinnedNow.containsKey(key)) {
+            hitCount.incrementAndGet();
+            return pinnedNow.get(key);
+        }
+
+        Node<V> node = nodes.get(key);
+
+        if (node == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        hitCount.incrementAndGet();
+
+        if ((readBuffer.offer(node)) && (lock.tryLock())) {
+            try {
+                drainReads();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        return node.value;
+    }
+
+    //not counted in the stats nor promoted to the protected segment, for lookups of the table itself
+    public V peek(String key) {
+        PersistentMap<V> pinnedNow = pinned.get();
+
+        if (pinnedNow.containsKey(key)) {
+            return pinnedNow.get(key);
+        }
+
+        Node<V> node = nodes.get(key);
+
+        return node == null ? null : node.value;
+    }
+
+    public boolean isRemoved(String key) {
+        PersistentMap<V> pinnedNow = pinned.get();
+
+        return (pinnedNow.containsKey(key)) && (pinnedNow.get(key) == null);
+    }
+
+    public boolean containsKey(String key) {
+        return (pinned.get().containsKey(key)) || (nodes.containsKey(key));
+    }
+
+    public void put(String key, V value) {
+        lock.lock();
+
+        try {
+            drainReads();
+
+            if (pinned.get().containsKey(key)) {
+                pinKeys(Collections.singletonMap(key, value), Collections.<String>emptySet());
+            } else {
+                cache(key, value);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void pin(String key, V value) {
+        pinAll(Collections.singletonMap(key, value), Collections.<String>emptySet());
+    }
+
+    public void pinRemoved(String key) {
+        pinAll(Collections.<String, V>emptyMap(), Collections.singleton(key));
+    }
+
+    //the values and removals become visible to lookups together
+    public void pinAll(Map<String, V> pinnedValues, Set<String> removed) {
+        lock.lock();
+
+        try {
+            drainReads();
+            pinKeys(pinnedValues, removed);
+
+            for (String key : pinnedValues.keySet()) {
+                forget(key);
+            }
+
+            for (String key : removed) {
+                forget(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void unpin(Iterable<String> keys) {
+        lock.lock();
+
+        try {
+            drainReads();
+
+            PersistentMap<V> next = pinned.get();
+
+            for (String key : keys) {
+                V value = next.get(key);
+                next = next.without(key);
+
+                //removed keys are simply forgotten; the rest are in the segments before they leave the pinned ones
+                if (value != null) {
+                    cache(key, value);
+                }
+            }
+
+            pinned.set(next);
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public V remove(String key) {
+        lock.lock();
+
+        try {
+            drainReads();
+
+            V value = pinned.get().get(key);
+
+            pinned.set(pinned.get().without(key));
+
+            V cached = forget(key);
+
+            return value == null ? cached : value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+
+        try {
+            drainReads();
+
+            //the hits still buffered must not relink the entries dropped here
+            for (Node<V> node : nodes.values()) {
+                node.segment = null;
+            }
+
+            probation.clear();
+            protectedSegment.clear();
+            nodes.clear();
+            pinned.set(PersistentMap.<V>empty());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+
+        try {
+            return getSize();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        lock.lock();
+
+        try {
+            return capacity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(capacity + " is not a valid cache capacity");
+        }
+
+        lock.lock();
+
+        try {
+            drainReads();
+            this.capacity = capacity;
+
+            //an unbounded cache keeps the segments as they are, for the capacity to be bounded again
+            if (!isBounded()) {
+                return;
+            }
+
+            while (protectedSegment.size > getProtectedCapacity()) {
+                demoteEldest();
+            }
+
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats getStats() {
+        lock.lock();
+
+        try {
+            return new Stats(hitCount.get(), missCount.get(), evictionCount, getSize());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //the entries not persisted yet, null standing for a removed key; immutable
+    public PersistentMap<V> getPinned() {
+        return pinned.get();
+    }
+
+    //a copy, safe to iterate over while the cache changes
+    public Map<String, V> snapshot() {
+        lock.lock();
+
+        try {
+            Map<String, V> copy = new HashMap<String, V>();
+
+            for (Node<V> node : nodes.values()) {
+                copy.put(node.key, node.value);
+            }
+
+            for (Map.Entry<String, V> entry : pinned.get()) {
+                if (entry.getValue() == null) {
+                    copy.remove(entry.getKey());
+                } else {
+                    copy.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            return copy;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //MUST be under the lock: the pinned entries are only replaced by the writers holding it
+    private void pinKeys(Map<String, V> pinnedValues, Set<String> removed) {
+        PersistentMap<V> next = pinned.get();
+
+        for (Map.Entry<String, V> entry : pinnedValues.entrySet()) {
+            next = next.with(entry.getKey(), entry.getValue());
+        }
+
+        for (String key : removed) {
+            next = next.with(key, null);
+        }
+
+        pinned.set(next);
+    }
+
+    //MUST be under the lock; the hits recorded so far reorder the segments as they would have done at once
+    private void drainReads() {
+        readBuffer.drainTo(drained);
+
+        for (Node<V> node : drained) {
+            if (node.segment == protectedSegment) {
+                protectedSegment.remove(node);
+                protectedSegment.addNewest(node);
+            } else if (node.segment == probation) {
+                probation.remove(node);
+                promote(node);
+            }
+
+            //otherwise the entry has left the cache since it was hit
+        }
+
+        drained.clear();
+    }
+
+    //MUST be under the lock
+    private int getSize() {
+        return pinned.get().size() + protectedSegment.size + probation.size;
+    }
+
+    //MUST be under the lock; a new key enters the probationary segment, a known one becomes its segment's newest
+    private void cache(String key, V value) {
+        Node<V> node = nodes.get(key);
+
+        if (node == null) {
+            node = new Node<V>(key, value);
+            nodes.put(key, node);
+            probation.addNewest(node);
+            evict();
+            return;
+        }
+
+        Segment<V> segment = node.segment;
+
+        node.value = value;
+        segment.remove(node);
+        segment.addNewest(node);
+    }
+
+    //MUST be under the lock
+    private V forget(String key) {
+        Node<V> node = nodes.remove(key);
+
+        if (node == null) {
+            return null;
+        }
+
+        node.segment.remove(node);
+
+        return node.value;
+    }
+
+    private void promote(Node<V> node) {
+        protectedSegment.addNewest(node);
+
+        if (!isBounded()) {
+            return;
+        }
+
+        while (protectedSegment.size > getProtectedCapacity()) {
+            demoteEldest();
+        }
+
+        evict();
+    }
+
+    //the protected segment's least recently used entry gets one more chance in the probationary one
+    private void demoteEldest() {
+        Node<V> eldest = protectedSegment.getEldest();
+
+        protectedSegment.remove(eldest);
+        probation.addNewest(eldest);
+    }
+
+    private void evict() {
+        if (!isBounded()) {
+            return;
+        }
+
+        Node<V> eldest = probation.getEldest();
+
+        while ((getSize() > capacity) && (eldest != null)) {
+            probation.remove(eldest);
+            nodes.remove(eldest.key);
+            ++evictionCount;
+            eldest = probation.getEldest();
+        }
+    }
+}
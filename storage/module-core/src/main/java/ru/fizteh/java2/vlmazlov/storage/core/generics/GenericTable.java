@@ -1,20 +1,30 @@
 package ru.fizteh.java2.vlmazlov.storage.core.generics;
 
+import ru.fizteh.java2.vlmazlov.storage.api.TransactionConflictException;
 import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
 import ru.fizteh.java2.vlmazlov.storage.utils.ValidityChecker;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class GenericTable<V> implements Iterable<Map.Entry<String, V>>, Cloneable {
 
-    protected final Map<String, V> commited;
+    public static final int DEFAULT_STRIPES = 256;
+
+    protected final CommitedCache<V> commited;
     protected final GenericTableProvider<V, ? extends GenericTable<V>> provider;
 
     protected final ThreadLocal<HashMap<String, V>> changed = new ThreadLocal<HashMap<String, V>>() {
@@ -29,11 +39,65 @@ public abstract class GenericTable<V> implements Iterable<Map.Entry<String, V>>,
         }
     };
 
-    protected int commitedSize;
+    //version of the last commit of each key at the moment the transaction first turned to it
+    protected final ThreadLocal<HashMap<String, Long>> observed = new ThreadLocal<HashMap<String, Long>>() {
+        protected HashMap<String, Long> initialValue() {
+            return new HashMap<String, Long>();
+        }
+    };
+
+    //the version of the write stamps the transaction is open at, null until it turns to a key
+    private final ThreadLocal<Long> openedAt = new ThreadLocal<Long>();
+
+    //the size of the local version, kept up as the keys are changed
+    private final ThreadLocal<LocalSize<V>> localSize = new ThreadLocal<LocalSize<V>>() {
+        protected LocalSize<V> initialValue() {
+            return new LocalSize<V>();
+        }
+    };
+
+    private final WriteStamps writeStamps;
+
+    //commits of different stripes run concurrently
+    protected final AtomicInteger commitedSize;
     private final boolean autoCommit;
-    protected final ReadWriteLock getCommitLock;
+    protected final StripedLock stripes;
+    protected final VersionHistory<V> history;
     private final String name;
 
+    //the commited value of each key changed locally, null if absent, resolved once, as the key was first changed
+    private static class LocalSize<V> {
+        private final HashMap<String, V> commitedValues;
+        private int delta;
+
+        private LocalSize() {
+            commitedValues = new HashMap<String, V>();
+        }
+
+        private LocalSize(LocalSize<V> other) {
+            commitedValues = new HashMap<String, V>(other.commitedValues);
+            delta = other.delta;
+        }
+    }
+
+    //local changes of a transaction, detached from the thread that made them
+    public static class Transaction<V> {
+        private final HashMap<String, V> changed;
+        private final HashSet<String> deleted;
+        private final HashMap<String, Long> observed;
+        private final Long openedAt;
+        private final LocalSize<V> size;
+
+        private Transaction(HashMap<String, V> changed, HashSet<String> deleted, HashMap<String, Long> observed,
+            Long openedAt, LocalSize<V> size) {
+            this.changed = changed;
+            this.deleted = deleted;
+            this.observed = observed;
+            this.openedAt = openedAt;
+            this.size = size;
+        }
+    }
+
     public GenericTable(GenericTableProvider<V, ? extends GenericTable<V>> provider, String name) {
         this(provider, name, true);
     }
@@ -41,22 +105,280 @@ public abstract class GenericTable<V> implements Iterable<Map.Entry<String, V>>,
     protected GenericTable(GenericTableProvider<V, ? extends GenericTable<V>> provider, 
         String name, boolean autoCommit) {
 
+            this(provider, name, autoCommit, CommitedCache.UNBOUNDED);
+    }
+
+    //a bounded cache is only safe for tables able to load evicted keys back in getCommited()
+    protected GenericTable(GenericTableProvider<V, ? extends GenericTable<V>> provider,
+        String name, boolean autoCommit, int cacheCapacity) {
+
             this.name = name;
             this.provider = provider;
-            commited = new HashMap<String, V>();
+            commited = new CommitedCache<V>(cacheCapacity);
 
-            commitedSize = 0;
+            commitedSize = new AtomicInteger(0);
             this.autoCommit = autoCommit;
-            //fair queue
-            getCommitLock = new ReentrantReadWriteLock(true);
+            stripes = new StripedLock(DEFAULT_STRIPES);
+            history = new VersionHistory<V>();
+            writeStamps = new WriteStamps();
+    }
+
+    //to be called before the commited value is read: a commit in between is then taken for a conflict
+    private void observe(String key) {
+        //nothing to validate without transactions
+        if ((!autoCommit) && (!observed.get().containsKey(key))) {
+            //opened first: the stamps it keeps from being dropped are the ones read from now on
+            if (openedAt.get() == null) {
+                openedAt.set(writeStamps.open());
+            }
+
+            observed.get().put(key, writeStamps.get(key));
+        }
+    }
+
+    //MUST be under the stripe locks of the keys
+    private String findConflict() {
+        for (Map.Entry<String, Long> entry : observed.get().entrySet()) {
+            if (writeStamps.get(entry.getKey()) > entry.getValue()) {
+                return entry.getKey();
+            }
+        }
+
+        return null;
+    }
+
+    //the number of keys whose last commit is remembered for conflict detection
+    public int getWriteStampsCount() {
+        return writeStamps.size();
+    }
+
+    //the local changes of the calling thread are dropped, the transaction no longer keeps the write stamps
+    public void discardTransaction() {
+        changed.get().clear();
+        deleted.get().clear();
+        observed.get().clear();
+        localSize.remove();
+
+        Long version = openedAt.get();
+
+        if (version != null) {
+            openedAt.remove();
+            writeStamps.close(version);
+        }
+    }
+
+    //the version of the last commit
+    public long getVersion() {
+        return history.getCurrent();
+    }
+
+    public TableSnapshot<V> snapshot() {
+        return new TableSnapshot<V>(this, history);
+    }
+
+    //the commited value without locking; it may be the one a commit in progress replaces, or the new one
+    protected V readCommited(String key) {
+        return lookupCommited(key);
+    }
+
+    //the stripe of a key may change only while all the stripes are locked
+    protected int getStripe(String key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % stripes.getStripesCount();
+    }
+
+    //returns the stripe locked
+    protected int lockRead(String key) {
+        while (true) {
+            int stripe = getStripe(key);
+            stripes.lockRead(stripe);
+
+            //the key may have moved to another stripe while waiting
+            if (getStripe(key) == stripe) {
+                return stripe;
+            }
+
+            stripes.unlockRead(stripe);
+        }
+    }
+
+    //looks the key up under its stripe's read lock
+    protected V lookupCommited(String key) {
+        int stripe = lockRead(key);
+
+        try {
+            return getCommited(key);
+        } finally {
+            stripes.unlockRead(stripe);
+        }
+    }
+
+    //returns the stripes locked
+    private int[] lockWrite(Set<String> keys) {
+        while (true) {
+            int[] toLock = new int[keys.size()];
+            int i = 0;
+
+            for (String key : keys) {
+                toLock[i++] = getStripe(key);
+            }
+
+            int[] locked = stripes.lockWrite(toLock);
+            boolean moved = false;
+
+            for (String key : keys) {
+                if (Arrays.binarySearch(locked, getStripe(key)) < 0) {
+                    moved = true;
+                    break;
+                }
+            }
+
+            if (!moved) {
+                return locked;
+            }
+
+            stripes.unlockWrite(locked);
+        }
     }
 
     public Iterator iterator() {
-        return commited.entrySet().iterator();
+        return scan(null, null);
+    }
+
+    //keys not less than fromKey and less than toKey, null bounds being open
+    private static boolean isInRange(String key, String fromKey, String toKey) {
+        return ((fromKey == null) || (key.compareTo(fromKey) >= 0)) && ((toKey == null) || (key.compareTo(toKey) < 0));
+    }
+
+    /*
+    Entries of the range in ascending key order, the local changes included.
+    The persisted ones are read as the iteration goes, so commits made meanwhile may or may not be seen;
+    unlike the keys got, the scanned ones aren't checked for conflicts on commit.
+    */
+    public Iterator<Map.Entry<String, V>> scan(String fromKey, String toKey) {
+        if ((fromKey != null) && (toKey != null) && (fromKey.compareTo(toKey) >= 0)) {
+            return Collections.<Map.Entry<String, V>>emptyIterator();
+        }
+
+        SortedMap<String, V> local = new TreeMap<String, V>();
+
+        for (Map.Entry<String, V> entry : changed.get().entrySet()) {
+            if (isInRange(entry.getKey(), fromKey, toKey)) {
+                local.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        for (String key : deleted.get()) {
+            if (isInRange(key, fromKey, toKey)) {
+                local.put(key, null);
+            }
+        }
+
+        return new OverlayIterator<V>(scanCommited(fromKey, toKey), local);
+    }
+
+    //the commited entries of the range, local changes aside
+    protected Iterator<Map.Entry<String, V>> scanCommited(String fromKey, String toKey) {
+        //commited, but not yet persisted
+        SortedMap<String, V> pinned = new TreeMap<String, V>();
+
+        for (Map.Entry<String, V> entry : commited.getPinned()) {
+            if (isInRange(entry.getKey(), fromKey, toKey)) {
+                pinned.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return new OverlayIterator<V>(scanPersisted(fromKey, toKey), pinned);
+    }
+
+    public Iterator<Map.Entry<String, V>> scanPrefix(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("prefix not specified");
+        }
+
+        return scan(prefix, getPrefixEnd(prefix));
+    }
+
+    //the least string greater than every one starting with the prefix, null if there is none
+    private static String getPrefixEnd(String prefix) {
+        char[] chars = prefix.toCharArray();
+
+        for (int i = chars.length - 1; i >= 0; --i) {
+            if (chars[i] != Character.MAX_VALUE) {
+                ++chars[i];
+                return new String(chars, 0, i + 1);
+            }
+        }
+
+        return null;
     }
 
+    //persisted entries of the range in ascending key order, read lazily
+    protected abstract Iterator<Map.Entry<String, V>> scanPersisted(String fromKey, String toKey);
+
     protected abstract V getCommited(String key);
 
+    //answered without locking, so a commit adding the key must make it false before the key is visible
+    protected boolean isKnownAbsent(String key) {
+        return false;
+    }
+
+    //the local changes of the calling thread taken away from it, so that another thread may go on with them
+    public Transaction<V> detachTransaction() {
+        Transaction<V> transaction = new Transaction<V>(changed.get(), deleted.get(), observed.get(), openedAt.get(),
+            localSize.get());
+
+        changed.remove();
+        deleted.remove();
+        observed.remove();
+        openedAt.remove();
+        localSize.remove();
+
+        return transaction;
+    }
+
+    //a copy of the local changes of the calling thread, which keeps them; the copy is to be read, not commited,
+    //so it doesn't keep the write stamps itself
+    public Transaction<V> copyTransaction() {
+        return new Transaction<V>(new HashMap<String, V>(changed.get()), new HashSet<String>(deleted.get()),
+            new HashMap<String, Long>(observed.get()), null, new LocalSize<V>(localSize.get()));
+    }
+
+    //the local changes of the calling thread are replaced
+    public void attachTransaction(Transaction<V> transaction) {
+        changed.set(transaction.changed);
+        deleted.set(transaction.deleted);
+        observed.set(transaction.observed);
+        openedAt.set(transaction.openedAt);
+        localSize.set(transaction.size);
+    }
+
+    //the key makes a part of the size of the local version
+    private boolean isPresentLocally(String key, boolean wasCommited) {
+        return (changed.get().containsKey(key)) || ((!deleted.get().contains(key)) && (wasCommited));
+    }
+
+    //what the local change of the key adds to the size
+    private int getSizeContribution(String key) {
+        boolean wasCommited = localSize.get().commitedValues.get(key) != null;
+        return (isPresentLocally(key, wasCommited) ? 1 : 0) - (wasCommited ? 1 : 0);
+    }
+
+    //MUST be called right before the key is changed locally, commitedValue being its value in the commited version;
+    //it is only looked at the first time the key is changed
+    private void beforeChange(String key, V commitedValue) {
+        LocalSize<V> size = localSize.get();
+
+        if (!size.commitedValues.containsKey(key)) {
+            size.commitedValues.put(key, commitedValue);
+        }
+
+        size.delta -= getSizeContribution(key);
+    }
+
+    private void afterChange(String key) {
+        localSize.get().delta += getSizeContribution(key);
+    }
+
     public V put(String key, V value) {
         try {
             ValidityChecker.checkTableKey(key);
@@ -67,6 +389,9 @@ public abstract class GenericTable<V> implements Iterable<Map.Entry<String, V>>,
 
         V returnValue = get(key);
 
+        //unless changed before, the key has been read from the commited version
+        beforeChange(key, returnValue);
+
         //putting the same value as in the last commited version
         //effectively discards any changes made to it
         //anyway, local changes should be applied no matter what
@@ -75,6 +400,8 @@ public abstract class GenericTable<V> implements Iterable<Map.Entry<String, V>>,
         //the value put back is no longer deleted
         deleted.get().remove(key);
 
+        afterChange(key);
+
         if (autoCommit) {
             pushChanges();
         }
@@ -82,32 +409,50 @@ public abstract class GenericTable<V> implements Iterable<Map.Entry<String, V>>,
     }
 
     public V get(String key) {
+        if (beginGet(key)) {
+            return getLocal(key);
+        }
+
+        return getCommitedValue(key);
+    }
+
+    /*
+    get() in two steps, so that the commited value may be read by another thread than the one of the transaction.
+    beginGet() is called by the thread of the transaction and does no I/O: it returns true if getLocal() has the value,
+    otherwise the key is observed for conflicts and the value is left to getCommitedValue().
+    */
+    public boolean beginGet(String key) {
         try {
             ValidityChecker.checkTableKey(key);
         } catch (ValidityCheckFailedException ex) {
             throw new IllegalArgumentException(ex.getMessage());
         }
 
-        if (deleted.get().contains(key)) {
-            return null;
+        if ((deleted.get().contains(key)) || (changed.get().get(key) != null)) {
+            return true;
         }
 
-        if (changed.get().get(key) != null) {
-            return changed.get().get(key);
-        }
+        observe(key);
+        return false;
+    }
 
-        getCommitLock.readLock().lock();
+    public V getLocal(String key) {
+        return deleted.get().contains(key) ? null : changed.get().get(key);
+    }
 
-        try {
-            if (getCommited(key) != null) {
-                return getCommited(key);
-            }
-        } finally {
-            getCommitLock.readLock().unlock();
+    public V getCommitedValue(String key) {
+        //the cache is consistent by itself, only a miss needs the stripe to load the key safely
+        V cached = commited.get(key);
+
+        if ((cached != null) || (commited.isRemoved(key))) {
+            return cached;
         }
 
-        //redundant but still
-        return null;
+        if (isKnownAbsent(key)) {
+            return null;
+        }
+
+        return lookupCommited(key);
     }
 
     public V remove(String key) {
@@ -118,15 +463,9 @@ public abstract class GenericTable<V> implements Iterable<Map.Entry<String, V>>,
         }
 
         V returnValue = get(key);
-        V commitedValue = null;
-
-        getCommitLock.readLock().lock();
+        V commitedValue = lookupCommited(key);
 
-        try {
-            commitedValue = getCommited(key);
-        } finally {
-            getCommitLock.readLock().unlock();
-        }
+        beforeChange(key, commitedValue);
 
         //if present, the key should be deleted from a commited version of a table
         if (commitedValue != null) {
@@ -135,14 +474,208 @@ public abstract class GenericTable<V> implements Iterable<Map.Entry<String, V>>,
         //it is deleted from local changes regardless
         changed.get().remove(key);
 
+        afterChange(key);
+
         if (autoCommit) {
             pushChanges();
         }
         return returnValue;
     }
 
+    private static void checkKeys(Collection<String> keys) {
+        if (keys == null) {
+            throw new IllegalArgumentException("keys not specified");
+        }
+
+        try {
+            for (String key : keys) {
+                ValidityChecker.checkTableKey(key);
+            }
+        } catch (ValidityCheckFailedException ex) {
+            throw new IllegalArgumentException(ex.getMessage());
+        }
+    }
+
+    //the commited values of the keys, absent ones left out; every stripe is locked once for all of its keys
+    protected Map<String, V> lookupCommitedAll(Collection<String> keys) {
+        Map<Integer, List<String>> byStripe = new TreeMap<Integer, List<String>>();
+
+        for (String key : keys) {
+            int stripe = getStripe(key);
+            List<String> stripeKeys = byStripe.get(stripe);
+
+            if (stripeKeys == null) {
+                stripeKeys = new ArrayList<String>();
+                byStripe.put(stripe, stripeKeys);
+            }
+
+            stripeKeys.add(key);
+        }
+
+        Map<String, V> found = new HashMap<String, V>();
+        List<String> moved = new ArrayList<String>();
+
+        for (Map.Entry<Integer, List<String>> stripeKeys : byStripe.entrySet()) {
+            int stripe = stripeKeys.getKey();
+            stripes.lockRead(stripe);
+
+            try {
+                for (String key : stripeKeys.getValue()) {
+                    //the table has been resharded since the keys were grouped
+                    if (getStripe(key) != stripe) {
+                        moved.add(key);
+                        continue;
+                    }
+
+                    V value = getCommited(key);
+
+                    if (value != null) {
+                        found.put(key, value);
+                    }
+                }
+            } finally {
+                stripes.unlockRead(stripe);
+            }
+        }
+
+        //one at a time, so that no two stripes are held at once
+        for (String key : moved) {
+            V value = lookupCommited(key);
+
+            if (value != null) {
+                found.put(key, value);
+            }
+        }
+
+        return found;
+    }
+
+    //get() of every key, the keys being valid
+    private Map<String, V> lookupAll(Collection<String> keys) {
+        Map<String, V> found = new HashMap<String, V>();
+        List<String> misses = new ArrayList<String>();
+
+        for (String key : keys) {
+            if (deleted.get().contains(key)) {
+                continue;
+            }
+
+            V local = changed.get().get(key);
+
+            if (local != null) {
+                found.put(key, local);
+                continue;
+            }
+
+            observe(key);
+
+            V cached = commited.get(key);
+
+            if (cached != null) {
+                found.put(key, cached);
+            } else if ((!commited.isRemoved(key)) && (!isKnownAbsent(key))) {
+                misses.add(key);
+            }
+        }
+
+        found.putAll(lookupCommitedAll(misses));
+
+        return found;
+    }
+
+    public Map<String, V> getAll(Collection<String> keys) {
+        checkKeys(keys);
+        return lookupAll(keys);
+    }
+
+    //nothing is changed unless every key and value is valid; returns the previous values of the keys that had one
+    public Map<String, V> putAll(Map<String, V> values) {
+        if (values == null) {
+            throw new IllegalArgumentException("values not specified");
+        }
+
+        checkKeys(values.keySet());
+
+        try {
+            for (V value : values.values()) {
+                ValidityChecker.checkTableValue(value);
+            }
+        } catch (ValidityCheckFailedException ex) {
+            throw new IllegalArgumentException(ex.getMessage());
+        }
+
+        Map<String, V> previous = lookupAll(values.keySet());
+
+        for (String key : values.keySet()) {
+            beforeChange(key, previous.get(key));
+        }
+
+        changed.get().putAll(values);
+        deleted.get().removeAll(values.keySet());
+
+        for (String key : values.keySet()) {
+            afterChange(key);
+        }
+
+        if (autoCommit) {
+            pushChanges();
+        }
+
+        return previous;
+    }
+
+    public Map<String, V> removeAll(Collection<String> keys) {
+        checkKeys(keys);
+
+        Map<String, V> previous = lookupAll(keys);
+        Map<String, V> commitedValues = lookupCommitedAll(keys);
+        //a key given twice is changed once
+        Set<String> unique = new HashSet<String>(keys);
+
+        for (String key : unique) {
+            beforeChange(key, commitedValues.get(key));
+        }
+
+        //as in remove(), only the keys present in the commited version are to be deleted from it
+        deleted.get().addAll(commitedValues.keySet());
+
+        for (String key : unique) {
+            changed.get().remove(key);
+            afterChange(key);
+        }
+
+        if (autoCommit) {
+            pushChanges();
+        }
+
+        return previous;
+    }
+
     public abstract int size();
 
+    //size as of the last commit, local changes aside
+    public int getCommitedSize() {
+        return commitedSize.get();
+    }
+
+    //the difference local changes make to the size; a commit of a key observed in between is a conflict,
+    //so the presence resolved as the keys were changed still holds when the transaction commits
+    protected int getSizeDelta() {
+        return localSize.get().delta;
+    }
+
+    public CommitedCache.Stats getCacheStats() {
+        return commited.getStats();
+    }
+
+    public int getCacheCapacity() {
+        return commited.getCapacity();
+    }
+
+    public void setCacheCapacity(int capacity) {
+        commited.setCapacity(capacity);
+    }
+
     public String getName() {
         return name;
     }
@@ -151,91 +684,140 @@ public abstract class GenericTable<V> implements Iterable<Map.Entry<String, V>>,
 
     public int commit() throws IOException {
         int diffNum;
+        Set<String> touched = new HashSet<String>(changed.get().keySet());
+        touched.addAll(deleted.get());
 
-        getCommitLock.writeLock().lock();
+        //only the stripes of the keys changed, commits of other keys go on meanwhile
+        //keys only read are locked as well, so that they can't change between validation and commit
+        Set<String> toLock = new HashSet<String>(touched);
+        toLock.addAll(observed.get().keySet());
+
+        int[] locked = lockWrite(toLock);
+        long version = 0;
 
         try {
+            String conflict = findConflict();
+
+            if (conflict != null) {
+                rollback();
+                throw new TransactionConflictException(conflict);
+            }
 
-            getCommitLock.readLock().lock();
+            //the write locks held allow the read ones taken by the lookups, if any
+            Map<String, V> previous = getPreviousValues(touched);
+            diffNum = getDiffCount(previous);
+
+            //NB: first calculate size, then push changes
+            int sizeDelta = getSizeDelta();
+
+            //open snapshots keep seeing the previous values
+            version = history.record(previous, changed.get());
+
+            //storeOnCommit() persists the size, so it must already be the new one
+            commitedSize.addAndGet(sizeDelta);
+            boolean stored = false;
 
             try {
-                diffNum = getDiffCount();
+                //stored or logged before anything is visible: a failed commit leaves the transaction to be retried
+                storeOnCommit();
+                stored = true;
             } finally {
-                getCommitLock.readLock().unlock();
+                if (!stored) {
+                    commitedSize.addAndGet(-sizeDelta);
+                    history.discard(version, touched);
+                }
             }
 
-            //NB: first calculate size, then push changes
-            //System.out.println(commitedSize);
-            int newSize = size();
-           
             pushChanges();
-            storeOnCommit();
-            
-            commitedSize = newSize;
+            //after the values: a reader that sees the new stamp sees the new value as well
+            writeStamps.stamp(touched, version);
+            onCommitStored(changed.get().keySet(), deleted.get());
 
         } catch (ValidityCheckFailedException ex) {
             throw new RuntimeException("Validity check failed: " + ex.getMessage());
         } finally {
+            if (version != 0) {
+                history.applied(version, touched);
+                writeStamps.finish(version);
+            }
 
-            getCommitLock.writeLock().unlock();
+            stripes.unlockWrite(locked);
         }
 
-        changed.get().clear();
-        deleted.get().clear();
+        discardTransaction();
+
+        awaitCommitDurable();
 
         return diffNum;
     }
 
+    //called under the stripe locks of the commit once the stored changes are visible
+    protected void onCommitStored(Set<String> changedKeys, Set<String> deletedKeys) {
+        //persisted now, so the values may be evicted and loaded back
+        commited.unpin(changedKeys);
+        commited.unpin(deletedKeys);
+    }
+
+    //called once the stripe locks are released, for commits that become durable later
+    protected void awaitCommitDurable() throws IOException {
+    }
+
     public int rollback() {
         int diffNum = getDiffCount();
 
-        changed.get().clear();
-        deleted.get().clear();
+        discardTransaction();
 
         return diffNum;
     }
 
-    //should be locked from the outside, unless made sure that the object is thread-unique
-    //synchronized, just to be safe
+    //the stripes of the changed keys should be locked from the outside, unless the object is thread-unique
+    public void pushChanges() {
+        //lock-free readers see either none of the changes or all of them
+        commited.pinAll(changed.get(), deleted.get());
+    }
 
-    public synchronized void pushChanges() {
-        for (Map.Entry<String, V> entry : changed.get().entrySet()) {
-            commited.put(entry.getKey(), entry.getValue());
+    /*
+    The commited values of the keys changed locally, null for absent ones.
+    They are the ones resolved as the keys were first changed: a commit of a key observed in between is a conflict.
+    Without transactions nothing is observed, and the changes are already pushed, so the keys are looked up.
+    */
+    private Map<String, V> getPreviousValues(Set<String> keys) {
+        Map<String, V> commitedValues = localSize.get().commitedValues;
+        Map<String, V> previous = new HashMap<String, V>();
+
+        for (String key : keys) {
+            previous.put(key, ((!autoCommit) && (commitedValues.containsKey(key)))
+                ? commitedValues.get(key) : lookupCommited(key));
         }
 
-        for (String entry : deleted.get()) {
-            commited.remove(entry);
-        }
+        return previous;
     }
 
     public int getDiffCount() {
+        Set<String> touched = new HashSet<String>(changed.get().keySet());
+        touched.addAll(deleted.get());
 
-        int diffCount = 0;
-
-        getCommitLock.readLock().lock();
-
-        try {
+        return getDiffCount(getPreviousValues(touched));
+    }
 
-            for (Map.Entry<String, V> entry : changed.get().entrySet()) {
+    private int getDiffCount(Map<String, V> previous) {
+        int diffCount = 0;
 
-                if ((getCommited(entry.getKey()) == null    )
-                        || (!isValueEqual(entry.getValue(), getCommited(entry.getKey())))) {
+        for (Map.Entry<String, V> entry : changed.get().entrySet()) {
+            V commitedValue = previous.get(entry.getKey());
 
-                    ++diffCount;
-                }
+            if ((commitedValue == null) || (!isValueEqual(entry.getValue(), commitedValue))) {
+                ++diffCount;
             }
+        }
 
-            for (String entry : deleted.get()) {
-                if (getCommited(entry) != null) {
-                    ++diffCount;
-                }
+        for (String entry : deleted.get()) {
+            if (previous.get(entry) != null) {
+                ++diffCount;
             }
-
-            return diffCount;
-
-        } finally {
-            getCommitLock.readLock().unlock();
         }
+
+        return diffCount;
     }
 
     public abstract GenericTable<V> clone() throws CloneNotSupportedException;
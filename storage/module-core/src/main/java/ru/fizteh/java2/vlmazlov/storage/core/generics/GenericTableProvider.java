@@ -6,8 +6,8 @@ import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
 import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.FileUtils;
 
@@ -25,7 +25,8 @@ public abstract class GenericTableProvider<V, T extends GenericTable<V>> {
         ValidityChecker.checkMultiTableDataBaseRoot(root);
 
         this.root = root;
-        tables = new HashMap<String, T>();
+        //tables may be loaded in parallel
+        tables = new ConcurrentHashMap<String, T>();
         this.autoCommit = autoCommit;
     }
 
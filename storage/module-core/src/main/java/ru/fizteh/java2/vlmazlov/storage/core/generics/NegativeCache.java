@@ -0,0 +1,86 @@
+package ru.fizteh.java2.vlmazlov.storage.core.generics;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+Keys recently found absent from the persisted data, least recently used ones evicted first.
+A key must be invalidated before a commit adding it becomes visible,
+and may only be added by a lookup the commits of the key are locked out of.
+*/
+public class NegativeCache {
+
+    private int capacity;
+    private final LinkedHashMap<String, Boolean> keys;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public NegativeCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(capacity + " is not a valid cache capacity");
+        }
+
+        this.capacity = capacity;
+        keys = new LinkedHashMap<String, Boolean>(16, 0.75f, true);
+    }
+
+    public synchronized boolean contains(String key) {
+        if (keys.get(key) != null) {
+            ++hitCount;
+            return true;
+        }
+
+        ++missCount;
+        return false;
+    }
+
+    //not counted in the stats
+    public synchronized boolean peek(String key) {
+        return keys.containsKey(key);
+    }
+
+    public synchronized void add(String key) {
+        keys.put(key, Boolean.TRUE);
+        evict();
+    }
+
+    public synchronized void invalidate(Iterable<String> toInvalidate) {
+        for (String key : toInvalidate) {
+            keys.remove(key);
+        }
+    }
+
+    public synchronized void clear() {
+        keys.clear();
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException(capacity + " is not a valid cache capacity");
+        }
+
+        this.capacity = capacity;
+        evict();
+    }
+
+    public synchronized CommitedCache.Stats getStats() {
+        return new CommitedCache.Stats(hitCount, missCount, evictionCount, keys.size());
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Boolean>> eldest = keys.entrySet().iterator();
+
+        while ((keys.size() > capacity) && (eldest.hasNext())) {
+            eldest.next();
+            eldest.remove();
+            ++evictionCount;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ru.fizteh.java2.vlmazlov.storage.core.generics;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+
+/*
+Entries of a sorted iterator with the changes of a sorted map laid over them:
+a key of the map replaces the one of the iterator, and a key mapped to null removes it.
+*/
+public class OverlayIterator<V> implements Iterator<Map.Entry<String, V>> {
+
+    private final Iterator<Map.Entry<String, V>> base;
+    private final Iterator<Map.Entry<String, V>> overlay;
+
+    private Map.Entry<String, V> baseHead;
+    private Map.Entry<String, V> overlayHead;
+    private Map.Entry<String, V> next;
+
+    public OverlayIterator(Iterator<Map.Entry<String, V>> base, SortedMap<String, V> overlay) {
+        this.base = base;
+        this.overlay = overlay.entrySet().iterator();
+
+        baseHead = pull(this.base);
+        overlayHead = pull(this.overlay);
+        next = advance();
+    }
+
+    private static <V> Map.Entry<String, V> pull(Iterator<Map.Entry<String, V>> entries) {
+        return entries.hasNext() ? entries.next() : null;
+    }
+
+    private Map.Entry<String, V> advance() {
+        while ((baseHead != null) || (overlayHead != null)) {
+            int comparison;
+
+            if (baseHead == null) {
+                comparison = 1;
+            } else if (overlayHead == null) {
+                comparison = -1;
+            } else {
+                comparison = baseHead.getKey().compareTo(overlayHead.getKey());
+            }
+
+            if (comparison < 0) {
+                Map.Entry<String, V> entry = baseHead;
+                baseHead = pull(base);
+
+                return entry;
+            }
+
+            if (comparison == 0) {
+                baseHead = pull(base);
+            }
+
+            Map.Entry<String, V> entry = overlayHead;
+            overlayHead = pull(overlay);
+
+            if (entry.getValue() != null) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    public Map.Entry<String, V> next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+
+        Map.Entry<String, V> entry = next;
+        next = advance();
+
+        return entry;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException("scanned entries are changed through the table");
+    }
+}
@@ -0,0 +1,374 @@
+package ru.fizteh.java2.vlmazlov.storage.core.generics;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/*
+Immutable map of strings (hash array mapped trie). Changes return a new map sharing
+all the unchanged nodes with the old one, so a version once published may be read
+by any number of threads without locking. Null values are allowed and differ from absent keys.
+*/
+public final class PersistentMap<V> implements Iterable<Map.Entry<String, V>> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    //the whole hash is used up, keys are told apart by equals() only
+    private static final int MAX_SHIFT = 32;
+    //levels of bitmap nodes and a collision node
+    private static final int MAX_DEPTH = MAX_SHIFT / BITS + 2;
+
+    private static final PersistentMap<Object> EMPTY = new PersistentMap<Object>(null, 0);
+
+    private abstract static class Node<V> {
+        //entries and child nodes
+        abstract Object[] getSlots();
+
+        abstract Map.Entry<String, V> find(String key, int hash, int shift);
+
+        //added[0] is set if the key was absent
+        abstract Node<V> with(Map.Entry<String, V> entry, int hash, int shift, boolean[] added);
+
+        //returns the node itself if the key is absent, null if nothing is left
+        abstract Node<V> without(String key, int hash, int shift);
+    }
+
+    private static final class BitmapNode<V> extends Node<V> {
+        private final int bitmap;
+        private final Object[] slots;
+
+        private BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        Object[] getSlots() {
+            return slots;
+        }
+
+        private int getIndex(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        Map.Entry<String, V> find(String key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+
+            Object slot = slots[getIndex(bit)];
+
+            if (slot instanceof Node) {
+                return PersistentMap.<V>asNode(slot).find(key, hash, shift + BITS);
+            }
+
+            Map.Entry<String, V> entry = PersistentMap.<V>asEntry(slot);
+
+            return entry.getKey().equals(key) ? entry : null;
+        }
+
+        Node<V> with(Map.Entry<String, V> entry, int hash, int shift, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int index = getIndex(bit);
+
+            if ((bitmap & bit) == 0) {
+                Object[] newSlots = new Object[slots.length + 1];
+
+                System.arraycopy(slots, 0, newSlots, 0, index);
+                newSlots[index] = entry;
+                System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+                added[0] = true;
+
+                return new BitmapNode<V>(bitmap | bit, newSlots);
+            }
+
+            Object slot = slots[index];
+            Object newSlot;
+
+            if (slot instanceof Node) {
+                newSlot = PersistentMap.<V>asNode(slot).with(entry, hash, shift + BITS, added);
+            } else {
+                Map.Entry<String, V> existing = PersistentMap.<V>asEntry(slot);
+
+                if (existing.getKey().equals(entry.getKey())) {
+                    newSlot = entry;
+                } else {
+                    newSlot = merge(existing, hash(existing.getKey()), entry, hash, shift + BITS);
+                    added[0] = true;
+                }
+            }
+
+            Object[] newSlots = slots.clone();
+            newSlots[index] = newSlot;
+
+            return new BitmapNode<V>(bitmap, newSlots);
+        }
+
+        Node<V> without(String key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+
+            int index = getIndex(bit);
+            Object slot = slots[index];
+            Object newSlot;
+
+            if (slot instanceof Node) {
+                Node<V> child = PersistentMap.<V>asNode(slot).without(key, hash, shift + BITS);
+
+                if (child == slot) {
+                    return this;
+                }
+
+                //a child left with a single entry is replaced by the entry
+                newSlot = ((child != null) && (child.getSlots().length == 1)
+                    && (!(child.getSlots()[0] instanceof Node))) ? child.getSlots()[0] : child;
+            } else if (PersistentMap.<V>asEntry(slot).getKey().equals(key)) {
+                newSlot = null;
+            } else {
+                return this;
+            }
+
+            if (newSlot != null) {
+                Object[] newSlots = slots.clone();
+                newSlots[index] = newSlot;
+
+                return new BitmapNode<V>(bitmap, newSlots);
+            }
+
+            if (slots.length == 1) {
+                return null;
+            }
+
+            Object[] newSlots = new Object[slots.length - 1];
+
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+
+            return new BitmapNode<V>(bitmap & ~bit, newSlots);
+        }
+    }
+
+    //keys of the same hash
+    private static final class CollisionNode<V> extends Node<V> {
+        private final Object[] entries;
+
+        private CollisionNode(Object[] entries) {
+            this.entries = entries;
+        }
+
+        Object[] getSlots() {
+            return entries;
+        }
+
+        private int getIndex(String key) {
+            for (int i = 0; i < entries.length; ++i) {
+                if (PersistentMap.<V>asEntry(entries[i]).getKey().equals(key)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        Map.Entry<String, V> find(String key, int hash, int shift) {
+            int index = getIndex(key);
+
+            return index < 0 ? null : PersistentMap.<V>asEntry(entries[index]);
+        }
+
+        Node<V> with(Map.Entry<String, V> entry, int hash, int shift, boolean[] added) {
+            int index = getIndex(entry.getKey());
+            Object[] newEntries;
+
+            if (index < 0) {
+                newEntries = new Object[entries.length + 1];
+                System.arraycopy(entries, 0, newEntries, 0, entries.length);
+                newEntries[entries.length] = entry;
+                added[0] = true;
+            } else {
+                newEntries = entries.clone();
+                newEntries[index] = entry;
+            }
+
+            return new CollisionNode<V>(newEntries);
+        }
+
+        Node<V> without(String key, int hash, int shift) {
+            int index = getIndex(key);
+
+            if (index < 0) {
+                return this;
+            }
+
+            if (entries.length == 1) {
+                return null;
+            }
+
+            Object[] newEntries = new Object[entries.length - 1];
+
+            System.arraycopy(entries, 0, newEntries, 0, index);
+            System.arraycopy(entries, index + 1, newEntries, index, entries.length - index - 1);
+
+            return new CollisionNode<V>(newEntries);
+        }
+    }
+
+    private final Node<V> root;
+    private final int size;
+
+    private PersistentMap(Node<V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentMap<V> empty() {
+        return (PersistentMap<V>) EMPTY;
+    }
+
+    //the slots hold nodes and entries of the map's own type only
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V> asNode(Object slot) {
+        return (Node<V>) slot;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Map.Entry<String, V> asEntry(Object slot) {
+        return (Map.Entry<String, V>) slot;
+    }
+
+    private static int hash(String key) {
+        int hash = key.hashCode();
+        //the low bits pick the first levels, so the high ones are mixed in
+        return hash ^ (hash >>> 16);
+    }
+
+    private static <V> Node<V> merge(Map.Entry<String, V> first, int firstHash,
+        Map.Entry<String, V> second, int secondHash, int shift) {
+
+        if (shift >= MAX_SHIFT) {
+            return new CollisionNode<V>(new Object[] {first, second});
+        }
+
+        int firstIndex = (firstHash >>> shift) & MASK;
+        int secondIndex = (secondHash >>> shift) & MASK;
+
+        if (firstIndex == secondIndex) {
+            return new BitmapNode<V>(1 << firstIndex,
+                new Object[] {merge(first, firstHash, second, secondHash, shift + BITS)});
+        }
+
+        //slots go in the order of the bits
+        Object[] slots = firstIndex < secondIndex ? new Object[] {first, second} : new Object[] {second, first};
+
+        return new BitmapNode<V>((1 << firstIndex) | (1 << secondIndex), slots);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(String key) {
+        return (root != null) && (root.find(key, hash(key), 0) != null);
+    }
+
+    public V get(String key) {
+        Map.Entry<String, V> entry = root == null ? null : root.find(key, hash(key), 0);
+
+        return entry == null ? null : entry.getValue();
+    }
+
+    public PersistentMap<V> with(String key, V value) {
+        Map.Entry<String, V> entry = new AbstractMap.SimpleImmutableEntry<String, V>(key, value);
+        int hash = hash(key);
+
+        if (root == null) {
+            return new PersistentMap<V>(new BitmapNode<V>(1 << (hash & MASK), new Object[] {entry}), 1);
+        }
+
+        boolean[] added = new boolean[1];
+        Node<V> newRoot = root.with(entry, hash, 0, added);
+
+        return new PersistentMap<V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    public PersistentMap<V> without(String key) {
+        if (root == null) {
+            return this;
+        }
+
+        Node<V> newRoot = root.without(key, hash(key), 0);
+
+        if (newRoot == root) {
+            return this;
+        }
+
+        return newRoot == null ? PersistentMap.<V>empty() : new PersistentMap<V>(newRoot, size - 1);
+    }
+
+    public Iterator<Map.Entry<String, V>> iterator() {
+        return new Iterator<Map.Entry<String, V>>() {
+            //the path to the next entry: slots of every level and the position in them
+            private final Object[][] path = new Object[MAX_DEPTH][];
+            private final int[] positions = new int[MAX_DEPTH];
+            private int depth = -1;
+            private Map.Entry<String, V> next;
+
+            {
+                if (root != null) {
+                    path[++depth] = root.getSlots();
+                }
+
+                advance();
+            }
+
+            private void advance() {
+                next = null;
+
+                while (depth >= 0) {
+                    if (positions[depth] == path[depth].length) {
+                        positions[depth--] = 0;
+                        continue;
+                    }
+
+                    Object slot = path[depth][positions[depth]++];
+
+                    if (slot instanceof Node) {
+                        path[++depth] = PersistentMap.<V>asNode(slot).getSlots();
+                    } else {
+                        next = PersistentMap.<V>asEntry(slot);
+                        return;
+                    }
+                }
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Map.Entry<String, V> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+
+                Map.Entry<String, V> entry = next;
+                advance();
+
+                return entry;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException("the map is immutable");
+            }
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package ru.fizteh.java2.vlmazlov.storage.core.generics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+Entries read from a cache, recorded without locking so that its order can be updated later, under its lock.
+Readers append to the ring of their stripe, chosen by the thread, and the owner drains all the rings at once.
+The buffer is lossy: an access is dropped if its ring is full or another reader of the stripe takes the slot,
+which only makes the order of the entries a bit less exact.
+*/
+public class ReadBuffer<E> {
+
+    //entries per stripe, a power of two
+    private static final int STRIPE_SIZE = 32;
+    //a drain is due once a ring is that full
+    private static final int DRAIN_THRESHOLD = STRIPE_SIZE / 2;
+    private static final int MAX_STRIPES = 64;
+
+    private static class Stripe<E> {
+        private final AtomicReferenceArray<E> slots = new AtomicReferenceArray<E>(STRIPE_SIZE);
+        //appended by the readers
+        private final AtomicLong writes = new AtomicLong(0);
+        //drained by the owner, under its lock
+        private volatile long reads = 0;
+    }
+
+    private final Stripe<E>[] stripes;
+
+    public ReadBuffer() {
+        int stripesCount = 1;
+
+        while ((stripesCount < Runtime.getRuntime().availableProcessors()) && (stripesCount < MAX_STRIPES)) {
+            stripesCount <<= 1;
+        }
+
+        @SuppressWarnings("unchecked")
+        Stripe<E>[] created = new Stripe[stripesCount];
+
+        for (int i = 0; i < stripesCount; ++i) {
+            created[i] = new Stripe<E>();
+        }
+
+        stripes = created;
+    }
+
+    //returns whether the buffer is to be drained
+    public boolean offer(E entry) {
+        Stripe<E> stripe = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+        long tail = stripe.writes.get();
+        long pending = tail - stripe.reads;
+
+        if (pending >= STRIPE_SIZE) {
+            return true;
+        }
+
+        if (!stripe.writes.compareAndSet(tail, tail + 1)) {
+            return false;
+        }
+
+        stripe.slots.lazySet((int) tail & (STRIPE_SIZE - 1), entry);
+
+        return pending + 1 >= DRAIN_THRESHOLD;
+    }
+
+    //MUST be under the owner's lock; the entries come in the order they were read per stripe
+    public void drainTo(List<E> entries) {
+        for (Stripe<E> stripe : stripes) {
+            long head = stripe.reads;
+            long tail = stripe.writes.get();
+
+            for (; head < tail; ++head) {
+                int index = (int) head & (STRIPE_SIZE - 1);
+                E entry = stripe.slots.get(index);
+
+                //taken, but not written yet: left for the next drain
+                if (entry == null) {
+                    break;
+                }
+
+                stripe.slots.lazySet(index, null);
+                entries.add(entry);
+            }
+
+            stripe.reads = head;
+        }
+    }
+}
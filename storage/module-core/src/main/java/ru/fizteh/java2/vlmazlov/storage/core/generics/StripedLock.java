@@ -0,0 +1,79 @@
+package ru.fizteh.java2.vlmazlov.storage.core.generics;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+Read-write locks of a table, one per stripe of keys.
+Readers and commits of different stripes don't wait for each other;
+operations on the whole table lock every stripe.
+Several stripes are always locked in ascending order, so that lockers can't deadlock.
+*/
+public class StripedLock {
+
+    private final ReadWriteLock[] stripes;
+
+    public StripedLock(int stripesCount) {
+        if (stripesCount <= 0) {
+            throw new IllegalArgumentException(stripesCount + " is not a valid number of stripes");
+        }
+
+        stripes = new ReadWriteLock[stripesCount];
+
+        for (int i = 0; i < stripesCount; ++i) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public int getStripesCount() {
+        return stripes.length;
+    }
+
+    public void lockRead(int stripe) {
+        stripes[stripe].readLock().lock();
+    }
+
+    public void unlockRead(int stripe) {
+        stripes[stripe].readLock().unlock();
+    }
+
+    //returns the stripes locked, sorted and without repeats, to be passed to unlockWrite()
+    public int[] lockWrite(int[] toLock) {
+        Arrays.sort(toLock);
+
+        int count = 0;
+
+        for (int i = 0; i < toLock.length; ++i) {
+            if ((i == 0) || (toLock[i] != toLock[i - 1])) {
+                toLock[count++] = toLock[i];
+            }
+        }
+
+        int[] locked = Arrays.copyOf(toLock, count);
+
+        for (int stripe : locked) {
+            stripes[stripe].writeLock().lock();
+        }
+
+        return locked;
+    }
+
+    public void unlockWrite(int[] locked) {
+        for (int i = locked.length - 1; i >= 0; --i) {
+            stripes[locked[i]].writeLock().unlock();
+        }
+    }
+
+    public void lockAll() {
+        for (ReadWriteLock stripe : stripes) {
+            stripe.writeLock().lock();
+        }
+    }
+
+    public void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; --i) {
+            stripes[i].writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package ru.fizteh.java2.vlmazlov.storage.core.generics;
+
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityChecker;
+
+/*
+Committed contents of a table as of one version: reads are repeatable whatever is committed meanwhile.
+No locks are taken, a commit in progress is neither waited for nor seen.
+Local changes of the thread are not seen either. Must be closed, the table keeps the old values till then.
+*/
+public class TableSnapshot<V> implements AutoCloseable {
+
+    private final GenericTable<V> table;
+    private final VersionHistory<V> history;
+    private final long version;
+    private volatile boolean isClosed;
+
+    TableSnapshot(GenericTable<V> table, VersionHistory<V> history) {
+        this.table = table;
+        this.history = history;
+        version = history.open();
+        isClosed = false;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public V get(String key) {
+        checkClosed();
+
+        try {
+            ValidityChecker.checkTableKey(key);
+        } catch (ValidityCheckFailedException ex) {
+            throw new IllegalArgumentException(ex.getMessage());
+        }
+
+        VersionHistory.Version<V> chain = history.getChain(key);
+
+        if (chain != null) {
+            return chain.resolve(version);
+        }
+
+        V value = table.readCommited(key);
+
+        //a commit may have changed the key while it was read; if so, its chain is there by now
+        chain = history.getChain(key);
+
+        return chain == null ? value : chain.resolve(version);
+    }
+
+    public synchronized void close() {
+        if (isClosed) {
+            return;
+        }
+
+        isClosed = true;
+        history.close(version);
+    }
+
+    private void checkClosed() {
+        if (isClosed) {
+            throw new IllegalStateException("trying to operate on a closed snapshot");
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package ru.fizteh.java2.vlmazlov.storage.core.generics;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+Committed versions of a table. Every commit gets the next version number;
+the values it replaces are kept, chained by key, for the snapshots opened before it.
+A chain is recorded before the commit changes anything else and dropped once the commit is applied
+and no open snapshot is older than it, so a key without a chain reads the same in every snapshot.
+*/
+public class VersionHistory<V> {
+
+    static class Version<V> {
+        private final long number;
+        //null if the key is absent in this version
+        private final V value;
+        private final Version<V> older;
+        private volatile boolean applied;
+
+        private Version(long number, V value, Version<V> older, boolean applied) {
+            this.number = number;
+            this.value = value;
+            this.older = older;
+            this.applied = applied;
+        }
+
+        //the value as of the given version
+        V resolve(long version) {
+            Version<V> current = this;
+
+            while (current.number > version) {
+                current = current.older;
+            }
+
+            return current.value;
+        }
+    }
+
+    private final ConcurrentMap<String, Version<V>> chains;
+    //open snapshots by version, with their number
+    private final TreeMap<Long, Integer> snapshots;
+    private long current;
+
+    public VersionHistory() {
+        chains = new ConcurrentHashMap<String, Version<V>>();
+        snapshots = new TreeMap<Long, Integer>();
+        current = 0;
+    }
+
+    public synchronized long getCurrent() {
+        return current;
+    }
+
+    public synchronized int getOpenSnapshotsCount() {
+        int count = 0;
+
+        for (int number : snapshots.values()) {
+            count += number;
+        }
+
+        return count;
+    }
+
+    public int getChainsCount() {
+        return chains.size();
+    }
+
+    //returns the version the snapshot sees, to be passed to close()
+    public synchronized long open() {
+        Integer count = snapshots.get(current);
+        snapshots.put(current, count == null ? 1 : count + 1);
+
+        return current;
+    }
+
+    public void close(long version) {
+        synchronized (this) {
+            Integer count = snapshots.get(version);
+
+            if (count == null) {
+                throw new IllegalStateException("no snapshot of version " + version + " is open");
+            }
+
+            if (count == 1) {
+                snapshots.remove(version);
+            } else {
+                snapshots.put(version, count - 1);
+            }
+        }
+
+        prune(chains.keySet());
+    }
+
+    /*
+    To be called with the keys locked against other commits, before the new values are visible.
+    The previous values are those committed before, null for absent keys;
+    the keys missing from the new values are removed by the commit. Returns the version of the commit.
+    */
+    public synchronized long record(Map<String, V> previous, Map<String, V> next) {
+        ++current;
+
+        for (Map.Entry<String, V> entry : previous.entrySet()) {
+            Version<V> chain = chains.get(entry.getKey());
+
+            if (chain == null) {
+                //seen by every snapshot older than this commit
+                chain = new Version<V>(0, entry.getValue(), null, true);
+            }
+
+            chains.put(entry.getKey(), new Version<V>(current, next.get(entry.getKey()), chain, false));
+        }
+
+        return current;
+    }
+
+    //the values of the version are visible without the history now
+    public void applied(long version, Set<String> keys) {
+        for (String key : keys) {
+            Version<V> chain = chains.get(key);
+
+            if ((chain != null) && (chain.number == version)) {
+                chain.applied = true;
+            }
+        }
+
+        prune(keys);
+    }
+
+    //the commit of the version failed before its values were visible; its links are taken out of the chains
+    public void discard(long version, Set<String> keys) {
+        for (String key : keys) {
+            Version<V> chain = chains.get(key);
+
+            if ((chain == null) || (chain.number != version)) {
+                continue;
+            }
+
+            //the link of version 0 was only made up by record() for this commit
+            if (chain.older.number == 0) {
+                chains.remove(key, chain);
+            } else {
+                chains.replace(key, chain, chain.older);
+            }
+        }
+    }
+
+    Version<V> getChain(String key) {
+        return chains.get(key);
+    }
+
+    private synchronized boolean isSeenByOlderSnapshot(long version) {
+        return (!snapshots.isEmpty()) && (snapshots.firstKey() < version);
+    }
+
+    private void prune(Iterable<String> keys) {
+        for (String key : keys) {
+            Version<V> chain = chains.get(key);
+
+            if ((chain != null) && (chain.applied) && (!isSeenByOlderSnapshot(chain.number))) {
+                chains.remove(key, chain);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ru.fizteh.java2.vlmazlov.storage.core.generics;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+Version of the last commit of every key, for the transactions to tell the commits made after they turned to a key.
+A transaction is opened at the version all the commits up to which are stamped;
+the stamps not newer than the oldest open transaction can't be newer than what any of them has seen,
+so they are dropped, the way VersionHistory drops the chains no open snapshot needs.
+*/
+public class WriteStamps {
+
+    //stamps kept before the ones no longer needed are looked for
+    public static final int PRUNE_THRESHOLD = 1 << 16;
+
+    private final ConcurrentMap<String, Long> stamps;
+    //open transactions by the version they were opened at, with their number
+    private final TreeMap<Long, Integer> open;
+    //commits done with out of order, waiting for the older ones
+    private final TreeSet<Long> finished;
+    //every commit up to this version is done with
+    private long stamped;
+    private int pruneThreshold;
+
+    public WriteStamps() {
+        stamps = new ConcurrentHashMap<String, Long>();
+        open = new TreeMap<Long, Integer>();
+        finished = new TreeSet<Long>();
+        stamped = 0;
+        pruneThreshold = PRUNE_THRESHOLD;
+    }
+
+    //0 if the key wasn't committed since the oldest open transaction was opened
+    public long get(String key) {
+        Long stamp = stamps.get(key);
+        return stamp == null ? 0 : stamp;
+    }
+
+    public int size() {
+        return stamps.size();
+    }
+
+    public synchronized int getOpenCount() {
+        int count = 0;
+
+        for (int number : open.values()) {
+            count += number;
+        }
+
+        return count;
+    }
+
+    //returns the version the transaction is opened at, to be passed to close()
+    public synchronized long open() {
+        Integer count = open.get(stamped);
+        open.put(stamped, count == null ? 1 : count + 1);
+
+        return stamped;
+    }
+
+    public synchronized void close(long version) {
+        Integer count = open.get(version);
+
+        if (count == null) {
+            throw new IllegalStateException("no transaction opened at version " + version + " is open");
+        }
+
+        if (count == 1) {
+            open.remove(version);
+        } else {
+            open.put(version, count - 1);
+        }
+    }
+
+    //MUST be under the stripe locks of the keys, once their new values are visible
+    public void stamp(Set<String> keys, long version) {
+        for (String key : keys) {
+            stamps.put(key, version);
+        }
+    }
+
+    //to be called for every version recorded, whether the commit succeeded or not
+    public void finish(long version) {
+        long pruneVersion;
+
+        synchronized (this) {
+            finished.add(version);
+
+            while ((!finished.isEmpty()) && (finished.first() == stamped + 1)) {
+                stamped = finished.pollFirst();
+            }
+
+            if (stamps.size() <= pruneThreshold) {
+                return;
+            }
+
+            pruneVersion = open.isEmpty() ? stamped : open.firstKey();
+        }
+
+        prune(pruneVersion);
+
+        synchronized (this) {
+            //a transaction open for long keeps the stamps; they aren't looked through on every commit then
+            pruneThreshold = Math.max(PRUNE_THRESHOLD, 2 * stamps.size());
+        }
+    }
+
+    private void prune(long version) {
+        Iterator<Map.Entry<String, Long>> entries = stamps.entrySet().iterator();
+
+        while (entries.hasNext()) {
+            Map.Entry<String, Long> entry = entries.next();
+
+            //a commit stamping the key meanwhile is newer
+            if (entry.getValue() <= version) {
+                stamps.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
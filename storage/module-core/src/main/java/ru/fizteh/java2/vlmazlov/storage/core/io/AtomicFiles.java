@@ -0,0 +1,115 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/*
+Replacement of a file as a whole: the new contents go to <name>.tmp next to it,
+which is then renamed over the old file, so a reader sees either the old contents or the new ones.
+Leftover temporary files belong to interrupted replacements and are simply deleted.
+*/
+public final class AtomicFiles {
+
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    private AtomicFiles() {
+    }
+
+    //where the contents of the file are to be written, the file itself if atomicity isn't wanted
+    public static File getTarget(File file, Durability durability) {
+        if (durability == Durability.NONE) {
+            return file;
+        }
+
+        return new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+    }
+
+    //to be called on the channel of getTarget() before it is closed
+    public static void sync(FileChannel channel, Durability durability) throws IOException {
+        if (durability == Durability.FSYNC) {
+            channel.force(true);
+        }
+    }
+
+    //puts the written contents in place of the file
+    public static void replace(File target, File file, Durability durability) throws IOException {
+        if (!target.equals(file)) {
+            try {
+                Files.move(target.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(target.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        if (durability == Durability.FSYNC) {
+            syncDirectory(file.getParentFile());
+        }
+    }
+
+    //same as replace(), but an empty target means the file is to be removed
+    public static void install(File target, File file, Durability durability) throws IOException {
+        if (target.length() != 0) {
+            replace(target, file, durability);
+            return;
+        }
+
+        target.delete();
+        file.delete();
+
+        if (durability == Durability.FSYNC) {
+            syncDirectory(file.getParentFile());
+        }
+    }
+
+    public static void write(File file, byte[] contents, Durability durability) throws IOException {
+        File target = getTarget(file, durability);
+
+        try (RandomAccessFile storage = new RandomAccessFile(target, "rw")) {
+            FileChannel channel = storage.getChannel();
+
+            channel.truncate(0);
+            LogRecords.writeFully(channel, ByteBuffer.wrap(contents), 0);
+            sync(channel, durability);
+        }
+
+        replace(target, file, durability);
+    }
+
+    //makes a rename or a removal in the directory durable
+    public static void syncDirectory(File directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ex) {
+            //not every platform allows opening a directory, there is nothing more to be done there
+        }
+    }
+
+    //directories left empty are removed as well, the directory itself aside
+    public static void deleteLeftovers(File directory) {
+        File[] entries = directory.listFiles();
+
+        if (entries == null) {
+            return;
+        }
+
+        for (File entry : entries) {
+            if (entry.isDirectory()) {
+                deleteLeftovers(entry);
+
+                if (entry.list().length == 0) {
+                    entry.delete();
+                }
+            } else if (entry.getName().endsWith(TEMP_SUFFIX)) {
+                entry.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import ru.fizteh.java2.vlmazlov.storage.api.ColumnFormatException;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.RowSchema;
+import ru.fizteh.java2.vlmazlov.storage.core.TableRow;
+import ru.fizteh.java2.vlmazlov.storage.utils.TypeName;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.List;
+
+/*
+Row layout: null bitmap (one bit per column), then every non-null column in signature order.
+Numbers are fixed-width big-endian, booleans take a byte,
+strings are UTF-8 prefixed with their length in bytes.
+*/
+public class BinaryStoreableCodec implements StoreableCodec {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final RowSchema schema;
+    private final List<Class<?>> valueTypes;
+    private final TypeName[] columns;
+    private final int bitmapLength;
+
+    public BinaryStoreableCodec(List<Class<?>> valueTypes) {
+        schema = new RowSchema(valueTypes);
+        this.valueTypes = schema.getValueTypes();
+
+        columns = new TypeName[valueTypes.size()];
+
+        for (int i = 0; i < columns.length; ++i) {
+            columns[i] = TypeName.getByClass(valueTypes.get(i));
+
+            if (columns[i] == null) {
+                throw new IllegalArgumentException("Unsupported column type: " + valueTypes.get(i));
+            }
+        }
+
+        bitmapLength = (columns.length + 7) / 8;
+    }
+
+    public StoreableFormat getFormat() {
+        return StoreableFormat.BINARY;
+    }
+
+    public RowSchema getSchema() {
+        return schema;
+    }
+
+    private static int fixedWidth(TypeName type) {
+        switch (type) {
+            case INTEGER:
+            case FLOAT:
+                return 4;
+            case LONG:
+            case DOUBLE:
+                return 8;
+            case BYTE:
+            case BOOLEAN:
+                return 1;
+            default:
+                //variable width
+                return -1;
+        }
+    }
+
+    public byte[] encode(Storeable value) throws ColumnFormatException {
+        Object[] values = new Object[columns.length];
+        byte[][] strings = new byte[columns.length][];
+        int length = bitmapLength;
+
+        for (int i = 0; i < columns.length; ++i) {
+            values[i] = value.getColumnAt(i);
+
+            if (values[i] == null) {
+                continue;
+            }
+
+            if (!valueTypes.get(i).isInstance(values[i])) {
+                throw new ColumnFormatException(values[i].getClass() + " cannot be assigned to " + valueTypes.get(i));
+            }
+
+            if (columns[i] == TypeName.STRING) {
+                strings[i] = ((String) values[i]).getBytes(UTF8);
+                length += 4 + strings[i].length;
+            } else {
+                length += fixedWidth(columns[i]);
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        byte[] bitmap = new byte[bitmapLength];
+
+        for (int i = 0; i < columns.length; ++i) {
+            if (values[i] == null) {
+                bitmap[i >> 3] |= 1 << (i & 7);
+            }
+        }
+
+        buffer.put(bitmap);
+
+        for (int i = 0; i < columns.length; ++i) {
+            if (values[i] == null) {
+                continue;
+            }
+
+            switch (columns[i]) {
+                case INTEGER:
+                    buffer.putInt((Integer) values[i]);
+                    break;
+                case LONG:
+                    buffer.putLong((Long) values[i]);
+                    break;
+                case DOUBLE:
+                    buffer.putDouble((Double) values[i]);
+                    break;
+                case FLOAT:
+                    buffer.putFloat((Float) values[i]);
+                    break;
+                case BYTE:
+                    buffer.put((Byte) values[i]);
+                    break;
+                case BOOLEAN:
+                    buffer.put((byte) ((Boolean) values[i] ? 1 : 0));
+                    break;
+                case STRING:
+                    buffer.putInt(strings[i].length);
+                    buffer.put(strings[i]);
+                    break;
+                default:
+                    //never reached
+                    break;
+            }
+        }
+
+        return buffer.array();
+    }
+
+    public Storeable decode(byte[] data) throws ParseException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        TableRow row = new TableRow(schema);
+
+        try {
+            byte[] bitmap = new byte[bitmapLength];
+            buffer.get(bitmap);
+
+            for (int i = 0; i < columns.length; ++i) {
+                if ((bitmap[i >> 3] & (1 << (i & 7))) != 0) {
+                    continue;
+                }
+
+                readColumn(buffer, row, i);
+            }
+        } catch (BufferUnderflowException ex) {
+            throw new ParseException("Unexpected end of serialized row", buffer.position());
+        }
+
+        if (buffer.hasRemaining()) {
+            throw new ParseException("Serialized row is too long", buffer.position());
+        }
+
+        return row;
+    }
+
+    //the columns before it are skipped over by their widths
+    public Object decodeColumn(byte[] data, int columnIndex) throws ParseException {
+        int offset = getColumnOffset(data, columnIndex);
+
+        if (offset < 0) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.position(offset);
+
+        try {
+            return readColumn(buffer, columns[columnIndex]);
+        } catch (BufferUnderflowException ex) {
+            throw new ParseException("Unexpected end of serialized row", buffer.position());
+        }
+    }
+
+    //where the value of the column starts, -1 if it is null; fixed-width values can be read from there in place
+    public int getColumnOffset(byte[] data, int columnIndex) throws ParseException {
+        if ((columnIndex < 0) || (columnIndex >= columns.length)) {
+            throw new IndexOutOfBoundsException("no column " + columnIndex);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        try {
+            byte[] bitmap = new byte[bitmapLength];
+            buffer.get(bitmap);
+
+            if ((bitmap[columnIndex >> 3] & (1 << (columnIndex & 7))) != 0) {
+                return -1;
+            }
+
+            for (int i = 0; i < columnIndex; ++i) {
+                if ((bitmap[i >> 3] & (1 << (i & 7))) != 0) {
+                    continue;
+                }
+
+                int width = fixedWidth(columns[i]);
+
+                if (width < 0) {
+                    width = buffer.getInt();
+
+                    if ((width < 0) || (width > buffer.remaining())) {
+                        throw new ParseException("Invalid string length " + width, buffer.position());
+                    }
+                }
+
+                buffer.position(buffer.position() + width);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new ParseException("Unexpected end of serialized row", buffer.position());
+        }
+
+        int width = fixedWidth(columns[columnIndex]);
+
+        //a string has at least its length
+        if (buffer.remaining() < (width < 0 ? 4 : width)) {
+            throw new ParseException("Unexpected end of serialized row", buffer.position());
+        }
+
+        return buffer.position();
+    }
+
+    public TypeName getColumnType(int columnIndex) {
+        return columns[columnIndex];
+    }
+
+    //numbers go straight into the slots of the row, not boxed
+    private void readColumn(ByteBuffer buffer, TableRow row, int columnIndex) throws ParseException {
+        switch (columns[columnIndex]) {
+            case INTEGER:
+                row.setIntValueAt(columnIndex, buffer.getInt());
+                break;
+            case LONG:
+                row.setLongValueAt(columnIndex, buffer.getLong());
+                break;
+            case DOUBLE:
+                row.setDoubleValueAt(columnIndex, buffer.getDouble());
+                break;
+            case FLOAT:
+                row.setFloatValueAt(columnIndex, buffer.getFloat());
+                break;
+            case BYTE:
+                row.setByteValueAt(columnIndex, buffer.get());
+                break;
+            case BOOLEAN:
+                row.setBooleanValueAt(columnIndex, buffer.get() != 0);
+                break;
+            default:
+                row.setColumnAt(columnIndex, readColumn(buffer, columns[columnIndex]));
+                break;
+        }
+    }
+
+    private Object readColumn(ByteBuffer buffer, TypeName type) throws ParseException {
+        switch (type) {
+            case INTEGER:
+                return buffer.getInt();
+            case LONG:
+                return buffer.getLong();
+            case DOUBLE:
+                return buffer.getDouble();
+            case FLOAT:
+                return buffer.getFloat();
+            case BYTE:
+                return buffer.get();
+            case BOOLEAN:
+                return buffer.get() != 0;
+            case STRING:
+                int length = buffer.getInt();
+
+                if ((length < 0) || (length > buffer.remaining())) {
+                    throw new ParseException("Invalid string length " + length, buffer.position());
+                }
+
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+
+                return new String(bytes, UTF8);
+            default:
+                //never reached
+                return null;
+        }
+    }
+}
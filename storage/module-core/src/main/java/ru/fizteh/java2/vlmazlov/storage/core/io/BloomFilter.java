@@ -0,0 +1,215 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collection;
+
+/*
+Keys of a shard file, approximately: a key the filter rejects is surely absent from the shard,
+a key it accepts is present with the probability set by the size of the filter.
+The filter is kept in <n>.bloom next to <n>.dat; it is removed before the shard is rewritten and written
+after, so a shard never has the filter of its previous version. The length of the shard it was built for
+is kept as well, and a filter not matching it is not used.
+*/
+public class BloomFilter {
+
+    public static final String SUFFIX = ".bloom";
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+    private static final int MAX_HASHES = 16;
+
+    public static class Stats {
+        private final long checkCount;
+        private final long skipCount;
+        private final long falsePositiveCount;
+        private final double expectedFalsePositiveRate;
+
+        public Stats(long checkCount, long skipCount, long falsePositiveCount, double expectedFalsePositiveRate) {
+            this.checkCount = checkCount;
+            this.skipCount = skipCount;
+            this.falsePositiveCount = falsePositiveCount;
+            this.expectedFalsePositiveRate = expectedFalsePositiveRate;
+        }
+
+        //lookups answered by a filter
+        public long getCheckCount() {
+            return checkCount;
+        }
+
+        //lookups of absent keys that didn't touch the shard
+        public long getSkipCount() {
+            return skipCount;
+        }
+
+        //lookups of absent keys the filter let through to the shard
+        public long getFalsePositiveCount() {
+            return falsePositiveCount;
+        }
+
+        public double getExpectedFalsePositiveRate() {
+            return expectedFalsePositiveRate;
+        }
+
+        //share of the absent keys let through
+        public double getFalsePositiveRate() {
+            long absent = skipCount + falsePositiveCount;
+            return absent == 0 ? 0.0 : (double) falsePositiveCount / absent;
+        }
+
+        public String toString() {
+            return "checks " + checkCount + ", skipped " + skipCount + ", false positives " + falsePositiveCount
+                + String.format(" (%.4f, expected %.4f)", getFalsePositiveRate(), expectedFalsePositiveRate);
+        }
+    }
+
+    private final long[] bits;
+    private final int hashesCount;
+    private final int keysCount;
+    private final long shardLength;
+
+    private BloomFilter(long[] bits, int hashesCount, int keysCount, long shardLength) {
+        this.bits = bits;
+        this.hashesCount = hashesCount;
+        this.keysCount = keysCount;
+        this.shardLength = shardLength;
+    }
+
+    public static BloomFilter build(Collection<String> keys, double falsePositiveRate, long shardLength) {
+        checkFalsePositiveRate(falsePositiveRate);
+
+        int keysCount = Math.max(keys.size(), 1);
+        //the optimal size for the rate, and the optimal number of hashes for the size
+        long bitsCount = (long) Math.ceil(-keysCount * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int wordsCount = (int) Math.min(Math.max((bitsCount + 63) / 64, 1), Integer.MAX_VALUE / 64);
+        int hashesCount = (int) Math.round((double) wordsCount * 64 / keysCount * Math.log(2));
+
+        hashesCount = Math.max(1, Math.min(hashesCount, MAX_HASHES));
+
+        BloomFilter filter = new BloomFilter(new long[wordsCount], hashesCount, keys.size(), shardLength);
+
+        for (String key : keys) {
+            filter.add(key);
+        }
+
+        return filter;
+    }
+
+    public static void checkFalsePositiveRate(double falsePositiveRate) {
+        if ((!(falsePositiveRate > 0)) || (!(falsePositiveRate < 1))) {
+            throw new IllegalArgumentException(falsePositiveRate + " is not a valid false positive rate");
+        }
+    }
+
+    public static File getFilterFile(File shard) {
+        return new File(shard.getParentFile(), shard.getName().replace(".dat", SUFFIX));
+    }
+
+    //the two halves serve as the two hashes all the others are combined from
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < key.length(); ++i) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+
+        //the last characters are poorly spread by FNV, the finalizer of MurmurHash3 mixes them in
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+    private int getBit(long hash, int i) {
+        int first = (int) (hash >>> 32);
+        int second = (int) hash;
+        int combined = first + i * second;
+
+        return (combined & Integer.MAX_VALUE) % (bits.length * 64);
+    }
+
+    private void add(String key) {
+        long hash = hash(key);
+
+        for (int i = 0; i < hashesCount; ++i) {
+            int bit = getBit(hash, i);
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+
+        for (int i = 0; i < hashesCount; ++i) {
+            int bit = getBit(hash, i);
+
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public long getShardLength() {
+        return shardLength;
+    }
+
+    //for the keys the filter was built for
+    public double getExpectedFalsePositiveRate() {
+        double bitsCount = bits.length * 64.0;
+        return Math.pow(1 - Math.exp(-hashesCount * keysCount / bitsCount), hashesCount);
+    }
+
+    public void write(File file, Durability durability) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(bits.length * 8 + 20);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeLong(shardLength);
+        out.writeInt(keysCount);
+        out.writeInt(hashesCount);
+        out.writeInt(bits.length);
+
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+
+        out.flush();
+        AtomicFiles.write(file, bytes.toByteArray(), durability);
+    }
+
+    //null if there is no filter, or it is damaged
+    public static BloomFilter read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long shardLength = in.readLong();
+            int keysCount = in.readInt();
+            int hashesCount = in.readInt();
+            int wordsCount = in.readInt();
+
+            if ((keysCount < 0) || (hashesCount <= 0) || (hashesCount > MAX_HASHES) || (wordsCount <= 0)
+                || ((long) wordsCount * 8 + 20 != file.length())) {
+                return null;
+            }
+
+            long[] bits = new long[wordsCount];
+
+            for (int i = 0; i < wordsCount; ++i) {
+                bits[i] = in.readLong();
+            }
+
+            return new BloomFilter(bits, hashesCount, keysCount, shardLength);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.TableRow;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/*
+Secondary index of a column: the keys of the rows by the value they have in the column, kept in memory.
+On disk, <table>/indexes/<column>.idx is a run of records framed by LogRecords, each being
+    int entries count, then per entry: int key length, key (UTF-8), int value length (-1 for a removed key), value
+with the value encoded as a one-column binary row. Every commit appends a record once its rows are stored;
+once the file is mostly overwritten entries, it is rewritten with the live ones only.
+A record that can't be appended leaves the file behind the keys in memory until repair() rewrites it.
+Commits logged by the provider are replayed through the index after a crash; those that aren't may be
+stored and yet missing from the file if the crash comes in between.
+*/
+public class ColumnIndex {
+
+    public static final String INDEXES_DIR = "indexes";
+    public static final String SUFFIX = ".idx";
+    //the file is rewritten once it holds that many entries per live one
+    private static final int GARBAGE_FACTOR = 2;
+    private static final int MIN_REWRITE_ENTRIES = 1 << 10;
+    //entries per record when the file is rewritten
+    private static final int REWRITE_BATCH = 1 << 12;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final int column;
+    private final StoreableCodec codec;
+
+    private final Map<String, Object> values;
+    private final Map<Object, Set<String>> keys;
+
+    private FileChannel channel;
+    private long size;
+    private long entriesWritten;
+    //the file is behind the keys in memory since then
+    private IOException failure;
+
+    private ColumnIndex(File file, int column, Class<?> type) {
+        this.file = file;
+        this.column = column;
+        codec = new BinaryStoreableCodec(Collections.<Class<?>>singletonList(type));
+        values = new HashMap<String, Object>();
+        keys = new HashMap<Object, Set<String>>();
+    }
+
+    public static File getIndexFile(File tableDir, int column) {
+        return new File(new File(tableDir, INDEXES_DIR), column + SUFFIX);
+    }
+
+    //columns the indexes found in the table directory are built on
+    public static List<Integer> listColumns(File tableDir, int columnsCount) throws ValidityCheckFailedException {
+        File indexesDir = new File(tableDir, INDEXES_DIR);
+        List<Integer> columns = new ArrayList<Integer>();
+
+        if (!indexesDir.isDirectory()) {
+            return columns;
+        }
+
+        for (String name : indexesDir.list()) {
+            int column = -1;
+
+            if (name.endsWith(SUFFIX)) {
+                try {
+                    column = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+                } catch (NumberFormatException ex) {
+                    column = -1;
+                }
+            }
+
+            if ((column < 0) || (column >= columnsCount)) {
+                throw new ValidityCheckFailedException(indexesDir.getPath() + " contains file " + name);
+            }
+
+            columns.add(column);
+        }
+
+        return columns;
+    }
+
+    //indexes the rows given and writes the index out
+    public static ColumnIndex build(File tableDir, int column, Class<?> type,
+        Iterator<Map.Entry<String, Storeable>> rows, Durability durability) throws IOException {
+
+        ColumnIndex index = new ColumnIndex(getIndexFile(tableDir, column), column, type);
+
+        while (rows.hasNext()) {
+            Map.Entry<String, Storeable> row = rows.next();
+            index.add(row.getKey(), row.getValue().getColumnAt(column));
+        }
+
+        index.file.getParentFile().mkdir();
+        index.rewrite(durability);
+
+        return index;
+    }
+
+    //throws ValidityCheckFailedException if a record is damaged, the index is then to be built anew
+    public static ColumnIndex open(File tableDir, int column, Class<?> type)
+    throws IOException, ValidityCheckFailedException {
+
+        ColumnIndex index = new ColumnIndex(getIndexFile(tableDir, column), column, type);
+        index.channel = new RandomAccessFile(index.file, "rw").getChannel();
+        index.size = index.channel.size();
+
+        try {
+            index.replay();
+        } catch (ValidityCheckFailedException ex) {
+            index.close();
+            throw ex;
+        }
+
+        return index;
+    }
+
+    private void replay() throws IOException, ValidityCheckFailedException {
+        long position = 0;
+
+        while (position < size) {
+            ByteBuffer payload = LogRecords.read(channel, position, size);
+
+            if (payload == null) {
+                throw new ValidityCheckFailedException(file.getPath() + " is damaged at " + position);
+            }
+
+            int count;
+
+            try {
+                count = payload.getInt();
+
+                for (int i = 0; i < count; ++i) {
+                    String key = new String(readBytes(payload, payload.getInt()), UTF8);
+                    int valueLength = payload.getInt();
+
+                    if (valueLength < 0) {
+                        remove(key);
+                    } else {
+                        add(key, codec.decode(readBytes(payload, valueLength)).getColumnAt(0));
+                    }
+                }
+            } catch (BufferUnderflowException | IllegalArgumentException | ParseException ex) {
+                throw new ValidityCheckFailedException(file.getPath() + " is damaged at " + position);
+            }
+
+            position += LogRecords.HEADER + payload.limit();
+            entriesWritten += count;
+        }
+    }
+
+    private static byte[] readBytes(ByteBuffer payload, int length) {
+        if ((length < 0) || (length > payload.remaining())) {
+            throw new IllegalArgumentException("invalid length " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+
+        return bytes;
+    }
+
+    private void add(String key, Object value) {
+        remove(key);
+        values.put(key, value);
+
+        Set<String> withValue = keys.get(value);
+
+        if (withValue == null) {
+            withValue = new HashSet<String>();
+            keys.put(value, withValue);
+        }
+
+        withValue.add(key);
+    }
+
+    private void remove(String key) {
+        if (!values.containsKey(key)) {
+            return;
+        }
+
+        Object value = values.remove(key);
+        Set<String> withValue = keys.get(value);
+
+        withValue.remove(key);
+
+        if (withValue.isEmpty()) {
+            keys.remove(value);
+        }
+    }
+
+    private byte[] encode(Object value) {
+        Storeable row = new TableRow(codec.getSchema());
+        row.setColumnAt(0, value);
+
+        return codec.encode(row);
+    }
+
+    private static void writeEntry(DataOutputStream out, String key, byte[] value) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF8);
+
+        out.writeInt(keyBytes.length);
+        out.write(keyBytes);
+
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private static byte[] record(ByteArrayOutputStream entries, int count) {
+        ByteBuffer payload = ByteBuffer.allocate(4 + entries.size());
+        payload.putInt(count);
+        payload.put(entries.toByteArray());
+
+        return LogRecords.frame(payload.array());
+    }
+
+    private void rewrite(Durability durability) throws IOException {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(entries);
+        int count = 0;
+
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            writeEntry(out, entry.getKey(), encode(entry.getValue()));
+
+            if (++count == REWRITE_BATCH) {
+                contents.write(record(entries, count));
+                entries.reset();
+                count = 0;
+            }
+        }
+
+        //an empty index still has a record, so that its file isn't empty
+        if ((count != 0) || (contents.size() == 0)) {
+            contents.write(record(entries, count));
+        }
+
+        close();
+        AtomicFiles.write(file, contents.toByteArray(), durability);
+
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        size = channel.size();
+        entriesWritten = values.size();
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    //keys of the rows the column of which is equal to the value
+    public synchronized Set<String> find(Object value) {
+        Set<String> withValue = keys.get(value);
+        return withValue == null ? new HashSet<String>() : new HashSet<String>(withValue);
+    }
+
+    //called on commit once the rows are stored; the keys in memory follow them even if the file can't be written
+    public synchronized void update(Map<String, Storeable> changed, Set<String> deleted, Durability durability) {
+        //the encoded values of the keys that change, null for the removed ones
+        Map<String, byte[]> updated = new LinkedHashMap<String, byte[]>();
+
+        for (Map.Entry<String, Storeable> entry : changed.entrySet()) {
+            Object value = entry.getValue().getColumnAt(column);
+
+            if ((values.containsKey(entry.getKey())) && (Objects.equals(values.get(entry.getKey()), value))) {
+                continue;
+            }
+
+            add(entry.getKey(), value);
+            updated.put(entry.getKey(), encode(value));
+        }
+
+        for (String key : deleted) {
+            if (!values.containsKey(key)) {
+                continue;
+            }
+
+            remove(key);
+            updated.put(key, null);
+        }
+
+        if ((updated.isEmpty()) || (failure != null)) {
+            return;
+        }
+
+        try {
+            append(updated, durability);
+        } catch (IOException ex) {
+            failure = ex;
+        }
+    }
+
+    private void append(Map<String, byte[]> updated, Durability durability) throws IOException {
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(entries);
+
+        for (Map.Entry<String, byte[]> entry : updated.entrySet()) {
+            writeEntry(out, entry.getKey(), entry.getValue());
+        }
+
+        byte[] record = record(entries, updated.size());
+
+        LogRecords.writeFully(channel, ByteBuffer.wrap(record), size);
+        size += record.length;
+        AtomicFiles.sync(channel, durability);
+
+        entriesWritten += updated.size();
+
+        if ((entriesWritten > MIN_REWRITE_ENTRIES) && (entriesWritten > (long) GARBAGE_FACTOR * values.size())) {
+            rewrite(durability);
+        }
+    }
+
+    public synchronized IOException getFailure() {
+        return failure;
+    }
+
+    //writes the file anew if an update failed to; to be called before rows are stored
+    public synchronized void repair(Durability durability) throws IOException {
+        if (failure == null) {
+            return;
+        }
+
+        try {
+            rewrite(durability);
+        } catch (IOException ex) {
+            throw new IOException("Unable to repair " + file.getPath() + ": " + ex.getMessage(), ex);
+        }
+
+        failure = null;
+    }
+
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            //everything written has been synced as the durability required
+        }
+
+        channel = null;
+    }
+
+    //the directory of the indexes goes along with the last of them
+    public synchronized void delete() {
+        close();
+        file.delete();
+
+        String[] left = file.getParentFile().list();
+
+        if ((left != null) && (left.length == 0)) {
+            file.getParentFile().delete();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+//where the time of a commit to the shard files went, in nanoseconds
+public class CommitTimings {
+
+    private final long wallTime;
+    //by shard file, e.g. "3.dir/12.dat"; shards left intact are absent
+    private final Map<String, Long> shardTimes;
+
+    public CommitTimings(long wallTime, Map<String, Long> shardTimes) {
+        this.wallTime = wallTime;
+        this.shardTimes = Collections.unmodifiableMap(new TreeMap<String, Long>(shardTimes));
+    }
+
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    public Map<String, Long> getShardTimes() {
+        return shardTimes;
+    }
+
+    //sum over the shards, the ratio to the wall time shows how much the shards overlapped
+    public long getTotalShardTime() {
+        long total = 0;
+
+        for (long time : shardTimes.values()) {
+            total += time;
+        }
+
+        return total;
+    }
+
+    public String toString() {
+        return shardTimes.size() + " shards in " + TimeUnit.NANOSECONDS.toMillis(wallTime) + " ms, "
+            + TimeUnit.NANOSECONDS.toMillis(getTotalShardTime()) + " ms of shard work";
+    }
+}
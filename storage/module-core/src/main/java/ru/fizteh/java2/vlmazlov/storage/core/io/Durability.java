@@ -0,0 +1,10 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+public enum Durability {
+    //files are rewritten in place: a crash in the middle of a commit may lose a shard, fit for bulk loads
+    NONE,
+    //new contents are written aside and renamed over the old ones: survives the process being killed
+    FLUSH,
+    //FLUSH with the files and their directories synced: survives a power loss
+    FSYNC
+}
@@ -0,0 +1,81 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/*
+Framing shared by the append-only files: int payload length, int CRC32 of the payload, the payload.
+A record that is cut short or fails the checksum is reported as absent,
+it is up to the caller to tell an interrupted append from a damaged file.
+*/
+public final class LogRecords {
+
+    public static final int HEADER = 8;
+
+    private LogRecords() {
+    }
+
+    public static byte[] frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER + payload.length);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+
+        return record.array();
+    }
+
+    //payload of the record at the position, null if it is truncated or damaged
+    public static ByteBuffer read(FileChannel channel, long position, long size) throws IOException {
+        if (position + HEADER > size) {
+            return null;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        readFully(channel, header, position);
+
+        int length = header.getInt();
+        int checksum = header.getInt();
+
+        if ((length <= 0) || (position + HEADER + length > size)) {
+            return null;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(channel, payload, position + HEADER);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, length);
+
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+
+        return payload;
+    }
+
+    //positional, so concurrent readers of a channel don't interfere
+    public static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+
+            if (read < 0) {
+                throw new IOException("unexpected end of file");
+            }
+
+            position += read;
+        }
+
+        buffer.flip();
+    }
+
+    public static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,703 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.StoreableTable;
+import ru.fizteh.java2.vlmazlov.storage.core.StoreableTableProvider;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+Every commit is appended to the active segment <table>/segments/<id>.log as a single record
+framed by LogRecords, its payload being: byte kind, int entries count, then per entry
+    int key length, key (UTF-8), int value length (-1 for a removed key), value.
+Only the location of each live value is kept in memory; a record with a broken checksum at the tail
+of the last segment is a commit interrupted by a crash and is cut off on startup.
+
+Segments past the size limit are sealed. Once enough of the sealed data is overwritten or removed,
+a background thread copies the live values into a single segment, which takes the id of the newest
+sealed one and starts with a BASE record: segments with lower ids are obsolete from the moment it is
+renamed into place, so a crash at any point of the compaction loses nothing.
+*/
+public class LogStorageEngine implements StorageEngine {
+
+    public static final String SEGMENTS_DIR = "segments";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACTION_FILE = "compaction.tmp";
+
+    public static final long DEFAULT_SEGMENT_LIMIT = 4 << 20;
+    //compaction starts once that share of the sealed segments, in percent, is garbage
+    private static final int GARBAGE_THRESHOLD = 50;
+    //entries in a record written by compaction
+    private static final int COMPACTION_BATCH = 1024;
+
+    private static final byte BATCH_RECORD = 0;
+    private static final byte BASE_RECORD = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "log-storage-compactor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static class Segment {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private long size;
+        //bytes taken by values the index still points to
+        private long live;
+
+        private Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            size = channel.size();
+            live = 0;
+        }
+    }
+
+    private static class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+
+        private Location(Segment segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final StoreableTable table;
+    private final StoreableTableProvider provider;
+    private final File segmentsDir;
+    //segments by id, the last one is appended to
+    private final TreeMap<Integer, Segment> segments;
+    //sorted, for the ranged reads
+    private final TreeMap<String, Location> index;
+    //index and segments are changed under the write lock, values are read under the read one
+    private final ReadWriteLock lock;
+    private final AtomicBoolean compactionScheduled;
+    //only one compaction runs at a time, be it the background or an explicit one
+    private final Object compactionLock;
+    private volatile long segmentLimit;
+    //the last background compaction failed, retried by the next write
+    private volatile IOException compactionFailure;
+    private boolean isClosed;
+
+    public LogStorageEngine(StoreableTable table, StoreableTableProvider provider)
+    throws IOException, ValidityCheckFailedException {
+        this.table = table;
+        this.provider = provider;
+        segmentsDir = new File(new File(provider.getRoot(), table.getName()), SEGMENTS_DIR);
+        segments = new TreeMap<Integer, Segment>();
+        index = new TreeMap<String, Location>();
+        lock = new ReentrantReadWriteLock();
+        compactionScheduled = new AtomicBoolean(false);
+        compactionLock = new Object();
+        segmentLimit = DEFAULT_SEGMENT_LIMIT;
+        isClosed = false;
+
+        replay();
+    }
+
+    public StorageEngineType getType() {
+        return StorageEngineType.LOG;
+    }
+
+    public long getSegmentLimit() {
+        return segmentLimit;
+    }
+
+    public void setSegmentLimit(long segmentLimit) {
+        if (segmentLimit <= 0) {
+            throw new IllegalArgumentException(segmentLimit + " is not a valid segment size");
+        }
+
+        this.segmentLimit = segmentLimit;
+    }
+
+    public int getSegmentsCount() {
+        lock.readLock().lock();
+
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int getSegmentId(File file) {
+        String name = file.getName();
+
+        if (!name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+
+        try {
+            return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private File getSegmentFile(int id) {
+        return new File(segmentsDir, id + SEGMENT_SUFFIX);
+    }
+
+    private static boolean startsWithBase(File file) throws IOException {
+        try (RandomAccessFile storage = new RandomAccessFile(file, "r")) {
+            ByteBuffer payload = LogRecords.read(storage.getChannel(), 0, storage.length());
+            return (payload != null) && (payload.get(0) == BASE_RECORD);
+        }
+    }
+
+    private void replay() throws IOException, ValidityCheckFailedException {
+        if (!segmentsDir.isDirectory()) {
+            return;
+        }
+
+        new File(segmentsDir, COMPACTION_FILE).delete();
+
+        TreeMap<Integer, File> files = new TreeMap<Integer, File>();
+
+        for (File file : segmentsDir.listFiles()) {
+            int id = getSegmentId(file);
+
+            if (id < 0) {
+                throw new ValidityCheckFailedException(segmentsDir.getPath() + " contains file " + file.getName());
+            }
+
+            files.put(id, file);
+        }
+
+        //everything older than the newest compacted segment has been copied into it
+        for (Integer id : files.descendingKeySet()) {
+            if (startsWithBase(files.get(id))) {
+                Map<Integer, File> obsolete = files.headMap(id);
+
+                for (File file : obsolete.values()) {
+                    file.delete();
+                }
+
+                obsolete.clear();
+                break;
+            }
+        }
+
+        for (Map.Entry<Integer, File> entry : files.entrySet()) {
+            Segment segment = new Segment(entry.getKey(), entry.getValue());
+            segments.put(segment.id, segment);
+
+            long position = replaySegment(segment);
+
+            if (position == segment.size) {
+                continue;
+            }
+
+            if (!entry.getKey().equals(files.lastKey())) {
+                throw new ValidityCheckFailedException(segment.file.getPath() + " is damaged at " + position);
+            }
+
+            //the last commit never completed
+            segment.channel.truncate(position);
+            segment.size = position;
+        }
+    }
+
+    //position the valid records end at
+    private long replaySegment(Segment segment) throws IOException, ValidityCheckFailedException {
+        long position = 0;
+
+        while (position < segment.size) {
+            ByteBuffer payload = LogRecords.read(segment.channel, position, segment.size);
+
+            if (payload == null) {
+                break;
+            }
+
+            try {
+                applyRecord(segment, position + LogRecords.HEADER, payload);
+            } catch (RuntimeException ex) {
+                throw new ValidityCheckFailedException(segment.file.getPath() + " contains malformed record: "
+                    + ex.getMessage());
+            }
+
+            position += LogRecords.HEADER + payload.limit();
+        }
+
+        return position;
+    }
+
+    private void applyRecord(Segment segment, long payloadPosition, ByteBuffer payload) {
+        if (payload.get() == BASE_RECORD) {
+            return;
+        }
+
+        int count = payload.getInt();
+
+        for (int i = 0; i < count; ++i) {
+            byte[] key = new byte[payload.getInt()];
+            payload.get(key);
+
+            int length = payload.getInt();
+
+            if (length < 0) {
+                setLocation(new String(key, UTF8), null);
+                continue;
+            }
+
+            setLocation(new String(key, UTF8), new Location(segment, payloadPosition + payload.position(), length));
+            payload.position(payload.position() + length);
+        }
+    }
+
+    private void setLocation(String key, Location location) {
+        Location previous;
+
+        if (location == null) {
+            previous = index.remove(key);
+        } else {
+            previous = index.put(key, location);
+            location.segment.live += location.length;
+        }
+
+        if (previous != null) {
+            previous.segment.live -= previous.length;
+        }
+    }
+
+    private static byte[] encodeRecord(byte kind, List<String> keys, List<byte[]> values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+
+        payload.writeByte(kind);
+        payload.writeInt(keys.size());
+
+        for (int i = 0; i < keys.size(); ++i) {
+            byte[] key = keys.get(i).getBytes(UTF8);
+            byte[] value = values.get(i);
+
+            payload.writeInt(key.length);
+            payload.write(key);
+
+            if (value == null) {
+                payload.writeInt(-1);
+            } else {
+                payload.writeInt(value.length);
+                payload.write(value);
+            }
+        }
+
+        payload.flush();
+
+        return LogRecords.frame(bytes.toByteArray());
+    }
+
+    public int loadSize() {
+        lock.readLock().lock();
+
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //the whole index is in memory
+    public boolean isResident(String key) {
+        return true;
+    }
+
+    public byte[] read(String key) throws IOException {
+        lock.readLock().lock();
+
+        try {
+            checkClosed();
+
+            Location location = index.get(key);
+
+            if (location == null) {
+                return null;
+            }
+
+            ByteBuffer value = ByteBuffer.allocate(location.length);
+            LogRecords.readFully(location.segment.channel, value, location.offset);
+
+            return value.array();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //the whole table is a single shard
+    public int getShardsCount() {
+        return 1;
+    }
+
+    public SortedMap<String, byte[]> readRange(int shardNum, String fromKey, String toKey, int limit)
+    throws IOException {
+        lock.readLock().lock();
+
+        try {
+            checkClosed();
+
+            SortedMap<String, Location> locations = index;
+
+            if (fromKey != null) {
+                locations = locations.tailMap(fromKey);
+            }
+
+            if (toKey != null) {
+                locations = locations.headMap(toKey);
+            }
+
+            SortedMap<String, byte[]> range = new TreeMap<String, byte[]>();
+
+            for (Map.Entry<String, Location> entry : locations.entrySet()) {
+                if (range.size() == limit) {
+                    break;
+                }
+
+                Location location = entry.getValue();
+                ByteBuffer value = ByteBuffer.allocate(location.length);
+                LogRecords.readFully(location.segment.channel, value, location.offset);
+
+                range.put(entry.getKey(), value.array());
+            }
+
+            return range;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //null unless the last background compaction failed
+    public IOException getCompactionFailure() {
+        return compactionFailure;
+    }
+
+    //retries the failed compaction before appending more, so that the garbage doesn't grow unnoticed
+    private void checkCompaction() throws IOException {
+        if (compactionFailure == null) {
+            return;
+        }
+
+        try {
+            compact();
+        } catch (IOException ex) {
+            compactionFailure = ex;
+            throw new IOException("Unable to compact " + segmentsDir.getPath() + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    public void write(Map<String, Storeable> changed, Set<String> deleted) throws IOException {
+        if ((changed.isEmpty()) && (deleted.isEmpty())) {
+            return;
+        }
+
+        checkCompaction();
+
+        List<String> keys = new ArrayList<String>(changed.size() + deleted.size());
+        List<byte[]> values = new ArrayList<byte[]>(changed.size() + deleted.size());
+
+        for (Map.Entry<String, Storeable> entry : changed.entrySet()) {
+            keys.add(entry.getKey());
+            values.add(table.encode(entry.getValue()));
+        }
+
+        for (String key : deleted) {
+            keys.add(key);
+            values.add(null);
+        }
+
+        byte[] record = encodeRecord(BATCH_RECORD, keys, values);
+
+        lock.writeLock().lock();
+
+        try {
+            checkClosed();
+
+            Segment active = getActiveSegment();
+            long position = active.size;
+
+            LogRecords.writeFully(active.channel, ByteBuffer.wrap(record), position);
+            AtomicFiles.sync(active.channel, provider.getDurability());
+            active.size += record.length;
+
+            applyRecord(active, position + LogRecords.HEADER, ByteBuffer.wrap(record, LogRecords.HEADER,
+                record.length - LogRecords.HEADER).slice());
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (isCompactionNeeded()) {
+            scheduleCompaction();
+        }
+    }
+
+    //MUST be under the write lock
+    private Segment getActiveSegment() throws IOException {
+        if ((!segments.isEmpty()) && (segments.lastEntry().getValue().size < segmentLimit)) {
+            return segments.lastEntry().getValue();
+        }
+
+        segmentsDir.mkdir();
+
+        int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        Segment segment = new Segment(id, getSegmentFile(id));
+        segments.put(id, segment);
+
+        return segment;
+    }
+
+    //sealed segments are all but the last one, unless the last one is full as well
+    private List<Segment> getSealedSegments() {
+        List<Segment> sealed = new ArrayList<Segment>(segments.values());
+
+        if ((!sealed.isEmpty()) && (sealed.get(sealed.size() - 1).size < segmentLimit)) {
+            sealed.remove(sealed.size() - 1);
+        }
+
+        return sealed;
+    }
+
+    private boolean isCompactionNeeded() {
+        lock.readLock().lock();
+
+        try {
+            long size = 0;
+            long live = 0;
+
+            for (Segment segment : getSealedSegments()) {
+                size += segment.size;
+                live += segment.live;
+            }
+
+            return (size > 0) && ((size - live) * 100 > size * GARBAGE_THRESHOLD);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (!compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        COMPACTOR.execute(new Runnable() {
+            public void run() {
+                compactionScheduled.set(false);
+
+                try {
+                    compact();
+                } catch (IOException ex) {
+                    //the segments are left as they were, the next write retries and reports it
+                    compactionFailure = ex;
+                }
+            }
+        });
+    }
+
+    //merges the sealed segments, returns the number of segments removed
+    public int compact() throws IOException {
+        synchronized (compactionLock) {
+            List<Segment> sealed;
+            Map<String, Location> toCopy = new HashMap<String, Location>();
+
+            lock.readLock().lock();
+
+            try {
+                if (isClosed) {
+                    return 0;
+                }
+
+                sealed = getSealedSegments();
+
+                if (sealed.isEmpty()) {
+                    compactionFailure = null;
+                    return 0;
+                }
+
+                Set<Segment> sealedSet = Collections.newSetFromMap(new HashMap<Segment, Boolean>());
+                sealedSet.addAll(sealed);
+
+                for (Map.Entry<String, Location> entry : index.entrySet()) {
+                    if (sealedSet.contains(entry.getValue().segment)) {
+                        toCopy.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            //sealed segments are never appended to, so they are read without the lock
+            Segment newest = sealed.get(sealed.size() - 1);
+            File compacted = new File(segmentsDir, COMPACTION_FILE);
+            Map<String, Long> offsets = new HashMap<String, Long>();
+
+            try (RandomAccessFile storage = new RandomAccessFile(compacted, "rw")) {
+                FileChannel channel = storage.getChannel();
+                long position = 0;
+                //left by a compaction that failed to put it in place
+                channel.truncate(0);
+
+                byte[] base = encodeRecord(BASE_RECORD, Collections.<String>emptyList(),
+                    Collections.<byte[]>emptyList());
+                LogRecords.writeFully(channel, ByteBuffer.wrap(base), position);
+                position += base.length;
+
+                List<String> keys = new ArrayList<String>();
+                List<byte[]> values = new ArrayList<byte[]>();
+
+                for (Map.Entry<String, Location> entry : toCopy.entrySet()) {
+                    Location location = entry.getValue();
+                    ByteBuffer value = ByteBuffer.allocate(location.length);
+                    LogRecords.readFully(location.segment.channel, value, location.offset);
+
+                    keys.add(entry.getKey());
+                    values.add(value.array());
+
+                    if (keys.size() == COMPACTION_BATCH) {
+                        position = writeCompactionBatch(channel, position, keys, values, offsets);
+                    }
+                }
+
+                writeCompactionBatch(channel, position, keys, values, offsets);
+                channel.force(true);
+            }
+
+            lock.writeLock().lock();
+
+            try {
+                if (isClosed) {
+                    compacted.delete();
+                    return 0;
+                }
+
+                //the channels of the sealed segments stay valid after their files are replaced or deleted,
+                //so a failure up to the replacement being open leaves them to be read as before
+                AtomicFiles.replace(compacted, newest.file, Durability.FSYNC);
+
+                Segment replacement = new Segment(newest.id, newest.file);
+
+                for (Map.Entry<String, Location> entry : toCopy.entrySet()) {
+                    //keys changed while copying are already in the active segment
+                    if (index.get(entry.getKey()) == entry.getValue()) {
+                        setLocation(entry.getKey(), new Location(replacement,
+                            offsets.get(entry.getKey()), entry.getValue().length));
+                    }
+                }
+
+                for (Segment segment : sealed) {
+                    segments.remove(segment.id);
+
+                    if (segment != newest) {
+                        segment.file.delete();
+                    }
+                }
+
+                segments.put(replacement.id, replacement);
+                compactionFailure = null;
+
+                //nothing points to them any longer
+                for (Segment segment : sealed) {
+                    try {
+                        segment.channel.close();
+                    } catch (IOException ex) {
+                        //only ever read
+                    }
+                }
+
+                return sealed.size() - 1;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private static long writeCompactionBatch(FileChannel channel, long position, List<String> keys,
+        List<byte[]> values, Map<String, Long> offsets) throws IOException {
+
+        if (keys.isEmpty()) {
+            return position;
+        }
+
+        byte[] record = encodeRecord(BATCH_RECORD, keys, values);
+        //kind and count precede the entries
+        long entryPosition = position + LogRecords.HEADER + 5;
+
+        for (int i = 0; i < keys.size(); ++i) {
+            entryPosition += 4 + keys.get(i).getBytes(UTF8).length + 4;
+            offsets.put(keys.get(i), entryPosition);
+            entryPosition += values.get(i).length;
+        }
+
+        LogRecords.writeFully(channel, ByteBuffer.wrap(record), position);
+
+        keys.clear();
+        values.clear();
+
+        return position + record.length;
+    }
+
+    //StoreableTable.reshard() rejects the table before calling it
+    public void reshard(ShardLayout newLayout) {
+        throw new UnsupportedOperationException("Table " + table.getName() + " isn't sharded");
+    }
+
+    public void close() {
+        lock.writeLock().lock();
+
+        try {
+            if (isClosed) {
+                return;
+            }
+
+            isClosed = true;
+
+            for (Segment segment : segments.values()) {
+                try {
+                    segment.channel.close();
+                } catch (IOException ex) {
+                    //nothing is left to be written
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void checkClosed() {
+        if (isClosed) {
+            throw new IllegalStateException("trying to operate on a closed storage");
+        }
+    }
+}
@@ -12,9 +12,6 @@ import java.util.List;
 import java.util.Map;
 
 public class ProviderReader {
-    private static final int FILES_QUANTITY = 16;
-    private static final int DIRECTORIES_QUANTITY = 16;
-
 
     private static int getNum(File file) {
         String[] tokens = file.getName().split("\\.");
@@ -28,21 +25,26 @@ public class ProviderReader {
         }
     }
 
-    private static <V> void checkKeys(GenericTable<V> tablePart, File file, File directory)
+    private static <V> void checkKeys(GenericTable<V> tablePart, File file, File directory, ShardLayout layout)
      throws ValidityCheckFailedException {
         for (Map.Entry<String, V> entry : tablePart) {
-            ValidityChecker.checkKeyStorageAffiliation(entry.getKey(), getNum(file), getNum(directory),
-                    FILES_QUANTITY, DIRECTORIES_QUANTITY);
+            ValidityChecker.checkKeyStorageAffiliation(entry.getKey(), getNum(file), getNum(directory), layout);
         }
     }
 
     public static <V, T extends GenericTable<V>> void loadFileForKey(String key, 
         File root, T table, GenericTableProvider<V, T> provider)
     throws CloneNotSupportedException {
+        loadFileForKey(key, root, table, provider, ShardLayout.LEGACY);
+    }
+
+    public static <V, T extends GenericTable<V>> void loadFileForKey(String key,
+        File root, T table, GenericTableProvider<V, T> provider, ShardLayout layout)
+    throws CloneNotSupportedException {
 
         T tableForFile = (T) table.clone();
-        String dirName = Math.abs(key.getBytes()[0]) % DIRECTORIES_QUANTITY + ".dir";
-        String fileName = Math.abs(key.getBytes()[0]) / FILES_QUANTITY % FILES_QUANTITY + ".dat";
+        String dirName = layout.getDirNum(key) + ".dir";
+        String fileName = layout.getFileNum(key) + ".dat";
 
         File directory = new File(root, dirName);
         File file = new File(directory, fileName);
@@ -65,12 +67,18 @@ public class ProviderReader {
     public static <V, T extends GenericTable<V>> void readMultiTable(File root, 
         T table, GenericTableProvider<V, T> provider)
             throws IOException, ValidityCheckFailedException, CloneNotSupportedException {
+        readMultiTable(root, table, provider, ShardLayout.LEGACY);
+    }
+
+    public static <V, T extends GenericTable<V>> void readMultiTable(File root,
+        T table, GenericTableProvider<V, T> provider, ShardLayout layout)
+            throws IOException, ValidityCheckFailedException, CloneNotSupportedException {
         ArrayList<ArrayList<T>> tableParts =
-                new ArrayList<ArrayList<T>>(DIRECTORIES_QUANTITY);
+                new ArrayList<ArrayList<T>>(layout.getDirectoriesQuantity());
 
-        for (int i = 0; i < DIRECTORIES_QUANTITY; ++i) {
-            tableParts.add(i, new ArrayList<T>(FILES_QUANTITY));
-            for (int j = 0; j < FILES_QUANTITY; ++j) {
+        for (int i = 0; i < layout.getDirectoriesQuantity(); ++i) {
+            tableParts.add(i, new ArrayList<T>(layout.getFilesQuantity()));
+            for (int j = 0; j < layout.getFilesQuantity(); ++j) {
                 tableParts.get(i).add(j, (T) table.clone());
             }
         }
@@ -82,10 +90,10 @@ public class ProviderReader {
                 continue;
             }
 
-            ValidityChecker.checkMultiFileStorageDir(directory, DIRECTORIES_QUANTITY);
+            ValidityChecker.checkMultiFileStorageDir(directory, layout.getDirectoriesQuantity());
 
             for (File file : directory.listFiles()) {
-                ValidityChecker.checkMultiFileStorageFile(file, FILES_QUANTITY);
+                ValidityChecker.checkMultiFileStorageFile(file, layout.getFilesQuantity());
 
                 TableReader.readTable(directory, file, tableParts.get(getNum(directory)).get(getNum(file)), provider);
 
@@ -96,7 +104,7 @@ public class ProviderReader {
                 */
                 tableParts.get(getNum(directory)).get(getNum(file)).pushChanges();
 
-                checkKeys(tableParts.get(getNum(directory)).get(getNum(file)), file, directory);
+                checkKeys(tableParts.get(getNum(directory)).get(getNum(file)), file, directory, layout);
             }
         }
 
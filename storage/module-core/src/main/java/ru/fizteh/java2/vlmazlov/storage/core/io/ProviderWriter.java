@@ -12,17 +12,14 @@ import java.util.Map;
 
 @SuppressWarnings("ALL")
 public class ProviderWriter {
-    private static final int FILES_QUANTITY = 16;
-    private static final int DIRECTORIES_QUANTITY = 16;
 
-    private static <V, T extends GenericTable<V>> void splitTable(ArrayList<ArrayList<T>> tableParts, T table)
-            throws ValidityCheckFailedException {
+    private static <V, T extends GenericTable<V>> void splitTable(ArrayList<ArrayList<T>> tableParts, T table,
+        ShardLayout layout) throws ValidityCheckFailedException {
         for (Map.Entry<String, V> entry : table) {
 
             ValidityChecker.checkTableKey(entry.getKey());
 
-            tableParts.get(Math.abs(entry.getKey().getBytes()[0]) % DIRECTORIES_QUANTITY).get(
-                Math.abs(entry.getKey().getBytes()[0]) / FILES_QUANTITY % FILES_QUANTITY).put(
+            tableParts.get(layout.getDirNum(entry.getKey())).get(layout.getFileNum(entry.getKey())).put(
                 entry.getKey(), entry.getValue());
         }
 
@@ -43,22 +40,28 @@ public class ProviderWriter {
     public static <V, T extends GenericTable<V>> void writeMultiTable(
         T table, File root, GenericTableProvider<V, T> provider)
             throws IOException, ValidityCheckFailedException, CloneNotSupportedException {
+        writeMultiTable(table, root, provider, ShardLayout.LEGACY);
+    }
+
+    public static <V, T extends GenericTable<V>> void writeMultiTable(
+        T table, File root, GenericTableProvider<V, T> provider, ShardLayout layout)
+            throws IOException, ValidityCheckFailedException, CloneNotSupportedException {
 
         ArrayList<ArrayList<T>> tableParts =
-                new ArrayList<ArrayList<T>>(DIRECTORIES_QUANTITY);
+                new ArrayList<ArrayList<T>>(layout.getDirectoriesQuantity());
 
-        for (int i = 0; i < DIRECTORIES_QUANTITY; ++i) {
-            tableParts.add(i, new ArrayList<T>(FILES_QUANTITY));
-            for (int j = 0; j < FILES_QUANTITY; ++j) {
+        for (int i = 0; i < layout.getDirectoriesQuantity(); ++i) {
+            tableParts.add(i, new ArrayList<T>(layout.getFilesQuantity()));
+            for (int j = 0; j < layout.getFilesQuantity(); ++j) {
                 tableParts.get(i).add(j, (T) table.clone());
             }
         }
 
         //  System.out.println(tableParts.size());
 
-        splitTable(tableParts, table);
+        splitTable(tableParts, table, layout);
 
-        for (int i = 0; i < DIRECTORIES_QUANTITY; ++i) {
+        for (int i = 0; i < layout.getDirectoriesQuantity(); ++i) {
             File directory = new File(root, i + ".dir");
 
             if (!directory.exists()) {
@@ -68,7 +71,7 @@ public class ProviderWriter {
                 }
             }
 
-            for (int j = 0; j < FILES_QUANTITY; ++j) {
+            for (int j = 0; j < layout.getFilesQuantity(); ++j) {
                 TableWriter.writeTable(directory, new File(directory, j + ".dat"), tableParts.get(i).get(j), provider);
             }
         }
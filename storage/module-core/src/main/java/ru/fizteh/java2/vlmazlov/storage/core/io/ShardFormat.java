@@ -0,0 +1,68 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import ru.fizteh.java2.vlmazlov.storage.core.StoreableTable;
+import ru.fizteh.java2.vlmazlov.storage.core.StoreableTableProvider;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+public enum ShardFormat {
+    //keys with the offsets of their values, then the values; the whole header is read on open
+    HEADER("header"),
+    //keys sorted in blocks, found through the index of the blocks at the end of the file
+    SORTED("sorted");
+
+    private final String name;
+    private static final Map<String, ShardFormat> byName;
+
+    private ShardFormat(String name) {
+        this.name = name;
+    }
+
+    static {
+        byName = new HashMap<String, ShardFormat>();
+
+        for (ShardFormat format : ShardFormat.values()) {
+            byName.put(format.name, format);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static ShardFormat getByName(String name) {
+        return byName.get(name);
+    }
+
+    public ShardWriter createWriter(File file, Durability durability) {
+        switch (this) {
+            case HEADER:
+                return new StoreableTableFileWriter(file, durability);
+            case SORTED:
+                return new SortedShardWriter(file, durability);
+            default:
+                //never reached
+                return null;
+        }
+    }
+
+    //the format is told by the file itself, so shards written before the table's format changed are still read
+    public static ShardReader openReader(File file, StoreableTable table, StoreableTableProvider provider)
+    throws IOException, ValidityCheckFailedException {
+        if ((file.exists()) && (file.length() > 0)) {
+            try (RandomAccessFile storage = new RandomAccessFile(file, "r")) {
+                //a key, which starts the header, is never empty
+                if (storage.readByte() == SortedShardWriter.MAGIC[0]) {
+                    return new SortedShardReader(file, table);
+                }
+            }
+        }
+
+        return new StoreableTableFileReader(file, table, provider);
+    }
+}
@@ -0,0 +1,31 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+
+//a shard file opened for reading; lookups by key don't move the iteration cursor
+public interface ShardReader {
+
+    int size();
+
+    boolean containsKey(String key);
+
+    //null if the key is absent
+    byte[] getSerializedValue(String key);
+
+    Storeable getValue(String key) throws IOException;
+
+    //null once every key is visited
+    String nextKey();
+
+    //of the key last returned by nextKey()
+    byte[] getCurrentSerializedValue();
+
+    Map<String, Storeable> getData() throws IOException;
+
+    //at most limit keys not less than fromKey and less than toKey, in ascending order; a null bound is open
+    SortedMap<String, byte[]> readRange(String fromKey, String toKey, int limit);
+}
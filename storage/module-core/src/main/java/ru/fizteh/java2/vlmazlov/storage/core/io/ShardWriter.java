@@ -0,0 +1,15 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import java.io.IOException;
+import java.util.Set;
+
+//collects the contents of a shard file and replaces the file with them at once
+public interface ShardWriter {
+
+    void writeKeyValue(String key, byte[] value);
+
+    Set<String> getKeys();
+
+    //a shard left without keys is removed
+    void flush() throws IOException;
+}
@@ -0,0 +1,187 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.StoreableTable;
+import ru.fizteh.java2.vlmazlov.storage.core.StoreableTableProvider;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class ShardedStorageEngine implements StorageEngine {
+
+    private final StoreableTable table;
+    private final StoreableTableProvider provider;
+    //mapped shard files by shard number, dropped whenever the shard is rewritten
+    private final ConcurrentMap<Integer, ShardReader> shardReaders;
+    //filters of the shards, consulted until the shard itself is mapped
+    private final ConcurrentMap<Integer, BloomFilter> shardFilters;
+    //a reader or filter opened while a write was going on is used once, but not kept
+    private final AtomicLong writesCount;
+    private final AtomicLong filterChecks;
+    private final AtomicLong filterSkips;
+    private final AtomicLong falsePositives;
+    private volatile CommitTimings lastCommitTimings;
+    //commits of different shards may share a directory, which only one of them can find empty
+    private final ReadWriteLock directoriesLock;
+
+    public ShardedStorageEngine(StoreableTable table, StoreableTableProvider provider) {
+        this.table = table;
+        this.provider = provider;
+        shardReaders = new ConcurrentHashMap<Integer, ShardReader>();
+        shardFilters = new ConcurrentHashMap<Integer, BloomFilter>();
+        writesCount = new AtomicLong(0);
+        filterChecks = new AtomicLong(0);
+        filterSkips = new AtomicLong(0);
+        falsePositives = new AtomicLong(0);
+        directoriesLock = new ReentrantReadWriteLock();
+    }
+
+    public StorageEngineType getType() {
+        return StorageEngineType.SHARDED;
+    }
+
+    public int loadSize() throws IOException, ValidityCheckFailedException {
+        return StoreableTableFileManager.getTableSize(table.getName(), provider, table);
+    }
+
+    private <T> T keep(ConcurrentMap<Integer, T> opened, Integer shardNum, T value, long writesBefore) {
+        T present = opened.putIfAbsent(shardNum, value);
+
+        if (present != null) {
+            return present;
+        }
+
+        if (writesCount.get() != writesBefore) {
+            opened.remove(shardNum, value);
+        }
+
+        return value;
+    }
+
+    private ShardReader getShardReader(Integer shardNum)
+    throws IOException, ValidityCheckFailedException {
+        ShardReader reader = shardReaders.get(shardNum);
+
+        if (reader == null) {
+            long writesBefore = writesCount.get();
+            reader = keep(shardReaders, shardNum, StoreableTableFileManager.openShard(shardNum, table, provider),
+                writesBefore);
+        }
+
+        return reader;
+    }
+
+    //null if the shard has no filter of its own
+    private BloomFilter getShardFilter(Integer shardNum, String key) {
+        BloomFilter filter = shardFilters.get(shardNum);
+
+        if (filter == null) {
+            long writesBefore = writesCount.get();
+            filter = StoreableTableFileManager.readFilterForKey(key, table, provider);
+
+            if (filter != null) {
+                filter = keep(shardFilters, shardNum, filter, writesBefore);
+            }
+        }
+
+        return filter;
+    }
+
+    private void dropShards(Iterable<String> keys) {
+        for (String key : keys) {
+            Integer shardNum = table.getShardLayout().getShardNum(key);
+
+            shardReaders.remove(shardNum);
+            shardFilters.remove(shardNum);
+        }
+    }
+
+    //a mapped shard has its keys indexed
+    public boolean isResident(String key) {
+        return shardReaders.containsKey(table.getShardLayout().getShardNum(key));
+    }
+
+    public byte[] read(String key) throws IOException, ValidityCheckFailedException {
+        Integer shardNum = table.getShardLayout().getShardNum(key);
+        ShardReader reader = shardReaders.get(shardNum);
+
+        //a mapped shard knows its keys exactly
+        if (reader != null) {
+            return reader.getSerializedValue(key);
+        }
+
+        BloomFilter filter = getShardFilter(shardNum, key);
+
+        if (filter != null) {
+            filterChecks.incrementAndGet();
+
+            if (!filter.mightContain(key)) {
+                filterSkips.incrementAndGet();
+                return null;
+            }
+        }
+
+        byte[] value = getShardReader(shardNum).getSerializedValue(key);
+
+        if ((filter != null) && (value == null)) {
+            falsePositives.incrementAndGet();
+        }
+
+        return value;
+    }
+
+    public int getShardsCount() {
+        return table.getShardLayout().getShardsQuantity();
+    }
+
+    public SortedMap<String, byte[]> readRange(int shardNum, String fromKey, String toKey, int limit)
+    throws IOException, ValidityCheckFailedException {
+        return getShardReader(shardNum).readRange(fromKey, toKey, limit);
+    }
+
+    public BloomFilter.Stats getBloomStats() {
+        return new BloomFilter.Stats(filterChecks.get(), filterSkips.get(), falsePositives.get(),
+            provider.getBloomFalsePositiveRate());
+    }
+
+    public void write(Map<String, Storeable> changed, Set<String> deleted)
+    throws IOException, ValidityCheckFailedException {
+        try {
+            lastCommitTimings = StoreableTableFileManager.modifyMultipleFiles(changed, deleted, table, provider,
+                directoriesLock);
+        } finally {
+            writesCount.incrementAndGet();
+            dropShards(changed.keySet());
+            dropShards(deleted);
+        }
+    }
+
+    //null until something is written
+    public CommitTimings getLastCommitTimings() {
+        return lastCommitTimings;
+    }
+
+    public void reshard(ShardLayout newLayout) throws IOException, ValidityCheckFailedException {
+        try {
+            StoreableTableFileManager.reshard(table, provider, newLayout);
+        } finally {
+            writesCount.incrementAndGet();
+            shardReaders.clear();
+            shardFilters.clear();
+        }
+    }
+
+    public void close() {
+        shardReaders.clear();
+        shardFilters.clear();
+    }
+}
@@ -0,0 +1,285 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.StoreableTable;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/*
+Reader of the files written by SortedShardWriter. Only the footer and the index of the blocks are read on open;
+a lookup binary searches the index and scans a single block of the mapped file.
+Lookups by key don't touch the iteration cursor, so a reader may be shared between threads for them.
+*/
+public class SortedShardReader implements ShardReader {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final StoreableTable table;
+    private final ByteBuffer buffer;
+    private final int keysCount;
+
+    //index of the blocks
+    private final String[] firstKeys;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    //iteration cursor: the block and the position of the entry to be returned next
+    private int block;
+    private int position;
+    private int currentValueOffset;
+    private int currentValueLength;
+
+    public SortedShardReader(File file, StoreableTable table) throws IOException, ValidityCheckFailedException {
+        this.file = file;
+        this.table = table;
+        buffer = map(file);
+
+        try {
+            byte[] magic = new byte[SortedShardWriter.MAGIC.length];
+            buffer.duplicate().get(magic);
+
+            if (!Arrays.equals(magic, SortedShardWriter.MAGIC)) {
+                throw new ValidityCheckFailedException(file.getPath() + ": not a sorted shard");
+            }
+
+            int footer = buffer.limit() - SortedShardWriter.FOOTER_LENGTH;
+            int indexOffset = buffer.getInt(footer);
+            int blocksCount = buffer.getInt(footer + 4);
+            keysCount = buffer.getInt(footer + 8);
+            int indexLength = buffer.getInt(footer + 12);
+
+            if ((indexOffset < magic.length) || (blocksCount <= 0) || (keysCount < blocksCount)
+                || (indexOffset + indexLength != footer)) {
+                throw new ValidityCheckFailedException(file.getPath() + ": footer is damaged");
+            }
+
+            firstKeys = new String[blocksCount];
+            offsets = new int[blocksCount];
+            lengths = new int[blocksCount];
+
+            int indexPosition = indexOffset;
+            int expectedOffset = magic.length;
+
+            for (int i = 0; i < blocksCount; ++i) {
+                int keyLength = buffer.getInt(indexPosition);
+
+                if ((keyLength <= 0) || (keyLength > indexLength)) {
+                    throw new ValidityCheckFailedException(file.getPath() + ": index is damaged");
+                }
+
+                firstKeys[i] = readString(indexPosition + 4, keyLength);
+                indexPosition += 4 + keyLength;
+                offsets[i] = buffer.getInt(indexPosition);
+                lengths[i] = buffer.getInt(indexPosition + 4);
+                indexPosition += 12;
+
+                //blocks follow each other up to the index
+                if ((offsets[i] != expectedOffset) || (lengths[i] <= 0)
+                    || ((i > 0) && (firstKeys[i].compareTo(firstKeys[i - 1]) <= 0))) {
+                    throw new ValidityCheckFailedException(file.getPath() + ": index is damaged");
+                }
+
+                expectedOffset += lengths[i];
+            }
+
+            if ((expectedOffset != indexOffset) || (indexPosition != footer)) {
+                throw new ValidityCheckFailedException(file.getPath() + ": index is damaged");
+            }
+        } catch (IndexOutOfBoundsException | BufferUnderflowException ex) {
+            throw new ValidityCheckFailedException(file.getPath() + ": file is truncated");
+        }
+
+        block = 0;
+        position = offsets[0];
+    }
+
+    //shares the mapping and the index, with a cursor of its own
+    private SortedShardReader(SortedShardReader other) {
+        file = other.file;
+        table = other.table;
+        buffer = other.buffer;
+        keysCount = other.keysCount;
+        firstKeys = other.firstKeys;
+        offsets = other.offsets;
+        lengths = other.lengths;
+        block = 0;
+        position = offsets[0];
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile storage = new RandomAccessFile(file, "r")) {
+            //the mapping stays valid after the channel is closed
+            return storage.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, storage.length());
+        }
+    }
+
+    //absolute reads on a private view, so that concurrent readers don't move each other's position
+    private byte[] copy(int at, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+
+        view.position(at);
+        view.get(bytes);
+
+        return bytes;
+    }
+
+    private String readString(int at, int length) {
+        return new String(copy(at, length), UTF8);
+    }
+
+    //the last block whose first key isn't greater than the key, the first one if there is none
+    private int findBlock(String key) {
+        int low = 0;
+        int high = firstKeys.length - 1;
+
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (firstKeys[middle].compareTo(key) <= 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    //position of the first entry of the block with a key not less than the given one, the block's end if none
+    private int findInBlock(int blockNum, String key, boolean exact) {
+        int at = offsets[blockNum];
+        int end = at + lengths[blockNum];
+
+        try {
+            while (at < end) {
+                int keyLength = buffer.getInt(at);
+                int comparison = readString(at + 4, keyLength).compareTo(key);
+
+                if (comparison >= 0) {
+                    return ((comparison == 0) || (!exact)) ? at : -1;
+                }
+
+                at += 8 + keyLength + buffer.getInt(at + 4 + keyLength);
+            }
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | NegativeArraySizeException ex) {
+            throw new IllegalStateException(file.getPath() + ": block " + blockNum + " is damaged");
+        }
+
+        return exact ? -1 : end;
+    }
+
+    public int size() {
+        return keysCount;
+    }
+
+    public boolean containsKey(String key) {
+        return findInBlock(findBlock(key), key, true) >= 0;
+    }
+
+    public byte[] getSerializedValue(String key) {
+        int at = findInBlock(findBlock(key), key, true);
+
+        if (at < 0) {
+            return null;
+        }
+
+        int valueOffset = at + 4 + buffer.getInt(at);
+
+        return copy(valueOffset + 4, buffer.getInt(valueOffset));
+    }
+
+    public Storeable getValue(String key) throws IOException {
+        return decode(key, getSerializedValue(key));
+    }
+
+    private Storeable decode(String key, byte[] serialized) throws IOException {
+        if (serialized == null) {
+            return null;
+        }
+
+        try {
+            return table.getCodec().decode(serialized);
+        } catch (ParseException ex) {
+            throw new IOException("Unable to decode value for " + key + ": " + ex.getMessage());
+        }
+    }
+
+    //keys come in ascending order
+    public String nextKey() {
+        while (block < offsets.length) {
+            if (position == offsets[block] + lengths[block]) {
+                ++block;
+                position = block < offsets.length ? offsets[block] : position;
+                continue;
+            }
+
+            int keyLength = buffer.getInt(position);
+            String key = readString(position + 4, keyLength);
+
+            currentValueOffset = position + 8 + keyLength;
+            currentValueLength = buffer.getInt(position + 4 + keyLength);
+            position = currentValueOffset + currentValueLength;
+
+            return key;
+        }
+
+        return null;
+    }
+
+    //nextKey() then starts from the first key not less than the given one
+    public void seek(String key) {
+        block = findBlock(key);
+        position = findInBlock(block, key, false);
+    }
+
+    public byte[] getCurrentSerializedValue() {
+        return copy(currentValueOffset, currentValueLength);
+    }
+
+    public Map<String, Storeable> getData() throws IOException {
+        Map<String, Storeable> decoded = new HashMap<String, Storeable>(keysCount * 2);
+        SortedShardReader scanner = new SortedShardReader(this);
+
+        for (String key = scanner.nextKey(); key != null; key = scanner.nextKey()) {
+            decoded.put(key, decode(key, scanner.getCurrentSerializedValue()));
+        }
+
+        return decoded;
+    }
+
+    public SortedMap<String, byte[]> readRange(String fromKey, String toKey, int limit) {
+        SortedMap<String, byte[]> range = new TreeMap<String, byte[]>();
+        SortedShardReader scanner = new SortedShardReader(this);
+
+        if (fromKey != null) {
+            scanner.seek(fromKey);
+        }
+
+        while (range.size() < limit) {
+            String key = scanner.nextKey();
+
+            if ((key == null) || ((toKey != null) && (key.compareTo(toKey) >= 0))) {
+                break;
+            }
+
+            range.put(key, scanner.getCurrentSerializedValue());
+        }
+
+        return range;
+    }
+}
@@ -0,0 +1,139 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+Shard file with the keys sorted (by String.compareTo()):
+    magic: '\0', "SST", version
+    blocks, each a run of entries: int key length, key (UTF-8), int value length, value
+    index, an entry per block: int first key length, first key, int offset, int length, int entries count
+    footer: int index offset, int blocks count, int keys count, int index length
+A lookup reads the index once and then the one block the key may be in.
+*/
+public class SortedShardWriter implements ShardWriter {
+
+    static final byte[] MAGIC = {0, 'S', 'S', 'T', 1};
+    static final int FOOTER_LENGTH = 16;
+    //a block is closed once it grows past that
+    public static final int BLOCK_SIZE = 4096;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final TreeMap<String, byte[]> toWrite;
+    private final File file;
+    private final Durability durability;
+
+    public SortedShardWriter(File file) {
+        this(file, Durability.FSYNC);
+    }
+
+    public SortedShardWriter(File file, Durability durability) {
+        toWrite = new TreeMap<String, byte[]>();
+        this.file = file;
+        this.durability = durability;
+    }
+
+    public void writeKeyValue(String key, byte[] value) {
+        toWrite.put(key, value);
+    }
+
+    public Set<String> getKeys() {
+        return toWrite.keySet();
+    }
+
+    public void flush() throws IOException {
+        //the old contents stay in place until the new ones are complete
+        File target = AtomicFiles.getTarget(file, durability);
+        target.delete();
+
+        try (FileOutputStream storage = new FileOutputStream(target)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(storage));
+            writeTo(out);
+            out.flush();
+
+            AtomicFiles.sync(storage.getChannel(), durability);
+        }
+
+        AtomicFiles.install(target, file, durability);
+    }
+
+    private void writeTo(DataOutputStream out) throws IOException {
+        List<byte[]> firstKeys = new ArrayList<byte[]>();
+        List<int[]> blocks = new ArrayList<int[]>();
+
+        int position = 0;
+        int blockStart = 0;
+        int blockEntries = 0;
+        int keysCount = 0;
+
+        for (Map.Entry<String, byte[]> entry : toWrite.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+
+            //an empty shard is left empty, to be removed
+            if (position == 0) {
+                out.write(MAGIC);
+                position = MAGIC.length;
+                blockStart = position;
+            }
+
+            byte[] key = entry.getKey().getBytes(UTF8);
+
+            if (blockEntries == 0) {
+                firstKeys.add(key);
+            }
+
+            out.writeInt(key.length);
+            out.write(key);
+            out.writeInt(entry.getValue().length);
+            out.write(entry.getValue());
+
+            position += 8 + key.length + entry.getValue().length;
+            ++blockEntries;
+            ++keysCount;
+
+            if (position - blockStart >= BLOCK_SIZE) {
+                blocks.add(new int[] {blockStart, position - blockStart, blockEntries});
+                blockStart = position;
+                blockEntries = 0;
+            }
+        }
+
+        if (blockEntries != 0) {
+            blocks.add(new int[] {blockStart, position - blockStart, blockEntries});
+        }
+
+        if (keysCount == 0) {
+            return;
+        }
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+
+        for (int i = 0; i < blocks.size(); ++i) {
+            indexOut.writeInt(firstKeys.get(i).length);
+            indexOut.write(firstKeys.get(i));
+            indexOut.writeInt(blocks.get(i)[0]);
+            indexOut.writeInt(blocks.get(i)[1]);
+            indexOut.writeInt(blocks.get(i)[2]);
+        }
+
+        out.write(index.toByteArray());
+        out.writeInt(position);
+        out.writeInt(blocks.size());
+        out.writeInt(keysCount);
+        out.writeInt(index.size());
+    }
+}
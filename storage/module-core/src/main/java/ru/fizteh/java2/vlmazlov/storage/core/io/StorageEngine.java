@@ -0,0 +1,40 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+//the way commited rows of a StoreableTable are kept on disk
+public interface StorageEngine {
+
+    StorageEngineType getType();
+
+    //number of keys persisted, asked for once the table is opened
+    int loadSize() throws IOException, ValidityCheckFailedException;
+
+    //whether read() answers for the key from memory, so that there is no use remembering it is absent
+    boolean isResident(String key);
+
+    //encoded value, null if the key is absent
+    byte[] read(String key) throws IOException, ValidityCheckFailedException;
+
+    //number of the parts readRange() reads separately
+    int getShardsCount();
+
+    //at most limit keys of the shard not less than fromKey and less than toKey, in ascending order,
+    //with their encoded values; a null bound is open. Called under the stripe lock of the shard
+    SortedMap<String, byte[]> readRange(int shardNum, String fromKey, String toKey, int limit)
+    throws IOException, ValidityCheckFailedException;
+
+    //called under the table's commit lock
+    void write(Map<String, Storeable> changed, Set<String> deleted) throws IOException, ValidityCheckFailedException;
+
+    void reshard(ShardLayout newLayout) throws IOException, ValidityCheckFailedException;
+
+    void close();
+}
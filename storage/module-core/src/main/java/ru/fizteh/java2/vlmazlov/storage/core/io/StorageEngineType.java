@@ -0,0 +1,52 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import ru.fizteh.java2.vlmazlov.storage.core.StoreableTable;
+import ru.fizteh.java2.vlmazlov.storage.core.StoreableTableProvider;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public enum StorageEngineType {
+    //<dir>.dir/<file>.dat shards, rewritten in full on commit
+    SHARDED("sharded"),
+    //commits appended to segment files, merged in background
+    LOG("log");
+
+    private final String name;
+    private static final Map<String, StorageEngineType> byName;
+
+    private StorageEngineType(String name) {
+        this.name = name;
+    }
+
+    static {
+        byName = new HashMap<String, StorageEngineType>();
+
+        for (StorageEngineType type : StorageEngineType.values()) {
+            byName.put(type.name, type);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static StorageEngineType getByName(String name) {
+        return byName.get(name);
+    }
+
+    public StorageEngine open(StoreableTable table, StoreableTableProvider provider)
+    throws IOException, ValidityCheckFailedException {
+        switch (this) {
+            case SHARDED:
+                return new ShardedStorageEngine(table, provider);
+            case LOG:
+                return new LogStorageEngine(table, provider);
+            default:
+                //never reached
+                return null;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import ru.fizteh.java2.vlmazlov.storage.api.ColumnFormatException;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.RowSchema;
+
+import java.text.ParseException;
+
+//encodes rows of a single table as they are kept in .dat files
+public interface StoreableCodec {
+
+    StoreableFormat getFormat();
+
+    //shared by the rows decoded
+    RowSchema getSchema();
+
+    byte[] encode(Storeable value) throws ColumnFormatException;
+
+    Storeable decode(byte[] data) throws ParseException;
+
+    //a single column, the ones following it aren't looked at
+    Object decodeColumn(byte[] data, int columnIndex) throws ParseException;
+}
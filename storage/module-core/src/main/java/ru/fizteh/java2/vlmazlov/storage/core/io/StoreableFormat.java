@@ -0,0 +1,45 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public enum StoreableFormat {
+    XML("xml"),
+    BINARY("binary");
+
+    private final String name;
+    private static final Map<String, StoreableFormat> byName;
+
+    private StoreableFormat(String name) {
+        this.name = name;
+    }
+
+    static {
+        byName = new HashMap<String, StoreableFormat>();
+
+        for (StoreableFormat format : StoreableFormat.values()) {
+            byName.put(format.name, format);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static StoreableFormat getByName(String name) {
+        return byName.get(name);
+    }
+
+    public StoreableCodec createCodec(List<Class<?>> valueTypes) {
+        switch (this) {
+            case BINARY:
+                return new BinaryStoreableCodec(valueTypes);
+            case XML:
+                return new XMLStoreableCodec(valueTypes);
+            default:
+                //never reached
+                return null;
+        }
+    }
+}
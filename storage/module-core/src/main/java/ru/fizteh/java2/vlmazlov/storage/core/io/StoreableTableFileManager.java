@@ -8,18 +8,32 @@ import ru.fizteh.java2.vlmazlov.storage.utils.*;
 import javax.activation.UnsupportedDataTypeException;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.commons.io.FileUtils;
 
 @SuppressWarnings("ALL")
 public class StoreableTableFileManager {
 
-    private static final int FILES_QUANTITY = 16;
-    private static final int DIRECTORIES_QUANTITY = 16;
+    //tab separated key-value pairs, one per line
+    private static final String PROPERTIES_FILE = "table.tsv";
+    private static final String FORMAT_PROPERTY = "format";
+    private static final String ROUTING_PROPERTY = "routing";
+    private static final String DIRECTORIES_PROPERTY = "directories";
+    private static final String FILES_PROPERTY = "files";
+    private static final String ENGINE_PROPERTY = "engine";
+    private static final String SHARD_FORMAT_PROPERTY = "shards";
+    //directories built by a reshard not yet swapped for the old ones
+    private static final String RESHARD_PROPERTY = "resharded";
+    private static final String RESHARD_DIR = "reshard" + AtomicFiles.TEMP_SUFFIX;
     
     private static File getFileForKey(String key, StoreableTable table, StoreableTableProvider provider) {
-        String dirName = Math.abs(key.getBytes()[0]) % DIRECTORIES_QUANTITY + ".dir";
-        String fileName = Math.abs(key.getBytes()[0]) / FILES_QUANTITY % FILES_QUANTITY + ".dat";
+        String dirName = table.getShardLayout().getDirNum(key) + ".dir";
+        String fileName = table.getShardLayout().getFileNum(key) + ".dat";
 
         File tableDir = getTableDir(table, provider);
         File directory = new File(tableDir, dirName);
@@ -35,42 +49,29 @@ public class StoreableTableFileManager {
         return new File(provider.getRoot(), name);
     }
 
-    private static int getDirNum(String key) {
-        return Math.abs(key.getBytes()[0]) % DIRECTORIES_QUANTITY;
-    }
-
-    private static int getFileNum(String key) {
-        return Math.abs(key.getBytes()[0]) / FILES_QUANTITY % FILES_QUANTITY;
-    }
-
-    private static void writeSizeFile(int size, File sizeFile) throws IOException {
-        try(PrintWriter writer = new PrintWriter(sizeFile)) {
-            writer.print(size);
-        }
+    private static void writeSizeFile(int size, File sizeFile, Durability durability) throws IOException {
+        AtomicFiles.write(sizeFile, Integer.toString(size).getBytes("UTF-8"), durability);
     }
 
     public static void writeSize(StoreableTable table, StoreableTableProvider provider) throws IOException {
         File tableDir = getTableDir(table, provider);
         File sizeFile = new File(tableDir, "size.tsv");
 
-        sizeFile.createNewFile();
-
-        writeSizeFile(table.size(), sizeFile);
+        writeSizeFile(table.getCommitedSize(), sizeFile, provider.getDurability());
     }
 
     public static void writeSignature(StoreableTable table, StoreableTableProvider provider) throws IOException {
 
         File tableDir = getTableDir(table, provider);
         File signatureFile = new File(tableDir, "signature.tsv");
+        StringBuilder signature = new StringBuilder();
 
-        signatureFile.createNewFile();
-
-        try (PrintWriter writer = new PrintWriter(signatureFile)) {
-            for (int i = 0; i < table.getColumnsCount(); ++i) {
-                Class<?> clazz = table.getColumnType(i);
-                writer.print(TypeName.getNameByClass(clazz) + " ");
-            }
+        for (int i = 0; i < table.getColumnsCount(); ++i) {
+            Class<?> clazz = table.getColumnType(i);
+            signature.append(TypeName.getNameByClass(clazz)).append(" ");
         }
+
+        AtomicFiles.write(signatureFile, signature.toString().getBytes("UTF-8"), provider.getDurability());
     }
 
     public static List<Class<?>> getTableSignature(String name, StoreableTableProvider provider)
@@ -101,32 +102,319 @@ public class StoreableTableFileManager {
         }
     }
 
+    private static Map<String, String> readTableProperties(File tableDir) throws IOException {
+        File propertiesFile = new File(tableDir, PROPERTIES_FILE);
+        Map<String, String> properties = new HashMap<String, String>();
+
+        if (!propertiesFile.exists()) {
+            return properties;
+        }
+
+        try (Scanner scanner = new Scanner(propertiesFile, "UTF-8")) {
+            while (scanner.hasNextLine()) {
+                String line = scanner.nextLine();
+
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                String[] tokens = line.split("\t", 2);
+
+                if (tokens.length != 2) {
+                    throw new IOException(propertiesFile.getPath() + " contains malformed line: " + line);
+                }
+
+                properties.put(tokens[0].trim(), tokens[1].trim());
+            }
+        }
+
+        return properties;
+    }
+
+    private static void writeTableProperties(File tableDir, Map<String, String> properties,
+        Durability durability) throws IOException {
+        StringBuilder contents = new StringBuilder();
+
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            contents.append(entry.getKey()).append("\t").append(entry.getValue()).append("\n");
+        }
+
+        AtomicFiles.write(new File(tableDir, PROPERTIES_FILE), contents.toString().getBytes("UTF-8"), durability);
+    }
+
+    public static void writeFormat(StoreableTable table, StoreableTableProvider provider) throws IOException {
+        File tableDir = getTableDir(table, provider);
+        Map<String, String> properties = readTableProperties(tableDir);
+
+        properties.put(FORMAT_PROPERTY, table.getCodec().getFormat().getName());
+        writeTableProperties(tableDir, properties, provider.getDurability());
+    }
+
+    //tables without the record predate the binary format
+    public static StoreableFormat getTableFormat(String name, StoreableTableProvider provider) throws IOException {
+        String formatName = readTableProperties(getTableDir(name, provider)).get(FORMAT_PROPERTY);
+
+        if (formatName == null) {
+            return StoreableFormat.XML;
+        }
+
+        StoreableFormat format = StoreableFormat.getByName(formatName);
+
+        if (format == null) {
+            throw new UnsupportedDataTypeException("Unsupported storage format: " + formatName);
+        }
+
+        return format;
+    }
+
+    public static void writeShardLayout(StoreableTable table, StoreableTableProvider provider) throws IOException {
+        File tableDir = getTableDir(table, provider);
+        Map<String, String> properties = readTableProperties(tableDir);
+
+        putShardLayout(properties, table.getShardLayout());
+        writeTableProperties(tableDir, properties, provider.getDurability());
+    }
+
+    private static void putShardLayout(Map<String, String> properties, ShardLayout layout) {
+        properties.put(ROUTING_PROPERTY, layout.getRouting().getName());
+        properties.put(DIRECTORIES_PROPERTY, Integer.toString(layout.getDirectoriesQuantity()));
+        properties.put(FILES_PROPERTY, Integer.toString(layout.getFilesQuantity()));
+    }
+
+    //tables without the record are routed by the first byte of the key
+    public static ShardLayout getTableShardLayout(String name, StoreableTableProvider provider)
+    throws IOException, ValidityCheckFailedException {
+        Map<String, String> properties = readTableProperties(getTableDir(name, provider));
+        String routingName = properties.get(ROUTING_PROPERTY);
+
+        if (routingName == null) {
+            return ShardLayout.LEGACY;
+        }
+
+        ShardLayout.Routing routing = ShardLayout.Routing.getByName(routingName);
+
+        if (routing == null) {
+            throw new ValidityCheckFailedException("Unsupported key routing: " + routingName);
+        }
+
+        try {
+            return new ShardLayout(routing, Integer.parseInt(properties.get(DIRECTORIES_PROPERTY)),
+                Integer.parseInt(properties.get(FILES_PROPERTY)));
+        } catch (IllegalArgumentException ex) {
+            throw new ValidityCheckFailedException("Invalid shard layout: " + ex.getMessage());
+        }
+    }
+
+    public static void writeStorageEngine(StoreableTable table, StoreableTableProvider provider)
+    throws IOException {
+        File tableDir = getTableDir(table, provider);
+        Map<String, String> properties = readTableProperties(tableDir);
+
+        properties.put(ENGINE_PROPERTY, table.getStorageEngine().getType().getName());
+        writeTableProperties(tableDir, properties, provider.getDurability());
+    }
+
+    //tables without the record are kept in shards
+    public static StorageEngineType getTableStorageEngine(String name, StoreableTableProvider provider)
+    throws IOException, ValidityCheckFailedException {
+        String engineName = readTableProperties(getTableDir(name, provider)).get(ENGINE_PROPERTY);
+
+        if (engineName == null) {
+            return StorageEngineType.SHARDED;
+        }
+
+        StorageEngineType engine = StorageEngineType.getByName(engineName);
+
+        if (engine == null) {
+            throw new ValidityCheckFailedException("Unsupported storage engine: " + engineName);
+        }
+
+        return engine;
+    }
+
+    public static void writeShardFormat(StoreableTable table, StoreableTableProvider provider) throws IOException {
+        File tableDir = getTableDir(table, provider);
+        Map<String, String> properties = readTableProperties(tableDir);
+
+        properties.put(SHARD_FORMAT_PROPERTY, table.getShardFormat().getName());
+        writeTableProperties(tableDir, properties, provider.getDurability());
+    }
+
+    //tables without the record predate the sorted shards
+    public static ShardFormat getTableShardFormat(String name, StoreableTableProvider provider)
+    throws IOException, ValidityCheckFailedException {
+        String formatName = readTableProperties(getTableDir(name, provider)).get(SHARD_FORMAT_PROPERTY);
+
+        if (formatName == null) {
+            return ShardFormat.HEADER;
+        }
+
+        ShardFormat format = ShardFormat.getByName(formatName);
+
+        if (format == null) {
+            throw new ValidityCheckFailedException("Unsupported shard format: " + formatName);
+        }
+
+        return format;
+    }
+
+    private static File getShardFile(File tableDir, int dirNum, int fileNum) {
+        return new File(new File(tableDir, dirNum + ".dir"), fileNum + ".dat");
+    }
+
+    /*
+    Moves every key of the table to the shard the new layout routes it to; the caller must hold every stripe lock.
+    The new shards are built aside in RESHARD_DIR, one directory of the new layout at a time, the old shards
+    being read one after another, so that only the rows of that directory are held in memory.
+    Recording the new layout along with the directories built is the point the reshard can't be rolled back from;
+    the old directories are then swapped for the new ones. recoverReshard() completes a swap interrupted by a crash
+    and drops the directories of a reshard interrupted before its layout was recorded.
+    */
+    public static void reshard(StoreableTable table, StoreableTableProvider provider, ShardLayout newLayout)
+    throws IOException, ValidityCheckFailedException {
+
+        ShardLayout oldLayout = table.getShardLayout();
+        File tableDir = getTableDir(table, provider);
+        File reshardDir = new File(tableDir, RESHARD_DIR);
+        Durability durability = provider.getDurability();
+        List<String> built = new ArrayList<String>();
+
+        FileUtils.deleteDirectory(reshardDir);
+        reshardDir.mkdir();
+
+        for (int newDir = 0; newDir < newLayout.getDirectoriesQuantity(); ++newDir) {
+            File directory = new File(reshardDir, newDir + ".dir");
+            ShardWriter[] writers = new ShardWriter[newLayout.getFilesQuantity()];
+
+            for (int i = 0; i < oldLayout.getDirectoriesQuantity(); ++i) {
+                for (int j = 0; j < oldLayout.getFilesQuantity(); ++j) {
+                    File file = getShardFile(tableDir, i, j);
+
+                    if (!file.exists()) {
+                        continue;
+                    }
+
+                    ShardReader reader = ShardFormat.openReader(file, table, provider);
+
+                    for (String key = reader.nextKey(); key != null; key = reader.nextKey()) {
+                        ValidityChecker.checkKeyStorageAffiliation(key, j, i, oldLayout);
+
+                        if (newLayout.getDirNum(key) != newDir) {
+                            continue;
+                        }
+
+                        int newFile = newLayout.getFileNum(key);
+
+                        if (writers[newFile] == null) {
+                            directory.mkdir();
+                            writers[newFile] = table.getShardFormat().createWriter(
+                                new File(directory, newFile + ".dat"), durability);
+                        }
+
+                        writers[newFile].writeKeyValue(key, reader.getCurrentSerializedValue());
+                    }
+                }
+            }
+
+            for (int newFile = 0; newFile < writers.length; ++newFile) {
+                if (writers[newFile] != null) {
+                    writers[newFile].flush();
+                    writeFilter(new File(directory, newFile + ".dat"), writers[newFile], provider);
+                }
+            }
+
+            if (directory.exists()) {
+                built.add(directory.getName());
+            }
+        }
+
+        if (durability == Durability.FSYNC) {
+            AtomicFiles.syncDirectory(reshardDir);
+        }
+
+        Map<String, String> properties = readTableProperties(tableDir);
+
+        putShardLayout(properties, newLayout);
+        //never empty, as a property can't be
+        properties.put(RESHARD_PROPERTY, built.toString());
+        writeTableProperties(tableDir, properties, durability);
+
+        swapReshardedDirectories(tableDir, properties, durability);
+    }
+
+    //the directories listed in the property are the ones built by the reshard
+    private static void swapReshardedDirectories(File tableDir, Map<String, String> properties,
+        Durability durability) throws IOException {
+
+        File reshardDir = new File(tableDir, RESHARD_DIR);
+        String list = properties.get(RESHARD_PROPERTY);
+        Set<String> built = new HashSet<String>();
+
+        for (String name : list.substring(1, list.length() - 1).split(", ")) {
+            if (!name.isEmpty()) {
+                built.add(name);
+            }
+        }
+
+        for (File directory : tableDir.listFiles()) {
+            String name = directory.getName();
+
+            //one of the new layout has already been moved into place unless it is still waiting to be
+            if ((directory.isDirectory()) && (name.endsWith(".dir"))
+                && ((!built.contains(name)) || (new File(reshardDir, name).exists()))) {
+                FileUtils.deleteDirectory(directory);
+            }
+        }
+
+        if (durability == Durability.FSYNC) {
+            AtomicFiles.syncDirectory(tableDir);
+        }
+
+        for (String name : built) {
+            File directory = new File(reshardDir, name);
+
+            if (directory.exists()) {
+                AtomicFiles.replace(directory, new File(tableDir, name), durability);
+            }
+        }
+
+        FileUtils.deleteDirectory(reshardDir);
+        properties.remove(RESHARD_PROPERTY);
+        writeTableProperties(tableDir, properties, durability);
+    }
+
+    //to be called before the table is loaded
+    public static void recoverReshard(String name, StoreableTableProvider provider) throws IOException {
+        File tableDir = getTableDir(name, provider);
+        Map<String, String> properties = readTableProperties(tableDir);
+
+        if (properties.containsKey(RESHARD_PROPERTY)) {
+            swapReshardedDirectories(tableDir, properties, provider.getDurability());
+        } else {
+            FileUtils.deleteDirectory(new File(tableDir, RESHARD_DIR));
+        }
+    }
+
     private static int countTableSize(String name, StoreableTableProvider provider, StoreableTable table)
     throws IOException, ValidityCheckFailedException {
 
         File tableDir = getTableDir(name, provider);
+        ShardLayout layout = table.getShardLayout();
         int size = 0;
 
-        for (int i = 0; i < DIRECTORIES_QUANTITY; ++i) {
-            for (int j = 0; j < FILES_QUANTITY; ++j) {
-                File directory = new File(tableDir, i + ".dir");
-                File file = new File(directory, j + ".dat");
+        for (int i = 0; i < layout.getDirectoriesQuantity(); ++i) {
+            for (int j = 0; j < layout.getFilesQuantity(); ++j) {
+                File file = getShardFile(tableDir, i, j);
 
                 if (!file.exists()) {
                     continue;
                 }
 
-                StoreableTableFileReader reader = new StoreableTableFileReader(file, table, provider);
-
-                String key = reader.nextKey();
-                while (key != null) {
-                    ++size;
-                    key = reader.nextKey();
-                }
+                size += ShardFormat.openReader(file, table, provider).size();
             }
         }
 
-        writeSizeFile(size, new File(tableDir, "size.tsv"));
+        writeSizeFile(size, new File(tableDir, "size.tsv"), provider.getDurability());
 
         return size;
     }
@@ -155,21 +443,46 @@ public class StoreableTableFileManager {
         StoreableTable table, StoreableTableProvider provider) 
     throws IOException, ValidityCheckFailedException {
 
-        File fileForKey = getFileForKey(key, table, provider);
+        return openFileForKey(key, table, provider).getData();
+    }
 
-        StoreableTableFileReader reader = new StoreableTableFileReader(fileForKey, table, provider);
+    public static ShardReader openFileForKey(String key,
+        StoreableTable table, StoreableTableProvider provider)
+    throws IOException, ValidityCheckFailedException {
+
+        return ShardFormat.openReader(getFileForKey(key, table, provider), table, provider);
+    }
+
+    //shardNum as given by ShardLayout.getShardNum()
+    public static ShardReader openShard(int shardNum, StoreableTable table, StoreableTableProvider provider)
+    throws IOException, ValidityCheckFailedException {
 
-        return reader.getData();
+        ShardLayout layout = table.getShardLayout();
+        File file = getShardFile(getTableDir(table, provider), shardNum % layout.getDirectoriesQuantity(),
+            shardNum / layout.getDirectoriesQuantity());
+
+        return ShardFormat.openReader(file, table, provider);
     }
 
-    public static void modifyMultipleFiles(Map<String, Storeable> changed, Set<String> deleted,
-        StoreableTable table, StoreableTableProvider provider) throws IOException, ValidityCheckFailedException {
+    /*
+    Concurrent calls are safe as long as they change different shards:
+    the shards are written under the read lock of the directories, and emptied directories
+    are removed under the write one.
+    */
+    public static CommitTimings modifyMultipleFiles(Map<String, Storeable> changed, Set<String> deleted,
+        final StoreableTable table, final StoreableTableProvider provider, ReadWriteLock directoriesLock)
+    throws IOException, ValidityCheckFailedException {
+
+        long start = System.nanoTime();
+        ShardLayout layout = table.getShardLayout();
+        int directoriesQuantity = layout.getDirectoriesQuantity();
+        int filesQuantity = layout.getFilesQuantity();
 
-        Map<String, String>[][] changedInFile = new HashMap[DIRECTORIES_QUANTITY][FILES_QUANTITY];
-        Set<String>[][] deletedInFile = new HashSet[DIRECTORIES_QUANTITY][FILES_QUANTITY];
+        Map<String, byte[]>[][] changedInFile = new HashMap[directoriesQuantity][filesQuantity];
+        Set<String>[][] deletedInFile = new HashSet[directoriesQuantity][filesQuantity];
 
-        for (int i = 0; i < DIRECTORIES_QUANTITY; ++i) {
-            for (int j = 0; j < FILES_QUANTITY; ++j) {
+        for (int i = 0; i < directoriesQuantity; ++i) {
+            for (int j = 0; j < filesQuantity; ++j) {
                 changedInFile[i][j] = new HashMap();
                 deletedInFile[i][j] = new HashSet();
             }
@@ -178,45 +491,155 @@ public class StoreableTableFileManager {
         for (Map.Entry<String, Storeable> entry : changed.entrySet()) {
             String key = entry.getKey();
 
-            changedInFile[getDirNum(key)][getFileNum(key)].put(key, provider.serialize(table, entry.getValue()));
+            changedInFile[layout.getDirNum(key)][layout.getFileNum(key)].put(
+                key, table.encode(entry.getValue()));
         }   
 
         for (String key : deleted) {
-            deletedInFile[getDirNum(key)][getFileNum(key)].add(key);
+            deletedInFile[layout.getDirNum(key)][layout.getFileNum(key)].add(key);
         }
 
         File tableDir = getTableDir(table, provider);
+        Map<File, Future<Long>> shardTasks = new LinkedHashMap<File, Future<Long>>();
+        Map<String, Long> shardTimes = new HashMap<String, Long>();
+        Throwable failure = null;
+
+        directoriesLock.readLock().lock();
+
+        try {
+            //the shards are independent, each one is read, merged and written by a thread of its own
+            for (int i = 0; i < directoriesQuantity; ++i) {
+                for (int j = 0; j < filesQuantity; ++j) {
+                    if ((changedInFile[i][j].isEmpty()) && (deletedInFile[i][j].isEmpty())) {
+                        continue;
+                    }
+
+                    final File directory = new File(tableDir, i + ".dir");
+                    final File file = new File(directory, j + ".dat");
+                    final Map<String, byte[]> changedInShard = changedInFile[i][j];
+                    final Set<String> deletedInShard = deletedInFile[i][j];
+
+                    shardTasks.put(file, provider.getIoExecutor().submit(new Callable<Long>() {
+                        public Long call() throws IOException, ValidityCheckFailedException {
+                            long shardStart = System.nanoTime();
+                            modifySingleFile(directory, file, changedInShard, deletedInShard, table, provider);
+                            return System.nanoTime() - shardStart;
+                        }
+                    }));
+                }
+            }
 
-        for (int i = 0; i < DIRECTORIES_QUANTITY; ++i) {
-            for (int j = 0; j < FILES_QUANTITY; ++j) {
-                File directory = new File(tableDir, i + ".dir");
-                File file = new File(directory, j + ".dat");
-
-                modifySingleFile(directory, file, changedInFile[i][j], deletedInFile[i][j], table, provider);
+            //every task is waited for, even after a failure, so none of them is left writing
+            for (Map.Entry<File, Future<Long>> task : shardTasks.entrySet()) {
+                File file = task.getKey();
+                String shardName = file.getParentFile().getName() + "/" + file.getName();
+
+                try {
+                    shardTimes.put(shardName, getUninterruptibly(task.getValue()));
+                } catch (ExecutionException ex) {
+                    if (failure == null) {
+                        failure = ex.getCause();
+                    }
+                }
             }
+        } finally {
+            directoriesLock.readLock().unlock();
+        }
+
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
         }
 
-        dumpGarbage(tableDir);
+        if (failure instanceof ValidityCheckFailedException) {
+            throw (ValidityCheckFailedException) failure;
+        }
+
+        if (failure != null) {
+            throw new RuntimeException("Unable to write shard: " + failure.getMessage(), failure);
+        }
+
+        directoriesLock.writeLock().lock();
+
+        try {
+            dumpGarbage(shardTasks.keySet());
+        } finally {
+            directoriesLock.writeLock().unlock();
+        }
+
+        return new CommitTimings(System.nanoTime() - start, shardTimes);
     }
 
-    private static void dumpGarbage(File tableDir) {
-        for (File directory : tableDir.listFiles()) {
-            if (!directory.isDirectory()) {
-                continue;
-            }
-            for (File file : directory.listFiles()) {
-                if (file.length() == 0) {
-                    file.delete();
+    private static <T> T getUninterruptibly(Future<T> future) throws ExecutionException {
+        boolean interrupted = false;
+
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
                 }
             }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /*
+    The filter of a shard is removed before the shard is replaced and written anew once the new shard is in place,
+    so that a crash in between leaves the shard without a filter rather than with the one of its previous version,
+    which may well be of the same length.
+    */
+    private static void dropFilter(File file, Durability durability) throws IOException {
+        if ((BloomFilter.getFilterFile(file).delete()) && (durability == Durability.FSYNC)) {
+            AtomicFiles.syncDirectory(file.getParentFile());
+        }
+    }
+
+    private static void writeFilter(File file, ShardWriter writer, StoreableTableProvider provider)
+    throws IOException {
+        File filterFile = BloomFilter.getFilterFile(file);
+
+        if (writer.getKeys().isEmpty()) {
+            filterFile.delete();
+            return;
+        }
+
+        BloomFilter.build(writer.getKeys(), provider.getBloomFalsePositiveRate(), file.length())
+            .write(filterFile, provider.getDurability());
+    }
+
+    public static BloomFilter readFilterForKey(String key, StoreableTable table, StoreableTableProvider provider) {
+        File file = getFileForKey(key, table, provider);
+        BloomFilter filter = BloomFilter.read(BloomFilter.getFilterFile(file));
+
+        //copied along with another version of the shard, say
+        if ((filter != null) && (filter.getShardLength() != file.length())) {
+            return null;
+        }
+
+        return filter;
+    }
+
+    //only the shards just written can have become empty
+    private static void dumpGarbage(Iterable<File> files) {
+        for (File file : files) {
+            if ((file.exists()) && (file.length() == 0)) {
+                file.delete();
+            }
+
+            File directory = file.getParentFile();
+            String[] contents = directory.list();
 
-            if (directory.listFiles().length == 0) {
+            if ((contents != null) && (contents.length == 0)) {
                 directory.delete();
             }
         }
     }
 
-    private static void modifySingleFile(File directory, File file, Map<String, String> changed, Set<String> deleted,
+    private static void modifySingleFile(File directory, File file, Map<String, byte[]> changed, Set<String> deleted,
         StoreableTable table, StoreableTableProvider provider)
     throws IOException, ValidityCheckFailedException {
 
@@ -232,8 +655,8 @@ public class StoreableTableFileManager {
             file.createNewFile();
         }
 
-        StoreableTableFileReader reader = new StoreableTableFileReader(file, table, provider);
-        StoreableTableFileWriter writer = new StoreableTableFileWriter(file);
+        ShardReader reader = ShardFormat.openReader(file, table, provider);
+        ShardWriter writer = table.getShardFormat().createWriter(file, provider.getDurability());
 
         String currentKey;
 
@@ -256,11 +679,13 @@ public class StoreableTableFileManager {
 
         } while (currentKey != null);
 
-        for (Map.Entry<String, String> entry : changed.entrySet()) {
+        for (Map.Entry<String, byte[]> entry : changed.entrySet()) {
             writer.writeKeyValue(entry.getKey(), entry.getValue());
             //System.out.println(entry);
         }
 
+        dropFilter(file, provider.getDurability());
         writer.flush();
+        writeFilter(file, writer, provider);
     }
 }
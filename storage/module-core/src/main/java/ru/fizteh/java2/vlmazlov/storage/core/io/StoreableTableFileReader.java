@@ -8,118 +8,228 @@ import ru.fizteh.java2.vlmazlov.storage.utils.*;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
-public class StoreableTableFileReader {
+/*
+The file is mapped into memory and only its header (key, '\0', offset of the value) is parsed.
+Values are copied out of the mapping, and decoded, only when asked for.
+Lookups by key don't touch the iteration cursor, so a reader may be shared between threads for them.
+*/
+public class StoreableTableFileReader implements ShardReader {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
-    private Map.Entry<String, Storeable> curEntry;
-    private final Map<String, Storeable> data;
-    private final Iterator<Map.Entry<String, Storeable>> iterator;
     private final StoreableTable table;
-    private final StoreableTableProvider provider;
+    private final ByteBuffer buffer;
 
+    //index of the file: keys in the order they are stored, and where their values lie
+    private final String[] keys;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final Map<String, Integer> positions;
+    //the keys in ascending order, sorted on the first ranged read
+    private volatile String[] sortedKeys;
 
-    private String readUTFString(RandomAccessFile dataBaseStorage, int readingPosition, int length) 
-    throws IOException {
-        byte[] bytes = new byte[length];
-
-        dataBaseStorage.seek(readingPosition);
-        dataBaseStorage.read(bytes);
-        return new String(bytes, "UTF-8");
-    }
+    private int current;
 
     public StoreableTableFileReader(File file, StoreableTable table, StoreableTableProvider provider)
     throws IOException, ValidityCheckFailedException {
-        data = new HashMap<String, Storeable>();
         this.table = table;
-        this.provider = provider;
-        loadFile(file);
-        iterator = data.entrySet().iterator();
-    }
+        current = -1;
 
-    private void loadFile(File file) throws IOException, ValidityCheckFailedException {
-        
         if ((!file.exists()) || (file.length() == 0)) {
+            buffer = ByteBuffer.allocate(0);
+            keys = new String[0];
+            offsets = new int[0];
+            lengths = new int[0];
+            positions = new HashMap<String, Integer>();
             return;
         }
 
-        try (RandomAccessFile dataBaseStorage = new RandomAccessFile(file, "r")) {
-            String key = null;
+        buffer = map(file);
+
+        int keysCount = 0;
+        String[] readKeys = new String[16];
+        int[] readOffsets = new int[16];
+
+        try {
             int readPosition = 0;
             int initialOffset = -1;
-            int prevOffset = -1;
 
             do {
+                int keyEnd = readPosition;
 
-                dataBaseStorage.seek(readPosition);
-
-                while (dataBaseStorage.getFilePointer() < dataBaseStorage.length()) {
-                    if (dataBaseStorage.readByte() == '\0') {
-                        break;
-                    }
+                while ((keyEnd < buffer.limit()) && (buffer.get(keyEnd) != '\0')) {
+                    ++keyEnd;
                 }
 
-                int keyLen = (int) dataBaseStorage.getFilePointer() - readPosition - 1;
-
-                int curOffset = dataBaseStorage.readInt();
+                String key = readString(readPosition, keyEnd - readPosition);
+                ValidityChecker.checkTableKey(key);
 
+                int curOffset = buffer.getInt(keyEnd + 1);
                 ValidityChecker.checkTableOffset(curOffset);
 
-                if (prevOffset == -1) {
+                if (initialOffset == -1) {
                     initialOffset = curOffset;
-                } else {
-                    String value = readUTFString(dataBaseStorage, prevOffset, curOffset - prevOffset);
-
-                    ValidityChecker.checkTableValue(value);
-
-                    
-                    try {
-                        data.put(key, provider.deserialize(table, value));
-                    } catch (ParseException ex) {
-                        throw new IOException(ex.getMessage());
-                    }
+                } else if (curOffset < readOffsets[keysCount - 1]) {
+                    throw new ValidityCheckFailedException(file.getPath() + ": offsets are not ascending");
+                }
 
+                if (keysCount == readKeys.length) {
+                    readKeys = Arrays.copyOf(readKeys, keysCount * 2);
+                    readOffsets = Arrays.copyOf(readOffsets, keysCount * 2);
                 }
-                prevOffset = curOffset;
-                //read key      
-                key = readUTFString(dataBaseStorage, readPosition, keyLen);
-                ValidityChecker.checkTableKey(key);
 
-                readPosition = (int) dataBaseStorage.getFilePointer() + 5;
+                readKeys[keysCount] = key;
+                readOffsets[keysCount] = curOffset;
+                ++keysCount;
+
+                readPosition = keyEnd + 5;
 
             } while (readPosition < initialOffset);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException ex) {
+            throw new ValidityCheckFailedException(file.getPath() + ": header is truncated");
+        }
 
-            String value = readUTFString(dataBaseStorage, prevOffset, (int) dataBaseStorage.length() - prevOffset);
+        keys = Arrays.copyOf(readKeys, keysCount);
+        offsets = Arrays.copyOf(readOffsets, keysCount);
+        lengths = new int[keysCount];
+        positions = new HashMap<String, Integer>(keysCount * 2);
 
-            ValidityChecker.checkTableValue(value);
+        for (int i = 0; i < keysCount; ++i) {
+            int end = (i + 1 < keysCount) ? offsets[i + 1] : buffer.limit();
 
-            
-            try {
-                data.put(key, provider.deserialize(table, value));
-            } catch (ParseException ex) {
-                throw new IOException(ex.getMessage());
+            if (end > buffer.limit()) {
+                throw new ValidityCheckFailedException(file.getPath() + ": offset is out of the file");
             }
 
+            lengths[i] = end - offsets[i];
+
+            if (lengths[i] <= 0) {
+                throw new ValidityCheckFailedException("value not specified");
+            }
+
+            positions.put(keys[i], i);
+        }
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile dataBaseStorage = new RandomAccessFile(file, "r")) {
+            FileChannel channel = dataBaseStorage.getChannel();
+
+            //the mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return mapped;
+        }
+    }
+
+    private String readString(int position, int length) {
+        return new String(copy(position, length), UTF8);
+    }
+
+    //absolute reads on a private view, so that concurrent readers don't move each other's position
+    private byte[] copy(int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+
+        view.position(position);
+        view.get(bytes);
+
+        return bytes;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    public boolean containsKey(String key) {
+        return positions.containsKey(key);
+    }
+
+    public byte[] getSerializedValue(String key) {
+        Integer position = positions.get(key);
+
+        if (position == null) {
+            return null;
+        }
+
+        return copy(offsets[position], lengths[position]);
+    }
+
+    public Storeable getValue(String key) throws IOException {
+        byte[] serialized = getSerializedValue(key);
+
+        if (serialized == null) {
+            return null;
+        }
+
+        try {
+            return table.getCodec().decode(serialized);
+        } catch (ParseException ex) {
+            throw new IOException("Unable to decode value for " + key + ": " + ex.getMessage());
         }
     }
 
     public String nextKey() {
-        if (iterator.hasNext()) {
-           curEntry = iterator.next();
-           return curEntry.getKey();
+        if (current + 1 < keys.length) {
+            ++current;
+            return keys[current];
         } else {
+            current = keys.length;
             return null;
         }
     }
 
-    public String getCurrentSerializedValue() {
-        return provider.serialize(table, curEntry.getValue());
+    public byte[] getCurrentSerializedValue() {
+        return copy(offsets[current], lengths[current]);
     }
 
-    public Map<String, Storeable> getData() {
-        return data;
+    public Map<String, Storeable> getData() throws IOException {
+        Map<String, Storeable> decoded = new HashMap<String, Storeable>(keys.length * 2);
+
+        for (String key : keys) {
+            decoded.put(key, getValue(key));
+        }
+
+        return decoded;
+    }
+
+    public SortedMap<String, byte[]> readRange(String fromKey, String toKey, int limit) {
+        String[] sorted = sortedKeys;
+
+        if (sorted == null) {
+            sorted = keys.clone();
+            Arrays.sort(sorted);
+            sortedKeys = sorted;
+        }
+
+        int from = 0;
+
+        if (fromKey != null) {
+            from = Arrays.binarySearch(sorted, fromKey);
+            from = from < 0 ? -from - 1 : from;
+        }
+
+        SortedMap<String, byte[]> range = new TreeMap<String, byte[]>();
+
+        for (int i = from; (i < sorted.length) && (range.size() < limit); ++i) {
+            if ((toKey != null) && (sorted[i].compareTo(toKey) >= 0)) {
+                break;
+            }
+
+            range.put(sorted[i], getSerializedValue(sorted[i]));
+        }
+
+        return range;
     }
 }
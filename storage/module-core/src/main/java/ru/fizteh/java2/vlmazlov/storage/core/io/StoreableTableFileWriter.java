@@ -5,22 +5,29 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 @SuppressWarnings("ALL")
-public class StoreableTableFileWriter {
+public class StoreableTableFileWriter implements ShardWriter {
 
-    private final Map<String, String> toWrite;
+    private final Map<String, byte[]> toWrite;
     private final File file;
+    private final Durability durability;
 
     public StoreableTableFileWriter(File file) {
-        toWrite = new HashMap<String, String>();
+        this(file, Durability.FSYNC);
+    }
+
+    public StoreableTableFileWriter(File file, Durability durability) {
+        toWrite = new HashMap<String, byte[]>();
         this.file = file;
+        this.durability = durability;
     }
 
     private int countFirstOffSet() throws IOException {
         int currentOffset = 0;
 
-        for (Map.Entry<String, String> entry : toWrite.entrySet()) {
+        for (Map.Entry<String, byte[]> entry : toWrite.entrySet()) {
             currentOffset += entry.getKey().getBytes("UTF-8").length + 1 + 4;
         }
 
@@ -28,10 +35,14 @@ public class StoreableTableFileWriter {
 
     }
 
-    public void writeKeyValue(String key, String value) {
+    public void writeKeyValue(String key, byte[] value) {
         toWrite.put(key, value);
     }
 
+    public Set<String> getKeys() {
+        return toWrite.keySet();
+    }
+
     private void storeKey(RandomAccessFile dataBaseStorage, String key, int offSet) throws IOException {
         dataBaseStorage.write(key.getBytes("UTF-8"));
         dataBaseStorage.writeByte('\0');
@@ -40,14 +51,16 @@ public class StoreableTableFileWriter {
 
     public void flush() throws IOException {
 
-        file.delete();
+        //the old contents stay in place until the new ones are complete
+        File target = AtomicFiles.getTarget(file, durability);
+        target.delete();
 
-        try(RandomAccessFile dataBaseStorage = new RandomAccessFile(file, "rw")) {
+        try(RandomAccessFile dataBaseStorage = new RandomAccessFile(target, "rw")) {
 
             long currentOffset = countFirstOffSet();
             long writePosition;
 
-            for (Map.Entry<String, String> entry : toWrite.entrySet()) {
+            for (Map.Entry<String, byte[]> entry : toWrite.entrySet()) {
                 if (entry.getValue() == null) {
                     continue;
                 }
@@ -56,16 +69,15 @@ public class StoreableTableFileWriter {
                 writePosition = dataBaseStorage.getFilePointer();
 
                 dataBaseStorage.seek(currentOffset);
-                dataBaseStorage.write(entry.getValue().getBytes("UTF-8"));
+                dataBaseStorage.write(entry.getValue());
                 currentOffset = dataBaseStorage.getFilePointer();
 
                 dataBaseStorage.seek(writePosition);
             }
 
+            AtomicFiles.sync(dataBaseStorage.getChannel(), durability);
         }
 
-        if (file.length() == 0) {
-            file.delete();
-        }
+        AtomicFiles.install(target, file, durability);
     }
 }
@@ -30,14 +30,20 @@ public class TableWriter {
 
     public static <V, T extends GenericTable<V>> void writeTable(
         File root, File storage, T table, GenericTableProvider<V, T> provider) throws IOException {
+        writeTable(root, storage, table, provider, Durability.FSYNC);
+    }
+
+    public static <V, T extends GenericTable<V>> void writeTable(File root, File storage,
+        T table, GenericTableProvider<V, T> provider, Durability durability) throws IOException {
 
         if (root == null) {
             throw new FileNotFoundException("Directory not specified");
         }
 
-        storage.delete();
+        File target = AtomicFiles.getTarget(storage, durability);
+        target.delete();
 
-        try (RandomAccessFile dataBaseStorage = new RandomAccessFile(storage, "rw")) {
+        try (RandomAccessFile dataBaseStorage = new RandomAccessFile(target, "rw")) {
 
             long curOffset = countFirstOffSet(table);
             long writePosition;
@@ -57,10 +63,9 @@ public class TableWriter {
                 dataBaseStorage.seek(writePosition);
             }
 
+            AtomicFiles.sync(dataBaseStorage.getChannel(), durability);
         }
 
-        if (storage.length() == 0) {
-            storage.delete();
-        }
+        AtomicFiles.install(target, storage, durability);
     }
 }
@@ -0,0 +1,349 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+Redo log of the commits of a provider, kept in <root>/.wal/<id>.log until the tables are checkpointed.
+A record, framed by LogRecords, holds the table name, the changed values, encoded, and the removed keys.
+
+Committers append under a short lock and then wait in awaitDurable() for a sync of the file.
+Whoever comes first syncs for everybody appended by then, the rest just wait for it:
+a single fsync covers a whole group of concurrent commits.
+*/
+public class WriteAheadLog {
+
+    public static final String LOG_DIR = ".wal";
+    private static final String LOG_SUFFIX = ".log";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static class Record {
+        private final String tableName;
+        private final Map<String, byte[]> changed;
+        private final Set<String> deleted;
+
+        public Record(String tableName, Map<String, byte[]> changed, Set<String> deleted) {
+            this.tableName = tableName;
+            this.changed = changed;
+            this.deleted = deleted;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public Map<String, byte[]> getChanged() {
+            return changed;
+        }
+
+        public Set<String> getDeleted() {
+            return deleted;
+        }
+    }
+
+    private final File dir;
+    private final ReentrantLock lock;
+    private final Condition synced;
+
+    //opened on the first append
+    private FileChannel channel;
+    private int fileId;
+    private long position;
+
+    //sequence numbers of the records appended and of those known to be on disk
+    private long appended;
+    private long durable;
+    private boolean syncing;
+    private boolean isClosed;
+
+    public WriteAheadLog(File dir) {
+        this.dir = dir;
+        lock = new ReentrantLock();
+        synced = lock.newCondition();
+        fileId = getLastFileId() + 1;
+        appended = 0;
+        durable = 0;
+        syncing = false;
+        isClosed = false;
+    }
+
+    private TreeMap<Integer, File> listFiles() {
+        TreeMap<Integer, File> files = new TreeMap<Integer, File>();
+
+        if (!dir.isDirectory()) {
+            return files;
+        }
+
+        for (File file : dir.listFiles()) {
+            String name = file.getName();
+
+            if (!name.endsWith(LOG_SUFFIX)) {
+                continue;
+            }
+
+            try {
+                files.put(Integer.parseInt(name.substring(0, name.length() - LOG_SUFFIX.length())), file);
+            } catch (NumberFormatException ex) {
+                //not ours
+            }
+        }
+
+        return files;
+    }
+
+    private int getLastFileId() {
+        TreeMap<Integer, File> files = listFiles();
+        return files.isEmpty() ? 0 : files.lastKey();
+    }
+
+    //records left by the previous run, in the order they were appended
+    public List<Record> readAll() throws IOException {
+        List<Record> records = new ArrayList<Record>();
+        TreeMap<Integer, File> files = listFiles();
+
+        for (Map.Entry<Integer, File> entry : files.entrySet()) {
+            try (RandomAccessFile storage = new RandomAccessFile(entry.getValue(), "r")) {
+                FileChannel input = storage.getChannel();
+                long size = input.size();
+                long readPosition = 0;
+
+                while (readPosition < size) {
+                    ByteBuffer payload = LogRecords.read(input, readPosition, size);
+
+                    if (payload == null) {
+                        break;
+                    }
+
+                    records.add(decode(payload));
+                    readPosition += LogRecords.HEADER + payload.limit();
+                }
+
+                //only the last append may have been interrupted
+                if ((readPosition < size) && (!entry.getKey().equals(files.lastKey()))) {
+                    throw new IOException(entry.getValue().getPath() + " is damaged at " + readPosition);
+                }
+            }
+        }
+
+        return records;
+    }
+
+    private static byte[] encode(String tableName, Map<String, byte[]> changed, Set<String> deleted)
+    throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+
+        writeString(payload, tableName);
+        payload.writeInt(changed.size());
+
+        for (Map.Entry<String, byte[]> entry : changed.entrySet()) {
+            writeString(payload, entry.getKey());
+            payload.writeInt(entry.getValue().length);
+            payload.write(entry.getValue());
+        }
+
+        payload.writeInt(deleted.size());
+
+        for (String key : deleted) {
+            writeString(payload, key);
+        }
+
+        payload.flush();
+
+        return LogRecords.frame(bytes.toByteArray());
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+
+        return new String(bytes, UTF8);
+    }
+
+    private static Record decode(ByteBuffer payload) throws IOException {
+        try {
+            String tableName = readString(payload);
+
+            int changedCount = payload.getInt();
+            Map<String, byte[]> changed = new HashMap<String, byte[]>();
+
+            for (int i = 0; i < changedCount; ++i) {
+                String key = readString(payload);
+                byte[] value = new byte[payload.getInt()];
+
+                payload.get(value);
+                changed.put(key, value);
+            }
+
+            int deletedCount = payload.getInt();
+            Set<String> deleted = new HashSet<String>();
+
+            for (int i = 0; i < deletedCount; ++i) {
+                deleted.add(readString(payload));
+            }
+
+            return new Record(tableName, changed, deleted);
+        } catch (BufferUnderflowException | NegativeArraySizeException ex) {
+            throw new IOException("malformed log record");
+        }
+    }
+
+    private File getFile(int id) {
+        return new File(dir, id + LOG_SUFFIX);
+    }
+
+    //returns the sequence number to wait for
+    public long append(String tableName, Map<String, byte[]> changed, Set<String> deleted) throws IOException {
+        byte[] record = encode(tableName, changed, deleted);
+
+        lock.lock();
+
+        try {
+            checkClosed();
+
+            if (channel == null) {
+                dir.mkdir();
+                channel = new RandomAccessFile(getFile(fileId), "rw").getChannel();
+                position = channel.size();
+            }
+
+            LogRecords.writeFully(channel, ByteBuffer.wrap(record), position);
+            position += record.length;
+
+            return ++appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void awaitDurable(long sequenceNumber) throws IOException {
+        lock.lock();
+
+        try {
+            while (durable < sequenceNumber) {
+                if (syncing) {
+                    synced.awaitUninterruptibly();
+                    continue;
+                }
+
+                syncing = true;
+
+                long target = appended;
+                FileChannel toSync = channel;
+                IOException failure = null;
+
+                //others keep appending while the file is synced
+                lock.unlock();
+
+                try {
+                    toSync.force(false);
+                } catch (IOException ex) {
+                    failure = ex;
+                } finally {
+                    lock.lock();
+                }
+
+                syncing = false;
+
+                if (failure == null) {
+                    durable = Math.max(durable, target);
+                }
+
+                synced.signalAll();
+
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+    Starts a new file; the records appended so far all lie in the files with lower ids.
+    Returns the id of the new file, to be passed to deleteBefore() once everything is checkpointed.
+    */
+    public int rotate() throws IOException {
+        lock.lock();
+
+        try {
+            while (syncing) {
+                synced.awaitUninterruptibly();
+            }
+
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+                channel = null;
+                durable = appended;
+            }
+
+            return ++fileId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void deleteBefore(int id) {
+        for (File file : listFiles().headMap(id).values()) {
+            file.delete();
+        }
+    }
+
+    public void close() throws IOException {
+        lock.lock();
+
+        try {
+            if (isClosed) {
+                return;
+            }
+
+            while (syncing) {
+                synced.awaitUninterruptibly();
+            }
+
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+                channel = null;
+            }
+
+            //fails unless everything has been checkpointed and deleted
+            dir.delete();
+            isClosed = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkClosed() {
+        if (isClosed) {
+            throw new IllegalStateException("trying to operate on a closed log");
+        }
+    }
+}
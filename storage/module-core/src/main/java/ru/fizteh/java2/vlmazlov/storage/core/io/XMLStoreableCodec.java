@@ -0,0 +1,74 @@
+package ru.fizteh.java2.vlmazlov.storage.core.io;
+
+import ru.fizteh.java2.vlmazlov.storage.api.ColumnFormatException;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.RowSchema;
+import ru.fizteh.java2.vlmazlov.storage.core.TableRow;
+
+import javax.xml.stream.XMLStreamException;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.List;
+
+//format of the tables created before the binary one was introduced
+public class XMLStoreableCodec implements StoreableCodec {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final RowSchema schema;
+    private final List<Class<?>> valueTypes;
+
+    public XMLStoreableCodec(List<Class<?>> valueTypes) {
+        schema = new RowSchema(valueTypes);
+        this.valueTypes = schema.getValueTypes();
+    }
+
+    public StoreableFormat getFormat() {
+        return StoreableFormat.XML;
+    }
+
+    public RowSchema getSchema() {
+        return schema;
+    }
+
+    public byte[] encode(Storeable value) throws ColumnFormatException {
+        try {
+            return XMLStoreableWriter.serialize(value).getBytes(UTF8);
+        } catch (XMLStreamException ex) {
+            throw new RuntimeException("Unable to write XML: " + ex.getMessage());
+        }
+    }
+
+    public Storeable decode(byte[] data) throws ParseException {
+        TableRow row = new TableRow(schema);
+
+        try {
+            XMLStoreableReader reader = new XMLStoreableReader(new String(data, UTF8));
+
+            for (int i = 0; i < valueTypes.size(); ++i) {
+                row.setColumnAt(i, reader.readColumn(valueTypes.get(i)));
+            }
+        } catch (XMLStreamException ex) {
+            throw new ParseException(ex.getMessage(), 0);
+        }
+
+        return row;
+    }
+
+    //the columns are read in order, so only the ones before it are parsed along
+    public Object decodeColumn(byte[] data, int columnIndex) throws ParseException {
+        Class<?> type = valueTypes.get(columnIndex);
+
+        try {
+            XMLStoreableReader reader = new XMLStoreableReader(new String(data, UTF8));
+
+            for (int i = 0; i < columnIndex; ++i) {
+                reader.readColumn(valueTypes.get(i));
+            }
+
+            return reader.readColumn(type);
+        } catch (XMLStreamException ex) {
+            throw new ParseException(ex.getMessage(), 0);
+        }
+    }
+}
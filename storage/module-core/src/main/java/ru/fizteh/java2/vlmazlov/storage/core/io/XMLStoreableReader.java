@@ -9,6 +9,10 @@ import java.io.StringReader;
 import java.text.ParseException;
 
 public class XMLStoreableReader {
+
+    //thread-safe once created, shared by all readers
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
     private XMLStreamReader reader;
 
     private Object stringToObject(Class<?> type, String value) throws ValidityCheckFailedException {
@@ -48,7 +52,7 @@ public class XMLStoreableReader {
     }
 
     public XMLStoreableReader(String serialized) throws ParseException, XMLStreamException {
-        reader = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(serialized));
+        reader = INPUT_FACTORY.createXMLStreamReader(new StringReader(serialized));
         try {
             if (!reader.hasNext()) {
                 throw new ParseException("Unable to read start raw tag", 0);
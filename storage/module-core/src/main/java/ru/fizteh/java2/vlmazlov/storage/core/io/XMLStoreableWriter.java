@@ -9,6 +9,9 @@ import java.io.StringWriter;
 
 public class XMLStoreableWriter {
 
+    //looking a factory up per row used to dominate serialization cost
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
     private static void writeColumn(XMLStreamWriter writer, Object value) throws XMLStreamException {
         if (value == null) {
             writer.writeEmptyElement("null");
@@ -21,7 +24,7 @@ public class XMLStoreableWriter {
 
     public static String serialize(Storeable value) throws XMLStreamException {
         StringWriter stringWriter = new StringWriter();
-        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(stringWriter);
+        XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(stringWriter);
 
         try {
 
@@ -0,0 +1,160 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.ColumnFormatException;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableFormat;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+public class AggregateTest extends TableFixture {
+
+    public AggregateTest() {
+        super("aggregateTable", Integer.class, String.class, Long.class, Double.class);
+    }
+
+    private Storeable row(int number) {
+        return provider.createFor(table, Arrays.<Object>asList(number, "group" + number % 3,
+            (long) number * 1000, number / 2.0));
+    }
+
+    //numbers 1 to rowsCount
+    private void fill(int rowsCount) throws IOException {
+        for (int i = 1; i <= rowsCount; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+    }
+
+    @Test
+    public void wholeTableIsAggregated() throws IOException {
+        fill(1000);
+
+        Assert.assertEquals("wrong count", 1000L, table.aggregate(AggregateFunction.COUNT, 0).getValue());
+        Assert.assertEquals("wrong sum", 500500L, table.aggregate(AggregateFunction.SUM, 0).getValue());
+        Assert.assertEquals("wrong sum", 500500000L, table.aggregate(AggregateFunction.SUM, 2).getValue());
+        Assert.assertEquals("wrong sum", 250250.0, table.aggregate(AggregateFunction.SUM, 3).getValue());
+        Assert.assertEquals("wrong min", 1, table.aggregate(AggregateFunction.MIN, 0).getValue());
+        Assert.assertEquals("wrong max", 1000000L, table.aggregate(AggregateFunction.MAX, 2).getValue());
+        Assert.assertEquals("wrong max", 500.0, table.aggregate(AggregateFunction.MAX, 3).getValue());
+        Assert.assertEquals("wrong average", 500.5, table.aggregate(AggregateFunction.AVG, 0).getValue());
+        Assert.assertEquals("wrong min", "group0", table.aggregate(AggregateFunction.MIN, 1).getValue());
+        Assert.assertEquals("wrong max", "group2", table.aggregate(AggregateFunction.MAX, 1).getValue());
+    }
+
+    @Test
+    public void groupsAreAggregatedApart() throws IOException {
+        fill(999);
+
+        AggregationResult result = table.aggregate(AggregateFunction.COUNT, 0, 1);
+
+        Assert.assertEquals("wrong groups", 3, result.getGroups().size());
+
+        for (Map.Entry<Object, Object> group : result.getGroups().entrySet()) {
+            Assert.assertEquals("wrong count of " + group.getKey(), 333L, group.getValue());
+        }
+
+        //3 + 6 + ... + 999
+        Assert.assertEquals("wrong sum", 3L * 333 * 334 / 2,
+            table.aggregate(AggregateFunction.SUM, 0, 1).getGroups().get("group0"));
+    }
+
+    @Test
+    public void statisticsAreKept() throws IOException {
+        fill(1000);
+        //the bytes counted are those read from the shards
+        provider.checkpoint();
+
+        AggregationResult result = table.aggregate(AggregateFunction.SUM, 2);
+
+        Assert.assertEquals("wrong rows scanned", 1000, result.getRowsScanned());
+        Assert.assertTrue("no bytes read", result.getBytesRead() > 1000);
+    }
+
+    @Test
+    public void nullsAndChangesAreAccounted() throws IOException {
+        fill(10);
+
+        Storeable empty = provider.createFor(table);
+        table.put("key1", empty);
+        table.remove("key2");
+        table.put("key100", row(100));
+
+        Assert.assertEquals("wrong count", 9L, table.aggregate(AggregateFunction.COUNT, 0).getValue());
+        Assert.assertEquals("wrong sum", 152L, table.aggregate(AggregateFunction.SUM, 0).getValue());
+        Assert.assertEquals("wrong rows scanned", 10, table.aggregate(AggregateFunction.SUM, 0).getRowsScanned());
+    }
+
+    @Test
+    public void loggedCommitsAreAccountedBeforeCheckpoint() throws IOException {
+        fill(100);
+        provider.checkpoint();
+
+        table.remove("key1");
+        table.put("key101", row(101));
+        table.commit();
+
+        Assert.assertEquals("wrong sum", 5150L, table.aggregate(AggregateFunction.SUM, 0).getValue());
+
+        provider.checkpoint();
+
+        Assert.assertEquals("wrong sum", 5150L, table.aggregate(AggregateFunction.SUM, 0).getValue());
+    }
+
+    @Test
+    public void emptyTableHasNoExtremes() {
+        Assert.assertEquals("wrong count", 0L, table.aggregate(AggregateFunction.COUNT, 0).getValue());
+        Assert.assertNull("min of nothing", table.aggregate(AggregateFunction.MIN, 0).getValue());
+        Assert.assertNull("average of nothing", table.aggregate(AggregateFunction.AVG, 3).getValue());
+        Assert.assertTrue("groups of nothing", table.aggregate(AggregateFunction.COUNT, 0, 1).getGroups().isEmpty());
+    }
+
+    @Test
+    public void otherLayoutsAndFormatsAgree() throws IOException {
+        fill(1000);
+        table.reshard(ShardLayout.hashed(13));
+
+        Assert.assertEquals("wrong sum", 500500L, table.aggregate(AggregateFunction.SUM, 0).getValue());
+
+        table = provider.createTable("xmlTable", valueTypes, StoreableFormat.XML);
+        fill(1000);
+
+        Assert.assertEquals("wrong sum", 500500L, table.aggregate(AggregateFunction.SUM, 0).getValue());
+        Assert.assertEquals("wrong max", "group2", table.aggregate(AggregateFunction.MAX, 1).getValue());
+    }
+
+    @Test(expected = ColumnFormatException.class)
+    public void stringsHaveNoSum() {
+        table.aggregate(AggregateFunction.SUM, 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void missingGroupColumnIsRejected() {
+        table.aggregate(AggregateFunction.COUNT, 0, 4);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void negativeGroupColumnIsRejected() {
+        table.aggregate(AggregateFunction.COUNT, 0, -2);
+    }
+
+    @Test
+    public void nullGroupIsNotTheWholeTable() throws IOException {
+        fill(9);
+
+        table.put("key10", row(10, null, 10000L, 5.0));
+        table.put("key11", row(11, null, 11000L, 5.5));
+        table.commit();
+
+        AggregationResult grouped = table.aggregate(AggregateFunction.SUM, 0, 1);
+
+        Assert.assertEquals("wrong groups", 4, grouped.getGroups().size());
+        Assert.assertEquals("wrong sum of the null group", 21L, grouped.getGroups().get(null));
+        Assert.assertNull("grouped aggregation has a value", grouped.getValue());
+        Assert.assertEquals("wrong sum", 66L, table.aggregate(AggregateFunction.SUM, 0).getValue());
+    }
+}
@@ -0,0 +1,204 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.io.Files;
+
+public class AsyncTableTest {
+    private StoreableTableProvider provider;
+    private AsyncTableProvider async;
+    private AsyncTable table;
+    private File tempDir;
+    private List<Class<?>> valueTypes;
+
+    @Before
+    public void setUp() throws IOException, ValidityCheckFailedException, InterruptedException, ExecutionException {
+        tempDir = Files.createTempDir();
+        provider = new StoreableTableProvider(tempDir.getPath(), false, false);
+        //a single thread, so that an operation can be kept waiting behind another
+        async = new AsyncTableProvider(provider, 1, 2);
+
+        valueTypes = new ArrayList<Class<?>>() { {
+            add(Integer.class);
+        }};
+
+        table = async.createTableAsync("asyncTable", valueTypes).get();
+    }
+
+    @After
+    public void tearDown() {
+        async.close();
+        provider.close();
+    }
+
+    private Storeable row(int number) {
+        return provider.createFor(table.getTable(), Arrays.<Object>asList(number));
+    }
+
+    private void fill(int rowsCount) throws InterruptedException, ExecutionException {
+        for (int i = 0; i < rowsCount; ++i) {
+            table.getTable().put("key" + i, row(i));
+        }
+
+        Assert.assertEquals("wrong number of changes", Integer.valueOf(rowsCount), table.commitAsync().get());
+    }
+
+    //occupies the only thread of the pool until the latch is released
+    private void block(final CountDownLatch latch) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+
+        async.submit(new Callable<Void>() {
+            public Void call() throws InterruptedException {
+                started.countDown();
+                latch.await();
+                return null;
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+
+        started.await();
+    }
+
+    @Test
+    public void commitedValuesAreGot() throws Exception {
+        fill(100);
+
+        provider.close();
+        async.close();
+        provider = new StoreableTableProvider(tempDir.getPath(), false, false);
+        async = new AsyncTableProvider(provider, 1, 2);
+        table = async.getTableAsync("asyncTable").get();
+
+        Assert.assertEquals("wrong value", Integer.valueOf(42), table.getAsync("key42").get().getIntAt(0));
+        Assert.assertNull("absent key found", table.getAsync("absent").get());
+    }
+
+    @Test
+    public void localChangesAreAnsweredAtOnce() throws Exception {
+        fill(10);
+
+        table.getTable().put("key1", row(-1));
+        table.getTable().remove("key2");
+
+        CountDownLatch latch = new CountDownLatch(1);
+        block(latch);
+
+        try {
+            Assert.assertEquals("wrong local value", Integer.valueOf(-1), table.getAsync("key1").getNow(null).getIntAt(0));
+            Assert.assertTrue("removed key not answered", table.getAsync("key2").isDone());
+            Assert.assertNull("removed key found", table.getAsync("key2").get());
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void commitTakesTheChangesOfTheCaller() throws Exception {
+        table.getTable().put("key", row(1));
+
+        CompletableFuture<Integer> commit = table.commitAsync();
+
+        //the caller starts a new transaction at once
+        Assert.assertEquals("changes left with the caller", 0, table.getTable().getDiffCount());
+        Assert.assertEquals("wrong number of changes", Integer.valueOf(1), commit.get());
+        Assert.assertEquals("wrong value", Integer.valueOf(1), table.getTable().get("key").getIntAt(0));
+    }
+
+    @Test
+    public void scanSeesLocalChangesAndKeepsTheLimit() throws Exception {
+        fill(100);
+
+        table.getTable().remove("key10");
+
+        List<Map.Entry<String, Storeable>> entries = table.scanAsync("key1", "key2", 5).get();
+
+        Assert.assertEquals("wrong number of entries", 5, entries.size());
+        Assert.assertEquals("wrong first key", "key1", entries.get(0).getKey());
+        Assert.assertEquals("removed key scanned", "key11", entries.get(1).getKey());
+    }
+
+    @Test
+    public void waitingOperationTimesOut() throws Exception {
+        fill(10);
+
+        CountDownLatch latch = new CountDownLatch(1);
+        block(latch);
+
+        try {
+            CompletableFuture<Storeable> late = table.getAsync("key1", 50, TimeUnit.MILLISECONDS);
+
+            try {
+                late.get();
+                Assert.fail("operation didn't time out");
+            } catch (ExecutionException ex) {
+                Assert.assertTrue("wrong failure", ex.getCause() instanceof TimeoutException);
+            }
+
+            Assert.assertEquals("timed out operation kept in the queue", 0, async.getQueueDepth());
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void cancelledOperationIsNotRun() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        final AtomicBoolean ran = new AtomicBoolean();
+
+        block(latch);
+
+        CompletableFuture<Void> cancelled = async.submit(new Callable<Void>() {
+            public Void call() {
+                ran.set(true);
+                return null;
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+
+        Assert.assertEquals("wrong queue depth", 1, async.getQueueDepth());
+
+        cancelled.cancel(false);
+        latch.countDown();
+
+        //runs after the cancelled one would have
+        table.getAsync("key").get();
+
+        Assert.assertFalse("cancelled operation run", ran.get());
+        Assert.assertTrue("not cancelled", cancelled.isCancelled());
+    }
+
+    @Test
+    public void fullQueueRejectsOperations() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        block(latch);
+
+        try {
+            table.getAsync("key1");
+            table.getAsync("key2");
+
+            try {
+                table.getAsync("key3").get();
+                Assert.fail("operation accepted");
+            } catch (ExecutionException ex) {
+                Assert.assertTrue("wrong failure", ex.getCause() instanceof RejectedExecutionException);
+            }
+        } finally {
+            latch.countDown();
+        }
+    }
+}
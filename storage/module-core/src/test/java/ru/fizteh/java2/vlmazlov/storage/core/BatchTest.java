@@ -0,0 +1,177 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.ColumnFormatException;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BatchTest extends TableFixture {
+
+    public BatchTest() {
+        super("batchTable", Integer.class);
+    }
+
+    private Map<String, Storeable> rows(int from, int to) {
+        Map<String, Storeable> rows = new HashMap<String, Storeable>();
+
+        for (int i = from; i < to; ++i) {
+            rows.put("key" + i, row(i));
+        }
+
+        return rows;
+    }
+
+    private static List<String> keys(int from, int to) {
+        List<String> keys = new ArrayList<String>();
+
+        for (int i = from; i < to; ++i) {
+            keys.add("key" + i);
+        }
+
+        return keys;
+    }
+
+    @Test
+    public void previousValuesAreReturned() throws IOException, ValidityCheckFailedException {
+        Assert.assertTrue("values before put", table.putAll(rows(0, 1000)).isEmpty());
+        table.commit();
+        reopen();
+
+        Map<String, Storeable> previous = table.putAll(rows(500, 1500));
+
+        Assert.assertEquals("wrong previous values", 500, previous.size());
+        Assert.assertEquals("wrong previous value", Integer.valueOf(700), previous.get("key700").getIntAt(0));
+        Assert.assertEquals("wrong size", 1500, table.size());
+    }
+
+    @Test
+    public void keysAreGotAcrossShards() throws IOException, ValidityCheckFailedException {
+        table.putAll(rows(0, 1000));
+        table.commit();
+        reopen();
+
+        table.remove("key5");
+        table.put("key6", row(-6));
+
+        Map<String, Storeable> found = table.getAll(keys(0, 2000));
+
+        Assert.assertEquals("wrong number of values", 999, found.size());
+        Assert.assertFalse("removed key found", found.containsKey("key5"));
+        Assert.assertEquals("local change not seen", Integer.valueOf(-6), found.get("key6").getIntAt(0));
+
+        for (int i = 7; i < 1000; ++i) {
+            Assert.assertEquals("wrong value", Integer.valueOf(i), found.get("key" + i).getIntAt(0));
+        }
+    }
+
+    @Test
+    public void keysNotYetCheckpointedAreGot() throws IOException, InterruptedException {
+        table.putAll(rows(0, 1000));
+        table.commit();
+        provider.checkpoint();
+
+        table.removeAll(keys(0, 10));
+        table.putAll(rows(1000, 1100));
+        table.commit();
+
+        //another transaction sees the commit, pinned by the log
+        final Map<String, Storeable> found = new HashMap<String, Storeable>();
+        Thread reader = new Thread() {
+            public void run() {
+                found.putAll(table.getAll(keys(0, 2000)));
+            }
+        };
+
+        reader.start();
+        reader.join();
+
+        Assert.assertEquals("wrong number of values", 1090, found.size());
+        Assert.assertFalse("removed key found", found.containsKey("key5"));
+        Assert.assertEquals("logged value not found", Integer.valueOf(1050), found.get("key1050").getIntAt(0));
+
+        provider.checkpoint();
+
+        Assert.assertEquals("wrong number of values", 1090, table.getAll(keys(0, 2000)).size());
+    }
+
+    @Test
+    public void removedKeysAreCommited() throws IOException, ValidityCheckFailedException {
+        table.putAll(rows(0, 100));
+        table.commit();
+
+        table.put("key100", row(100));
+
+        Map<String, Storeable> previous = table.removeAll(keys(50, 150));
+
+        Assert.assertEquals("wrong previous values", 51, previous.size());
+        Assert.assertEquals("wrong number of changes", 50, table.commit());
+
+        reopen();
+
+        Assert.assertEquals("wrong size", 50, table.size());
+        Assert.assertNull("removed key found", table.get("key50"));
+        Assert.assertNotNull("kept key lost", table.get("key49"));
+    }
+
+    @Test
+    public void invalidBatchChangesNothing() throws IOException {
+        Map<String, Storeable> values = rows(0, 10);
+        values.put("bad key", row(-1));
+
+        try {
+            table.putAll(values);
+            Assert.fail("invalid key accepted");
+        } catch (IllegalArgumentException ex) {
+            //expected
+        }
+
+        values = rows(0, 10);
+        StoreableTable other = provider.createTable("otherTable", Arrays.<Class<?>>asList(String.class));
+        values.put("key10", provider.createFor(other, Arrays.<Object>asList("text")));
+
+        try {
+            table.putAll(values);
+            Assert.fail("value of another table accepted");
+        } catch (ColumnFormatException ex) {
+            //expected
+        }
+
+        Assert.assertEquals("changes made", 0, table.size());
+    }
+
+    @Test
+    public void autoCommitAppliesBatchAtOnce() throws ValidityCheckFailedException, InterruptedException {
+        provider.close();
+        provider = openProvider(true);
+        table = provider.getTable("batchTable");
+
+        table.putAll(rows(0, 100));
+        table.removeAll(keys(0, 10));
+
+        //changes of a thread are seen by the others once pushed
+        final Map<String, Storeable> found = new HashMap<String, Storeable>();
+        Thread reader = new Thread() {
+            public void run() {
+                found.putAll(table.getAll(keys(0, 100)));
+            }
+        };
+
+        reader.start();
+        reader.join();
+
+        Assert.assertEquals("wrong number of values", 90, found.size());
+        Assert.assertFalse("removed key found", found.containsKey("key5"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullKeysAreRejected() {
+        table.getAll(Arrays.asList("key", null));
+    }
+}
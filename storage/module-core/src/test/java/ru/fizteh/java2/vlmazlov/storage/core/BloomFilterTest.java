@@ -0,0 +1,199 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.core.io.BloomFilter;
+import ru.fizteh.java2.vlmazlov.storage.core.io.Durability;
+import ru.fizteh.java2.vlmazlov.storage.core.io.ShardedStorageEngine;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableFormat;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class BloomFilterTest extends TableFixture {
+
+    public BloomFilterTest() {
+        super("bloomTable", Integer.class);
+    }
+
+    private BloomFilter.Stats getBloomStats() {
+        return ((ShardedStorageEngine) table.getStorageEngine()).getBloomStats();
+    }
+
+    private File getShardFile(String key) {
+        ShardLayout layout = table.getShardLayout();
+        return new File(new File(new File(tempDir, "bloomTable"), layout.getDirNum(key) + ".dir"),
+            layout.getFileNum(key) + ".dat");
+    }
+
+    @Test
+    public void filterMatchesTheRate() {
+        List<String> keys = new ArrayList<String>();
+
+        for (int i = 0; i < 10000; ++i) {
+            keys.add("key" + i);
+        }
+
+        BloomFilter filter = BloomFilter.build(keys, 0.01, 0);
+
+        for (String key : keys) {
+            Assert.assertTrue("present key rejected", filter.mightContain(key));
+        }
+
+        int falsePositives = 0;
+
+        for (int i = 0; i < 10000; ++i) {
+            if (filter.mightContain("absent" + i)) {
+                ++falsePositives;
+            }
+        }
+
+        Assert.assertTrue("too many false positives: " + falsePositives, falsePositives < 300);
+        Assert.assertEquals("wrong expected rate", 0.01, filter.getExpectedFalsePositiveRate(), 0.005);
+    }
+
+    @Test
+    public void absentKeysSkipTheShards() throws IOException {
+        for (int i = 0; i < 1000; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+        provider.checkpoint();
+
+        Assert.assertTrue("filter not written", BloomFilter.getFilterFile(getShardFile("key0")).exists());
+
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertNull("absent key found", table.get("absent" + i));
+        }
+
+        BloomFilter.Stats stats = getBloomStats();
+
+        Assert.assertTrue("absent keys not skipped: " + stats, stats.getSkipCount() > 900);
+        Assert.assertEquals("wrong value", Integer.valueOf(5), table.get("key5").getIntAt(0));
+    }
+
+    @Test
+    public void keysCommitedSinceTheFiltersWereWrittenAreFound() throws IOException {
+        for (int i = 0; i < 1000; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+        provider.checkpoint();
+
+        //logged, but not yet in the shards or their filters
+        table.put("key1000", row(1000));
+        table.remove("key5");
+        table.commit();
+
+        Assert.assertEquals("logged key not found", Integer.valueOf(1000), table.get("key1000").getIntAt(0));
+        Assert.assertNull("logged removal not seen", table.get("key5"));
+
+        provider.checkpoint();
+        table.setCacheCapacity(1);
+
+        for (int i = 0; i < 10; ++i) {
+            table.get("key" + (100 + i));
+        }
+
+        Assert.assertEquals("checkpointed key not found", Integer.valueOf(1000), table.get("key1000").getIntAt(0));
+        Assert.assertNull("checkpointed removal not seen", table.get("key5"));
+    }
+
+    @Test
+    public void filterOfAnotherShardIsIgnored() throws IOException, ValidityCheckFailedException {
+        table.put("key", row(1));
+        table.commit();
+        provider.close();
+
+        File shard = getShardFile("key");
+        BloomFilter.build(Collections.<String>emptyList(), 0.01, shard.length() + 1)
+            .write(BloomFilter.getFilterFile(shard), Durability.NONE);
+
+        provider = openProvider(false);
+        table = provider.getTable("bloomTable");
+
+        Assert.assertNotNull("key lost to a stale filter", table.get("key"));
+    }
+
+    @Test
+    public void shardRewrittenWithoutItsFilterIsRead() throws IOException, ValidityCheckFailedException {
+        //the shards are written by the commits themselves, a log would have the commit replayed on restart
+        provider.close();
+        provider = new StoreableTableProvider(tempDir.getPath(), false, false);
+
+        List<Class<?>> valueTypes = new ArrayList<Class<?>>() { {
+            add(Integer.class);
+        }};
+
+        table = provider.createTable("singleShardTable", valueTypes, StoreableFormat.BINARY, ShardLayout.hashed(1));
+        table.put("key00005", row(5));
+        table.commit();
+
+        File shard = new File(new File(new File(tempDir, "singleShardTable"), "0.dir"), "0.dat");
+        long length = shard.length();
+
+        //the shard is replaced, but its new filter can't be written
+        File filterTarget = new File(shard.getParentFile(), BloomFilter.getFilterFile(shard).getName() + ".tmp");
+        Assert.assertTrue("unable to block the filter", filterTarget.mkdir());
+
+        table.remove("key00005");
+        table.put("key00009", row(9));
+
+        try {
+            table.commit();
+            Assert.fail("filter was written");
+        } catch (IOException ex) {
+            //expected
+        }
+
+        Assert.assertEquals("shard wasn't replaced by one of the same length", length, shard.length());
+
+        provider.close();
+        provider = new StoreableTableProvider(tempDir.getPath(), false, false);
+        table = provider.getTable("singleShardTable");
+
+        Assert.assertEquals("key lost to the filter of the previous shard", Integer.valueOf(9),
+            table.get("key00009").getIntAt(0));
+        Assert.assertNull("removed key found", table.get("key00005"));
+    }
+
+    @Test
+    public void damagedFilterIsIgnored() throws IOException, ValidityCheckFailedException {
+        table.put("key", row(1));
+        table.commit();
+        provider.close();
+
+        try (FileOutputStream out = new FileOutputStream(BloomFilter.getFilterFile(getShardFile("key")))) {
+            out.write(new byte[] {1, 2, 3});
+        }
+
+        provider = openProvider(false);
+        table = provider.getTable("bloomTable");
+
+        Assert.assertNotNull("key lost to a damaged filter", table.get("key"));
+    }
+
+    @Test
+    public void filterGoesWithTheShard() throws IOException {
+        table.put("key", row(1));
+        table.commit();
+        provider.checkpoint();
+        table.remove("key");
+        table.commit();
+        provider.checkpoint();
+
+        Assert.assertFalse("filter of a removed shard kept", BloomFilter.getFilterFile(getShardFile("key")).exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRateIsRejected() {
+        provider.setBloomFalsePositiveRate(1.0);
+    }
+}
@@ -0,0 +1,194 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.ColumnFormatException;
+import ru.fizteh.java2.vlmazlov.storage.core.io.ColumnIndex;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ColumnIndexTest extends TableFixture {
+
+    public ColumnIndexTest() {
+        super("indexedTable", Integer.class, String.class);
+    }
+
+    @Before
+    public void fillTable() throws IOException {
+        //customers of the orders cycle through 10 names
+        for (int i = 0; i < 1000; ++i) {
+            table.put("order" + i, row(i, "customer" + i % 10));
+        }
+
+        table.commit();
+        provider.createIndex("indexedTable", 1);
+    }
+
+    private File getIndexFile() {
+        return ColumnIndex.getIndexFile(new File(tempDir, "indexedTable"), 1);
+    }
+
+    @Test
+    public void indexFindsTheRows() {
+        Assert.assertTrue("index not written", getIndexFile().exists());
+        Assert.assertEquals("wrong indexed columns", Arrays.asList(1),
+            new ArrayList<Integer>(table.getIndexedColumns()));
+
+        List<String> found = new ArrayList<String>(table.findByColumn(1, "customer3").keySet());
+
+        Assert.assertEquals("wrong number of rows", 100, found.size());
+
+        for (String key : found) {
+            Assert.assertEquals("wrong row", "customer3", table.get(key).getStringAt(1));
+        }
+
+        Assert.assertTrue("absent value found", table.findByColumn(1, "nobody").isEmpty());
+    }
+
+    @Test
+    public void commitsUpdateTheIndex() throws IOException, ValidityCheckFailedException {
+        table.put("order3", row(3, "customer4"));
+        table.remove("order13");
+        table.put("order1000", row(1000, "customer3"));
+
+        //uncommited changes are seen by their owner
+        Assert.assertEquals("local changes not seen", 99, table.findByColumn(1, "customer3").size());
+
+        table.commit();
+        reopen();
+
+        Assert.assertEquals("wrong number of rows", 99, table.findByColumn(1, "customer3").size());
+        Assert.assertFalse("changed row found", table.findByColumn(1, "customer3").containsKey("order3"));
+        Assert.assertTrue("changed row not found", table.findByColumn(1, "customer4").containsKey("order3"));
+        Assert.assertTrue("new row not found", table.findByColumn(1, "customer3").containsKey("order1000"));
+    }
+
+    @Test
+    public void indexSeesTheCommitsNotYetCheckpointed() throws IOException, InterruptedException {
+        table.put("order3", row(3, "customer4"));
+        table.put("order1000", row(1000, "customer3"));
+        table.commit();
+
+        //another transaction sees the commit, pinned by the log
+        final List<Integer> counts = new ArrayList<Integer>();
+        Thread reader = new Thread() {
+            public void run() {
+                counts.add(table.findByColumn(1, "customer3").size());
+                counts.add(table.findByColumn(1, "customer4").size());
+            }
+        };
+
+        reader.start();
+        reader.join();
+
+        Assert.assertEquals("logged commit not seen", Arrays.asList(100, 101), counts);
+
+        provider.checkpoint();
+
+        Assert.assertEquals("checkpointed commit not seen", 100, table.findByColumn(1, "customer3").size());
+        Assert.assertTrue("changed row not found", table.findByColumn(1, "customer4").containsKey("order3"));
+    }
+
+    @Test
+    public void failedStoreLeavesTheIndexAsItWas() throws IOException, ValidityCheckFailedException {
+        //the shards are written by the commits themselves
+        provider.close();
+        provider = new StoreableTableProvider(tempDir.getPath(), false, false);
+        table = provider.getTable("indexedTable");
+
+        ShardLayout layout = table.getShardLayout();
+        File shardTarget = new File(new File(new File(tempDir, "indexedTable"), layout.getDirNum("order3") + ".dir"),
+            layout.getFileNum("order3") + ".dat.tmp");
+        //not empty, so that it can't be deleted on the way
+        Assert.assertTrue("unable to block the shard", shardTarget.mkdir());
+        Assert.assertTrue("unable to block the shard", new File(shardTarget, "block").createNewFile());
+
+        table.put("order3", row(3, "customer4"));
+
+        try {
+            table.commit();
+            Assert.fail("shard was written");
+        } catch (IOException ex) {
+            //expected
+        }
+
+        table.rollback();
+
+        Assert.assertTrue("stored row not found", table.findByColumn(1, "customer3").containsKey("order3"));
+        Assert.assertEquals("wrong number of rows", 100, table.findByColumn(1, "customer4").size());
+
+        Assert.assertTrue("unable to unblock the shard", new File(shardTarget, "block").delete());
+        Assert.assertTrue("unable to unblock the shard", shardTarget.delete());
+        table.put("order3", row(3, "customer4"));
+        table.commit();
+        reopen();
+
+        Assert.assertEquals("wrong number of rows", 99, table.findByColumn(1, "customer3").size());
+        Assert.assertTrue("changed row not found", table.findByColumn(1, "customer4").containsKey("order3"));
+    }
+
+    @Test
+    public void nullValuesAreIndexed() throws IOException {
+        table.put("order5", row(5, null));
+        table.commit();
+
+        Assert.assertEquals("wrong rows", Arrays.asList("order5"),
+            new ArrayList<String>(table.findByColumn(1, null).keySet()));
+    }
+
+    @Test
+    public void lookupWithoutIndexScansTheTable() {
+        Assert.assertEquals("wrong number of rows", 1, table.findByColumn(0, 77).size());
+        Assert.assertEquals("wrong row", "customer7", table.findByColumn(0, 77).get("order77").getStringAt(1));
+    }
+
+    @Test
+    public void damagedIndexIsRebuilt() throws IOException, ValidityCheckFailedException {
+        provider.close();
+
+        try (RandomAccessFile file = new RandomAccessFile(getIndexFile(), "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        provider = openProvider(false);
+        table = provider.getTable("indexedTable");
+
+        Assert.assertEquals("wrong number of rows", 100, table.findByColumn(1, "customer3").size());
+    }
+
+    @Test
+    public void removedIndexLeavesNothingBehind() throws ValidityCheckFailedException {
+        provider.removeIndex("indexedTable", 1);
+
+        Assert.assertFalse("index file kept", getIndexFile().getParentFile().exists());
+        Assert.assertTrue("index still listed", table.getIndexedColumns().isEmpty());
+
+        reopen();
+
+        Assert.assertEquals("wrong number of rows", 100, table.findByColumn(1, "customer3").size());
+    }
+
+    @Test
+    public void reshardKeepsTheIndex() throws IOException {
+        table.reshard(ShardLayout.hashed(9));
+
+        Assert.assertTrue("index removed", getIndexFile().exists());
+        Assert.assertEquals("wrong number of rows", 100, table.findByColumn(1, "customer3").size());
+    }
+
+    @Test(expected = ColumnFormatException.class)
+    public void valueOfAnotherTypeIsRejected() {
+        table.findByColumn(1, 3);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void indexOfMissingTableIsRejected() throws IOException {
+        provider.createIndex("missingTable", 0);
+    }
+}
@@ -0,0 +1,193 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.generics.CommitedCache;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.io.Files;
+
+public class CommitedCacheTest {
+    private CommitedCache<String> cache;
+
+    @Before
+    public void setUp() {
+        cache = new CommitedCache<String>(10);
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        for (int i = 0; i < 100; ++i) {
+            cache.put("key" + i, "value" + i);
+        }
+
+        Assert.assertEquals("wrong size", 10, cache.size());
+        Assert.assertEquals("wrong eviction count", 90, cache.getStats().getEvictionCount());
+        Assert.assertEquals("newest entry evicted", "value99", cache.get("key99"));
+        Assert.assertNull("eldest entry kept", cache.get("key0"));
+    }
+
+    @Test
+    public void hotEntrySurvivesScan() {
+        cache.put("hot", "value");
+        cache.get("hot");
+
+        for (int i = 0; i < 100; ++i) {
+            cache.put("key" + i, "value" + i);
+        }
+
+        Assert.assertEquals("hot entry evicted", "value", cache.get("hot"));
+    }
+
+    @Test
+    public void hitsOfOtherThreadsAreTakenIntoAccount() throws InterruptedException {
+        cache.put("hot", "value");
+
+        //the hit is only recorded by the reader, it reorders the segments on the next put
+        Thread reader = new Thread() {
+            public void run() {
+                cache.get("hot");
+            }
+        };
+
+        reader.start();
+        reader.join();
+
+        for (int i = 0; i < 100; ++i) {
+            cache.put("key" + i, "value" + i);
+        }
+
+        Assert.assertEquals("hot entry evicted", "value", cache.get("hot"));
+    }
+
+    @Test
+    public void concurrentReadsKeepTheCacheBounded() throws InterruptedException {
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < 4; ++t) {
+            threads.add(new Thread() {
+                public void run() {
+                    for (int i = 0; i < 100000; ++i) {
+                        String key = "key" + i % 37;
+
+                        if (cache.get(key) == null) {
+                            cache.put(key, "value" + i % 37);
+                        }
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals("wrong size", 10, cache.size());
+
+        for (int i = 0; i < 37; ++i) {
+            String key = "key" + i;
+            Assert.assertEquals("lookups disagree on " + key, cache.containsKey(key), cache.peek(key) != null);
+        }
+    }
+
+    @Test
+    public void pinnedEntryIsNotEvicted() {
+        cache.pin("pinned", "value");
+
+        for (int i = 0; i < 100; ++i) {
+            cache.put("key" + i, "value" + i);
+        }
+
+        Assert.assertEquals("pinned entry evicted", "value", cache.get("pinned"));
+
+        cache.unpin(Collections.singletonList("pinned"));
+
+        for (int i = 100; i < 200; ++i) {
+            cache.put("key" + i, "value" + i);
+        }
+
+        Assert.assertFalse("unpinned entry kept", cache.containsKey("pinned"));
+    }
+
+    @Test
+    public void hitsAndMissesAreCounted() {
+        cache.put("key", "value");
+        cache.get("key");
+        cache.get("key");
+        cache.get("absent");
+
+        Assert.assertEquals("wrong hit count", 2, cache.getStats().getHitCount());
+        Assert.assertEquals("wrong miss count", 1, cache.getStats().getMissCount());
+    }
+
+    @Test
+    public void unboundedCacheKeepsEverything() {
+        cache = new CommitedCache<String>();
+
+        for (int i = 0; i < 1000; ++i) {
+            cache.put("key" + i, "value" + i);
+        }
+
+        Assert.assertEquals("wrong size", 1000, cache.size());
+    }
+
+    @Test
+    public void unboundingKeepsSegments() {
+        cache.put("hot", "value");
+        cache.get("hot");
+
+        cache.setCapacity(CommitedCache.UNBOUNDED);
+        cache.setCapacity(10);
+
+        for (int i = 0; i < 100; ++i) {
+            cache.put("key" + i, "value" + i);
+        }
+
+        Assert.assertEquals("hot entry demoted", "value", cache.get("hot"));
+    }
+
+    @Test
+    public void evictedRowsAreLoadedBack() throws IOException, ValidityCheckFailedException {
+        File tempDir = Files.createTempDir();
+        StoreableTableProvider provider = new StoreableTableProvider(tempDir.getPath(), false);
+
+        List<Class<?>> valueTypes = new ArrayList<Class<?>>() { {
+            add(Integer.class);
+        }};
+
+        StoreableTable table = provider.createTable("cacheTable", valueTypes);
+        table.setCacheCapacity(5);
+
+        for (int i = 0; i < 50; ++i) {
+            List<Object> values = new ArrayList<Object>();
+            values.add(i);
+            table.put("key" + i, provider.createFor(table, values));
+        }
+
+        table.commit();
+        //logged rows stay in the cache until checkpointed
+        provider.checkpoint();
+
+        for (int i = 0; i < 50; ++i) {
+            Storeable value = table.get("key" + i);
+
+            Assert.assertNotNull("key" + i + " was lost", value);
+            Assert.assertEquals("wrong value", Integer.valueOf(i), value.getIntAt(0));
+        }
+
+        Assert.assertTrue("cache isn't bounded", table.getCacheStats().getSize() <= 5);
+        Assert.assertEquals("wrong size", 50, table.size());
+
+        provider.close();
+    }
+}
@@ -0,0 +1,94 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.core.io.AtomicFiles;
+import ru.fizteh.java2.vlmazlov.storage.core.io.Durability;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+//the shards are written by the commits themselves, with the durability the test sets
+public class DurabilityTest extends TableFixture {
+
+    public DurabilityTest() {
+        super("durableTable", false, Integer.class);
+    }
+
+    private int countTemporaryFiles(File directory) {
+        int count = 0;
+
+        for (File entry : directory.listFiles()) {
+            if (entry.isDirectory()) {
+                count += countTemporaryFiles(entry);
+            } else if (entry.getName().endsWith(AtomicFiles.TEMP_SUFFIX)) {
+                ++count;
+            }
+        }
+
+        return count;
+    }
+
+    @Test
+    public void everyDurabilityKeepsData() throws IOException, ValidityCheckFailedException {
+        for (Durability durability : Durability.values()) {
+            provider.setDurability(durability);
+
+            for (int i = 0; i < 50; ++i) {
+                table.put(durability.name() + i, row(i));
+            }
+
+            table.remove("NONE0");
+            table.commit();
+
+            Assert.assertEquals("temporary files left by " + durability, 0, countTemporaryFiles(tempDir));
+        }
+
+        reopen();
+
+        Assert.assertEquals("wrong size", 149, table.size());
+        Assert.assertNull("removed key found", table.get("NONE0"));
+        Assert.assertEquals("wrong value", Integer.valueOf(49), table.get("FSYNC49").getIntAt(0));
+    }
+
+    @Test
+    public void interruptedRewriteIsIgnored() throws IOException, ValidityCheckFailedException {
+        for (int i = 0; i < 50; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+        provider.close();
+
+        File tableDir = new File(tempDir, "durableTable");
+        File shardDir = tableDir.listFiles(new java.io.FileFilter() {
+            public boolean accept(File file) {
+                return file.isDirectory();
+            }
+        })[0];
+
+        //what a crash before the rename leaves behind: a half written shard and an orphan directory
+        try (FileOutputStream out = new FileOutputStream(new File(shardDir, "0.dat" + AtomicFiles.TEMP_SUFFIX))) {
+            out.write(new byte[] {'k', 'e', 'y'});
+        }
+
+        File orphanDir = new File(tableDir, "0.dir");
+
+        for (int i = 1; orphanDir.exists(); ++i) {
+            orphanDir = new File(tableDir, i + ".dir");
+        }
+
+        orphanDir.mkdir();
+        new File(orphanDir, "3.dat" + AtomicFiles.TEMP_SUFFIX).createNewFile();
+        new File(tableDir, "size.tsv" + AtomicFiles.TEMP_SUFFIX).createNewFile();
+
+        provider = openProvider(false);
+        table = provider.getTable("durableTable");
+
+        Assert.assertEquals("wrong size", 50, table.size());
+        Assert.assertEquals("wrong value", Integer.valueOf(7), table.get("key7").getIntAt(0));
+        Assert.assertEquals("leftovers weren't removed", 0, countTemporaryFiles(tempDir));
+        Assert.assertFalse("empty directory kept", orphanDir.exists());
+    }
+}
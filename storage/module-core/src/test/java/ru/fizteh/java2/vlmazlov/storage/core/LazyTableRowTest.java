@@ -0,0 +1,67 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.IOException;
+
+public class LazyTableRowTest extends TableFixture {
+
+    public LazyTableRowTest() {
+        super("lazyTable", Integer.class, String.class);
+    }
+
+    //the rows are loaded from the shards afterwards
+    @Before
+    public void fillTable() throws IOException, ValidityCheckFailedException {
+        for (int i = 0; i < 10; ++i) {
+            table.put("key" + i, row(i, "value" + i));
+        }
+
+        table.commit();
+        reopen();
+    }
+
+    @Test
+    public void rowIsDecodedOnFirstAccess() {
+        LazyTableRow row = (LazyTableRow) table.get("key3");
+
+        Assert.assertFalse("row decoded too early", row.isDecoded());
+        Assert.assertEquals("wrong value", "value3", row.getStringAt(1));
+        Assert.assertTrue("decoded row wasn't kept", row.isDecoded());
+        Assert.assertNull("encoded row wasn't released", row.getEncoded());
+    }
+
+    @Test
+    public void rowMayStayEncoded() {
+        table.setKeepingDecoded(false);
+        LazyTableRow row = (LazyTableRow) table.get("key4");
+
+        Assert.assertEquals("wrong value", Integer.valueOf(4), row.getIntAt(0));
+        Assert.assertFalse("decoded row was kept", row.isDecoded());
+        Assert.assertNotNull("encoded row was released", row.getEncoded());
+    }
+
+    @Test
+    public void puttingLoadedRowBackChangesNothing() throws IOException {
+        Storeable row = table.get("key5");
+
+        table.put("key5", row);
+
+        Assert.assertEquals("unchanged row counted as a change", 0, table.commit());
+    }
+
+    @Test
+    public void changedRowIsCommited() throws IOException, ValidityCheckFailedException {
+        table.setKeepingDecoded(false);
+        Storeable row = table.get("key6");
+
+        row.setColumnAt(1, "changed");
+        table.put("key6", row);
+        table.commit();
+        reopen();
+
+        Assert.assertEquals("change was lost", "changed", table.get("key6").getStringAt(1));
+    }
+}
@@ -0,0 +1,122 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class LocalSizeTest extends TableFixture {
+
+    public LocalSizeTest() {
+        super("sizeTable", Integer.class);
+    }
+
+    @Before
+    public void fillTable() throws IOException {
+        for (int i = 0; i < 100; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+    }
+
+    @Test
+    public void sizeFollowsTheChanges() throws IOException, ValidityCheckFailedException {
+        Assert.assertEquals("wrong size", 100, table.size());
+
+        table.put("key0", row(-1));
+        table.put("new0", row(-1));
+        Assert.assertEquals("wrong size after put", 101, table.size());
+
+        table.remove("key1");
+        table.remove("new0");
+        table.remove("absent");
+        Assert.assertEquals("wrong size after remove", 99, table.size());
+
+        //removed keys put back
+        table.put("key1", row(1));
+        table.put("new0", row(0));
+        Assert.assertEquals("wrong size after put back", 101, table.size());
+
+        table.removeAll(Arrays.asList("key2", "key2", "key3", "new0", "absent"));
+        Assert.assertEquals("wrong size after removeAll", 98, table.size());
+
+        table.putAll(Collections.singletonMap("key2", row(2)));
+        Assert.assertEquals("wrong size after putAll", 99, table.size());
+
+        table.commit();
+        Assert.assertEquals("wrong size after commit", 99, table.size());
+
+        reopen();
+        Assert.assertEquals("wrong size after reopening", 99, table.size());
+    }
+
+    @Test
+    public void rollbackResetsTheSize() {
+        table.put("new0", row(0));
+        table.remove("key0");
+        table.remove("key1");
+        table.rollback();
+
+        Assert.assertEquals("wrong size after rollback", 100, table.size());
+
+        table.put("new0", row(0));
+        Assert.assertEquals("wrong size", 101, table.size());
+    }
+
+    @Test
+    public void sizeHoldsWithNothingCached() throws IOException, ValidityCheckFailedException {
+        reopen();
+        //the presence of the keys is resolved as they are changed, not looked up again
+        table.setCacheCapacity(1);
+        table.setNegativeCacheCapacity(1);
+
+        for (int i = 0; i < 50; ++i) {
+            table.put("key" + i, row(-i - 1));
+            table.put("new" + i, row(i));
+            table.remove("key" + (50 + i));
+        }
+
+        Assert.assertEquals("wrong size", 100, table.size());
+        Assert.assertEquals("wrong number of changes", 150, table.commit());
+
+        reopen();
+        Assert.assertEquals("wrong size after reopening", 100, table.size());
+    }
+
+    //every key loaded into the caches pushes another one out of them
+    private long getEvictionCount() {
+        return table.getCacheStats().getEvictionCount() + table.getNegativeCacheStats().getEvictionCount();
+    }
+
+    //changes of half the keys, the other half removed, and as many new ones
+    private void changeEverything() {
+        for (int i = 0; i < 50; ++i) {
+            table.put("key" + i, row(-i - 1));
+            table.put("new" + i, row(i));
+            table.remove("key" + (50 + i));
+        }
+    }
+
+    @Test
+    public void commitDoesNotLookTheKeysUpAgain() throws IOException, ValidityCheckFailedException {
+        reopen();
+        table.setCacheCapacity(1);
+        table.setNegativeCacheCapacity(1);
+
+        changeEverything();
+        long evictions = getEvictionCount();
+
+        Assert.assertEquals("wrong number of changes", 150, table.rollback());
+        Assert.assertEquals("keys looked up again on rollback", evictions, getEvictionCount());
+
+        changeEverything();
+        evictions = getEvictionCount();
+
+        //the logged rows stay pinned, nothing is put in the caches by the commit itself
+        Assert.assertEquals("wrong number of changes", 150, table.commit());
+        Assert.assertEquals("keys looked up again on commit", evictions, getEvictionCount());
+    }
+}
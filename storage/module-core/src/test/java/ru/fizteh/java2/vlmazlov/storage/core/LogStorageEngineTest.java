@@ -0,0 +1,280 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.LogStorageEngine;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StorageEngineType;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.io.Files;
+
+public class LogStorageEngineTest {
+    private StoreableTableProvider provider;
+    private StoreableTable table;
+    private File tempDir;
+
+    @Before
+    public void setUp() throws IOException, ValidityCheckFailedException {
+        tempDir = Files.createTempDir();
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+
+        List<Class<?>> valueTypes = new ArrayList<Class<?>>() { {
+            add(Integer.class);
+            add(String.class);
+        }};
+
+        table = provider.createTable("logTable", valueTypes, StorageEngineType.LOG);
+    }
+
+    @After
+    public void tearDown() {
+        provider.close();
+    }
+
+    private Storeable row(int number) {
+        List<Object> values = new ArrayList<Object>();
+        values.add(number);
+        values.add("value" + number);
+
+        return provider.createFor(table, values);
+    }
+
+    private void reopen() throws ValidityCheckFailedException {
+        provider.close();
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+        table = provider.getTable("logTable");
+    }
+
+    private File getSegmentsDir() {
+        return new File(new File(tempDir, "logTable"), LogStorageEngine.SEGMENTS_DIR);
+    }
+
+    private long getSegmentsLength() {
+        long length = 0;
+
+        for (File file : getSegmentsDir().listFiles()) {
+            length += file.length();
+        }
+
+        return length;
+    }
+
+    @Test
+    public void dataSurvivesReload() throws IOException, ValidityCheckFailedException {
+        for (int i = 0; i < 100; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+        table.remove("key5");
+        table.put("key6", row(600));
+        table.commit();
+
+        reopen();
+
+        Assert.assertEquals("engine wasn't stored", StorageEngineType.LOG, table.getStorageEngine().getType());
+        Assert.assertEquals("wrong size", 99, table.size());
+        Assert.assertNull("removed key found", table.get("key5"));
+        Assert.assertEquals("wrong value", "value600", table.get("key6").getStringAt(1));
+        Assert.assertEquals("wrong value", "value99", table.get("key99").getStringAt(1));
+    }
+
+    @Test
+    public void commitAppendsOnlyTheChange() throws IOException {
+        for (int i = 0; i < 1000; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+        provider.checkpoint();
+        long before = getSegmentsLength();
+
+        table.put("key1", row(1000));
+        table.commit();
+        provider.checkpoint();
+
+        Assert.assertTrue("commit of a single key wrote " + (getSegmentsLength() - before) + " bytes",
+            getSegmentsLength() - before < 100);
+    }
+
+    @Test
+    public void interruptedCommitIsDropped() throws IOException, ValidityCheckFailedException {
+        table.put("key1", row(1));
+        table.commit();
+        provider.close();
+
+        File[] segments = getSegmentsDir().listFiles();
+        Assert.assertEquals("wrong number of segments", 1, segments.length);
+        long length = segments[0].length();
+
+        try (FileOutputStream out = new FileOutputStream(segments[0], true)) {
+            out.write(new byte[] {0, 0, 0, 100, 1, 2, 3});
+        }
+
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+        table = provider.getTable("logTable");
+
+        Assert.assertEquals("wrong value", "value1", table.get("key1").getStringAt(1));
+        Assert.assertEquals("damaged tail wasn't cut off", length, segments[0].length());
+    }
+
+    @Test
+    public void compactionKeepsLiveData() throws IOException, ValidityCheckFailedException {
+        LogStorageEngine engine = (LogStorageEngine) table.getStorageEngine();
+        engine.setSegmentLimit(256);
+
+        for (int round = 0; round < 10; ++round) {
+            for (int i = 0; i < 20; ++i) {
+                table.put("key" + i, row(round * 100 + i));
+                table.commit();
+            }
+        }
+
+        table.remove("key0");
+        table.commit();
+
+        //background compaction may have run already, either way only the merged and the active segments remain
+        engine.compact();
+
+        Assert.assertTrue("segments weren't merged: " + engine.getSegmentsCount(), engine.getSegmentsCount() <= 2);
+
+        reopen();
+
+        Assert.assertEquals("wrong size", 19, table.size());
+        Assert.assertNull("removed key found", table.get("key0"));
+
+        for (int i = 1; i < 20; ++i) {
+            Assert.assertEquals("wrong value", Integer.valueOf(900 + i), table.get("key" + i).getIntAt(0));
+        }
+    }
+
+    @Test
+    public void reshardIsRejectedBeforeAnythingIsStored() throws IOException {
+        table.put("key1", row(1));
+        table.commit();
+
+        try {
+            provider.reshardTable("logTable", ShardLayout.hashed(4));
+            Assert.fail("log table was resharded");
+        } catch (UnsupportedOperationException ex) {
+            //expected
+        }
+
+        Assert.assertFalse("logged commit was stored", getSegmentsDir().exists());
+
+        table.put("key2", row(2));
+        table.commit();
+        provider.checkpoint();
+
+        Assert.assertEquals("wrong value", "value1", table.get("key1").getStringAt(1));
+        Assert.assertEquals("wrong value", "value2", table.get("key2").getStringAt(1));
+    }
+
+    @Test
+    public void failedCompactionIsReported() throws IOException, InterruptedException {
+        LogStorageEngine engine = (LogStorageEngine) table.getStorageEngine();
+        engine.setSegmentLimit(256);
+
+        table.put("key0", row(0));
+        table.commit();
+        provider.checkpoint();
+
+        //the compaction can't create its file
+        File blocker = new File(getSegmentsDir(), "compaction.tmp");
+        Assert.assertTrue("unable to block the compaction", blocker.mkdir());
+
+        for (int round = 0; (engine.getCompactionFailure() == null) && (round < 200); ++round) {
+            table.put("key" + round % 10, row(round));
+            table.commit();
+            provider.checkpoint();
+            Thread.sleep(10);
+        }
+
+        Assert.assertNotNull("failed compaction wasn't recorded", engine.getCompactionFailure());
+
+        table.put("key1", row(1000));
+        table.commit();
+
+        try {
+            provider.checkpoint();
+            Assert.fail("failed compaction wasn't reported");
+        } catch (IOException ex) {
+            //expected
+        }
+
+        Assert.assertTrue("unable to unblock the compaction", blocker.delete());
+
+        provider.checkpoint();
+
+        Assert.assertNull("compaction failure wasn't cleared", engine.getCompactionFailure());
+        Assert.assertEquals("wrong value", Integer.valueOf(1000), table.get("key1").getIntAt(0));
+    }
+
+    @Test
+    public void segmentsAreReadAfterAFailedReplace() throws IOException {
+        LogStorageEngine engine = (LogStorageEngine) table.getStorageEngine();
+        engine.setSegmentLimit(256);
+
+        //no key is overwritten, so that nothing starts a compaction in the background
+        for (int i = 0; i < 20; ++i) {
+            table.put("key" + i, row(i));
+            table.commit();
+            provider.checkpoint();
+        }
+
+        List<Integer> ids = new ArrayList<Integer>();
+
+        for (String name : getSegmentsDir().list()) {
+            ids.add(Integer.parseInt(name.substring(0, name.length() - ".log".length())));
+        }
+
+        Collections.sort(ids);
+
+        //the compacted file replaces the newest of the sealed segments
+        File newest = new File(getSegmentsDir(), ids.get(ids.size() - 1) + ".log");
+
+        if (newest.length() < 256) {
+            newest = new File(getSegmentsDir(), ids.get(ids.size() - 2) + ".log");
+        }
+
+        File moved = new File(tempDir, "moved.log");
+        Assert.assertTrue("unable to move the segment", newest.renameTo(moved));
+        Assert.assertTrue("unable to block the segment", newest.mkdir());
+        Assert.assertTrue("unable to block the segment", new File(newest, "block").createNewFile());
+
+        try {
+            engine.compact();
+            Assert.fail("compacted file was put in place");
+        } catch (IOException ex) {
+            //expected
+        }
+
+        for (int i = 0; i < 20; ++i) {
+            Assert.assertNotNull("key lost", engine.read("key" + i));
+        }
+
+        table.put("key20", row(20));
+        table.commit();
+        provider.checkpoint();
+
+        Assert.assertTrue("unable to unblock the segment", new File(newest, "block").delete());
+        Assert.assertTrue("unable to unblock the segment", newest.delete());
+        Assert.assertTrue("unable to move the segment back", moved.renameTo(newest));
+
+        engine.compact();
+        Assert.assertFalse("compacted file left", new File(getSegmentsDir(), "compaction.tmp").exists());
+
+        for (int i = 0; i <= 20; ++i) {
+            Assert.assertEquals("wrong value", Integer.valueOf(i), table.get("key" + i).getIntAt(0));
+            Assert.assertNotNull("key lost", engine.read("key" + i));
+        }
+    }
+}
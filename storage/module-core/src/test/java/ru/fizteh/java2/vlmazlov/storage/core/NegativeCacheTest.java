@@ -0,0 +1,107 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.core.generics.CommitedCache;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.IOException;
+
+public class NegativeCacheTest extends TableFixture {
+
+    public NegativeCacheTest() {
+        super("negativeTable", Integer.class);
+    }
+
+    //no shard is mapped after that
+    @Before
+    public void fillTable() throws IOException, ValidityCheckFailedException {
+        for (int i = 0; i < 100; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+        reopen();
+    }
+
+    @Test
+    public void absentKeyIsRemembered() {
+        Assert.assertNull("absent key found", table.get("absent"));
+        Assert.assertNull("absent key found", table.get("absent"));
+
+        CommitedCache.Stats stats = table.getNegativeCacheStats();
+
+        Assert.assertEquals("wrong hit count", 1, stats.getHitCount());
+        Assert.assertEquals("wrong size", 1, stats.getSize());
+    }
+
+    @Test
+    public void commitedKeyIsNoLongerAbsent() throws IOException {
+        table.setCacheCapacity(1);
+        Assert.assertNull("absent key found", table.get("absent"));
+
+        table.put("absent", row(-1));
+        table.commit();
+
+        //pushes the key out of the commited cache, so that it is looked up anew
+        for (int i = 0; i < 10; ++i) {
+            table.get("key" + i);
+        }
+
+        Assert.assertEquals("commited key not found", Integer.valueOf(-1), table.get("absent").getIntAt(0));
+
+        //no longer pinned by the log, the key is read from its shard
+        provider.checkpoint();
+
+        for (int i = 0; i < 10; ++i) {
+            table.get("key" + i);
+        }
+
+        Assert.assertEquals("checkpointed key not found", Integer.valueOf(-1), table.get("absent").getIntAt(0));
+    }
+
+    @Test
+    public void removedKeyIsRememberedOnceCheckpointed() throws IOException {
+        table.remove("key5");
+        table.commit();
+
+        Assert.assertNull("removed key found", table.get("key5"));
+
+        provider.checkpoint();
+
+        Assert.assertNull("removed key found", table.get("key5"));
+        Assert.assertNull("removed key found", table.get("key5"));
+        Assert.assertEquals("wrong hit count", 1, table.getNegativeCacheStats().getHitCount());
+    }
+
+    @Test
+    public void missesOfMappedShardsAreNotRemembered() {
+        ShardLayout layout = table.getShardLayout();
+        String absentKey = null;
+
+        for (int i = 0; absentKey == null; ++i) {
+            if (layout.getShardNum("absent" + i) == layout.getShardNum("key0")) {
+                absentKey = "absent" + i;
+            }
+        }
+
+        Assert.assertNotNull("present key not found", table.get("key0"));
+        Assert.assertNull("absent key found", table.get(absentKey));
+
+        Assert.assertEquals("miss of a mapped shard remembered", 0, table.getNegativeCacheStats().getSize());
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        table.setNegativeCacheCapacity(10);
+
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertNull("absent key found", table.get("absent" + i));
+        }
+
+        CommitedCache.Stats stats = table.getNegativeCacheStats();
+
+        Assert.assertTrue("capacity exceeded", stats.getSize() <= 10);
+        Assert.assertTrue("nothing evicted", stats.getEvictionCount() > 0);
+    }
+}
@@ -0,0 +1,158 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.ColumnFormatException;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableCodec;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableFormat;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.io.Files;
+
+public class PackedRowTest {
+    private List<Class<?>> valueTypes;
+    private TableRow row;
+
+    @Before
+    public void setUp() {
+        valueTypes = new ArrayList<Class<?>>() { {
+            add(Integer.class);
+            add(String.class);
+            add(Long.class);
+            add(Byte.class);
+            add(Float.class);
+            add(Double.class);
+            add(Boolean.class);
+        }};
+
+        row = new TableRow(valueTypes);
+    }
+
+    private void fill(TableRow row) {
+        row.setColumnAt(0, -17);
+        row.setColumnAt(1, "packed");
+        row.setColumnAt(2, Long.MIN_VALUE);
+        row.setColumnAt(3, (byte) -89);
+        row.setColumnAt(4, -0.5f);
+        row.setColumnAt(5, Double.NaN);
+        row.setColumnAt(6, true);
+    }
+
+    @Test
+    public void primitiveColumnsAreReadBack() {
+        fill(row);
+
+        Assert.assertEquals("wrong int", -17, row.getIntValueAt(0));
+        Assert.assertEquals("wrong long", Long.MIN_VALUE, row.getLongValueAt(2));
+        Assert.assertEquals("wrong byte", (byte) -89, row.getByteValueAt(3));
+        Assert.assertEquals("wrong float", -0.5f, row.getFloatValueAt(4), 0);
+        Assert.assertTrue("wrong double", Double.isNaN(row.getDoubleValueAt(5)));
+        Assert.assertTrue("wrong boolean", row.getBooleanValueAt(6));
+
+        Assert.assertEquals("wrong boxed value", Integer.valueOf(-17), row.getIntAt(0));
+        Assert.assertEquals("wrong boxed value", Byte.valueOf((byte) -89), row.getColumnAt(3));
+        Assert.assertEquals("wrong string", "packed", row.getStringAt(1));
+        Assert.assertEquals("wrong representation", "TableRow[-17,packed,-9223372036854775808,-89,-0.5,NaN,true]",
+            row.toString());
+    }
+
+    @Test
+    public void primitiveSettersMatchTheBoxedOnes() {
+        row.setIntValueAt(0, 42);
+        row.setLongValueAt(2, 1L << 40);
+        row.setDoubleValueAt(5, 2.25);
+
+        Assert.assertEquals("wrong int", Integer.valueOf(42), row.getIntAt(0));
+        Assert.assertEquals("wrong long", Long.valueOf(1L << 40), row.getLongAt(2));
+        Assert.assertEquals("wrong double", Double.valueOf(2.25), row.getDoubleAt(5));
+        Assert.assertTrue("unset column not null", row.isNullAt(4));
+    }
+
+    @Test
+    public void nullColumnsStayNull() {
+        fill(row);
+
+        row.setColumnAt(0, null);
+        row.setColumnAt(1, null);
+
+        Assert.assertTrue("null not kept", row.isNullAt(0));
+        Assert.assertNull("null not kept", row.getIntAt(0));
+        Assert.assertNull("null not kept", row.getStringAt(1));
+        Assert.assertFalse("other column lost", row.isNullAt(2));
+
+        try {
+            row.getIntValueAt(0);
+            Assert.fail("null read as a primitive");
+        } catch (IllegalStateException ex) {
+            //expected
+        }
+    }
+
+    @Test(expected = ColumnFormatException.class)
+    public void primitiveOfAnotherTypeIsRejected() {
+        row.setLongValueAt(2, 1);
+        row.getIntValueAt(2);
+    }
+
+    @Test(expected = ColumnFormatException.class)
+    public void primitiveIsNotSetToAnotherType() {
+        row.setIntValueAt(1, 1);
+    }
+
+    @Test
+    public void manyPrimitiveColumnsArePacked() {
+        List<Class<?>> wideTypes = new ArrayList<Class<?>>();
+
+        for (int i = 0; i < 100; ++i) {
+            wideTypes.add(Long.class);
+        }
+
+        TableRow wide = new TableRow(wideTypes);
+
+        for (int i = 0; i < 100; i += 3) {
+            wide.setLongValueAt(i, i);
+        }
+
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertEquals("wrong value", i % 3 == 0 ? Long.valueOf(i) : null, wide.getLongAt(i));
+        }
+    }
+
+    @Test
+    public void decodedRowsShareTheSchema() throws ParseException {
+        fill(row);
+
+        for (StoreableFormat format : StoreableFormat.values()) {
+            StoreableCodec codec = format.createCodec(valueTypes);
+            Storeable first = codec.decode(codec.encode(row));
+            Storeable second = codec.decode(codec.encode(row));
+
+            Assert.assertSame("schema not shared", ((TableRow) first).getSchema(), ((TableRow) second).getSchema());
+            Assert.assertEquals("wrong row", row.toString(), first.toString());
+        }
+    }
+
+    @Test
+    public void rowsOfTableShareItsSchema() throws IOException, ValidityCheckFailedException {
+        File tempDir = Files.createTempDir();
+        StoreableTableProvider provider = new StoreableTableProvider(tempDir.getPath(), false, false);
+
+        try {
+            StoreableTable table = provider.createTable("packedTable", valueTypes);
+            TableRow created = (TableRow) provider.createFor(table, Arrays.asList(1, "a", 2L, (byte) 3, 4f, 5d, false));
+
+            Assert.assertSame("schema not shared", table.getRowSchema(), created.getSchema());
+            Assert.assertSame("schema not shared", table.getRowSchema(),
+                ((TableRow) provider.createFor(table)).getSchema());
+        } finally {
+            provider.close();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.CommitTimings;
+import ru.fizteh.java2.vlmazlov.storage.core.io.ShardedStorageEngine;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+//the commit timings are those of the shards written by the commit itself
+public class ParallelCommitTest extends TableFixture {
+
+    public ParallelCommitTest() {
+        super("parallelTable", false, Integer.class, String.class);
+    }
+
+    private Storeable row(int number) {
+        return row(number, "value" + number);
+    }
+
+    private CommitTimings getLastCommitTimings() {
+        return ((ShardedStorageEngine) table.getStorageEngine()).getLastCommitTimings();
+    }
+
+    @Test
+    public void everyChangedShardIsWrittenOnce() throws IOException, ValidityCheckFailedException {
+        for (int i = 0; i < 5000; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+
+        ShardLayout layout = table.getShardLayout();
+        Set<String> shards = new HashSet<String>();
+
+        for (int i = 0; i < 5000; ++i) {
+            shards.add(layout.getDirNum("key" + i) + ".dir/" + layout.getFileNum("key" + i) + ".dat");
+        }
+
+        Assert.assertEquals("wrong shards written", shards, getLastCommitTimings().getShardTimes().keySet());
+        Assert.assertTrue("wall time not measured", getLastCommitTimings().getWallTime() > 0);
+
+        table.put("key1", row(-1));
+        table.commit();
+
+        Assert.assertEquals("untouched shards were rewritten", 1, getLastCommitTimings().getShardTimes().size());
+
+        reopen();
+
+        Assert.assertEquals("wrong size", 5000, table.size());
+        Assert.assertEquals("wrong value", "value-1", table.get("key1").getStringAt(1));
+        Assert.assertEquals("wrong value", "value4999", table.get("key4999").getStringAt(1));
+    }
+
+    @Test
+    public void emptiedShardsAreRemoved() throws IOException {
+        table.put("key", row(1));
+        table.commit();
+
+        File tableDir = new File(tempDir, "parallelTable");
+        ShardLayout layout = table.getShardLayout();
+        File directory = new File(tableDir, layout.getDirNum("key") + ".dir");
+
+        Assert.assertTrue("shard wasn't written", directory.exists());
+
+        table.remove("key");
+        table.commit();
+
+        Assert.assertFalse("empty shard directory kept", directory.exists());
+    }
+}
@@ -0,0 +1,130 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.core.generics.CommitedCache;
+import ru.fizteh.java2.vlmazlov.storage.core.generics.PersistentMap;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PersistentMapTest {
+
+    private Map<String, Integer> toHashMap(PersistentMap<Integer> map) {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+
+        for (Map.Entry<String, Integer> entry : map) {
+            Assert.assertFalse("entry repeated", result.containsKey(entry.getKey()));
+            result.put(entry.getKey(), entry.getValue());
+        }
+
+        return result;
+    }
+
+    @Test
+    public void behavesAsHashMap() {
+        Random random = new Random(14);
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        PersistentMap<Integer> map = PersistentMap.empty();
+
+        for (int i = 0; i < 20000; ++i) {
+            String key = "key" + random.nextInt(3000);
+
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.without(key);
+            } else {
+                expected.put(key, i);
+                map = map.with(key, i);
+            }
+        }
+
+        Assert.assertEquals("wrong size", expected.size(), map.size());
+        Assert.assertEquals("wrong entries", expected, toHashMap(map));
+
+        for (int i = 0; i < 3000; ++i) {
+            Assert.assertEquals("wrong value", expected.get("key" + i), map.get("key" + i));
+        }
+    }
+
+    @Test
+    public void oldVersionsAreUnchanged() {
+        PersistentMap<Integer> first = PersistentMap.<Integer>empty().with("a", 1).with("b", 2);
+        PersistentMap<Integer> second = first.with("a", 10).without("b").with("c", 3);
+
+        Assert.assertEquals("old version changed", Integer.valueOf(1), first.get("a"));
+        Assert.assertTrue("old version changed", first.containsKey("b"));
+        Assert.assertFalse("old version changed", first.containsKey("c"));
+        Assert.assertEquals("wrong size", 2, second.size());
+        Assert.assertSame("removal of an absent key copied the map", second, second.without("b"));
+    }
+
+    @Test
+    public void collidingKeysAreKeptApart() {
+        //"Aa" and "BB" have the same hash code
+        PersistentMap<Integer> map = PersistentMap.<Integer>empty().with("Aa", 1).with("BB", 2).with("AaBB", 3);
+
+        Assert.assertEquals("colliding key lost", Integer.valueOf(1), map.get("Aa"));
+        Assert.assertEquals("colliding key lost", Integer.valueOf(2), map.get("BB"));
+
+        map = map.without("Aa");
+
+        Assert.assertNull("removed key found", map.get("Aa"));
+        Assert.assertEquals("colliding key lost", Integer.valueOf(2), map.get("BB"));
+        Assert.assertEquals("wrong size", 2, map.size());
+    }
+
+    @Test
+    public void nullValueDiffersFromAbsence() {
+        PersistentMap<Integer> map = PersistentMap.<Integer>empty().with("removed", null);
+
+        Assert.assertTrue("null value lost", map.containsKey("removed"));
+        Assert.assertNull("wrong value", map.get("removed"));
+        Assert.assertFalse("absent key found", map.containsKey("absent"));
+    }
+
+    @Test
+    public void pinnedChangesAreSeenTogether() throws InterruptedException {
+        final CommitedCache<Integer> cache = new CommitedCache<Integer>();
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+
+        cache.pinAll(new HashMap<String, Integer>() { {
+            put("first", 0);
+            put("second", 0);
+        }}, Collections.<String>emptySet());
+
+        Thread reader = new Thread() {
+            public void run() {
+                while (!stop.get()) {
+                    //the second key is changed after the first one, so it can't be seen older
+                    Integer second = cache.get("second");
+                    Integer first = cache.get("first");
+
+                    if (first < second) {
+                        failure.set("half of a change seen: " + first + " < " + second);
+                    }
+                }
+            }
+        };
+
+        reader.start();
+
+        for (int i = 1; i < 20000; ++i) {
+            Map<String, Integer> values = new HashMap<String, Integer>();
+            values.put("first", i);
+            values.put("second", i);
+
+            cache.pinAll(values, new HashSet<String>());
+        }
+
+        stop.set(true);
+        reader.join();
+
+        Assert.assertNull(failure.get(), failure.get());
+    }
+}
@@ -0,0 +1,147 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.Durability;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.io.Files;
+
+/*
+Throughput of the readers of a table while a single thread keeps committing to it.
+The cache holds a quarter of the keys, so that the readers keep loading shards as well.
+"striped" is the table as it is; "global" puts every read under the read lock and every commit
+under the write lock of one fair table-wide lock, the way the table was guarded before it was striped.
+main() runs both with 1 to 32 readers:
+    mvn -pl module-core test-compile exec:java -Dexec.classpathScope=test
+        -Dexec.mainClass=ru.fizteh.java2.vlmazlov.storage.core.ReadContentionBenchmark
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadContentionBenchmark {
+
+    private static final int KEYS_COUNT = 10000;
+    private static final int[] READERS_COUNTS = {1, 2, 4, 8, 16, 32};
+
+    @Param({"striped", "global"})
+    public String locking;
+
+    private File tempDir;
+    private StoreableTableProvider provider;
+    private StoreableTable table;
+    private ReadWriteLock globalLock;
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private final Random random = new Random();
+
+        private String next() {
+            return "key" + random.nextInt(KEYS_COUNT);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ValidityCheckFailedException {
+        tempDir = Files.createTempDir();
+        provider = new StoreableTableProvider(tempDir.getPath(), false, false);
+        provider.setDurability(Durability.NONE);
+
+        List<Class<?>> valueTypes = new ArrayList<Class<?>>();
+        valueTypes.add(Integer.class);
+        valueTypes.add(String.class);
+
+        table = provider.createTable("contentionTable", valueTypes);
+
+        for (int i = 0; i < KEYS_COUNT; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+        table.setCacheCapacity(KEYS_COUNT / 4);
+
+        globalLock = new ReentrantReadWriteLock(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        provider.close();
+        FileUtils.deleteQuietly(tempDir);
+    }
+
+    private Storeable row(int number) {
+        List<Object> values = new ArrayList<Object>();
+        values.add(number);
+        values.add("value" + number);
+
+        return provider.createFor(table, values);
+    }
+
+    private boolean isGlobal() {
+        return "global".equals(locking);
+    }
+
+    @Benchmark
+    @Group("contended")
+    public Storeable read(Keys keys) {
+        if (!isGlobal()) {
+            return table.get(keys.next());
+        }
+
+        globalLock.readLock().lock();
+
+        try {
+            return table.get(keys.next());
+        } finally {
+            globalLock.readLock().unlock();
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public int commit(Keys keys) throws IOException {
+        table.put(keys.next(), row(keys.random.nextInt()));
+
+        if (!isGlobal()) {
+            return table.commit();
+        }
+
+        globalLock.writeLock().lock();
+
+        try {
+            return table.commit();
+        } finally {
+            globalLock.writeLock().unlock();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int readersCount : READERS_COUNTS) {
+            Options options = new OptionsBuilder()
+                .include(ReadContentionBenchmark.class.getSimpleName())
+                //threads of a group go to its methods in the order of their names
+                .threadGroups(1, readersCount)
+                .build();
+
+            new Runner(options).run();
+        }
+    }
+}
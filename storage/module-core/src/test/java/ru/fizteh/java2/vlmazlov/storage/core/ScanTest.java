@@ -0,0 +1,166 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.ShardFormat;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StorageEngineType;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableFormat;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class ScanTest extends TableFixture {
+
+    public ScanTest() {
+        super("scanTable", Integer.class);
+    }
+
+    private static String key(int number) {
+        return String.format("key%05d", number);
+    }
+
+    private void fill(int keysCount) throws IOException {
+        for (int i = 0; i < keysCount; ++i) {
+            table.put(key(i), row(i));
+        }
+
+        table.commit();
+    }
+
+    //the numbers the keys were put with
+    private List<Integer> collect(Iterator<Map.Entry<String, Storeable>> entries) {
+        List<Integer> numbers = new ArrayList<Integer>();
+        String previous = null;
+
+        while (entries.hasNext()) {
+            Map.Entry<String, Storeable> entry = entries.next();
+
+            if (previous != null) {
+                Assert.assertTrue("keys out of order", previous.compareTo(entry.getKey()) < 0);
+            }
+
+            previous = entry.getKey();
+            numbers.add(entry.getValue().getIntAt(0));
+        }
+
+        return numbers;
+    }
+
+    private static List<Integer> numbers(int from, int to) {
+        List<Integer> numbers = new ArrayList<Integer>();
+
+        for (int i = from; i < to; ++i) {
+            numbers.add(i);
+        }
+
+        return numbers;
+    }
+
+    @Test
+    public void wholeTableComesInOrder() throws IOException {
+        fill(5000);
+
+        Assert.assertEquals("wrong entries", numbers(0, 5000), collect(table.scan(null, null)));
+    }
+
+    @Test
+    public void rangeBoundsAreKept() throws IOException {
+        fill(1000);
+
+        Assert.assertEquals("wrong entries", numbers(100, 200), collect(table.scan(key(100), key(200))));
+        Assert.assertEquals("wrong entries", numbers(990, 1000), collect(table.scan(key(990), null)));
+        Assert.assertEquals("wrong entries", numbers(0, 10), collect(table.scan(null, key(10))));
+        Assert.assertFalse("inverted range not empty", table.scan(key(200), key(100)).hasNext());
+    }
+
+    @Test
+    public void prefixScanStopsAtThePrefixEnd() throws IOException {
+        fill(1000);
+
+        table.put("kez", row(-1));
+        table.commit();
+
+        Assert.assertEquals("wrong entries", numbers(120, 130), collect(table.scanPrefix("key0012")));
+        Assert.assertEquals("wrong entries", numbers(0, 1000), collect(table.scanPrefix("key")));
+    }
+
+    @Test
+    public void uncommitedChangesAreSeen() throws IOException {
+        fill(100);
+
+        table.remove(key(10));
+        table.put(key(20), row(-20));
+        table.put(key(50) + "a", row(-50));
+
+        List<Integer> expected = numbers(0, 100);
+        expected.remove(Integer.valueOf(10));
+        expected.set(expected.indexOf(20), -20);
+        expected.add(expected.indexOf(50) + 1, -50);
+
+        Assert.assertEquals("wrong entries", expected, collect(table.scan(null, null)));
+
+        table.rollback();
+
+        Assert.assertEquals("rolled back changes seen", numbers(0, 100), collect(table.scan(null, null)));
+    }
+
+    @Test
+    public void loggedCommitsAreSeenBeforeCheckpoint() throws IOException {
+        fill(300);
+        provider.checkpoint();
+
+        table.remove(key(0));
+        table.put(key(300), row(300));
+        table.commit();
+
+        Assert.assertEquals("wrong entries", numbers(1, 301), collect(table.scan(null, null)));
+
+        provider.checkpoint();
+
+        Assert.assertEquals("wrong entries", numbers(1, 301), collect(table.scan(null, null)));
+    }
+
+    @Test
+    public void scanSurvivesResharding() throws IOException {
+        fill(2000);
+
+        Iterator<Map.Entry<String, Storeable>> entries = table.scan(null, null);
+        List<Integer> found = new ArrayList<Integer>();
+
+        for (int i = 0; i < 500; ++i) {
+            found.add(entries.next().getValue().getIntAt(0));
+        }
+
+        table.reshard(ShardLayout.hashed(7));
+        found.addAll(collect(entries));
+
+        Assert.assertEquals("wrong entries", numbers(0, 2000), found);
+    }
+
+    @Test
+    public void otherFormatsAreScannedAlike() throws IOException {
+        table = provider.createTable("headerTable", valueTypes, StoreableFormat.BINARY, ShardLayout.DEFAULT,
+            StorageEngineType.SHARDED, ShardFormat.HEADER);
+        fill(1000);
+
+        Assert.assertEquals("wrong entries", numbers(300, 700), collect(table.scan(key(300), key(700))));
+
+        table = provider.createTable("logTable", valueTypes, StorageEngineType.LOG);
+        fill(1000);
+
+        Assert.assertEquals("wrong entries", numbers(300, 700), collect(table.scan(key(300), key(700))));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void scannedEntriesAreNotRemoved() throws IOException {
+        fill(10);
+
+        Iterator<Map.Entry<String, Storeable>> entries = table.scan(null, null);
+        entries.next();
+        entries.remove();
+    }
+}
@@ -0,0 +1,176 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.RowPredicate;
+import ru.fizteh.java2.vlmazlov.storage.api.Selection;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.BinaryStoreableCodec;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableFormat;
+import ru.fizteh.java2.vlmazlov.storage.core.io.XMLStoreableCodec;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class SelectTest extends TableFixture {
+    //rows with the number ending in 3
+    private static final RowPredicate ENDS_WITH_THREE = new RowPredicate() {
+        public boolean matches(String key, Storeable row) {
+            return row.getIntAt(0) % 10 == 3;
+        }
+    };
+
+    public SelectTest() {
+        super("selectTable", Integer.class, String.class, Long.class);
+    }
+
+    private Storeable row(int number) {
+        return provider.createFor(table, Arrays.<Object>asList(number, "name" + number, (long) number * 1000));
+    }
+
+    private void fill(int rowsCount) throws IOException {
+        for (int i = 0; i < rowsCount; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+    }
+
+    private static Map<String, Storeable> collect(Selection selection) {
+        Map<String, Storeable> rows = new TreeMap<String, Storeable>();
+
+        while (selection.hasNext()) {
+            Map.Entry<String, Storeable> entry = selection.next();
+            Assert.assertNull("row selected twice", rows.put(entry.getKey(), entry.getValue()));
+        }
+
+        return rows;
+    }
+
+    @Test
+    public void matchingRowsAreProjected() throws IOException {
+        fill(1000);
+        //the bytes counted are those read from the shards
+        provider.checkpoint();
+
+        Selection selection = table.select(ENDS_WITH_THREE, new int[] {2, 0});
+        Map<String, Storeable> rows = collect(selection);
+
+        Assert.assertEquals("wrong number of rows", 100, rows.size());
+
+        for (Map.Entry<String, Storeable> entry : rows.entrySet()) {
+            int number = Integer.parseInt(entry.getKey().substring("key".length()));
+
+            Assert.assertEquals("wrong row", 3, number % 10);
+            Assert.assertEquals("wrong first column", Long.valueOf(number * 1000L), entry.getValue().getLongAt(0));
+            Assert.assertEquals("wrong second column", Integer.valueOf(number), entry.getValue().getIntAt(1));
+        }
+
+        Assert.assertEquals("wrong rows scanned", 1000, selection.getRowsScanned());
+        Assert.assertEquals("wrong rows matched", 100, selection.getRowsMatched());
+        Assert.assertTrue("no bytes read", selection.getBytesRead() > 1000);
+    }
+
+    @Test
+    public void nullsSelectWholeRows() throws IOException {
+        fill(100);
+
+        Map<String, Storeable> rows = collect(table.select(null, null));
+
+        Assert.assertEquals("wrong number of rows", 100, rows.size());
+        Assert.assertEquals("wrong row", "name42", rows.get("key42").getStringAt(1));
+        Assert.assertEquals("wrong row", Long.valueOf(42000), rows.get("key42").getLongAt(2));
+    }
+
+    @Test
+    public void uncommitedChangesAreSeen() throws IOException {
+        fill(100);
+
+        table.remove("key3");
+        table.put("key13", row(14));
+        table.put("key1003", row(1003));
+
+        Assert.assertEquals("wrong rows", Arrays.asList("key1003", "key23", "key33", "key43", "key53",
+            "key63", "key73", "key83", "key93"),
+            new ArrayList<String>(collect(table.select(ENDS_WITH_THREE, new int[] {0})).keySet()));
+    }
+
+    @Test
+    public void loggedCommitsAreSeenBeforeCheckpoint() throws IOException {
+        fill(100);
+        provider.checkpoint();
+
+        table.remove("key3");
+        table.put("key103", row(103));
+        table.commit();
+
+        Assert.assertEquals("wrong number of rows", 10, collect(table.select(ENDS_WITH_THREE, null)).size());
+
+        provider.checkpoint();
+
+        Assert.assertEquals("wrong number of rows", 10, collect(table.select(ENDS_WITH_THREE, null)).size());
+    }
+
+    @Test
+    public void shardsOfEveryLayoutAreScanned() throws IOException {
+        fill(1000);
+        table.reshard(ShardLayout.hashed(37));
+
+        Assert.assertEquals("wrong number of rows", 100, collect(table.select(ENDS_WITH_THREE, null)).size());
+
+        table = provider.createTable("xmlTable", valueTypes, StoreableFormat.XML);
+        fill(1000);
+
+        Assert.assertEquals("wrong number of rows", 100, collect(table.select(ENDS_WITH_THREE, null)).size());
+    }
+
+    @Test
+    public void closedSelectionStops() throws IOException {
+        fill(5000);
+
+        Selection selection = table.select(null, new int[] {0});
+
+        for (int i = 0; i < 10; ++i) {
+            selection.next();
+        }
+
+        selection.close();
+
+        Assert.assertFalse("rows after close", selection.hasNext());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void predicateFailureIsPassedOn() throws IOException {
+        fill(100);
+
+        collect(table.select(new RowPredicate() {
+            public boolean matches(String key, Storeable row) {
+                throw new IllegalStateException("failed on " + key);
+            }
+        }, null));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void projectionOfMissingColumnIsRejected() {
+        table.select(null, new int[] {3});
+    }
+
+    @Test
+    public void columnsAreDecodedOneByOne() throws ParseException {
+        Storeable row = new TableRow(valueTypes);
+        row.setColumnAt(1, "name");
+        row.setColumnAt(2, 7L);
+
+        BinaryStoreableCodec binary = new BinaryStoreableCodec(valueTypes);
+        XMLStoreableCodec xml = new XMLStoreableCodec(valueTypes);
+
+        for (int i = 0; i < valueTypes.size(); ++i) {
+            Assert.assertEquals("wrong binary column", row.getColumnAt(i), binary.decodeColumn(binary.encode(row), i));
+            Assert.assertEquals("wrong XML column", row.getColumnAt(i), xml.decodeColumn(xml.encode(row), i));
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableFormat;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+
+public class ShardLayoutTest {
+    private StoreableTableProvider provider;
+    private List<Class<?>> valueTypes;
+    private File tempDir;
+
+    @Before
+    public void setUp() throws ValidityCheckFailedException {
+        tempDir = Files.createTempDir();
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+
+        valueTypes = new ArrayList<Class<?>>() { {
+            add(Integer.class);
+            add(String.class);
+        }};
+    }
+
+    @After
+    public void tearDown() {
+        provider.close();
+    }
+
+    @Test
+    public void prefixedKeysAreSpread() {
+        Set<Integer> legacyShards = new HashSet<Integer>();
+        Set<Integer> hashedShards = new HashSet<Integer>();
+
+        for (int i = 0; i < 1000; ++i) {
+            legacyShards.add(ShardLayout.LEGACY.getShardNum("user_" + i));
+            hashedShards.add(ShardLayout.DEFAULT.getShardNum("user_" + i));
+        }
+
+        Assert.assertEquals("legacy layout should use a single shard", 1, legacyShards.size());
+        Assert.assertTrue("hashed layout uses too few shards: " + hashedShards.size(), hashedShards.size() > 200);
+    }
+
+    @Test
+    public void shardNumbersAreInRange() {
+        ShardLayout layout = ShardLayout.hashed(42);
+
+        Assert.assertEquals("wrong shards quantity", 42, layout.getShardsQuantity());
+
+        for (int i = 0; i < 1000; ++i) {
+            String key = "order_" + i;
+
+            Assert.assertTrue("directory out of range", layout.getDirNum(key) < layout.getDirectoriesQuantity());
+            Assert.assertTrue("file out of range", layout.getFileNum(key) < layout.getFilesQuantity());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroShardsShouldFail() {
+        ShardLayout.hashed(0);
+    }
+
+    @Test
+    public void reshardKeepsData() throws IOException, ValidityCheckFailedException {
+        StoreableTable table = provider.createTable("reshardTable", valueTypes,
+                StoreableFormat.BINARY, ShardLayout.LEGACY);
+
+        for (int i = 0; i < 100; ++i) {
+            List<Object> values = new ArrayList<Object>();
+            values.add(i);
+            values.add("value" + i);
+            table.put("user_" + i, provider.createFor(table, values));
+        }
+
+        table.commit();
+
+        provider.reshardTable("reshardTable", ShardLayout.hashed(64));
+        provider.close();
+
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+        table = provider.getTable("reshardTable");
+
+        Assert.assertEquals("layout wasn't stored", ShardLayout.hashed(64), table.getShardLayout());
+        Assert.assertEquals("size changed", 100, table.size());
+
+        for (int i = 0; i < 100; ++i) {
+            Storeable value = table.get("user_" + i);
+
+            Assert.assertNotNull("user_" + i + " was lost", value);
+            Assert.assertEquals("value changed", "value" + i, value.getStringAt(1));
+        }
+    }
+
+    private StoreableTable fillTable(String name, ShardLayout layout) throws IOException {
+        StoreableTable table = provider.createTable(name, valueTypes, StoreableFormat.BINARY, layout);
+
+        for (int i = 0; i < 100; ++i) {
+            List<Object> values = new ArrayList<Object>();
+            values.add(i);
+            values.add("value" + i);
+            table.put("user_" + i, provider.createFor(table, values));
+        }
+
+        table.commit();
+        provider.checkpoint();
+
+        return table;
+    }
+
+    private StoreableTable reopen(String name) throws ValidityCheckFailedException {
+        provider.close();
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+
+        return provider.getTable(name);
+    }
+
+    private void assertKept(StoreableTable table, ShardLayout layout) {
+        Assert.assertEquals("wrong layout", layout, table.getShardLayout());
+        Assert.assertEquals("size changed", 100, table.size());
+
+        for (int i = 0; i < 100; ++i) {
+            Storeable value = table.get("user_" + i);
+
+            Assert.assertNotNull("user_" + i + " was lost", value);
+            Assert.assertEquals("value changed", "value" + i, value.getStringAt(1));
+        }
+
+        File reshardDir = new File(new File(tempDir, table.getName()), "reshard.tmp");
+        Assert.assertFalse("reshard directory left", reshardDir.exists());
+    }
+
+    //what a reshard interrupted after recording the layout leaves: the directories built listed in table.tsv
+    private void markReshardUnfinished(File tableDir, List<String> built) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(new File(tableDir, "table.tsv"), true)) {
+            out.write(("resharded\t" + built + "\n").getBytes("UTF-8"));
+        }
+    }
+
+    private List<String> getShardDirectories(File tableDir) {
+        List<String> directories = new ArrayList<String>();
+
+        for (String name : tableDir.list()) {
+            if (name.endsWith(".dir")) {
+                directories.add(name);
+            }
+        }
+
+        return directories;
+    }
+
+    @Test
+    public void reshardInterruptedBeforeRecordingIsDropped() throws IOException, ValidityCheckFailedException {
+        fillTable("droppedTable", ShardLayout.hashed(4));
+
+        File partial = new File(new File(new File(tempDir, "droppedTable"), "reshard.tmp"), "0.dir");
+        Assert.assertTrue("unable to create the directory", partial.mkdirs());
+
+        try (FileOutputStream out = new FileOutputStream(new File(partial, "0.dat"))) {
+            out.write(new byte[] {1, 2, 3});
+        }
+
+        assertKept(reopen("droppedTable"), ShardLayout.hashed(4));
+    }
+
+    @Test
+    public void reshardInterruptedWhileRemovingOldShardsIsCompleted()
+    throws IOException, ValidityCheckFailedException {
+        fillTable("removingTable", ShardLayout.hashed(100));
+
+        File tableDir = new File(tempDir, "removingTable");
+        File backup = Files.createTempDir();
+        List<String> old = getShardDirectories(tableDir);
+
+        for (String name : old) {
+            FileUtils.copyDirectory(new File(tableDir, name), new File(backup, name));
+        }
+
+        provider.reshardTable("removingTable", ShardLayout.hashed(4));
+        provider.close();
+
+        //the new directories are all still aside, some of the old ones are not yet removed
+        List<String> built = getShardDirectories(tableDir);
+        File reshardDir = new File(tableDir, "reshard.tmp");
+        reshardDir.mkdir();
+
+        for (String name : built) {
+            Assert.assertTrue("unable to move " + name, new File(tableDir, name).renameTo(new File(reshardDir, name)));
+        }
+
+        for (String name : old.subList(0, old.size() / 2)) {
+            FileUtils.copyDirectory(new File(backup, name), new File(tableDir, name));
+        }
+
+        markReshardUnfinished(tableDir, built);
+
+        StoreableTable table = reopen("removingTable");
+
+        assertKept(table, ShardLayout.hashed(4));
+        Assert.assertEquals("old shards left", new HashSet<String>(built),
+            new HashSet<String>(getShardDirectories(tableDir)));
+    }
+
+    @Test
+    public void reshardInterruptedWhileMovingNewShardsIsCompleted() throws IOException, ValidityCheckFailedException {
+        fillTable("movingTable", ShardLayout.hashed(4));
+        provider.reshardTable("movingTable", ShardLayout.hashed(64));
+        provider.close();
+
+        //half of the new directories are moved into place
+        File tableDir = new File(tempDir, "movingTable");
+        List<String> built = getShardDirectories(tableDir);
+        File reshardDir = new File(tableDir, "reshard.tmp");
+        reshardDir.mkdir();
+
+        for (String name : built.subList(0, built.size() / 2)) {
+            Assert.assertTrue("unable to move " + name, new File(tableDir, name).renameTo(new File(reshardDir, name)));
+        }
+
+        markReshardUnfinished(tableDir, built);
+
+        StoreableTable table = reopen("movingTable");
+
+        assertKept(table, ShardLayout.hashed(64));
+        Assert.assertEquals("new shards lost", new HashSet<String>(built),
+            new HashSet<String>(getShardDirectories(tableDir)));
+    }
+}
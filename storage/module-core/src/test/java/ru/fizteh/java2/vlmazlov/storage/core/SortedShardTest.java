@@ -0,0 +1,149 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.core.io.Durability;
+import ru.fizteh.java2.vlmazlov.storage.core.io.ShardFormat;
+import ru.fizteh.java2.vlmazlov.storage.core.io.SortedShardReader;
+import ru.fizteh.java2.vlmazlov.storage.core.io.SortedShardWriter;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StorageEngineType;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableFormat;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class SortedShardTest extends TableFixture {
+
+    public SortedShardTest() {
+        super("sortedTable", Integer.class);
+    }
+
+    private File getShardFile(String tableName, String key) {
+        ShardLayout layout = table.getShardLayout();
+        return new File(new File(new File(tempDir, tableName), layout.getDirNum(key) + ".dir"),
+            layout.getFileNum(key) + ".dat");
+    }
+
+    //large enough to span several blocks
+    private File writeShard(int keysCount) throws IOException {
+        File file = new File(tempDir, "shard.dat");
+        SortedShardWriter writer = new SortedShardWriter(file, Durability.NONE);
+
+        for (int i = keysCount - 1; i >= 0; --i) {
+            writer.writeKeyValue(String.format("key%05d", i), ("value" + i).getBytes("UTF-8"));
+        }
+
+        writer.flush();
+        return file;
+    }
+
+    @Test
+    public void keysAreFoundAcrossBlocks() throws IOException, ValidityCheckFailedException {
+        File file = writeShard(2000);
+        Assert.assertTrue("single block written", file.length() > 2 * SortedShardWriter.BLOCK_SIZE);
+
+        SortedShardReader reader = new SortedShardReader(file, table);
+
+        Assert.assertEquals("wrong size", 2000, reader.size());
+
+        for (int i = 0; i < 2000; ++i) {
+            Assert.assertArrayEquals("wrong value", ("value" + i).getBytes("UTF-8"),
+                reader.getSerializedValue(String.format("key%05d", i)));
+        }
+
+        Assert.assertNull("absent key found", reader.getSerializedValue("key"));
+        Assert.assertNull("absent key found", reader.getSerializedValue("key00500x"));
+        Assert.assertFalse("absent key found", reader.containsKey("zzz"));
+    }
+
+    @Test
+    public void keysComeInOrder() throws IOException, ValidityCheckFailedException {
+        SortedShardReader reader = new SortedShardReader(writeShard(2000), table);
+        int count = 0;
+
+        for (String key = reader.nextKey(); key != null; key = reader.nextKey()) {
+            Assert.assertEquals("wrong key order", String.format("key%05d", count), key);
+            Assert.assertArrayEquals("wrong value", ("value" + count).getBytes("UTF-8"),
+                reader.getCurrentSerializedValue());
+            ++count;
+        }
+
+        Assert.assertEquals("keys lost", 2000, count);
+    }
+
+    @Test
+    public void seekStartsFromTheFirstNotLesserKey() throws IOException, ValidityCheckFailedException {
+        SortedShardReader reader = new SortedShardReader(writeShard(2000), table);
+
+        reader.seek("key01234");
+        Assert.assertEquals("wrong key after seek", "key01234", reader.nextKey());
+        Assert.assertEquals("wrong key after seek", "key01235", reader.nextKey());
+
+        reader.seek("key01500x");
+        Assert.assertEquals("wrong key after seek", "key01501", reader.nextKey());
+
+        reader.seek("zzz");
+        Assert.assertNull("key past the end", reader.nextKey());
+    }
+
+    @Test(expected = ValidityCheckFailedException.class)
+    public void truncatedShardIsRejected() throws IOException, ValidityCheckFailedException {
+        File file = writeShard(100);
+
+        try (RandomAccessFile storage = new RandomAccessFile(file, "rw")) {
+            storage.setLength(storage.length() - 3);
+        }
+
+        new SortedShardReader(file, table);
+    }
+
+    @Test
+    public void newTablesWriteSortedShards() throws IOException, ValidityCheckFailedException {
+        Assert.assertEquals("wrong shard format", ShardFormat.SORTED, table.getShardFormat());
+
+        table.put("key", row(1));
+        table.commit();
+        provider.checkpoint();
+
+        try (FileInputStream in = new FileInputStream(getShardFile("sortedTable", "key"))) {
+            Assert.assertEquals("shard is not sorted", 0, in.read());
+        }
+
+        provider.close();
+        provider = openProvider(false);
+        table = provider.getTable("sortedTable");
+
+        Assert.assertEquals("shard format not kept", ShardFormat.SORTED, table.getShardFormat());
+        Assert.assertEquals("wrong value", Integer.valueOf(1), table.get("key").getIntAt(0));
+    }
+
+    @Test
+    public void headerTablesStillWork() throws IOException, ValidityCheckFailedException {
+        table = provider.createTable("headerTable", valueTypes, StoreableFormat.BINARY, ShardLayout.DEFAULT,
+            StorageEngineType.SHARDED, ShardFormat.HEADER);
+
+        for (int i = 0; i < 100; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+        provider.checkpoint();
+
+        try (FileInputStream in = new FileInputStream(getShardFile("headerTable", "key0"))) {
+            Assert.assertTrue("header shard written sorted", in.read() != 0);
+        }
+
+        provider.close();
+        provider = openProvider(false);
+        table = provider.getTable("headerTable");
+
+        Assert.assertEquals("shard format not kept", ShardFormat.HEADER, table.getShardFormat());
+
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertEquals("wrong value", Integer.valueOf(i), table.get("key" + i).getIntAt(0));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableCodec;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableFormat;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.io.Files;
+
+public class StoreableCodecTest {
+    private List<Class<?>> valueTypes;
+    private TableRow row;
+    private File tempDir;
+
+    @Before
+    public void setUp() {
+        valueTypes = new ArrayList<Class<?>>() { {
+            add(Double.class);
+            add(Integer.class);
+            add(Boolean.class);
+            add(Float.class);
+            add(Long.class);
+            add(Byte.class);
+            add(String.class);
+            add(String.class);
+            add(Integer.class);
+        }};
+
+        row = new TableRow(valueTypes);
+
+        row.setColumnAt(0, 1.54);
+        row.setColumnAt(1, 12312);
+        row.setColumnAt(2, true);
+        row.setColumnAt(3, 1.2f);
+        row.setColumnAt(4, 12432131241244L);
+        row.setColumnAt(5, Byte.valueOf((byte) -89));
+        row.setColumnAt(6, "приключение");
+        row.setColumnAt(7, null);
+        row.setColumnAt(8, null);
+
+        tempDir = Files.createTempDir();
+    }
+
+    private void assertRowsEqual(Storeable expected, Storeable actual) {
+        for (int i = 0; i < valueTypes.size(); ++i) {
+            Assert.assertEquals("column " + i + " differs", expected.getColumnAt(i), actual.getColumnAt(i));
+        }
+    }
+
+    @Test
+    public void binaryRoundTrip() throws ParseException {
+        StoreableCodec codec = StoreableFormat.BINARY.createCodec(valueTypes);
+        assertRowsEqual(row, codec.decode(codec.encode(row)));
+    }
+
+    @Test
+    public void xmlRoundTrip() throws ParseException {
+        StoreableCodec codec = StoreableFormat.XML.createCodec(valueTypes);
+        assertRowsEqual(row, codec.decode(codec.encode(row)));
+    }
+
+    @Test
+    public void binaryIsMoreCompact() {
+        byte[] binary = StoreableFormat.BINARY.createCodec(valueTypes).encode(row);
+        byte[] xml = StoreableFormat.XML.createCodec(valueTypes).encode(row);
+        Assert.assertTrue("binary row isn't smaller than xml", binary.length < xml.length);
+    }
+
+    @Test(expected = ParseException.class)
+    public void truncatedBinaryShouldFail() throws ParseException {
+        StoreableCodec codec = StoreableFormat.BINARY.createCodec(valueTypes);
+        byte[] encoded = codec.encode(row);
+        codec.decode(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+
+    @Test(expected = ParseException.class)
+    public void trailingBytesShouldFail() throws ParseException {
+        StoreableCodec codec = StoreableFormat.BINARY.createCodec(valueTypes);
+        byte[] encoded = codec.encode(row);
+        codec.decode(Arrays.copyOf(encoded, encoded.length + 1));
+    }
+
+    private void checkFormatSurvivesReload(StoreableFormat format)
+    throws IOException, ValidityCheckFailedException {
+        StoreableTableProvider provider = new StoreableTableProvider(tempDir.getPath(), false);
+        StoreableTable table = provider.createTable("formatTable", valueTypes, format);
+
+        table.put("key1", row);
+        table.commit();
+        provider.close();
+
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+        table = provider.getTable("formatTable");
+
+        Assert.assertEquals("format wasn't stored", format, table.getCodec().getFormat());
+        assertRowsEqual(row, table.get("key1"));
+        provider.close();
+    }
+
+    @Test
+    public void binaryTableIsReadable() throws IOException, ValidityCheckFailedException {
+        checkFormatSurvivesReload(StoreableFormat.BINARY);
+    }
+
+    @Test
+    public void xmlTableIsReadable() throws IOException, ValidityCheckFailedException {
+        checkFormatSurvivesReload(StoreableFormat.XML);
+    }
+
+    @Test
+    public void tableWithoutFormatRecordIsXML() throws IOException, ValidityCheckFailedException {
+        StoreableTableProvider provider = new StoreableTableProvider(tempDir.getPath(), false);
+        StoreableTable table = provider.createTable("legacyTable", valueTypes,
+                StoreableFormat.XML, ShardLayout.LEGACY);
+
+        table.put("key1", row);
+        table.commit();
+        provider.close();
+
+        Assert.assertTrue("unable to remove format record",
+                new File(new File(tempDir, "legacyTable"), "table.tsv").delete());
+
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+        assertRowsEqual(row, provider.getTable("legacyTable").get("key1"));
+        provider.close();
+    }
+}
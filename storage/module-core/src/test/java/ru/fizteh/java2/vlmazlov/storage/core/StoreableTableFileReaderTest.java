@@ -0,0 +1,130 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableFormat;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableTableFileReader;
+import ru.fizteh.java2.vlmazlov.storage.core.io.StoreableTableFileWriter;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.io.Files;
+
+public class StoreableTableFileReaderTest {
+    private StoreableTableProvider provider;
+    private StoreableTable table;
+    private File tempDir;
+
+    @Before
+    public void setUp() throws IOException, ValidityCheckFailedException {
+        tempDir = Files.createTempDir();
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+
+        List<Class<?>> valueTypes = new ArrayList<Class<?>>() { {
+            add(Integer.class);
+            add(String.class);
+        }};
+
+        table = provider.createTable("readerTable", valueTypes, StoreableFormat.BINARY, ShardLayout.hashed(4));
+    }
+
+    @After
+    public void tearDown() {
+        provider.close();
+    }
+
+    private Storeable row(int number) {
+        List<Object> values = new ArrayList<Object>();
+        values.add(number);
+        values.add("value" + number);
+
+        return provider.createFor(table, values);
+    }
+
+    private File writeShard(int count) throws IOException {
+        File file = new File(tempDir, "shard.dat");
+        StoreableTableFileWriter writer = new StoreableTableFileWriter(file);
+
+        for (int i = 0; i < count; ++i) {
+            writer.writeKeyValue("key" + i, table.getCodec().encode(row(i)));
+        }
+
+        writer.flush();
+
+        return file;
+    }
+
+    @Test
+    public void valuesAreReadByKey() throws IOException, ValidityCheckFailedException {
+        StoreableTableFileReader reader = new StoreableTableFileReader(writeShard(50), table, provider);
+
+        Assert.assertEquals("wrong number of keys", 50, reader.size());
+
+        for (int i = 49; i >= 0; --i) {
+            Assert.assertEquals("wrong value", "value" + i, reader.getValue("key" + i).getStringAt(1));
+        }
+
+        Assert.assertNull("absent key found", reader.getValue("key50"));
+        Assert.assertFalse("absent key found", reader.containsKey("key50"));
+    }
+
+    @Test
+    public void iterationVisitsEveryKey() throws IOException, ValidityCheckFailedException {
+        StoreableTableFileReader reader = new StoreableTableFileReader(writeShard(20), table, provider);
+        int visited = 0;
+
+        for (String key = reader.nextKey(); key != null; key = reader.nextKey()) {
+            Assert.assertArrayEquals("wrong value for " + key,
+                reader.getSerializedValue(key), reader.getCurrentSerializedValue());
+            ++visited;
+        }
+
+        Assert.assertEquals("not every key visited", 20, visited);
+    }
+
+    @Test(expected = ValidityCheckFailedException.class)
+    public void truncatedHeaderShouldFail() throws IOException, ValidityCheckFailedException {
+        File file = writeShard(5);
+
+        try (RandomAccessFile storage = new RandomAccessFile(file, "rw")) {
+            storage.setLength(6);
+        }
+
+        new StoreableTableFileReader(file, table, provider);
+    }
+
+    @Test
+    public void commitedChangesAreVisible() throws IOException, ValidityCheckFailedException {
+        for (int i = 0; i < 30; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+        Assert.assertEquals("wrong value", "value7", table.get("key7").getStringAt(1));
+
+        table.put("key7", row(700));
+        table.remove("key8");
+        table.commit();
+
+        provider.close();
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+        table = provider.getTable("readerTable");
+
+        Assert.assertEquals("wrong value", "value700", table.get("key7").getStringAt(1));
+        Assert.assertNull("removed key found", table.get("key8"));
+
+        table.put("key9", row(900));
+        table.commit();
+        table.remove("key9");
+        table.commit();
+
+        Assert.assertNull("removed key found", table.get("key9"));
+        Assert.assertEquals("wrong size", 28, table.size());
+    }
+}
@@ -0,0 +1,150 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.TransactionConflictException;
+import ru.fizteh.java2.vlmazlov.storage.core.generics.StripedLock;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.io.Files;
+
+public class StripedLockTest {
+
+    private Thread reader(final StripedLock lock, final int stripe) {
+        Thread thread = new Thread() {
+            public void run() {
+                lock.lockRead(stripe);
+                lock.unlockRead(stripe);
+            }
+        };
+
+        thread.start();
+
+        return thread;
+    }
+
+    @Test
+    public void otherStripesAreNotBlocked() throws InterruptedException {
+        StripedLock lock = new StripedLock(16);
+        int[] locked = lock.lockWrite(new int[] {3});
+
+        try {
+            Thread thread = reader(lock, 4);
+            thread.join(5000);
+
+            Assert.assertFalse("reader of another stripe blocked", thread.isAlive());
+        } finally {
+            lock.unlockWrite(locked);
+        }
+    }
+
+    @Test
+    public void sameStripeIsBlocked() throws InterruptedException {
+        StripedLock lock = new StripedLock(16);
+        int[] locked = lock.lockWrite(new int[] {3});
+        Thread thread = reader(lock, 3);
+
+        try {
+            thread.join(100);
+
+            Assert.assertTrue("reader of a locked stripe not blocked", thread.isAlive());
+        } finally {
+            lock.unlockWrite(locked);
+        }
+
+        thread.join(5000);
+
+        Assert.assertFalse("reader not released", thread.isAlive());
+    }
+
+    @Test
+    public void stripesAreLockedInOrderOnce() {
+        StripedLock lock = new StripedLock(16);
+        int[] locked = lock.lockWrite(new int[] {7, 2, 7, 5, 2});
+
+        Assert.assertArrayEquals("wrong stripes locked", new int[] {2, 5, 7}, locked);
+
+        lock.unlockWrite(locked);
+        lock.lockAll();
+        lock.unlockAll();
+    }
+
+    @Test
+    public void concurrentCommitsKeepTheSize() throws Exception {
+        File tempDir = Files.createTempDir();
+        final StoreableTableProvider provider = new StoreableTableProvider(tempDir.getPath(), false);
+
+        List<Class<?>> valueTypes = new ArrayList<Class<?>>() { {
+            add(Integer.class);
+        }};
+
+        final StoreableTable table = provider.createTable("stripedTable", valueTypes);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < 16; ++t) {
+            final int threadNumber = t;
+
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 100; ++i) {
+                            List<Object> values = new ArrayList<Object>();
+                            values.add(i);
+
+                            table.put("key" + threadNumber + "_" + i, provider.createFor(table, values));
+
+                            //a removal of a key of another thread, absent or not
+                            table.remove("key" + ((threadNumber + 1) % 16) + "_" + (i - 50));
+
+                            if (i % 10 == 9) {
+                                try {
+                                    table.commit();
+                                } catch (TransactionConflictException ex) {
+                                    //rolled back, the size must hold all the same
+                                }
+                            }
+                        }
+                    } catch (Exception ex) {
+                        failure.set(ex);
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertNull("commit failed", failure.get());
+
+        int size = table.size();
+        int present = 0;
+
+        for (int t = 0; t < 16; ++t) {
+            for (int i = 0; i < 100; ++i) {
+                if (table.get("key" + t + "_" + i) != null) {
+                    ++present;
+                }
+            }
+        }
+
+        Assert.assertEquals("size doesn't match the keys present", present, size);
+
+        provider.close();
+        StoreableTableProvider reloaded = new StoreableTableProvider(tempDir.getPath(), false);
+
+        Assert.assertEquals("wrong size after reload", size, reloaded.getTable("stripedTable").size());
+
+        reloaded.close();
+    }
+}
@@ -0,0 +1,65 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.After;
+import org.junit.Before;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.io.Files;
+
+/*
+A provider over a temporary directory with a single table created for every test.
+The write-ahead log is on unless the test says otherwise, so that commits take the default path:
+the rows committed stay pinned in memory until checkpoint() writes them to the shards.
+*/
+public abstract class TableFixture {
+    private final String tableName;
+    private final boolean logged;
+
+    protected final List<Class<?>> valueTypes;
+    protected StoreableTableProvider provider;
+    protected StoreableTable table;
+    protected File tempDir;
+
+    protected TableFixture(String tableName, Class<?>... valueTypes) {
+        this(tableName, true, valueTypes);
+    }
+
+    protected TableFixture(String tableName, boolean logged, Class<?>... valueTypes) {
+        this.tableName = tableName;
+        this.valueTypes = Arrays.asList(valueTypes);
+        this.logged = logged;
+    }
+
+    @Before
+    public void createTable() throws IOException, ValidityCheckFailedException {
+        tempDir = Files.createTempDir();
+        provider = openProvider(false);
+        table = provider.createTable(tableName, valueTypes);
+    }
+
+    @After
+    public void closeProvider() {
+        provider.close();
+    }
+
+    protected StoreableTableProvider openProvider(boolean autoCommit) throws ValidityCheckFailedException {
+        return new StoreableTableProvider(tempDir.getPath(), autoCommit, logged);
+    }
+
+    //nothing is cached or mapped afterwards, the commits logged are written to the shards
+    protected void reopen() throws ValidityCheckFailedException {
+        provider.close();
+        provider = openProvider(false);
+        table = provider.getTable(tableName);
+    }
+
+    protected Storeable row(Object... values) {
+        return provider.createFor(table, Arrays.asList(values));
+    }
+}
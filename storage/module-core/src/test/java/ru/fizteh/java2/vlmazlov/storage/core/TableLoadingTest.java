@@ -0,0 +1,81 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.io.Files;
+
+public class TableLoadingTest {
+    private static final int TABLES = 20;
+
+    private StoreableTableProvider provider;
+    private File tempDir;
+
+    @Before
+    public void setUp() throws IOException, ValidityCheckFailedException {
+        tempDir = Files.createTempDir();
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+
+        List<Class<?>> valueTypes = new ArrayList<Class<?>>() { {
+            add(Integer.class);
+        }};
+
+        for (int t = 0; t < TABLES; ++t) {
+            StoreableTable table = provider.createTable("table" + t, valueTypes);
+
+            for (int i = 0; i <= t; ++i) {
+                List<Object> values = new ArrayList<Object>();
+                values.add(i);
+                table.put("key" + i, provider.createFor(table, values));
+            }
+
+            table.commit();
+        }
+
+        provider.close();
+
+        //sizes are to be counted anew
+        for (int t = 0; t < TABLES; ++t) {
+            new File(new File(tempDir, "table" + t), "size.tsv").delete();
+        }
+
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+    }
+
+    @After
+    public void tearDown() {
+        provider.close();
+    }
+
+    @Test
+    public void allTablesAreLoaded() throws IOException, ValidityCheckFailedException {
+        provider.read();
+
+        Assert.assertEquals("wrong number of tables timed", TABLES, provider.getLoadTimes().size());
+
+        for (int t = 0; t < TABLES; ++t) {
+            Assert.assertEquals("wrong size of table" + t, t + 1, provider.getTable("table" + t).size());
+        }
+    }
+
+    @Test
+    public void lazyTablesAreLoadedOnDemand() throws IOException, ValidityCheckFailedException {
+        provider.setLazyLoading(true);
+        provider.read();
+
+        Assert.assertTrue("tables loaded eagerly", provider.getLoadTimes().isEmpty());
+
+        Assert.assertEquals("wrong size", 8, provider.getTable("table7").size());
+        Assert.assertEquals("wrong value", Integer.valueOf(3), provider.getTable("table7").get("key3").getIntAt(0));
+
+        provider.write();
+
+        Assert.assertEquals("untouched tables loaded", 1, provider.getLoadTimes().size());
+        Assert.assertTrue("load time not measured", provider.getLoadTimes().get("table7") > 0);
+    }
+}
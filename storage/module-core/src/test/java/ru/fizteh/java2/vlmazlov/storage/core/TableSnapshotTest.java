@@ -0,0 +1,116 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.generics.TableSnapshot;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TableSnapshotTest extends TableFixture {
+
+    public TableSnapshotTest() {
+        super("snapshotTable", Integer.class);
+    }
+
+    @Test
+    public void snapshotReadsAreRepeatable() throws IOException {
+        table.put("changed", row(1));
+        table.put("removed", row(2));
+        table.commit();
+
+        long before = table.getVersion();
+
+        try (TableSnapshot<Storeable> snapshot = table.snapshot()) {
+            Assert.assertEquals("wrong version", before, snapshot.getVersion());
+
+            table.put("changed", row(10));
+            table.remove("removed");
+            table.put("added", row(3));
+            table.commit();
+
+            Assert.assertEquals("commit not seen outside", Integer.valueOf(10), table.get("changed").getIntAt(0));
+            Assert.assertEquals("wrong value", Integer.valueOf(1), snapshot.get("changed").getIntAt(0));
+            Assert.assertEquals("wrong value", Integer.valueOf(2), snapshot.get("removed").getIntAt(0));
+            Assert.assertNull("later key seen", snapshot.get("added"));
+        }
+
+        try (TableSnapshot<Storeable> snapshot = table.snapshot()) {
+            Assert.assertEquals("wrong value", Integer.valueOf(10), snapshot.get("changed").getIntAt(0));
+            Assert.assertNull("removed key seen", snapshot.get("removed"));
+        }
+    }
+
+    @Test
+    public void localChangesAreNotSeen() throws IOException {
+        table.put("key", row(1));
+        table.commit();
+
+        try (TableSnapshot<Storeable> snapshot = table.snapshot()) {
+            table.put("key", row(2));
+
+            Assert.assertEquals("local change seen", Integer.valueOf(1), snapshot.get("key").getIntAt(0));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedSnapshotFails() {
+        TableSnapshot<Storeable> snapshot = table.snapshot();
+        snapshot.close();
+        snapshot.get("key");
+    }
+
+    @Test
+    public void scanSeesOneVersionUnderConcurrentCommits() throws Exception {
+        //the sum of the values is kept by every commit
+        for (int i = 0; i < 100; ++i) {
+            table.put("key" + i, row(i == 0 ? 1000 : 0));
+        }
+
+        table.commit();
+
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    for (int round = 0; round < 200; ++round) {
+                        int from = round % 100;
+                        int to = (round * 7 + 1) % 100;
+
+                        if (from == to) {
+                            continue;
+                        }
+
+                        int moved = table.get("key" + from).getIntAt(0);
+                        int old = table.get("key" + to).getIntAt(0);
+
+                        table.put("key" + from, row(0));
+                        table.put("key" + to, row(old + moved));
+                        table.commit();
+                    }
+                } catch (Exception ex) {
+                    failure.set(ex);
+                }
+            }
+        };
+
+        writer.start();
+
+        while (writer.isAlive()) {
+            try (TableSnapshot<Storeable> snapshot = table.snapshot()) {
+                int sum = 0;
+
+                for (int i = 0; i < 100; ++i) {
+                    sum += snapshot.get("key" + i).getIntAt(0);
+                }
+
+                Assert.assertEquals("scan saw a half applied commit", 1000, sum);
+            }
+        }
+
+        writer.join();
+
+        Assert.assertNull("commit failed", failure.get());
+    }
+}
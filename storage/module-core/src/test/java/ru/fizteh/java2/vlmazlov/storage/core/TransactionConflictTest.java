@@ -0,0 +1,151 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.api.TransactionConflictException;
+import ru.fizteh.java2.vlmazlov.storage.core.generics.WriteStamps;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TransactionConflictTest extends TableFixture {
+
+    public TransactionConflictTest() {
+        super("conflictTable", Integer.class);
+    }
+
+    //a transaction of another thread, committed at once
+    private void commitInOtherThread(final String key, final int number) throws Exception {
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    table.put(key, row(number));
+                    table.commit();
+                } catch (Exception ex) {
+                    failure.set(ex);
+                }
+            }
+        };
+
+        thread.start();
+        thread.join();
+
+        Assert.assertNull("concurrent commit failed", failure.get());
+    }
+
+    //a transaction of another thread, putting the keys from the first one on and committed at once
+    private void commitManyInOtherThread(final int first, final int count) throws Exception {
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    Map<String, Storeable> values = new HashMap<String, Storeable>();
+
+                    for (int i = first; i < first + count; ++i) {
+                        values.put("many" + i, row(i));
+                    }
+
+                    table.putAll(values);
+                    table.commit();
+                } catch (Exception ex) {
+                    failure.set(ex);
+                }
+            }
+        };
+
+        thread.start();
+        thread.join();
+
+        Assert.assertNull("concurrent commit failed", failure.get());
+    }
+
+    @Test
+    public void concurrentWriteOfTheSameKeyConflicts() throws Exception {
+        table.put("key", row(1));
+        table.commit();
+
+        table.put("key", row(2));
+        commitInOtherThread("key", 3);
+
+        try {
+            table.commit();
+            Assert.fail("conflict not detected");
+        } catch (TransactionConflictException ex) {
+            Assert.assertEquals("wrong key reported", "key", ex.getKey());
+        }
+
+        Assert.assertEquals("conflicting transaction not rolled back", 0, table.rollback());
+        Assert.assertEquals("concurrent commit lost", Integer.valueOf(3), table.get("key").getIntAt(0));
+    }
+
+    @Test
+    public void changedReadConflicts() throws Exception {
+        table.put("read", row(1));
+        table.commit();
+
+        int read = table.get("read").getIntAt(0);
+        table.put("written", row(read + 1));
+        commitInOtherThread("read", 10);
+
+        try {
+            table.commit();
+            Assert.fail("conflict not detected");
+        } catch (TransactionConflictException ex) {
+            Assert.assertEquals("wrong key reported", "read", ex.getKey());
+        }
+
+        Assert.assertNull("change of a conflicting transaction committed", table.get("written"));
+    }
+
+    @Test
+    public void disjointTransactionsCommit() throws Exception {
+        table.put("mine", row(1));
+        commitInOtherThread("theirs", 2);
+
+        Assert.assertEquals("wrong number of changes", 1, table.commit());
+        Assert.assertEquals("wrong size", 2, table.size());
+    }
+
+    @Test
+    public void retryAfterConflictCommits() throws Exception {
+        table.put("key", row(1));
+        commitInOtherThread("key", 2);
+
+        try {
+            table.commit();
+            Assert.fail("conflict not detected");
+        } catch (TransactionConflictException ex) {
+            int current = table.get("key").getIntAt(0);
+            table.put("key", row(current + 1));
+
+            Assert.assertEquals("retry failed", 1, table.commit());
+        }
+
+        Assert.assertEquals("wrong value", Integer.valueOf(3), table.get("key").getIntAt(0));
+    }
+
+    @Test
+    public void openTransactionOutlivesPrunedStamps() throws Exception {
+        table.put("read", row(1));
+        table.commit();
+
+        int read = table.get("read").getIntAt(0);
+        commitManyInOtherThread(0, WriteStamps.PRUNE_THRESHOLD + 1);
+        table.put("written", row(read + 1));
+
+        Assert.assertEquals("unrelated commits taken for a conflict", 1, table.commit());
+    }
+
+    @Test
+    public void stampsSeenByNoTransactionArePruned() throws Exception {
+        commitManyInOtherThread(0, WriteStamps.PRUNE_THRESHOLD);
+        commitManyInOtherThread(WriteStamps.PRUNE_THRESHOLD, 1);
+
+        Assert.assertEquals("stale stamps kept", 1, table.getWriteStampsCount());
+    }
+}
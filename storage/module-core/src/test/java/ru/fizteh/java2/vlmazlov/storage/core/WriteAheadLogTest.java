@@ -0,0 +1,262 @@
+package ru.fizteh.java2.vlmazlov.storage.core;
+
+import org.junit.*;
+import ru.fizteh.java2.vlmazlov.storage.api.Storeable;
+import ru.fizteh.java2.vlmazlov.storage.core.io.WriteAheadLog;
+import ru.fizteh.java2.vlmazlov.storage.utils.ValidityCheckFailedException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+
+public class WriteAheadLogTest {
+    private StoreableTableProvider provider;
+    private StoreableTable table;
+    private File tempDir;
+
+    @Before
+    public void setUp() throws IOException, ValidityCheckFailedException {
+        tempDir = Files.createTempDir();
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+
+        List<Class<?>> valueTypes = new ArrayList<Class<?>>() { {
+            add(Integer.class);
+            add(String.class);
+        }};
+
+        table = provider.createTable("walTable", valueTypes);
+    }
+
+    @After
+    public void tearDown() {
+        provider.close();
+    }
+
+    private Storeable row(int number) {
+        List<Object> values = new ArrayList<Object>();
+        values.add(number);
+        values.add("value" + number);
+
+        return provider.createFor(table, values);
+    }
+
+    @Test
+    public void concurrentCommitsAreAllLogged() throws Exception {
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int t = 0; t < 8; ++t) {
+            final int threadNumber = t;
+
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; ++i) {
+                            int number = threadNumber * 100 + i;
+
+                            table.put("key" + number, row(number));
+                            table.commit();
+                        }
+                    } catch (Exception ex) {
+                        failure.set(ex);
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertNull("commit failed", failure.get());
+
+        provider.close();
+        Assert.assertFalse("log wasn't dropped on close", new File(tempDir, WriteAheadLog.LOG_DIR).exists());
+
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+        table = provider.getTable("walTable");
+
+        Assert.assertEquals("wrong size", 400, table.size());
+        Assert.assertEquals("wrong value", "value749", table.get("key749").getStringAt(1));
+    }
+
+    @Test
+    public void commitsAreReplayedAfterCrash() throws IOException, ValidityCheckFailedException {
+        for (int i = 0; i < 20; ++i) {
+            table.put("key" + i, row(i));
+        }
+
+        table.commit();
+        provider.checkpoint();
+
+        table.remove("key0");
+        table.put("key1", row(100));
+        table.put("key20", row(20));
+        table.commit();
+
+        //what a crash would leave: the last commit is in the log only
+        File crashedDir = Files.createTempDir();
+        FileUtils.copyDirectory(tempDir, crashedDir);
+
+        StoreableTableProvider recovered = new StoreableTableProvider(crashedDir.getPath(), false);
+        StoreableTable recoveredTable = recovered.getTable("walTable");
+
+        Assert.assertEquals("wrong size", 20, recoveredTable.size());
+        Assert.assertNull("removed key found", recoveredTable.get("key0"));
+        Assert.assertEquals("wrong value", "value100", recoveredTable.get("key1").getStringAt(1));
+        Assert.assertEquals("wrong value", "value20", recoveredTable.get("key20").getStringAt(1));
+
+        recovered.close();
+    }
+
+    @Test
+    public void removedKeyIsNotLoadedBeforeCheckpoint() throws IOException {
+        table.put("key", row(1));
+        table.commit();
+        provider.checkpoint();
+
+        table.setCacheCapacity(1);
+        table.remove("key");
+        table.commit();
+
+        for (int i = 0; i < 10; ++i) {
+            table.put("other" + i, row(i));
+        }
+
+        table.commit();
+
+        Assert.assertNull("removed key found", table.get("key"));
+        Assert.assertEquals("wrong size", 10, table.size());
+    }
+
+    @Test
+    public void failedCommitPublishesNothing() throws Exception {
+        //the log can't be opened in place of a plain file
+        File logDir = new File(tempDir, WriteAheadLog.LOG_DIR);
+        Assert.assertTrue("log already opened", logDir.createNewFile());
+
+        table.put("key", row(1));
+        table.put("other", row(2));
+
+        try {
+            table.commit();
+            Assert.fail("commit succeeded without the log");
+        } catch (IOException ex) {
+            //expected
+        }
+
+        Assert.assertEquals("local changes lost", 2, table.size());
+        Assert.assertEquals("size of a failed commit kept", 0, table.getCommitedSize());
+
+        final AtomicReference<Storeable> seen = new AtomicReference<Storeable>();
+        Thread reader = new Thread() {
+            public void run() {
+                seen.set(table.get("key"));
+            }
+        };
+
+        reader.start();
+        reader.join();
+
+        Assert.assertNull("row of a failed commit visible", seen.get());
+
+        Assert.assertTrue(logDir.delete());
+        Assert.assertEquals("retry failed", 2, table.commit());
+        Assert.assertEquals("wrong size", 2, table.size());
+    }
+
+    @Test
+    public void failingCheckpointsAreReported() throws Exception {
+        table.put("key", row(1));
+        table.commit();
+
+        //a shard can't be written in place of a plain file
+        File obstacle = new File(new File(tempDir, "walTable"), table.getShardLayout().getDirNum("key") + ".dir");
+        Assert.assertTrue("shard already written", obstacle.createNewFile());
+
+        for (int i = 0; (i < 50) && (provider.getCheckpointFailure() == null); ++i) {
+            Thread.sleep(StoreableTableProvider.CHECKPOINT_PERIOD / 10);
+        }
+
+        Assert.assertNotNull("failure not recorded", provider.getCheckpointFailure());
+        Assert.assertTrue("wrong checkpoint lag",
+            provider.getCheckpointLag() >= StoreableTableProvider.CHECKPOINT_PERIOD);
+
+        table.put("other", row(2));
+
+        try {
+            table.commit();
+            Assert.fail("commit logged while checkpoints fail");
+        } catch (IOException ex) {
+            //expected
+        }
+
+        Assert.assertTrue(obstacle.delete());
+        Assert.assertEquals("commit failed after checkpoints recovered", 1, table.commit());
+        Assert.assertNull("failure kept", provider.getCheckpointFailure());
+        Assert.assertEquals("wrong size", 2, table.size());
+    }
+
+    @Test
+    public void closeReportsFailedCheckpoint() throws Exception {
+        table.put("key", row(1));
+        table.commit();
+
+        File obstacle = new File(new File(tempDir, "walTable"), table.getShardLayout().getDirNum("key") + ".dir");
+        Assert.assertTrue("shard already written", obstacle.createNewFile());
+
+        try {
+            provider.close();
+            Assert.fail("close succeeded without writing the commits");
+        } catch (RuntimeException ex) {
+            //expected
+        }
+
+        Assert.assertTrue("log dropped", new File(tempDir, WriteAheadLog.LOG_DIR).exists());
+
+        Assert.assertTrue(obstacle.delete());
+        provider = new StoreableTableProvider(tempDir.getPath(), false);
+
+        Assert.assertEquals("commit lost", "value1", provider.getTable("walTable").get("key").getStringAt(1));
+    }
+
+    @Test
+    public void damagedTailIsDropped() throws IOException {
+        File logDir = Files.createTempDir();
+        WriteAheadLog log = new WriteAheadLog(logDir);
+
+        Map<String, byte[]> changed = new HashMap<String, byte[]>();
+        changed.put("key", new byte[] {1, 2, 3});
+
+        log.awaitDurable(log.append("table", changed, Collections.<String>emptySet()));
+        log.awaitDurable(log.append("table", Collections.<String, byte[]>emptyMap(),
+            Collections.singleton("key")));
+        log.close();
+
+        File[] files = logDir.listFiles();
+        Assert.assertEquals("wrong number of log files", 1, files.length);
+
+        try (FileOutputStream out = new FileOutputStream(files[0], true)) {
+            out.write(new byte[] {0, 0, 0, 100, 1, 2, 3});
+        }
+
+        List<WriteAheadLog.Record> records = new WriteAheadLog(logDir).readAll();
+
+        Assert.assertEquals("wrong number of records", 2, records.size());
+        Assert.assertArrayEquals("wrong value", new byte[] {1, 2, 3}, records.get(0).getChanged().get("key"));
+        Assert.assertTrue("removal lost", records.get(1).getDeleted().contains("key"));
+    }
+}
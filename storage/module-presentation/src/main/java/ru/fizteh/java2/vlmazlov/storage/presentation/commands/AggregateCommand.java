@@ -0,0 +1,80 @@
+package ru.fizteh.java2.vlmazlov.storage.presentation.commands;
+
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import ru.fizteh.java2.vlmazlov.storage.api.ColumnFormatException;
+import ru.fizteh.java2.vlmazlov.storage.core.AggregateFunction;
+import ru.fizteh.java2.vlmazlov.storage.core.AggregationResult;
+import ru.fizteh.java2.vlmazlov.storage.core.StoreableTable;
+import ru.fizteh.java2.vlmazlov.storage.shell.commands.api.CommandFailException;
+import ru.fizteh.java2.vlmazlov.storage.presentation.DataBaseState;
+
+import java.io.OutputStream;
+
+//aggregate <function> <column>
+@Lazy
+@Component
+public class AggregateCommand extends AbstractDataBaseCommand {
+    public AggregateCommand() {
+        super("aggregate", 2);
+    }
+
+    protected AggregateCommand(String name, int argNum) {
+        super(name, argNum);
+    }
+
+    public void execute(String[] args, DataBaseState state, OutputStream out) throws CommandFailException {
+        AggregationResult result = aggregate(args[0], args[1], -1, state, out);
+
+        if (result != null) {
+            displayMessage(result.getValue() + SEPARATOR, out);
+            displayStats(result, out);
+        }
+    }
+
+    //null if the arguments are wrong, the reason being displayed
+    protected AggregationResult aggregate(String functionName, String column, int groupColumnIndex,
+        DataBaseState state, OutputStream out) throws CommandFailException {
+        if (state.getActiveTable() == null) {
+            displayMessage("no table" + SEPARATOR, out);
+            return null;
+        }
+
+        if (!(state.getActiveTable() instanceof StoreableTable)) {
+            throw new CommandFailException(getName() + ": Incorrect table type");
+        }
+
+        AggregateFunction function = AggregateFunction.getByName(functionName);
+
+        if (function == null) {
+            displayMessage("unknown function " + functionName + SEPARATOR, out);
+            return null;
+        }
+
+        try {
+            return ((StoreableTable) state.getActiveTable()).aggregate(function, parseColumn(column),
+                groupColumnIndex);
+        } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+            displayMessage("wrong column (" + ex.getMessage() + ")" + SEPARATOR, out);
+        } catch (ColumnFormatException ex) {
+            displayMessage("wrong type (" + ex.getMessage() + ")" + SEPARATOR, out);
+        }
+
+        return null;
+    }
+
+    protected static int parseColumn(String column) {
+        int columnIndex = Integer.parseInt(column);
+
+        if (columnIndex < 0) {
+            throw new IndexOutOfBoundsException("no column " + columnIndex);
+        }
+
+        return columnIndex;
+    }
+
+    protected void displayStats(AggregationResult result, OutputStream out) throws CommandFailException {
+        displayMessage("scanned " + result.getRowsScanned() + " rows, read " + result.getBytesRead() + " bytes"
+            + SEPARATOR, out);
+    }
+}
@@ -2,6 +2,7 @@ package ru.fizteh.java2.vlmazlov.storage.presentation.commands;
 
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Component;
+import ru.fizteh.java2.vlmazlov.storage.api.TransactionConflictException;
 import ru.fizteh.java2.vlmazlov.storage.shell.commands.api.CommandFailException;
 import ru.fizteh.java2.vlmazlov.storage.presentation.DataBaseState;
 
@@ -24,6 +25,8 @@ public class CommitCommand extends AbstractDataBaseCommand {
             displayMessage(state.getActiveTable().commit() + SEPARATOR, out);
         } catch (IOException ex) {
             throw new CommandFailException("Commit failed: " + ex.getMessage());
+        } catch (TransactionConflictException ex) {
+            throw new CommandFailException("Commit rolled back: " + ex.getMessage());
         }
     }
 }
@@ -0,0 +1,49 @@
+package ru.fizteh.java2.vlmazlov.storage.presentation.commands;
+
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import ru.fizteh.java2.vlmazlov.storage.core.AggregationResult;
+import ru.fizteh.java2.vlmazlov.storage.shell.commands.api.CommandFailException;
+import ru.fizteh.java2.vlmazlov.storage.presentation.DataBaseState;
+
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+//groupby <group column> <function> <column>, a line per group in the order of the group values as strings
+@Lazy
+@Component
+public class GroupByCommand extends AggregateCommand {
+    public GroupByCommand() {
+        super("groupby", 3);
+    }
+
+    public void execute(String[] args, DataBaseState state, OutputStream out) throws CommandFailException {
+        int groupColumnIndex;
+
+        try {
+            groupColumnIndex = parseColumn(args[0]);
+        } catch (NumberFormatException | IndexOutOfBoundsException ex) {
+            displayMessage("wrong column " + args[0] + SEPARATOR, out);
+            return;
+        }
+
+        AggregationResult result = aggregate(args[1], args[2], groupColumnIndex, state, out);
+
+        if (result == null) {
+            return;
+        }
+
+        Map<String, Object> groups = new TreeMap<String, Object>();
+
+        for (Map.Entry<Object, Object> group : result.getGroups().entrySet()) {
+            groups.put(String.valueOf(group.getKey()), group.getValue());
+        }
+
+        for (Map.Entry<String, Object> group : groups.entrySet()) {
+            displayMessage(group.getKey() + " " + group.getValue() + SEPARATOR, out);
+        }
+
+        displayStats(result, out);
+    }
+}
@@ -0,0 +1,50 @@
+package ru.fizteh.java2.vlmazlov.storage.presentation.commands;
+
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import ru.fizteh.java2.vlmazlov.storage.core.StoreableTable;
+import ru.fizteh.java2.vlmazlov.storage.shell.commands.api.CommandFailException;
+import ru.fizteh.java2.vlmazlov.storage.presentation.DataBaseState;
+import ru.fizteh.java2.vlmazlov.storage.utils.ShardLayout;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+@Lazy
+@Component
+public class ReshardCommand extends AbstractDataBaseCommand {
+    public ReshardCommand() {
+        super("reshard", 1);
+    }
+
+    public void execute(String[] args, DataBaseState state, OutputStream out) throws CommandFailException {
+        if (state.getActiveTable() == null) {
+            displayMessage("no table" + SEPARATOR, out);
+            return;
+        }
+
+        if (!(state.getActiveTable() instanceof StoreableTable)) {
+            throw new CommandFailException("reshard: Incorrect table type");
+        }
+
+        ShardLayout layout;
+
+        try {
+            layout = ShardLayout.hashed(Integer.parseInt(args[0]));
+        } catch (IllegalArgumentException ex) {
+            displayMessage("wrong shards number (" + args[0] + "): " + ex.getMessage() + SEPARATOR, out);
+            return;
+        }
+
+        try {
+            ((StoreableTable) state.getActiveTable()).reshard(layout);
+        } catch (UnsupportedOperationException ex) {
+            displayMessage(ex.getMessage() + SEPARATOR, out);
+            return;
+        } catch (IOException ex) {
+            throw new CommandFailException("reshard: " + ex.getMessage());
+        }
+
+        displayMessage("resharded into " + layout.getShardsQuantity() + " shards" + SEPARATOR, out);
+    }
+}
@@ -0,0 +1,163 @@
+package ru.fizteh.java2.vlmazlov.storage.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+//decides which of the <dir>.dir/<file>.dat files of a table holds a key
+public final class ShardLayout {
+
+    public enum Routing {
+        //the original scheme: only the first byte of the key is looked at
+        FIRST_BYTE("first-byte"),
+        //the whole key is hashed
+        HASH("hash");
+
+        private final String name;
+        private static final Map<String, Routing> byName;
+
+        private Routing(String name) {
+            this.name = name;
+        }
+
+        static {
+            byName = new HashMap<String, Routing>();
+
+            for (Routing routing : Routing.values()) {
+                byName.put(routing.name, routing);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static Routing getByName(String name) {
+            return byName.get(name);
+        }
+    }
+
+    public static final int DEFAULT_DIRECTORIES_QUANTITY = 16;
+    public static final int DEFAULT_FILES_QUANTITY = 16;
+    //names are checked against \d\d?.dir and \d\d?.dat
+    public static final int MAX_QUANTITY = 100;
+
+    public static final ShardLayout LEGACY =
+            new ShardLayout(Routing.FIRST_BYTE, DEFAULT_DIRECTORIES_QUANTITY, DEFAULT_FILES_QUANTITY);
+    public static final ShardLayout DEFAULT =
+            new ShardLayout(Routing.HASH, DEFAULT_DIRECTORIES_QUANTITY, DEFAULT_FILES_QUANTITY);
+
+    private final Routing routing;
+    private final int directoriesQuantity;
+    private final int filesQuantity;
+
+    public ShardLayout(Routing routing, int directoriesQuantity, int filesQuantity) {
+        if (routing == null) {
+            throw new IllegalArgumentException("routing not specified");
+        }
+
+        if ((directoriesQuantity <= 0) || (directoriesQuantity > MAX_QUANTITY)) {
+            throw new IllegalArgumentException(directoriesQuantity + " is not a valid number of directories");
+        }
+
+        if ((filesQuantity <= 0) || (filesQuantity > MAX_QUANTITY)) {
+            throw new IllegalArgumentException(filesQuantity + " is not a valid number of files");
+        }
+
+        this.routing = routing;
+        this.directoriesQuantity = directoriesQuantity;
+        this.filesQuantity = filesQuantity;
+    }
+
+    //spreads the shards as evenly between directories and files as possible
+    public static ShardLayout hashed(int shardsQuantity) {
+        if ((shardsQuantity <= 0) || (shardsQuantity > MAX_QUANTITY * MAX_QUANTITY)) {
+            throw new IllegalArgumentException(shardsQuantity + " is not a valid number of shards");
+        }
+
+        int directories = (int) Math.ceil(Math.sqrt(shardsQuantity));
+
+        while (shardsQuantity % directories != 0) {
+            ++directories;
+        }
+
+        if (directories > MAX_QUANTITY) {
+            throw new IllegalArgumentException(shardsQuantity + " shards cannot be laid out in "
+                + MAX_QUANTITY + " directories");
+        }
+
+        return new ShardLayout(Routing.HASH, directories, shardsQuantity / directories);
+    }
+
+    public Routing getRouting() {
+        return routing;
+    }
+
+    public int getDirectoriesQuantity() {
+        return directoriesQuantity;
+    }
+
+    public int getFilesQuantity() {
+        return filesQuantity;
+    }
+
+    public int getShardsQuantity() {
+        return directoriesQuantity * filesQuantity;
+    }
+
+    //String.hashCode() is specified, so the routing doesn't depend on the JVM;
+    //the murmur3 finalizer then spreads keys sharing long prefixes
+    private static int hash(String key) {
+        int h = key.hashCode();
+
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+
+        return h & Integer.MAX_VALUE;
+    }
+
+    //shard index, dirNum + fileNum * directoriesQuantity
+    public int getShardNum(String key) {
+        return getDirNum(key) + getFileNum(key) * directoriesQuantity;
+    }
+
+    public int getDirNum(String key) {
+        if (routing == Routing.FIRST_BYTE) {
+            return Math.abs(key.getBytes()[0]) % directoriesQuantity;
+        }
+
+        return hash(key) % getShardsQuantity() % directoriesQuantity;
+    }
+
+    public int getFileNum(String key) {
+        if (routing == Routing.FIRST_BYTE) {
+            return Math.abs(key.getBytes()[0]) / filesQuantity % filesQuantity;
+        }
+
+        return hash(key) % getShardsQuantity() / directoriesQuantity;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ShardLayout)) {
+            return false;
+        }
+
+        ShardLayout layout = (ShardLayout) other;
+
+        return (routing == layout.routing) && (directoriesQuantity == layout.directoriesQuantity)
+            && (filesQuantity == layout.filesQuantity);
+    }
+
+    @Override
+    public int hashCode() {
+        return (routing.hashCode() * 31 + directoriesQuantity) * 31 + filesQuantity;
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + "[" + routing.getName() + ", "
+            + directoriesQuantity + "x" + filesQuantity + "]";
+    }
+}
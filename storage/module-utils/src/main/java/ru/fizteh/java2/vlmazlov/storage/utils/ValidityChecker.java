@@ -7,7 +7,6 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.List;
 import java.util.Scanner;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ValidityChecker {
@@ -16,6 +15,8 @@ public class ValidityChecker {
     private static final int MIN_KEY_LEN = 1;
     public static final int MAX_VALUE_LEN = 1 << 20;
     public static final int MIN_VALUE_LEN = 1;
+    //checked on every access to a table, so compiled once
+    private static final Pattern KEY_WHITESPACE = Pattern.compile("\\s+|[\\r\\n]");
 
     public static void checkColumnType(Class<?> type) throws ValidityCheckFailedException {
         if (TypeName.getByClass(type) == null) {
@@ -89,8 +90,13 @@ public class ValidityChecker {
 
     public static void checkKeyStorageAffiliation(String key, int fileNum, int dirNum, int maxFileNum, int maxDirNum)
             throws ValidityCheckFailedException {
-        if ((Math.abs(key.getBytes()[0]) % maxDirNum != dirNum) 
-            || (Math.abs(key.getBytes()[0]) / maxFileNum % maxFileNum != fileNum)) {
+        checkKeyStorageAffiliation(key, fileNum, dirNum,
+            new ShardLayout(ShardLayout.Routing.FIRST_BYTE, maxDirNum, maxFileNum));
+    }
+
+    public static void checkKeyStorageAffiliation(String key, int fileNum, int dirNum, ShardLayout layout)
+            throws ValidityCheckFailedException {
+        if ((layout.getDirNum(key) != dirNum) || (layout.getFileNum(key) != fileNum)) {
             throw new ValidityCheckFailedException(key + " is in the wrong storage");
         }
     }
@@ -147,6 +153,11 @@ public class ValidityChecker {
                 continue;
             }
 
+            //storage properties of the table
+            if ((content.isFile()) && (content.getName().equals("table.tsv"))) {
+                continue;
+            }
+
             if (!content.isDirectory()) {
                 throw new ValidityCheckFailedException(root.getPath() + " contains file " + content.getName());
             }
@@ -217,11 +228,9 @@ public class ValidityChecker {
             throw new ValidityCheckFailedException("key not specified");
         }
 
-        Pattern pattern;
-        pattern = Pattern.compile("\\s+|[\\r\\n]");
-        Matcher matcher = pattern.matcher(key);
+        int length = key.trim().length();
 
-        if ((key.trim().length() < MIN_KEY_LEN) || (key.trim().length() > MAX_KEY_LEN) || (matcher.find())) {
+        if ((length < MIN_KEY_LEN) || (length > MAX_KEY_LEN) || (KEY_WHITESPACE.matcher(key).find())) {
             throw new ValidityCheckFailedException(key + " is not a valid key");
         }
     }